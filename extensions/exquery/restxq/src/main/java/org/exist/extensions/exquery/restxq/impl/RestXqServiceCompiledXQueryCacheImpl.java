@@ -27,50 +27,118 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package org.exist.extensions.exquery.restxq.impl;
 
 import java.net.URI;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
 import org.exist.extensions.exquery.restxq.RestXqServiceCompiledXQueryCache;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
 import org.exist.storage.DBBroker;
 import org.exist.xquery.CompiledXQuery;
 import org.exquery.restxq.RestXqService;
 import org.exquery.restxq.RestXqServiceException;
 
 /**
+ * Pools compiled instances of the XQuery modules which contain resource functions.
+ *
+ * Instances are kept in a lock-free deque per module, which holds at most
+ * {@link #getMaxInstances()} instances. Instances compiled from an older version
+ * of a module are discarded when they are returned. As the first requests for a
+ * module would otherwise all have to compile it, a number of instances may be
+ * compiled in advance, see {@link #precompile(DBBroker, Iterable)}.
+ *
+ * The statistics of the pool are available through JMX, see
+ * {@link org.exist.extensions.exquery.restxq.impl.management.CompiledXQueryCacheMBean}.
+ * The time spent borrowing from the pool and the time spent compiling
+ * on demand are measured separately.
  *
  * @author Adam Retter <adam.retter@googlemail.com>
  */
 public class RestXqServiceCompiledXQueryCacheImpl implements RestXqServiceCompiledXQueryCache {
     
+    private final static Logger LOG = Logger.getLogger(RestXqServiceCompiledXQueryCacheImpl.class);
+    
+    public final static int DEFAULT_MAX_INSTANCES = 16;
+    public final static int DEFAULT_PRECOMPILE_INSTANCES = 2;
+    
     private final static RestXqServiceCompiledXQueryCacheImpl instance = new RestXqServiceCompiledXQueryCacheImpl();
     
-    //TODO could introduce a MAX stack size, i.e. you can only have N compiled main.xqy's in the cache
-    private final Map<URI, Deque<CompiledXQuery>> cache = new HashMap<URI, Deque<CompiledXQuery>>();
-    private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+    /**
+     * The compiled instances of one version of a module
+     */
+    private static class Instances {
+        final ConcurrentLinkedDeque<CompiledXQuery> queries = new ConcurrentLinkedDeque<CompiledXQuery>();
+        final AtomicInteger size = new AtomicInteger();
+        final long lastModified;
+        
+        Instances(final long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+    
+    private final ConcurrentMap<URI, Instances> cache = new ConcurrentHashMap<URI, Instances>();
+    
+    private volatile int maxInstances = DEFAULT_MAX_INSTANCES;
+    private volatile int precompileInstances = DEFAULT_PRECOMPILE_INSTANCES;
+    
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong precompilations = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+    private final AtomicLong totalCompileTime = new AtomicLong();
+    private final AtomicLong maxCompileTime = new AtomicLong();
     
     public static RestXqServiceCompiledXQueryCacheImpl getInstance() {
         return instance;
     }
+    
+    /**
+     * @param maxInstances the maximum number of compiled instances kept per module
+     * @param precompileInstances the number of instances compiled in advance per module
+     */
+    public void configure(final int maxInstances, final int precompileInstances) {
+        this.maxInstances = maxInstances;
+        this.precompileInstances = Math.min(precompileInstances, maxInstances);
+    }
+    
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+    
+    public int getPrecompileInstances() {
+        return precompileInstances;
+    }
 
     @Override
     public CompiledXQuery getCompiledQuery(final DBBroker broker, final URI xqueryLocation) throws RestXqServiceException {
         
+        final long start = System.nanoTime();
+        
         CompiledXQuery xquery = null;
-        cacheLock.writeLock().lock();
-        try {
-            final Deque<CompiledXQuery> queries = cache.get(xqueryLocation);
-            
-            if(queries != null && !queries.isEmpty()) {
-                xquery = queries.pop();
+        final Instances instances = cache.get(xqueryLocation);
+        if(instances != null) {
+            xquery = instances.queries.poll();
+            if(xquery != null) {
+                instances.size.decrementAndGet();
             }
-        } finally {
-            cacheLock.writeLock().unlock();
         }
         
-        if(xquery == null) {
+        long compileTime = 0;
+        final boolean compiled = xquery == null;
+        if(compiled) {
+            final long compileStart = System.nanoTime();
             xquery = XQueryCompiler.compile(broker, xqueryLocation);
+            compileTime = System.nanoTime() - compileStart;
+            compilations.incrementAndGet();
+            totalCompileTime.addAndGet(compileTime);
+            recordMax(maxCompileTime, compileTime);
         }
         
         //reset the state of the query
@@ -78,50 +146,175 @@ public class RestXqServiceCompiledXQueryCacheImpl implements RestXqServiceCompil
         xquery.getContext().getWatchDog().reset();
         xquery.getContext().prepareForExecution();
         
+        //the time spent in the pool, without compiling
+        final long wait = System.nanoTime() - start - compileTime;
+        borrows.incrementAndGet();
+        totalWait.addAndGet(wait);
+        recordMax(maxWait, wait);
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("Borrowed " + (compiled ? "newly compiled" : "cached") + " query " + xqueryLocation + " in " + (wait / 1000000) + "ms" +
+                (compiled ? " after compiling for " + (compileTime / 1000000) + "ms" : ""));
+        }
+        
         return xquery;
     }
     
+    private static void recordMax(final AtomicLong max, final long value) {
+        long current;
+        while(value > (current = max.get())) {
+            if(max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+    
     @Override
     public void returnCompiledQuery(final URI xqueryLocation, final CompiledXQuery xquery) {
-        cacheLock.writeLock().lock();
-        try {
-            Deque<CompiledXQuery> queries = cache.get(xqueryLocation);
-            if(queries == null) {
-                queries = new ArrayDeque<CompiledXQuery>();
+        
+        final long lastModified = getLastModified(xquery);
+        Instances instances = cache.get(xqueryLocation);
+        if(instances == null) {
+            final Instances newInstances = new Instances(lastModified);
+            instances = cache.putIfAbsent(xqueryLocation, newInstances);
+            if(instances == null) {
+                instances = newInstances;
+            }
+        } else if(instances.lastModified < lastModified) {
+            //the module has been modified, drop the instances of the old version
+            final Instances newInstances = new Instances(lastModified);
+            if(cache.replace(xqueryLocation, instances, newInstances)) {
+                instances = newInstances;
+            } else {
+                instances = cache.get(xqueryLocation);
+            }
+        }
+        
+        if(instances == null || instances.lastModified != lastModified) {
+            //compiled from an outdated version of the module
+            discarded.incrementAndGet();
+            return;
+        }
+        
+        if(instances.size.incrementAndGet() > maxInstances) {
+            instances.size.decrementAndGet();
+            discarded.incrementAndGet();
+            return;
+        }
+        
+        //reset the query and context
+        xquery.reset();
+        xquery.getContext().reset();
+        
+        instances.queries.push(xquery);
+    }
+    
+    private long getLastModified(final CompiledXQuery xquery) {
+        final Source source = xquery.getContext().getSource();
+        if(source instanceof DBSource) {
+            return ((DBSource)source).getLastModified();
+        }
+        return 0;
+    }
+    
+    /**
+     * Compile instances of the modules of the services in advance, until
+     * {@link #getPrecompileInstances()} instances are available for each module.
+     */
+    public void precompile(final DBBroker broker, final Iterable<RestXqService> services) {
+        final Set<URI> xqueryLocations = new HashSet<URI>();
+        for(final RestXqService service : services) {
+            xqueryLocations.add(service.getResourceFunction().getXQueryLocation());
+        }
+        for(final URI xqueryLocation : xqueryLocations) {
+            precompile(broker, xqueryLocation);
+        }
+    }
+    
+    private void precompile(final DBBroker broker, final URI xqueryLocation) {
+        final Instances instances = cache.get(xqueryLocation);
+        final int available = instances == null ? 0 : instances.size.get();
+        for(int i = available; i < precompileInstances; i++) {
+            try {
+                returnCompiledQuery(xqueryLocation, XQueryCompiler.compile(broker, xqueryLocation));
+                precompilations.incrementAndGet();
+            } catch(final RestXqServiceCompilationException rxsce) {
+                LOG.warn("Unable to precompile XQuery '" + xqueryLocation + "': " + rxsce.getMessage());
+                return;
             }
-            
-            //reset the query and context
-            xquery.reset();
-            xquery.getContext().reset();
-            
-            queries.push(xquery);
-            
-            cache.put(xqueryLocation, queries);
-            
-        } finally {
-            cacheLock.writeLock().unlock();
         }
     }
     
     @Override
     public void removeService(final RestXqService service) {
-        cacheLock.writeLock().lock();
-        try {        
-            cache.remove(service.getResourceFunction().getXQueryLocation());
-        } finally {
-            cacheLock.writeLock().unlock();
-        }
+        cache.remove(service.getResourceFunction().getXQueryLocation());
     }
     
     @Override
     public void removeServices(final Iterable<RestXqService> services) {
-        cacheLock.writeLock().lock();
-        try {
-            for(final RestXqService service : services) {
-                cache.remove(service.getResourceFunction().getXQueryLocation());
-            }
-        } finally {
-            cacheLock.writeLock().unlock();
+        for(final RestXqService service : services) {
+            cache.remove(service.getResourceFunction().getXQueryLocation());
         }
     }
-}
\ No newline at end of file
+    
+    public long getBorrows() {
+        return borrows.get();
+    }
+    
+    public long getCompilations() {
+        return compilations.get();
+    }
+    
+    public long getPrecompilations() {
+        return precompilations.get();
+    }
+    
+    public long getDiscarded() {
+        return discarded.get();
+    }
+    
+    /**
+     * @return the average time in milliseconds a request spent borrowing a compiled
+     * query from the pool, not including compilation on demand
+     */
+    public double getAverageWait() {
+        final long count = borrows.get();
+        return count == 0 ? 0 : totalWait.get() / (count * 1000000.0);
+    }
+    
+    /**
+     * @return the longest time in milliseconds a request spent borrowing a compiled
+     * query from the pool, not including compilation on demand
+     */
+    public double getMaxWait() {
+        return maxWait.get() / 1000000.0;
+    }
+    
+    /**
+     * @return the average time in milliseconds spent compiling a query on demand
+     */
+    public double getAverageCompileTime() {
+        final long count = compilations.get();
+        return count == 0 ? 0 : totalCompileTime.get() / (count * 1000000.0);
+    }
+    
+    /**
+     * @return the longest time in milliseconds spent compiling a query on demand
+     */
+    public double getMaxCompileTime() {
+        return maxCompileTime.get() / 1000000.0;
+    }
+    
+    public int getModules() {
+        return cache.size();
+    }
+    
+    @Override
+    public String toString() {
+        return "RESTXQ compiled query cache: modules: " + getModules() + "; borrows: " + getBorrows() +
+            "; compiled on demand: " + getCompilations() + "; precompiled: " + getPrecompilations() +
+            "; discarded: " + getDiscarded() + "; average wait: " + String.format("%.2f", getAverageWait()) +
+            "ms; max wait: " + String.format("%.2f", getMaxWait()) + "ms; average compile time: " +
+            String.format("%.2f", getAverageCompileTime()) + "ms; max compile time: " +
+            String.format("%.2f", getMaxCompileTime()) + "ms";
+    }
+}
@@ -28,20 +28,74 @@ package org.exist.extensions.exquery.restxq.impl;
 
 import java.util.List;
 import java.util.Map;
+import org.apache.log4j.Logger;
+import org.exist.extensions.exquery.restxq.impl.management.CompiledXQueryCache;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
+import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.StartupTrigger;
+import org.exist.util.DatabaseConfigurationException;
+import org.exquery.restxq.RestXqServiceRegistry;
 
 /**
  * Loads the RESTXQ Registry from disk during database startup
  * where the user account will be SYSTEM and has read access to
  * all queries
  *
+ * The compiled query cache is configured by the parameters
+ * "compiled-cache-size", the maximum number of compiled instances
+ * kept per module, and "compiled-cache-precompile", the number of
+ * instances compiled for each module at startup and after updates.
+ * The statistics of the cache are registered with JMX
+ *
  * @author Adam Retter <adam.retter@googlemail.com>
  */
 public class RestXqStartupTrigger implements StartupTrigger {
     
+    private final static Logger LOG = Logger.getLogger(RestXqStartupTrigger.class);
+    
+    public final static String COMPILED_CACHE_SIZE_PARAM = "compiled-cache-size";
+    public final static String COMPILED_CACHE_PRECOMPILE_PARAM = "compiled-cache-precompile";
+    
     @Override
     public void execute(final DBBroker broker, final Map<String, List<? extends Object>> params) {
-        RestXqServiceRegistryManager.getRegistry(broker.getBrokerPool());
+        final RestXqServiceCompiledXQueryCacheImpl cache = RestXqServiceCompiledXQueryCacheImpl.getInstance();
+        cache.configure(
+            getIntParameter(params, COMPILED_CACHE_SIZE_PARAM, RestXqServiceCompiledXQueryCacheImpl.DEFAULT_MAX_INSTANCES),
+            getIntParameter(params, COMPILED_CACHE_PRECOMPILE_PARAM, RestXqServiceCompiledXQueryCacheImpl.DEFAULT_PRECOMPILE_INSTANCES)
+        );
+        
+        final RestXqServiceRegistry registry = RestXqServiceRegistryManager.getRegistry(broker.getBrokerPool());
+        
+        //compile the modules in advance, so the first requests do not have to
+        cache.precompile(broker, registry);
+        LOG.info(cache.toString());
+        
+        registerMBean(broker.getBrokerPool(), cache);
+    }
+    
+    private void registerMBean(final BrokerPool pool, final RestXqServiceCompiledXQueryCacheImpl cache) {
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(pool.getId(), "org.exist.management." + pool.getId() + ":type=RestXqCompiledQueryCache",
+                new CompiledXQueryCache(cache));
+        } catch(final DatabaseConfigurationException dce) {
+            LOG.warn("Exception while registering RESTXQ compiled query cache mbean.", dce);
+        }
+    }
+    
+    private int getIntParameter(final Map<String, List<? extends Object>> params, final String name, final int defaultValue) {
+        if(params != null) {
+            final List<? extends Object> values = params.get(name);
+            if(values != null && !values.isEmpty()) {
+                try {
+                    return Integer.parseInt(values.get(0).toString());
+                } catch(final NumberFormatException nfe) {
+                    LOG.warn("Invalid value for parameter " + name + ": " + values.get(0));
+                }
+            }
+        }
+        return defaultValue;
     }
 }
\ No newline at end of file
@@ -115,6 +115,9 @@ public class RestXqTrigger extends FilteringTrigger {
             try {
                 final List<RestXqService> services = xqueryRegistry.findServices(broker, document);
                 xqueryRegistry.registerServices(broker, services);
+                
+                //compile the updated module in advance, so the first requests do not have to
+                RestXqServiceCompiledXQueryCacheImpl.getInstance().precompile(broker, services);
             } catch(final ExQueryException eqe) {
                throw new TriggerException(eqe.getMessage(), eqe);
             }
@@ -0,0 +1,88 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.extensions.exquery.restxq.impl.management;
+
+import org.exist.extensions.exquery.restxq.impl.RestXqServiceCompiledXQueryCacheImpl;
+
+public class CompiledXQueryCache implements CompiledXQueryCacheMBean {
+
+    private final RestXqServiceCompiledXQueryCacheImpl cache;
+
+    public CompiledXQueryCache(RestXqServiceCompiledXQueryCacheImpl cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public int getModules() {
+        return cache.getModules();
+    }
+
+    @Override
+    public int getMaxInstances() {
+        return cache.getMaxInstances();
+    }
+
+    @Override
+    public int getPrecompileInstances() {
+        return cache.getPrecompileInstances();
+    }
+
+    @Override
+    public long getBorrows() {
+        return cache.getBorrows();
+    }
+
+    @Override
+    public long getCompilations() {
+        return cache.getCompilations();
+    }
+
+    @Override
+    public long getPrecompilations() {
+        return cache.getPrecompilations();
+    }
+
+    @Override
+    public long getDiscarded() {
+        return cache.getDiscarded();
+    }
+
+    @Override
+    public double getAverageWait() {
+        return cache.getAverageWait();
+    }
+
+    @Override
+    public double getMaxWait() {
+        return cache.getMaxWait();
+    }
+
+    @Override
+    public double getAverageCompileTime() {
+        return cache.getAverageCompileTime();
+    }
+
+    @Override
+    public double getMaxCompileTime() {
+        return cache.getMaxCompileTime();
+    }
+}
@@ -22,8 +22,14 @@
 
 package org.exist.indexing.lucene;
 
+import org.apache.lucene.facet.params.FacetIndexingParams;
+import org.apache.lucene.facet.taxonomy.CategoryPath;
+import org.exist.dom.QName;
 import org.exist.util.XMLString;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public abstract class AbstractTextExtractor implements TextExtractor {
 
     protected LuceneConfig config;
@@ -31,6 +37,13 @@ public abstract class AbstractTextExtractor implements TextExtractor {
 
     protected XMLString buffer = new XMLString();
 
+    protected List<CategoryPath> facets = null;
+
+    // dimension and content of the facet element currently being read
+    private String facetDimension = null;
+    private StringBuilder facetValue = null;
+    private int facetDepth = 0;
+
     public void configure(LuceneConfig config, LuceneIndexConfig idxConfig) {
         this.config = config;
         this.idxConfig = idxConfig;
@@ -43,4 +56,56 @@ public abstract class AbstractTextExtractor implements TextExtractor {
     public XMLString getText() {
         return buffer;
     }
+
+    public List<CategoryPath> getFacets() {
+        return facets;
+    }
+
+    public void attribute(QName name, String value) {
+        if (idxConfig != null) {
+            String dimension = idxConfig.getFacetDimension(name);
+            if (dimension != null)
+                addFacet(dimension, value);
+        }
+    }
+
+    /**
+     * Start reading a facet value if a facet is defined for the element.
+     */
+    protected void startFacet(QName name) {
+        if (facetDimension != null)
+            facetDepth++;
+        else if (idxConfig != null) {
+            facetDimension = idxConfig.getFacetDimension(name);
+            if (facetDimension != null)
+                facetValue = new StringBuilder();
+        }
+    }
+
+    protected void endFacet() {
+        if (facetDimension == null)
+            return;
+        if (facetDepth > 0)
+            facetDepth--;
+        else {
+            addFacet(facetDimension, facetValue);
+            facetDimension = null;
+            facetValue = null;
+        }
+    }
+
+    protected void facetCharacters(CharSequence text) {
+        if (facetValue != null)
+            facetValue.append(text);
+    }
+
+    protected void addFacet(String dimension, CharSequence value) {
+        // the delimiter of category path components may not be used in a value
+        String label = value.toString().replace(FacetIndexingParams.DEFAULT_FACET_DELIM_CHAR, ' ').trim();
+        if (label.length() == 0)
+            return;
+        if (facets == null)
+            facets = new ArrayList<>(4);
+        facets.add(new CategoryPath(dimension, label));
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.exist.dom.DocumentSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Selects the index entries of the documents in a set of collections, for queries on
+ * all documents of these collections. Unlike a {@link DocumentSetFilter}, the scope
+ * does not change when documents are stored, so the bit sets of the segments are
+ * computed once and only new segments need to be computed after a refresh.
+ *
+ * An entry belongs to the collection its document had when the entry was written:
+ * moving a document reindexes it and the entries of removed documents are deleted,
+ * so the bit set of a segment stays correct for its live entries. For documents
+ * indexed since startup the collection is known by the {@link LuceneIndex}, the
+ * others are looked up in the document set of the query computing the segment.
+ */
+public class CollectionScope {
+
+    /** Cached for segments without entries in the scope */
+    private static final DocIdSet EMPTY = new FixedBitSet(0);
+
+    private final LuceneIndex index;
+    private final int[] collectionIds;
+    private final int hashCode;
+
+    private final Map<Object, DocIdSet> segments =
+        Collections.synchronizedMap(new WeakHashMap<Object, DocIdSet>());
+
+    /**
+     * @param collectionIds the sorted ids of the collections
+     */
+    public CollectionScope(LuceneIndex index, int[] collectionIds) {
+        this.index = index;
+        this.collectionIds = collectionIds;
+        this.hashCode = Arrays.hashCode(collectionIds);
+    }
+
+    /**
+     * Returns a filter for a query on the given documents, which must be all
+     * documents of the collections.
+     */
+    public Filter forDocuments(final DocumentSet docs) {
+        return new Filter() {
+            @Override
+            public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+                final DocIdSet set = getSegment(context.reader(), docs);
+                return set == EMPTY ? null : BitsFilteredDocIdSet.wrap(set, acceptDocs);
+            }
+
+            @Override
+            public String toString() {
+                return CollectionScope.this.toString();
+            }
+        };
+    }
+
+    private DocIdSet getSegment(AtomicReader reader, DocumentSet docs) throws IOException {
+        final Object key = reader.getCoreCacheKey();
+        DocIdSet set = segments.get(key);
+        if (set == null) {
+            set = computeSegment(reader, docs);
+            segments.put(key, set);
+        }
+        return set;
+    }
+
+    private DocIdSet computeSegment(AtomicReader reader, DocumentSet docs) throws IOException {
+        final NumericDocValues docIdValues = reader.getNumericDocValues(LuceneUtil.FIELD_DOC_ID);
+        if (docIdValues == null)
+            return EMPTY;
+        final int[] indexed = index.getIndexedCollections();
+        final int maxDoc = reader.maxDoc();
+        FixedBitSet result = null;
+        for (int i = 0; i < maxDoc; i++) {
+            final int docId = (int) docIdValues.get(i);
+            // collection ids are stored + 1, 0 means not indexed since startup
+            final int collectionId = docId < indexed.length ? indexed[docId] - 1 : -1;
+            final boolean inScope = collectionId < 0 ? docs.contains(docId) :
+                Arrays.binarySearch(collectionIds, collectionId) > -1;
+            if (inScope) {
+                if (result == null)
+                    result = new FixedBitSet(maxDoc);
+                result.set(i);
+            }
+        }
+        return result == null ? EMPTY : result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CollectionScope && Arrays.equals(collectionIds, ((CollectionScope) obj).collectionIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CollectionScope(" + collectionIds.length + " collections)";
+    }
+}
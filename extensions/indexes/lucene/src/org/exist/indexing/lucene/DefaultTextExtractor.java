@@ -30,6 +30,7 @@ public class DefaultTextExtractor extends AbstractTextExtractor {
     private boolean addSpaceBeforeNext = false;
     
     public int startElement(QName name) {
+        startFacet(name);
         if (config.isIgnoredNode(name) || (idxConfig != null && idxConfig.isIgnoredNode(name)))
             stack++;
         else if (!isInlineNode(name) && buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != ' ') {
@@ -45,6 +46,7 @@ public class DefaultTextExtractor extends AbstractTextExtractor {
 	}
 
     public int endElement(QName name) {
+        endFacet();
         if (config.isIgnoredNode(name) || (idxConfig != null && idxConfig.isIgnoredNode(name)))
             stack--;
         else if (!isInlineNode(name)) {
@@ -65,6 +67,7 @@ public class DefaultTextExtractor extends AbstractTextExtractor {
     }
     
     public int characters(XMLString text) {
+        facetCharacters(text);
         if (stack == 0) {
             buffer.append(text);
             return text.length();
@@ -0,0 +1,120 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.DocumentSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Restricts a Lucene search to the index entries of the documents in a
+ * {@link DocumentSet}, using the indexed {@link LuceneUtil#FIELD_DOC_ID} field.
+ *
+ * Two filters are equal if they select the same document ids, so a filter can
+ * be used as cache key for queries on the same collections, see
+ * {@link LuceneIndex#getDocumentSetFilter(DocumentSet)}.
+ */
+public class DocumentSetFilter extends Filter {
+
+    private final int[] docIds;
+    private final int hashCode;
+
+    public DocumentSetFilter(DocumentSet docs) {
+        int[] ids = new int[docs.getDocumentCount()];
+        int count = 0;
+        for (Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, count * 2 + 1);
+            ids[count++] = i.next().getDocId();
+        }
+        docIds = count == ids.length ? ids : Arrays.copyOf(ids, count);
+        Arrays.sort(docIds);
+        hashCode = Arrays.hashCode(docIds);
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final AtomicReader reader = context.reader();
+        final int maxDoc = reader.maxDoc();
+        FixedBitSet result = null;
+        if (docIds.length > maxDoc) {
+            // more documents in the set than entries in the segment: check each entry instead
+            final NumericDocValues docIdValues = reader.getNumericDocValues(LuceneUtil.FIELD_DOC_ID);
+            if (docIdValues == null)
+                return null;
+            for (int i = 0; i < maxDoc; i++) {
+                if ((acceptDocs == null || acceptDocs.get(i)) &&
+                        Arrays.binarySearch(docIds, (int) docIdValues.get(i)) > -1) {
+                    if (result == null)
+                        result = new FixedBitSet(maxDoc);
+                    result.set(i);
+                }
+            }
+            return result;
+        }
+        final Terms terms = reader.terms(LuceneUtil.FIELD_DOC_ID);
+        if (terms == null)
+            return null;
+        final TermsEnum termsEnum = terms.iterator(null);
+        final BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
+        DocsEnum docs = null;
+        for (int docId : docIds) {
+            NumericUtils.intToPrefixCoded(docId, 0, bytes);
+            if (termsEnum.seekExact(bytes, false)) {
+                docs = termsEnum.docs(acceptDocs, docs, DocsEnum.FLAG_NONE);
+                int doc;
+                while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    if (result == null)
+                        result = new FixedBitSet(maxDoc);
+                    result.set(doc);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof DocumentSetFilter && Arrays.equals(docIds, ((DocumentSetFilter) obj).docIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSetFilter(" + docIds.length + " documents)";
+    }
+}
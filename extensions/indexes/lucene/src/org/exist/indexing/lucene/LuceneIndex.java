@@ -5,20 +5,28 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.search.SearcherTaxonomyManager;
+import org.apache.lucene.facet.search.SearcherTaxonomyManager.SearcherAndTaxonomy;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.exist.backup.RawDataBackup;
+import org.exist.collections.Collection;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.DocumentSet;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.util.DatabaseConfigurationException;
+import org.exist.xmldb.XmldbURI;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -27,6 +35,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.lucene.util.Version;
 
@@ -43,27 +61,95 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected Directory directory;
     protected Analyzer defaultAnalyzer;
 
+    private static final int FILTER_CACHE_SIZE = 64;
+
+    private static final int FACET_CACHE_SIZE = 128;
+
     protected double bufferSize = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
 
+    /**
+     * Interval in milliseconds after which searchers are refreshed from the writer.
+     * If 0, a refresh is done on the next search after every modification.
+     */
+    protected long refreshInterval = 0;
+
+    /**
+     * Maximum number of threads used to search the fields and segments of a single
+     * query concurrently. Searches are done by the calling thread if set to 1.
+     */
+    protected int parallelism = 1;
+
+    private volatile ExecutorService searchExecutor = null;
+
     protected IndexWriter cachedWriter = null;
     protected int writerUseCount = 0;
-    protected IndexReader cachedReader = null;
-    protected int readerUseCount = 0;
-    protected IndexReader cachedWritingReader = null;
-    protected int writingReaderUseCount = 0;
-    protected IndexSearcher cachedSearcher = null;
-    protected int searcherUseCount = 0;
-    
+
     protected boolean singleWriter = false;
 
     //Taxonomy staff
     protected Directory taxonomyDirectory;
 
     protected TaxonomyWriter cachedTaxonomyWriter = null;
-    protected int taxonomyWriterUseCount = 0;
 
-    protected TaxonomyReader cachedTaxonomyReader = null;
-    protected int taxonomyReaderUseCount = 0;
+    /**
+     * Near-real-time searchers on the writer and taxonomy writer. Searchers are
+     * refreshed from the writer without a commit; commits happen on sync().
+     */
+    protected SearcherTaxonomyManager searcherManager = null;
+
+    /**
+     * Maps searchers and readers handed out by getSearcher() or getReader()
+     * to the snapshot they were acquired from, so they can be released.
+     */
+    private final Map<Object, AcquiredSnapshot> acquired = new IdentityHashMap<>();
+
+    /**
+     * Filters for the document sets of recent queries. They keep their per segment
+     * bit sets, so repeated queries on the same collections do not need to recompute them.
+     */
+    private final Map<DocumentSetFilter, Filter> filterCache =
+        new LinkedHashMap<DocumentSetFilter, Filter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DocumentSetFilter, Filter> eldest) {
+                return size() > FILTER_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Scopes of recent queries on all documents of some collections, keyed by the
+     * collections. They are not affected by storing or removing documents.
+     */
+    private final Map<CollectionScope, CollectionScope> scopeCache =
+        new LinkedHashMap<CollectionScope, CollectionScope>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CollectionScope, CollectionScope> eldest) {
+                return size() > FILTER_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * The collection id + 1 of each document whose entries were written since startup,
+     * indexed by document id. Guarded by itself.
+     */
+    private int[] indexedCollections = new int[0];
+    private final Object indexedCollectionsLock = new Object();
+
+    /**
+     * Facet counts of recent ft:facets calls. Keys contain the version of the reader
+     * the counts were computed on, so entries are not found anymore after a refresh.
+     */
+    private final Map<FacetCountsKey, Map<String, Integer>> facetCache =
+        new LinkedHashMap<FacetCountsKey, Map<String, Integer>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FacetCountsKey, Map<String, Integer>> eldest) {
+                return size() > FACET_CACHE_SIZE;
+            }
+        };
+
+    /** Number of writer releases, and the number visible to the current searchers */
+    private volatile long modifications = 0;
+    private volatile long refreshed = 0;
+    private volatile long lastRefresh = 0;
 
     public LuceneIndex() {
         //Nothing special to do
@@ -89,6 +175,22 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        String refreshParam = config.getAttribute("refresh");
+        if (refreshParam != null && refreshParam.length() > 0)
+            try {
+                refreshInterval = Long.parseLong(refreshParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid refresh interval setting for lucene index: " + refreshParam, e);
+            }
+
+        String parallelismParam = config.getAttribute("parallelism");
+        if (parallelismParam != null && parallelismParam.length() > 0)
+            try {
+                parallelism = Math.max(1, Integer.parseInt(parallelismParam));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid parallelism setting for lucene index: " + parallelismParam, e);
+            }
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -119,7 +221,9 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             taxonomyDirectory = FSDirectory.open(new File(dir, "taxonomy"));
 
             writer = getWriter();
-            
+
+            if (parallelism > 1)
+                searchExecutor = Executors.newFixedThreadPool(parallelism, new SearchThreadFactory(getDirName()));
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
@@ -130,7 +234,15 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public synchronized void close() throws DBException {
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+            searchExecutor = null;
+        }
         try {
+            if (searcherManager != null) {
+                searcherManager.close();
+                searcherManager = null;
+            }
             if (cachedWriter != null) {
             	commit();
             	
@@ -149,7 +261,6 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public synchronized void sync() throws DBException {
-        //Nothing special to do
         commit();
     }
 
@@ -187,13 +298,6 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public synchronized IndexWriter getWriter(boolean exclusive) throws IOException {
-        while (writingReaderUseCount > 0) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                //Nothing special to do
-            }
-        }
         if (singleWriter) {
             while (writerUseCount > 0) {
                 try {
@@ -212,10 +316,12 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             
             /**
              With Lucene 2.9.4 we had auto-commit = true set on the IndexWriter constructor here,
-             now we have to commit ourselves, this is done manually in releaseWriter()
+             now we have to commit ourselves, this is done in sync() and close()
              */
             cachedWriter = new IndexWriter(directory, idxWriterConfig);
-            cachedTaxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDirectory);
+            final DirectoryTaxonomyWriter taxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDirectory);
+            cachedTaxonomyWriter = taxonomyWriter;
+            searcherManager = new SearcherTaxonomyManager(cachedWriter, true, null, taxonomyWriter);
             writerUseCount = 1;
         }
         notifyAll();
@@ -229,13 +335,12 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             throw new IllegalStateException("IndexWriter was not obtained from getWriter().");
 
         needsCommit = true;
+        modifications++;
         writerUseCount--;
         notifyAll();
-
-        waitForReadersAndReopen();
     }
 
-    protected void commit() {
+    protected synchronized void commit() {
     	if (!needsCommit) {
             return;
         }
@@ -255,135 +360,285 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
         }
     }
-    
-    public synchronized IndexReader getReader() throws IOException {
-    	commit();
-        if (cachedReader != null) {
-            readerUseCount++;
+
+    /**
+     * Refresh the searchers if the index was modified. Without a refresh interval,
+     * the caller waits for the refresh, so it always sees its own changes. Otherwise,
+     * the refresh is only tried once the interval has elapsed and does not wait
+     * if another thread is already refreshing.
+     */
+    private void maybeRefresh(SearcherTaxonomyManager manager) throws IOException {
+        final long target = modifications;
+        if (refreshed >= target)
+            return;
+        if (refreshInterval <= 0) {
+            manager.maybeRefreshBlocking();
         } else {
-            cachedReader = DirectoryReader.open(directory);
-            cachedTaxonomyReader = new DirectoryTaxonomyReader(taxonomyDirectory);
-            readerUseCount = 1;
+            final long now = System.currentTimeMillis();
+            if (now - lastRefresh < refreshInterval || !manager.maybeRefresh())
+                return;
+            lastRefresh = now;
+        }
+        synchronized (this) {
+            if (refreshed < target)
+                refreshed = target;
+        }
+    }
+
+    private SearcherAndTaxonomy acquire(boolean searcher) throws IOException {
+        final SearcherTaxonomyManager manager;
+        synchronized (this) {
+            manager = searcherManager;
         }
-        return cachedReader;
+        if (manager == null)
+            throw new IOException("Lucene index is not open");
+        maybeRefresh(manager);
+        final SearcherAndTaxonomy snapshot = manager.acquire();
+        final Object key = searcher ? snapshot.searcher : snapshot.searcher.getIndexReader();
+        synchronized (acquired) {
+            AcquiredSnapshot entry = acquired.get(key);
+            if (entry == null) {
+                entry = new AcquiredSnapshot(manager, snapshot);
+                acquired.put(key, entry);
+            }
+            entry.useCount++;
+        }
+        return snapshot;
     }
 
-    public synchronized void releaseReader(IndexReader reader) {
+    private void release(Object key, String method) {
+        final AcquiredSnapshot entry;
+        synchronized (acquired) {
+            entry = acquired.get(key);
+            if (entry == null)
+                throw new IllegalStateException(key.getClass().getSimpleName() + " was not obtained from " + method + "().");
+            if (--entry.useCount == 0)
+                acquired.remove(key);
+        }
+        try {
+            entry.manager.release(entry.snapshot);
+        } catch (IOException e) {
+            LOG.warn("Exception while releasing lucene searcher: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns a near-real-time reader on the index. The reader stays valid
+     * and unchanged until it is passed to {@link #releaseReader(IndexReader)}.
+     */
+    public IndexReader getReader() throws IOException {
+        return acquire(false).searcher.getIndexReader();
+    }
+
+    public void releaseReader(IndexReader reader) {
         if (reader == null)
             return;
-        if (reader != cachedReader)
-            throw new IllegalStateException("IndexReader was not obtained from getReader().");
-        readerUseCount--;
-        notifyAll();
+        release(reader, "getReader");
     }
 
-    protected synchronized IndexReader getWritingReader() throws IOException {
-        while (writerUseCount > 0) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                //Nothing special to do
+    /**
+     * Returns a near-real-time searcher on the index. The searcher stays valid
+     * and unchanged until it is passed to {@link #releaseSearcher(IndexSearcher)}.
+     */
+    public IndexSearcher getSearcher() throws IOException {
+        return acquire(true).searcher;
+    }
+
+    public void releaseSearcher(IndexSearcher searcher) {
+        if (searcher == null)
+            return;
+        release(searcher, "getSearcher");
+    }
+    
+    /**
+     * Returns the executor for concurrent searches, or null if searches should be
+     * done by the calling thread.
+     */
+    public ExecutorService getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    /**
+     * Returns a filter restricting a search to the given documents, or null if
+     * no filter is needed because all documents are given. If the documents are all
+     * documents of some collections, the filter is cached for these collections.
+     * Otherwise it is cached for subsequent queries on the same document set.
+     */
+    public Filter getDocumentSetFilter(DBBroker broker, DocumentSet docs) {
+        if (docs == null)
+            return null;
+        final int[] collectionIds = getCollectionIds(broker, docs);
+        if (collectionIds != null) {
+            if (coversDatabase(broker, docs))
+                return null;
+            if (containsOnly(docs, collectionIds)) {
+                CollectionScope scope = new CollectionScope(this, collectionIds);
+                synchronized (scopeCache) {
+                    final CollectionScope cached = scopeCache.get(scope);
+                    if (cached == null)
+                        scopeCache.put(scope, scope);
+                    else
+                        scope = cached;
+                }
+                return scope.forDocuments(docs);
             }
         }
-        if (cachedWriter != null) {
-        	try {
-                cachedWriter.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing lucene index: " + e.getMessage(), e);
-            } finally {
-                cachedWriter = null;
+        final DocumentSetFilter key = new DocumentSetFilter(docs);
+        synchronized (filterCache) {
+            Filter filter = filterCache.get(key);
+            if (filter == null) {
+                filter = new CachingWrapperFilter(key);
+                filterCache.put(key, filter);
             }
+            return filter;
         }
-        if (cachedWritingReader != null) {
-            writingReaderUseCount++;
-        } else {
-            cachedWritingReader = DirectoryReader.open(directory);
-            writingReaderUseCount = 1;
+    }
+
+    /**
+     * Returns the sorted ids of the collections of the document set if it has as many
+     * documents as these collections, otherwise null.
+     */
+    private static int[] getCollectionIds(DBBroker broker, DocumentSet docs) {
+        int[] ids = new int[8];
+        int count = 0;
+        int documents = 0;
+        try {
+            for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+                final Collection collection = i.next();
+                if (count == ids.length)
+                    ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = collection.getId();
+                documents += collection.getDocumentCountNoLock(broker);
+            }
+        } catch (PermissionDeniedException e) {
+            return null;
         }
-        notifyAll();
-        return cachedWritingReader;
+        if (count == 0 || documents != docs.getDocumentCount())
+            return null;
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
     }
 
-    protected synchronized void releaseWritingReader(IndexReader reader) {
-        if (reader == null)
-            return;
-        if (reader != cachedWritingReader)
-            throw new IllegalStateException("IndexReader was not obtained from getWritingReader().");
-        writingReaderUseCount--;
-        if (writingReaderUseCount == 0) {
-            try {
-                cachedWritingReader.close();
-            } catch (IOException e) {
-                LOG.warn("Exception while closing lucene index: " + e.getMessage(), e);
-            } finally {
-                cachedWritingReader = null;
+    /**
+     * Returns true if the collections of the document set are all collections of the
+     * database. Called for document sets with as many documents as their collections,
+     * which then contain all documents.
+     */
+    private static boolean coversDatabase(DBBroker broker, DocumentSet docs) {
+        final Set<XmldbURI> paths = new HashSet<XmldbURI>();
+        for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+            paths.add(i.next().getURI());
+        }
+        if (!paths.contains(XmldbURI.ROOT_COLLECTION_URI))
+            return false;
+        try {
+            for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+                final Collection collection = i.next();
+                for (Iterator<XmldbURI> j = collection.collectionIteratorNoLock(broker); j.hasNext(); ) {
+                    if (!paths.contains(collection.getURI().append(j.next())))
+                        return false;
+                }
             }
+        } catch (PermissionDeniedException e) {
+            return false;
         }
-        notifyAll();
+        return true;
+    }
 
-        waitForReadersAndReopen();
+    /**
+     * Returns true if all documents of the set are in the given collections.
+     */
+    private static boolean containsOnly(DocumentSet docs, int[] collectionIds) {
+        for (Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            if (Arrays.binarySearch(collectionIds, i.next().getCollection().getId()) < 0)
+                return false;
+        }
+        return true;
     }
 
-    private void waitForReadersAndReopen() {
-        while (readerUseCount > 0 || searcherUseCount > 0) {
-            try {
-                // DW: feedback: ".wait invoked outside a synchronized context"
-                wait();
-            } catch (InterruptedException e) {
-                //Nothing special to do
-            }
+    /**
+     * Record the collection of a document whose entries are about to be written.
+     */
+    public void documentIndexed(DocumentImpl doc) {
+        final int docId = doc.getDocId();
+        synchronized (indexedCollectionsLock) {
+            if (docId >= indexedCollections.length)
+                indexedCollections = Arrays.copyOf(indexedCollections, Math.max(docId + 1, indexedCollections.length * 2));
+            indexedCollections[docId] = doc.getCollection().getId() + 1;
         }
-        reopenReaders();
     }
 
-    private void reopenReaders() {
-        if (cachedReader == null)
-            return;
-        try {
-            cachedTaxonomyReader.close();
-        	cachedReader.close();
-        	
-        	cachedTaxonomyReader = null;
-        	cachedReader = null;
-  
-        	//XXX: understand - is it right to comment close out? ... Closed by "cachedReader.close();"?
-//        	if (cachedSearcher != null)
-//        		cachedSearcher.close();
-        	cachedSearcher = null;
-        } catch (IOException e) {
-            LOG.warn("Exception while refreshing lucene index: " + e.getMessage(), e);
+    /**
+     * Returns the collection id + 1 of the documents indexed since startup, see
+     * {@link #documentIndexed(DocumentImpl)}. Other documents have 0.
+     */
+    protected int[] getIndexedCollections() {
+        synchronized (indexedCollectionsLock) {
+            return indexedCollections;
         }
     }
 
-    public synchronized IndexSearcher getSearcher() throws IOException {
-    	commit();
-        if (cachedSearcher != null) {
-            searcherUseCount++;
-        } else {
-            cachedSearcher = new IndexSearcher(getReader());
-            readerUseCount--;
-            searcherUseCount = 1;
+    protected Map<String, Integer> getCachedFacetCounts(FacetCountsKey key) {
+        synchronized (facetCache) {
+            return facetCache.get(key);
         }
-        return cachedSearcher;
     }
 
-    public synchronized void releaseSearcher(IndexSearcher searcher) {
-        if (searcher == null)
-            return;
-        if (searcher != cachedSearcher)
-            throw new IllegalStateException("IndexSearcher was not obtained from getWritingReader().");
-        searcherUseCount--;
-        notifyAll();
+    protected void cacheFacetCounts(FacetCountsKey key, Map<String, Integer> counts) {
+        synchronized (facetCache) {
+            facetCache.put(key, counts);
+        }
     }
-    
-    //DirectoryTaxonomyWriter taxoWriter = new DirectoryTaxonomyWriter(taxoDir);
-    
+
     public synchronized TaxonomyWriter getTaxonomyWriter() throws IOException {
         return cachedTaxonomyWriter;
     }
 
-    public synchronized TaxonomyReader getTaxonomyReader() throws IOException {
-        return cachedTaxonomyReader;
+    /**
+     * Returns the taxonomy reader matching the given searcher, which must
+     * have been obtained from {@link #getSearcher()} and not yet released.
+     */
+    public TaxonomyReader getTaxonomyReader(IndexSearcher searcher) {
+        synchronized (acquired) {
+            final AcquiredSnapshot entry = acquired.get(searcher);
+            if (entry == null)
+                throw new IllegalStateException("IndexSearcher was not obtained from getSearcher().");
+            return entry.snapshot.taxonomyReader;
+        }
+    }
+
+    private static class SearchThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private int id = 0;
+
+        private SearchThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, name + "-search-" + getId());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private synchronized int getId() {
+            return id++;
+        }
+    }
+
+    private static class AcquiredSnapshot {
+
+        final SearcherTaxonomyManager manager;
+        final SearcherAndTaxonomy snapshot;
+        int useCount = 0;
+
+        AcquiredSnapshot(SearcherTaxonomyManager manager, SearcherAndTaxonomy snapshot) {
+            this.manager = manager;
+            this.snapshot = snapshot;
+        }
     }
 
 	@Override
@@ -402,4 +657,42 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 		}
 	}
 	
+
+    /**
+     * Identifies the facet counts of a dimension for a node set, as seen by a
+     * particular version of the index reader.
+     */
+    protected static class FacetCountsKey {
+
+        private final long version;
+        private final String dimension;
+        private final int max;
+        private final byte[] nodes;
+        private final int hashCode;
+
+        protected FacetCountsKey(long version, String dimension, int max, byte[] nodes) {
+            this.version = version;
+            this.dimension = dimension;
+            this.max = max;
+            this.nodes = nodes;
+            int h = (int) (version ^ (version >>> 32));
+            h = 31 * h + dimension.hashCode();
+            h = 31 * h + max;
+            this.hashCode = 31 * h + Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FacetCountsKey))
+                return false;
+            final FacetCountsKey other = (FacetCountsKey) obj;
+            return version == other.version && max == other.max && dimension.equals(other.dimension) &&
+                Arrays.equals(nodes, other.nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
@@ -21,6 +21,8 @@ public class LuceneIndexConfig {
 
     private final static String IGNORE_ELEMENT = "ignore";
     private final static String INLINE_ELEMENT = "inline";
+    private final static String FACET_ELEMENT = "facet";
+    private static final String DIMENSION_ATTR = "dimension";
 	private static final String FIELD_ATTR = "field";
 	private static final String TYPE_ATTR = "type";
 
@@ -32,6 +34,8 @@ public class LuceneIndexConfig {
 
     private Map<QName, String> specialNodes = null;
 
+    private Map<QName, String> facets = null;
+
     private LuceneIndexConfig nextConfig = null;
     
     private FieldType type = null;
@@ -95,6 +99,22 @@ public class LuceneIndexConfig {
                             specialNodes.put(parseQName(qnameAttr, namespaces), N_INLINE);
                             break;
                         }
+                        case FACET_ELEMENT: {
+                            String qnameAttr = ((Element) child).getAttribute(QNAME_ATTR);
+                            if (StringUtils.isEmpty(qnameAttr)) {
+                                throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute 'qname'");
+                            }
+                            QName qname = parseQName(qnameAttr, namespaces);
+                            String dimension = ((Element) child).getAttribute(DIMENSION_ATTR);
+                            if (StringUtils.isEmpty(dimension)) {
+                                dimension = qname.getLocalName();
+                            }
+                            if (facets == null) {
+                                facets = new TreeMap<>();
+                            }
+                            facets.put(qname, dimension);
+                            break;
+                        }
                     }
                 }
             }
@@ -157,6 +177,14 @@ public class LuceneIndexConfig {
         return specialNodes != null && specialNodes.get(qname) == N_INLINE;
     }
 
+    /**
+     * @return the facet dimension for values taken from descendant elements or
+     *  attributes with the given name, or null if no facet is defined for it
+     */
+    public String getFacetDimension(QName qname) {
+        return facets == null ? null : facets.get(qname);
+    }
+
     public static QName parseQName(Element config, Map<String, String> namespaces) throws DatabaseConfigurationException {
         String name = config.getAttribute(QNAME_ATTR);
         if (StringUtils.isEmpty(name))
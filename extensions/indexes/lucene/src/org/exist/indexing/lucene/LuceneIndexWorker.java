@@ -26,7 +26,10 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.facet.index.FacetFields;
+import org.apache.lucene.facet.params.FacetIndexingParams;
+import org.apache.lucene.facet.search.CategoryListIterator;
 import org.apache.lucene.facet.taxonomy.CategoryPath;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -47,6 +50,7 @@ import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
 import org.exist.storage.*;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.io.VariableByteOutputStream;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
@@ -63,6 +67,10 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Class for handling all Lucene operations.
@@ -76,6 +84,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String OPTION_PHRASE_SLOP = "phrase-slop";
     public static final String OPTION_LEADING_WILDCARD = "leading-wildcard";
     public static final String OPTION_FILTER_REWRITE = "filter-rewrite";
+    public static final String OPTION_TOP_HITS = "top-hits";
     public static final String DEFAULT_OPERATOR_OR = "or";
 
     public static final org.apache.lucene.document.FieldType TYPE_NODE_ID = new org.apache.lucene.document.FieldType();
@@ -88,6 +97,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     static final Logger LOG = Logger.getLogger(LuceneIndexWorker.class);
+
+    /** Facet counts are only cached for node sets up to this size */
+    private static final int MAX_CACHED_FACET_NODES = 10000;
     
     protected LuceneIndex index;
     
@@ -390,18 +402,22 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         qnames = getDefinedIndexes(qnames);
         NodeSet resultSet = new NewArrayNodeSet();
         boolean returnAncestor = axis == NodeSet.ANCESTOR;
+        TopHitQueue topHits = getTopHits(options);
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
+            List<Query> queries = new ArrayList<>(qnames.size());
             for (QName qname : qnames) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 Analyzer analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
                 QueryParserWrapper parser = getQueryParser(field, analyzer, docs);
                 setOptions(options, parser.getConfiguration());
-                Query query = parser.parse(queryStr);
-                searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                    returnAncestor, searcher, query, context.getWatchDog());
+                queries.add(parser.parse(queryStr));
             }
+            searchAndProcess(contextId, qnames, queries, docs, contextSet, resultSet,
+                returnAncestor, searcher, topHits, context.getWatchDog());
+            if (topHits != null)
+                topHits.addTo(resultSet);
         } finally {
             index.releaseSearcher(searcher);
         }
@@ -463,18 +479,25 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         qnames = getDefinedIndexes(qnames);
         NodeSet resultSet = new NewArrayNodeSet();
         boolean returnAncestor = axis == NodeSet.ANCESTOR;
+        TopHitQueue topHits = getTopHits(options);
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
+            List<QName> searchQNames = new ArrayList<>(qnames.size());
+            List<Query> queries = new ArrayList<>(qnames.size());
             for (QName qname : qnames) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
                 Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
                 if (query != null) {
-	                searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                    searchQNames.add(qname);
+                    queries.add(query);
                 }
             }
+            searchAndProcess(contextId, searchQNames, queries, docs, contextSet, resultSet,
+                returnAncestor, searcher, topHits, context.getWatchDog());
+            if (topHits != null)
+                topHits.addTo(resultSet);
         } finally {
             index.releaseSearcher(searcher);
         }
@@ -486,14 +509,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             throws IOException, XPathException {
         NodeSet resultSet = new NewArrayNodeSet();
         boolean returnAncestor = axis == NodeSet.ANCESTOR;
+        TopHitQueue topHits = getTopHits(options);
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
             analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
-                searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                    returnAncestor, searcher, query, context.getWatchDog());
+                searchAndProcess(contextId, Collections.<QName>singletonList(null), Collections.singletonList(query),
+                    docs, contextSet, resultSet, returnAncestor, searcher, topHits, context.getWatchDog());
+                if (topHits != null)
+                    topHits.addTo(resultSet);
             }
         } finally {
             index.releaseSearcher(searcher);
@@ -501,11 +527,102 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return resultSet;
     }
 
-    private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
-            NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-            IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
-        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
-        searcher.search(query, collector);
+    /**
+     * Search the index with one query per field. If the index is configured for parallel
+     * search, the fields and index segments are searched concurrently. The hits are then
+     * added to the result by the calling thread, in the same order as a sequential search.
+     */
+    private void searchAndProcess(final int contextId, List<QName> qnames, List<Query> queries, final DocumentSet docs,
+            final NodeSet contextSet, NodeSet resultSet, final boolean returnAncestor,
+            IndexSearcher searcher, final TopHitQueue topHits, final XQueryWatchDog watchDog) throws IOException, XPathException {
+        // a context set of fewer documents narrows the search to its documents
+        DocumentSet filterDocs = docs;
+        if (contextSet instanceof NewArrayNodeSet) {
+            final DocumentSet contextDocs = contextSet.getDocumentSet();
+            if (docs == null || contextDocs.getDocumentCount() < docs.getDocumentCount())
+                filterDocs = contextDocs;
+        }
+        final Filter filter = index.getDocumentSetFilter(broker, filterDocs);
+        final ExecutorService executor = index.getSearchExecutor();
+        final List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+        // other node set implementations may evaluate or reorganize themselves when accessed
+        if (executor == null || queries.size() * leaves.size() < 2 ||
+                !(contextSet == null || contextSet instanceof NewArrayNodeSet)) {
+            for (int i = 0; i < queries.size(); i++) {
+                LuceneHitCollector collector = new LuceneHitCollector(qnames.get(i), queries.get(i), docs, contextSet,
+                    resultSet, returnAncestor, contextId, topHits, null, watchDog);
+                searcher.search(queries.get(i), filter, collector);
+            }
+            return;
+        }
+        // the node set is sorted lazily: make sure this happens before it is shared
+        if (contextSet != null)
+            ((NewArrayNodeSet) contextSet).sort();
+        final List<Callable<List<ScoredHit>>> tasks = new ArrayList<>(queries.size() * leaves.size());
+        for (int i = 0; i < queries.size(); i++) {
+            final QName qname = qnames.get(i);
+            final Query query = queries.get(i);
+            final Weight weight = searcher.createNormalizedWeight(filter == null ? query : new FilteredQuery(query, filter));
+            for (final AtomicReaderContext leaf : leaves) {
+                tasks.add(new Callable<List<ScoredHit>>() {
+                    @Override
+                    public List<ScoredHit> call() throws IOException {
+                        final List<ScoredHit> hits = new ArrayList<>();
+                        final TopHitQueue segmentHits = topHits == null ? null : new TopHitQueue(topHits.maxHits);
+                        final LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet,
+                            null, returnAncestor, contextId, segmentHits, hits, watchDog);
+                        collector.setNextReader(leaf);
+                        final Scorer scorer = weight.scorer(leaf, !collector.acceptsDocsOutOfOrder(), true,
+                            leaf.reader().getLiveDocs());
+                        if (scorer != null)
+                            scorer.score(collector);
+                        if (segmentHits != null) {
+                            ScoredHit hit;
+                            while ((hit = segmentHits.pop()) != null) {
+                                hits.add(hit);
+                            }
+                        }
+                        return hits;
+                    }
+                });
+            }
+        }
+        try {
+            for (Future<List<ScoredHit>> future : executor.invokeAll(tasks)) {
+                for (ScoredHit hit : future.get()) {
+                    if (topHits != null)
+                        topHits.insertWithOverflow(hit);
+                    else
+                        addMatch(resultSet, hit.storedNode, hit.parentNode, hit.sizeHint, hit.score, hit.contextId, hit.query);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new XPathException("Lucene search was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new XPathException("Error while searching lucene index: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Returns a queue for the best matches if the {@link #OPTION_TOP_HITS} option
+     * is set, null otherwise.
+     */
+    private TopHitQueue getTopHits(Properties options) throws XPathException {
+        if (options == null)
+            return null;
+        String option = options.getProperty(OPTION_TOP_HITS);
+        if (option == null)
+            return null;
+        try {
+            int maxHits = Integer.parseInt(option.trim());
+            if (maxHits < 1)
+                throw new XPathException("value for option " + OPTION_TOP_HITS + " needs to be a positive number");
+            return new TopHitQueue(maxHits);
+        } catch (NumberFormatException e) {
+            throw new XPathException("value for option " + OPTION_TOP_HITS + " needs to be a number");
+        }
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
@@ -513,6 +630,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             throws IOException, ParseException, XPathException {
         NodeSet resultSet = new NewArrayNodeSet();
         boolean returnAncestor = axis == NodeSet.ANCESTOR;
+        TopHitQueue topHits = getTopHits(options);
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
@@ -521,8 +639,10 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             QueryParserWrapper parser = getQueryParser(field, analyzer, docs);
             setOptions(options, parser.getConfiguration());
             Query query = parser.parse(queryString);
-            searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                returnAncestor, searcher, query, context.getWatchDog());
+            searchAndProcess(contextId, Collections.<QName>singletonList(null), Collections.singletonList(query),
+                docs, contextSet, resultSet, returnAncestor, searcher, topHits, context.getWatchDog());
+            if (topHits != null)
+                topHits.addTo(resultSet);
         } finally {
             index.releaseSearcher(searcher);
         }
@@ -610,7 +730,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     	IndexWriter writer = null;
         try {
             writer = index.getWriter();
-            
+            index.documentIndexed(currentDoc);
             writer.addDocument(pendingDoc);
         } catch (IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
@@ -802,6 +922,113 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
     
+    /**
+     * Count the values of a facet dimension over the given nodes. Only nodes
+     * which have been indexed with a facet for the dimension, as configured by a
+     * facet element in collection.xconf, are counted. Each node contributes at most
+     * once to each value.
+     *
+     * Counts are cached until the index changes.
+     *
+     * @param nodes the nodes to count facet values for
+     * @param dimension the facet dimension
+     * @param max maximum number of values to return, or -1 for all
+     * @return the values of the dimension mapped to their counts, ordered by descending count
+     * @throws IOException
+     */
+    public Map<String, Integer> getFacetCounts(final NodeSet nodes, String dimension, int max) throws IOException {
+        IndexSearcher searcher = null;
+        try {
+            searcher = index.getSearcher();
+            final TaxonomyReader taxonomy = index.getTaxonomyReader(searcher);
+            final int dimensionOrdinal = taxonomy.getOrdinal(new CategoryPath(dimension));
+            if (dimensionOrdinal == TaxonomyReader.INVALID_ORDINAL || nodes.isEmpty())
+                return Collections.emptyMap();
+
+            LuceneIndex.FacetCountsKey key = null;
+            if (nodes.getItemCount() <= MAX_CACHED_FACET_NODES) {
+                final VariableByteOutputStream os = new VariableByteOutputStream(nodes.getItemCount() * 8);
+                for (NodeProxy node : nodes) {
+                    os.writeInt(node.getDocument().getDocId());
+                    node.getNodeId().write(os);
+                }
+                key = new LuceneIndex.FacetCountsKey(((DirectoryReader) searcher.getIndexReader()).getVersion(),
+                    dimension, max, os.toByteArray());
+                final Map<String, Integer> cached = index.getCachedFacetCounts(key);
+                if (cached != null)
+                    return cached;
+            }
+
+            final int[] parents = taxonomy.getParallelTaxonomyArrays().parents();
+            final int[] counts = new int[taxonomy.getSize()];
+            final CategoryListIterator categories =
+                FacetIndexingParams.DEFAULT.getCategoryListParams(null).createCategoryListIterator(0);
+            final DocumentSet docs = nodes.getDocumentSet();
+            final BrokerPool pool = index.getBrokerPool();
+            searcher.search(new MatchAllDocsQuery(), index.getDocumentSetFilter(broker, docs), new Collector() {
+                private NumericDocValues docIdValues;
+                private BinaryDocValues nodeIdValues;
+                private boolean hasCategories;
+                private final IntsRef ordinals = new IntsRef(32);
+
+                @Override
+                public void setScorer(Scorer scorer) {
+                }
+
+                @Override
+                public void setNextReader(AtomicReaderContext context) throws IOException {
+                    docIdValues = context.reader().getNumericDocValues(FIELD_DOC_ID);
+                    nodeIdValues = context.reader().getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+                    hasCategories = categories.setNextReader(context);
+                }
+
+                @Override
+                public boolean acceptsDocsOutOfOrder() {
+                    return true;
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    if (!hasCategories || docIdValues == null || nodeIdValues == null)
+                        return;
+                    final DocumentImpl document = docs.getDoc((int) docIdValues.get(doc));
+                    if (document == null || !nodes.contains(new NodeProxy(document, readNodeId(doc, nodeIdValues, pool))))
+                        return;
+                    categories.getOrdinals(doc, ordinals);
+                    for (int i = ordinals.offset; i < ordinals.offset + ordinals.length; i++) {
+                        final int ordinal = ordinals.ints[i];
+                        if (parents[ordinal] == dimensionOrdinal)
+                            counts[ordinal]++;
+                    }
+                }
+            });
+
+            final List<Integer> found = new ArrayList<>();
+            for (int ordinal = 0; ordinal < counts.length; ordinal++) {
+                if (counts[ordinal] > 0)
+                    found.add(ordinal);
+            }
+            Collections.sort(found, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return counts[o2] != counts[o1] ? counts[o2] - counts[o1] : o1 - o2;
+                }
+            });
+            final Map<String, Integer> result = new LinkedHashMap<>();
+            for (int ordinal : found) {
+                if (max > -1 && result.size() == max)
+                    break;
+                result.put(taxonomy.getPath(ordinal).components[1], counts[ordinal]);
+            }
+            final Map<String, Integer> facets = Collections.unmodifiableMap(result);
+            if (key != null)
+                index.cacheFacetCounts(key, facets);
+            return facets;
+        } finally {
+            index.releaseSearcher(searcher);
+        }
+    }
+
     /**
      *  Check if Lucene found document matches specified documents or collections.
      * Collections should end with "/".
@@ -845,10 +1072,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final boolean returnAncestor;
         private final int contextId;
         private final Query query;
+        private final TopHitQueue topHits;
+        private final List<ScoredHit> hits;
         private final XQueryWatchDog watchdog;
 
+        /**
+         * Matches are added to resultSet, unless a queue of the best matches or a
+         * list to collect all matches is given.
+         */
         private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-                                   int contextId, XQueryWatchDog watchDog) {
+                                   int contextId, TopHitQueue topHits, List<ScoredHit> hits, XQueryWatchDog watchDog) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
@@ -856,6 +1089,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.returnAncestor = returnAncestor;
             this.contextId = contextId;
             this.query = query;
+            this.topHits = topHits;
+            this.hits = hits;
             this.watchdog = watchDog;
         }
 
@@ -880,6 +1115,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         public void collect(int doc) {
             try {
                 float score = scorer.score();
+                // skip decoding the node if it cannot make it into the best matches
+                if (topHits != null && !topHits.isCompetitive(score))
+                    return;
                 int docId = (int) this.docIdValues.get(doc);
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
@@ -896,39 +1134,107 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 // if a context set is specified, we can directly check if the
                 // matching node is a descendant of one of the nodes
                 // in the context set.
+                NodeProxy parentNode = null;
+                int sizeHint = org.exist.xquery.Constants.NO_SIZE_HINT;
                 if (contextSet != null) {
-                    int sizeHint = contextSet.getSizeHint(storedDocument);
+                    sizeHint = contextSet.getSizeHint(storedDocument);
                     if (returnAncestor) {
-                        NodeProxy parentNode = contextSet.get(storedNode);
+                        parentNode = contextSet.get(storedNode);
                         // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                        if (parentNode != null) {
-                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                            match.setScore(score);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
-                        }
-                    } else {
-                        LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                        match.setScore(score);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
+                        if (parentNode == null)
+                            return;
                     }
-                } else {
-                    LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                    match.setScore(score);
-                    storedNode.addMatch(match);
-                    resultSet.add(storedNode);
                 }
+                if (topHits != null)
+                    topHits.insertWithOverflow(new ScoredHit(storedNode, parentNode, sizeHint, score, contextId, query));
+                else if (hits != null)
+                    hits.add(new ScoredHit(storedNode, parentNode, sizeHint, score, contextId, query));
+                else
+                    addMatch(resultSet, storedNode, parentNode, sizeHint, score, contextId, query);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
+    private void addMatch(NodeSet resultSet, NodeProxy storedNode, NodeProxy parentNode, int sizeHint,
+            float score, int contextId, Query query) {
+        LuceneMatch match = new LuceneMatch(contextId, storedNode.getNodeId(), query);
+        match.setScore(score);
+        if (parentNode != null) {
+            parentNode.addMatch(match);
+            resultSet.add(parentNode, sizeHint);
+            if (Expression.NO_CONTEXT_ID != contextId) {
+                parentNode.deepCopyContext(storedNode, contextId);
+            } else
+                parentNode.copyContext(storedNode);
+        } else {
+            storedNode.addMatch(match);
+            resultSet.add(storedNode, sizeHint);
+        }
+    }
+
+    /**
+     * A match which was selected by the collector, but not yet added to the result.
+     */
+    private static class ScoredHit {
+
+        private final NodeProxy storedNode;
+        private final NodeProxy parentNode;
+        private final int sizeHint;
+        private final float score;
+        private final int contextId;
+        private final Query query;
+
+        private ScoredHit(NodeProxy storedNode, NodeProxy parentNode, int sizeHint, float score,
+                int contextId, Query query) {
+            this.storedNode = storedNode;
+            this.parentNode = parentNode;
+            this.sizeHint = sizeHint;
+            this.score = score;
+            this.contextId = contextId;
+            this.query = query;
+        }
+    }
+
+    /**
+     * Keeps the best scoring matches of a query, so only those have to be added
+     * to the result. Matches with the same score are kept in document order, which
+     * gives the same selection as sorting all matches by score.
+     */
+    private class TopHitQueue extends org.apache.lucene.util.PriorityQueue<ScoredHit> {
+
+        private final int maxHits;
+
+        private TopHitQueue(int maxHits) {
+            super(maxHits);
+            this.maxHits = maxHits;
+        }
+
+        @Override
+        protected boolean lessThan(ScoredHit a, ScoredHit b) {
+            if (a.score != b.score)
+                return a.score < b.score;
+            // the match which comes later in document order is the worse one
+            return a.storedNode.compareTo(b.storedNode) > 0;
+        }
+
+        /**
+         * Returns false if a match with the given score would be rejected
+         * by the full queue anyway.
+         */
+        private boolean isCompetitive(float score) {
+            return size() < maxHits || score >= top().score;
+        }
+
+        private void addTo(NodeSet resultSet) {
+            ScoredHit hit;
+            while ((hit = pop()) != null) {
+                addMatch(resultSet, hit.storedNode, hit.parentNode, hit.sizeHint, hit.score, hit.contextId, hit.query);
+            }
+        }
+    }
+
     /**
      * Check index configurations for all collection in the given DocumentSet and return
      * a list of QNames, which have indexes defined on them.
@@ -1133,7 +1439,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @param content
      */
     protected void indexText(NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
-        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config);
+        indexText(nodeId, qname, path, config, content, null);
+    }
+
+    protected void indexText(NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content,
+            List<CategoryPath> facets) {
+        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config, facets);
         nodesToWrite.add(pending);
         cachedNodesSize += content.length();
         if (cachedNodesSize > maxCachedNodesSize)
@@ -1145,12 +1456,15 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         CharSequence text;
         QName qname;
         LuceneIndexConfig idxConf;
+        List<CategoryPath> facets;
 
-        private PendingDoc(NodeId nodeId, QName qname, NodePath path, CharSequence text, LuceneIndexConfig idxConf) {
+        private PendingDoc(NodeId nodeId, QName qname, NodePath path, CharSequence text, LuceneIndexConfig idxConf,
+                List<CategoryPath> facets) {
             this.nodeId = nodeId;
             this.qname = qname;
             this.text = text;
             this.idxConf = idxConf;
+            this.facets = facets;
         }
     }
     
@@ -1160,6 +1474,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
+            index.documentIndexed(currentDoc);
             // docId and nodeId are stored as doc value
             NumericDocValuesField fDocId = new NumericDocValuesField(FIELD_DOC_ID, 0);
             BinaryDocValuesField fNodeId = new BinaryDocValuesField(LuceneUtil.FIELD_NODE_ID, new BytesRef(8));
@@ -1228,7 +1543,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 for (Field meta : metas) {
                     doc.add(meta);
                 }
-                if (!paths.isEmpty()) {
+                if (pending.facets != null) {
+                    List<CategoryPath> docPaths = new ArrayList<>(paths);
+                    docPaths.addAll(pending.facets);
+                    facetFields.addFields(doc, docPaths);
+                } else if (!paths.isEmpty()) {
                     facetFields.addFields(doc, paths);
                 }
                 
@@ -1308,7 +1627,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             if (configuration.match(path)) {
                                 TextExtractor extractor = contentStack.pop();
                                 indexText(element.getNodeId(), element.getQName(), 
-                                    path, extractor.getIndexConfig(), extractor.getText());
+                                    path, extractor.getIndexConfig(), extractor.getText(), extractor.getFacets());
                             }
                         }
                     }
@@ -1319,6 +1638,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         @Override
         public void attribute(Txn transaction, AttrImpl attrib, NodePath path) {
+            if (mode == STORE && contentStack != null && !contentStack.isEmpty()) {
+                for (TextExtractor extractor : contentStack) {
+                    extractor.attribute(attrib.getQName(), attrib.getValue());
+                }
+            }
             path.addComponent(attrib.getQName());
             Iterator<LuceneIndexConfig> configIter = null;
             if (config != null)
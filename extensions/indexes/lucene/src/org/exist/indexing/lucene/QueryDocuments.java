@@ -57,7 +57,7 @@ public class QueryDocuments {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(docs, callback, searchParams, taxonomyReader);
 
@@ -85,7 +85,7 @@ public class QueryDocuments {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(docs, callback, searchParams, taxonomyReader);
 
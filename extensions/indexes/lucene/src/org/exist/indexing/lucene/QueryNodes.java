@@ -68,7 +68,7 @@ public class QueryNodes {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(db, worker, query, qname, contextId, docs, callback, searchParams, taxonomyReader);
 
@@ -96,7 +96,7 @@ public class QueryNodes {
         IndexSearcher searcher = null;
         try {
             searcher = index.getSearcher();
-            final TaxonomyReader taxonomyReader = index.getTaxonomyReader();
+            final TaxonomyReader taxonomyReader = index.getTaxonomyReader(searcher);
 
             DocumentHitCollector collector = new DocumentHitCollector(db, worker, null, null, contextId, docs, callback, searchParams, taxonomyReader);
 
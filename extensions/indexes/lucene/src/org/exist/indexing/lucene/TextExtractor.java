@@ -21,9 +21,12 @@
  */
 package org.exist.indexing.lucene;
 
+import org.apache.lucene.facet.taxonomy.CategoryPath;
 import org.exist.dom.QName;
 import org.exist.util.XMLString;
 
+import java.util.List;
+
 /**
  * Extract text from an XML fragment to be indexed with Lucene.
  * This interface provides an additional abstraction to handle whitespace
@@ -44,4 +47,11 @@ public interface TextExtractor {
     public LuceneIndexConfig getIndexConfig();
     
     public XMLString getText();
+
+    public void attribute(QName name, String value);
+
+    /**
+     * @return the facet categories found in the content, or null if there are none
+     */
+    public List<CategoryPath> getFacets();
 }
\ No newline at end of file
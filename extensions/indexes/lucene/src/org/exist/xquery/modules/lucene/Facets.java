@@ -0,0 +1,112 @@
+package org.exist.xquery.modules.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.exist.dom.NodeSet;
+import org.exist.dom.QName;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.lucene.LuceneIndexWorker;
+import org.exist.memtree.MemTreeBuilder;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+
+public class Facets extends BasicFunction {
+
+    private final static QName FACETS_QNAME = new QName("facets");
+    private final static QName FACET_QNAME = new QName("facet");
+    private final static QName DIMENSION_ATTR = new QName("dimension");
+    private final static QName VALUE_ATTR = new QName("value");
+    private final static QName COUNT_ATTR = new QName("count");
+
+    private final static String DESCRIPTION =
+        "Counts the values of a facet dimension over the given nodes. Facets are defined " +
+        "by a facet element within a text element of the lucene index configuration, e.g. " +
+        "<text qname=\"book\"><facet dimension=\"genre\" qname=\"@genre\"/></text>. " +
+        "Returns an element <facets dimension=\"...\"> containing a <facet value=\"...\" count=\"...\"/> " +
+        "for each value, ordered by descending count. Counts are cached until the index changes.";
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            DESCRIPTION,
+            new SequenceType[] {
+                new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+                    "The nodes to count facet values for, e.g. the result of a query"),
+                new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+                    "The facet dimension")
+            },
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.EXACTLY_ONE, "the facet counts")
+        ),
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            DESCRIPTION,
+            new SequenceType[] {
+                new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+                    "The nodes to count facet values for, e.g. the result of a query"),
+                new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+                    "The facet dimension"),
+                new FunctionParameterSequenceType("max", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                    "The maximum number of values to return. All values are returned if empty.")
+            },
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.EXACTLY_ONE, "the facet counts")
+        )
+    };
+
+    public Facets(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final String dimension = args[1].getStringValue();
+        int max = -1;
+        if (getArgumentCount() == 3 && !args[2].isEmpty()) {
+            max = ((IntegerValue) args[2].itemAt(0)).getInt();
+            if (max < 0)
+                throw new XPathException(this, "Maximum number of facet values must not be negative: " + max);
+        }
+
+        Map<String, Integer> counts = null;
+        if (!args[0].isEmpty()) {
+            if (!args[0].isPersistentSet())
+                throw new XPathException(this, "Facets can only be computed for nodes stored in the database");
+            final NodeSet nodes = args[0].toNodeSet();
+            final LuceneIndexWorker index = (LuceneIndexWorker)
+                context.getBroker().getIndexController().getWorkerByIndexId(LuceneIndex.ID);
+            try {
+                counts = index.getFacetCounts(nodes, dimension, max);
+            } catch (IOException e) {
+                throw new XPathException(this, LuceneModule.EXXQDYFT0002, e.getMessage());
+            }
+        }
+
+        context.pushDocumentContext();
+        try {
+            final MemTreeBuilder builder = context.getDocumentBuilder();
+            builder.startElement(FACETS_QNAME, null);
+            builder.addAttribute(DIMENSION_ATTR, dimension);
+            if (counts != null) {
+                for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                    builder.startElement(FACET_QNAME, null);
+                    builder.addAttribute(VALUE_ATTR, entry.getKey());
+                    builder.addAttribute(COUNT_ATTR, entry.getValue().toString());
+                    builder.endElement();
+                }
+            }
+            builder.endElement();
+            return builder.getDocument().getNode(1);
+        } finally {
+            context.popDocumentContext();
+        }
+    }
+}
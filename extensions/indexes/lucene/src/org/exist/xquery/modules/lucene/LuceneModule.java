@@ -62,7 +62,9 @@ public class LuceneModule extends AbstractInternalModule {
         new FunctionDef(RemoveIndex.signature, RemoveIndex.class),
         new FunctionDef(Search.signatures[0], Search.class),
         new FunctionDef(Search.signatures[1], Search.class),
-        new FunctionDef(GetField.signatures[0], GetField.class)
+        new FunctionDef(GetField.signatures[0], GetField.class),
+        new FunctionDef(Facets.signatures[0], Facets.class),
+        new FunctionDef(Facets.signatures[1], Facets.class)
     };
 
     public LuceneModule(Map<String, List<? extends Object>> parameters) {
@@ -0,0 +1,178 @@
+package org.exist.indexing.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.exist.TestUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.DefaultDocumentSet;
+import org.exist.dom.MutableDocumentSet;
+import org.exist.dom.NodeSet;
+import org.exist.dom.QName;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.util.ConfigurationHelper;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs queries with the parallel search enabled: the fields and segments of the index
+ * are searched by the threads of the search executor.
+ */
+public class ParallelSearchTest {
+
+    private static String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <lucene>" +
+        "           <analyzer class=\"org.apache.lucene.analysis.core.SimpleAnalyzer\"/>" +
+        "           <text qname=\"head\"/>" +
+        "           <text qname=\"p\"/>" +
+        "       </lucene>" +
+        "   </index>" +
+        "</collection>";
+
+    private static final int DOCUMENTS = 5;
+
+    private static BrokerPool pool;
+    private static MutableDocumentSet docs = new DefaultDocumentSet();
+
+    @Test
+    public void searchFieldsInParallel() {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            LuceneIndexWorker worker = (LuceneIndexWorker)
+                broker.getIndexController().getWorkerByIndexId(LuceneIndex.ID);
+            List<QName> qnames = new ArrayList<QName>(2);
+            qnames.add(new QName("head", ""));
+            qnames.add(new QName("p", ""));
+            XQueryContext context = new XQueryContext(pool, AccessContext.TEST);
+            NodeSet result = worker.query(context, -1, docs, null, qnames, "content", NodeSet.DESCENDANT, null);
+            assertEquals(DOCUMENTS * 2, result.getLength());
+
+            Properties options = new Properties();
+            options.setProperty(LuceneIndexWorker.OPTION_TOP_HITS, "3");
+            result = worker.query(context, -1, docs, null, qnames, "content", NodeSet.DESCENDANT, options);
+            assertEquals(3, result.getLength());
+
+            // the searches were done by the threads of the search executor
+            assertTrue(countSearchThreads() > 0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private static int countSearchThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().contains("-search-"))
+                count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void queryInParallel() {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            XQuery xquery = broker.getXQueryService();
+            Sequence seq = xquery.execute("//section[ft:query(p, 'content')]", null, AccessContext.TEST);
+            assertEquals(DOCUMENTS, seq.getItemCount());
+
+            seq = xquery.execute("//section[ft:query(*, 'content')]", null, AccessContext.TEST);
+            assertEquals(DOCUMENTS, seq.getItemCount());
+
+            seq = xquery.execute("ft:query(//p, 'paragraph')", null, AccessContext.TEST);
+            assertEquals(DOCUMENTS, seq.getItemCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @BeforeClass
+    public static void startDB() {
+        DBBroker broker = null;
+        TransactionManager transact = null;
+        Txn transaction = null;
+        try {
+            // copy conf.xml with parallel search enabled, next to the original to keep relative paths
+            File confFile = ConfigurationHelper.lookup("conf.xml");
+            String conf = new String(Files.readAllBytes(confFile.toPath()), "UTF-8");
+            conf = conf.replace("class=\"" + LuceneIndex.class.getName() + "\"",
+                "parallelism=\"4\" class=\"" + LuceneIndex.class.getName() + "\"");
+            File parallelConfFile = File.createTempFile("conf", ".xml", confFile.getParentFile());
+            Configuration config;
+            try {
+                Files.write(parallelConfFile.toPath(), conf.getBytes("UTF-8"));
+                config = new Configuration(parallelConfFile.getAbsolutePath());
+            } finally {
+                parallelConfFile.delete();
+            }
+            BrokerPool.configure(1, 5, config);
+            pool = BrokerPool.getInstance();
+
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            transact = pool.getTransactionManager();
+            transaction = transact.beginTransaction();
+            Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+            CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+            transact.commit(transaction);
+
+            // store the documents in separate transactions to get more than one segment
+            for (int i = 0; i < DOCUMENTS; i++) {
+                String data = "<section><head>Some content " + i + "</head>" +
+                    "<p>A paragraph with content " + i + "</p></section>";
+                transaction = transact.beginTransaction();
+                IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("test" + i + ".xml"), data);
+                root.store(transaction, broker, info, data, false);
+                docs.add(info.getDocument());
+                transact.commit(transaction);
+            }
+        } catch (Exception e) {
+            if (transact != null)
+                transact.abort(transaction);
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (pool != null)
+                pool.release(broker);
+        }
+    }
+
+    @AfterClass
+    public static void stopDB() {
+        TestUtils.cleanupDB();
+        BrokerPool.stopAll(false);
+        pool = null;
+        docs = new DefaultDocumentSet();
+    }
+}
@@ -24,9 +24,12 @@ package org.exist.indexing.ngram;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
 
@@ -50,6 +53,7 @@ import org.exist.dom.StoredNode;
 import org.exist.dom.SymbolTable;
 import org.exist.indexing.AbstractMatchListener;
 import org.exist.indexing.AbstractStreamListener;
+import org.exist.indexing.BulkIndex;
 import org.exist.indexing.Index;
 import org.exist.indexing.IndexController;
 import org.exist.indexing.IndexWorker;
@@ -69,6 +73,7 @@ import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.index.BFile;
+import org.exist.storage.index.BFileAppendBuffer;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
 import org.exist.storage.lock.Lock;
@@ -90,7 +95,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *
  * <pre>[docId : int, nameType: byte, occurrenceCount: int, entrySize: long, [id: NodeId, offset: int, ...]* ]</pre>
  */
-public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
+public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex, BulkIndex {
 
     private static final Logger LOG = Logger.getLogger(NGramIndexWorker.class);
 
@@ -114,6 +119,10 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private NGramMatchListener matchListener = null;
 
+    /** Entries of stored documents not yet written in bulk mode, null otherwise */
+    private BFileAppendBuffer bulkBuffer = null;
+    private long bulkMemory = 0;
+
     public NGramIndexWorker(DBBroker broker, org.exist.indexing.ngram.NGramIndex index) {
         this.broker = broker;
         this.index = index;
@@ -169,11 +178,55 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 break;
             case StreamListener.REMOVE_ALL_NODES :
             case StreamListener.REMOVE_SOME_NODES :
+                writeBulk(true);
                 dropIndex(mode);
                 break;
         }
     }
 
+    @Override
+    public void startBulk(long memoryBudget) {
+        bulkBuffer = new BFileAppendBuffer(index.db);
+        bulkMemory = memoryBudget;
+    }
+
+    @Override
+    public void endBulk() {
+        if (bulkBuffer == null)
+            return;
+        try {
+            bulkBuffer.close();
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for file " + index.db.getFile().getName(), e);
+        } catch (IOException e) {
+            LOG.warn("IO error for file " + index.db.getFile().getName(), e);
+        } catch (ReadOnlyException e) {
+            LOG.warn("Read-only error for file " + index.db.getFile().getName(), e);
+        } finally {
+            bulkBuffer = null;
+        }
+    }
+
+    /**
+     * Write the entries buffered in bulk mode. The data of all documents is appended
+     * to each key at once, in key order. Before entries are removed, the buffers of
+     * the workers of all brokers are written.
+     */
+    private void writeBulk(boolean all) {
+        try {
+            if (all)
+                BFileAppendBuffer.writeAll(index.db);
+            else if (bulkBuffer != null)
+                bulkBuffer.write();
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for file " + index.db.getFile().getName(), e);
+        } catch (IOException e) {
+            LOG.warn("IO error for file " + index.db.getFile().getName(), e);
+        } catch (ReadOnlyException e) {
+            LOG.warn("Read-only error for file " + index.db.getFile().getName(), e);
+        }
+    }
+
     private void saveIndex() {
         if (ngrams.size() == 0)
             return;
@@ -209,6 +262,12 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             ByteArray data = os.data();
             if (data.size() == 0)
                 continue;
+            if (bulkBuffer != null) {
+                bulkBuffer.append(new NGramQNameKey(currentDoc.getCollection().getId(), key.qname,
+                        index.getBrokerPool().getSymbols(), key.term), data);
+                os.clear();
+                continue;
+            }
             Lock lock = index.db.getLock();
             try {
                 lock.acquire(Lock.WRITE_LOCK);
@@ -228,6 +287,8 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             }
         }
         ngrams.clear();
+        if (bulkBuffer != null && bulkBuffer.getSize() > bulkMemory)
+            writeBulk(false);
     }
 
     private void dropIndex(int mode) {
@@ -347,6 +408,7 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) {
         if (LOG.isDebugEnabled())
             LOG.debug("Dropping NGram index for collection " + collection.getURI());
+        writeBulk(true);
         final Lock lock = index.db.getLock();
         try {
             lock.acquire(Lock.WRITE_LOCK);
@@ -397,6 +459,176 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return result;
     }
 
+    /**
+     * Search for nodes containing all the given n-grams in sequence. The posting
+     * list of each n-gram is intersected with the nodes matching the previous ones,
+     * keeping only start offsets at which every n-gram occurs at its relative position.
+     * Posting entries of documents without remaining candidates are skipped without
+     * decoding them, and the search stops as soon as no candidate is left.
+     *
+     * @param contextId current context id
+     * @param docs the documents to search
+     * @param qnames the indexed element or attribute names to search, or null for all
+     * @param ngrams the n-grams to look up, each of length n
+     * @param positions the offset of each n-gram relative to the start of the matched string
+     * @param matchTerm the matched string, used for the match
+     * @param matchLength length of the matched string
+     * @param context current XQuery context
+     * @param contextSet the context node set, or null
+     * @param axis the axis to return nodes on, see {@link #search}
+     * @return the nodes containing all n-grams in sequence
+     * @throws XPathException
+     */
+    public NodeSet searchSequence(int contextId, DocumentSet docs, List<QName> qnames, String[] ngrams, int[] positions,
+            String matchTerm, int matchLength, XQueryContext context, NodeSet contextSet, int axis) throws XPathException {
+        if (qnames == null || qnames.isEmpty())
+            qnames = getDefinedIndexes(context.getBroker(), docs);
+        final NodeSet result = new ExtArrayNodeSet(docs.getDocumentCount(), 250);
+        for (Iterator<org.exist.collections.Collection> iter = docs.getCollectionIterator(); iter.hasNext();) {
+            final int collectionId = iter.next().getId();
+            for (QName qname : qnames) {
+                List<Posting> candidates = null;
+                for (int i = 0; i < ngrams.length && (candidates == null || !candidates.isEmpty()); i++) {
+                    final List<Posting> postings = readPostings(collectionId, qname, ngrams[i], docs, candidates);
+                    if (candidates == null) {
+                        for (Posting posting : postings) {
+                            posting.shift(positions[i]);
+                        }
+                        candidates = postings;
+                    } else
+                        candidates = intersect(candidates, postings, positions[i]);
+                    context.proceed();
+                }
+                if (candidates != null) {
+                    for (Posting candidate : candidates) {
+                        addSequenceMatch(contextId, candidate, docs, matchTerm, matchLength, contextSet,
+                            axis == NodeSet.ANCESTOR, result);
+                    }
+                }
+            }
+        }
+
+        result.iterate(); // ensure result is ready to use
+
+        return result;
+    }
+
+    /**
+     * Read the postings of an n-gram, sorted by document and node. If candidates
+     * are given, only postings in documents containing one of them are decoded.
+     */
+    private List<Posting> readPostings(int collectionId, QName qname, String ngram, final DocumentSet docs,
+            List<Posting> candidates) throws XPathException {
+        final Set<Integer> candidateDocs;
+        if (candidates == null)
+            candidateDocs = null;
+        else {
+            candidateDocs = new HashSet<Integer>();
+            for (Posting candidate : candidates) {
+                candidateDocs.add(candidate.docId);
+            }
+        }
+        final List<Posting> postings = new ArrayList<Posting>();
+        final NGramQNameKey key = new NGramQNameKey(collectionId, qname, index.getBrokerPool().getSymbols(), ngram);
+        final Lock lock = index.db.getLock();
+        try {
+            lock.acquire(Lock.READ_LOCK);
+            index.db.query(new IndexQuery(IndexQuery.EQ, key), new BTreeCallback() {
+                @Override
+                public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                    try {
+                        final VariableByteInput is = index.db.getAsStream(pointer);
+                        if (is == null)
+                            return true;
+                        while (is.available() > 0) {
+                            final int storedDocId = is.readInt();
+                            is.readByte();
+                            final int occurrences = is.readInt();
+                            final int length = is.readFixedInt();
+                            if (docs.getDoc(storedDocId) == null ||
+                                    (candidateDocs != null && !candidateDocs.contains(storedDocId))) {
+                                is.skipBytes(length);
+                                continue;
+                            }
+                            NodeId previous = null;
+                            for (int m = 0; m < occurrences; m++) {
+                                final NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromStream(previous, is);
+                                previous = nodeId;
+                                final int[] offsets = new int[is.readInt()];
+                                for (int n = 0; n < offsets.length; n++) {
+                                    offsets[n] = is.readInt();
+                                }
+                                Arrays.sort(offsets);
+                                postings.add(new Posting(storedDocId, nodeId, offsets));
+                            }
+                        }
+                    } catch (IOException e) {
+                        LOG.error(e.getMessage(), e);
+                    }
+                    return true;
+                }
+            });
+        } catch (LockException e) {
+            LOG.warn("Failed to acquire lock for '" + index.db.getFile().getName() + "'", e);
+        } catch (IOException e) {
+            LOG.error(e.getMessage() + " in '" + index.db.getFile().getName() + "'", e);
+        } catch (BTreeException e) {
+            LOG.error(e.getMessage() + " in '" + index.db.getFile().getName() + "'", e);
+        } finally {
+            lock.release(Lock.READ_LOCK);
+        }
+        Collections.sort(postings);
+        return postings;
+    }
+
+    /**
+     * Merge two sorted posting lists, keeping the candidates with a start offset
+     * at which the next n-gram occurs at the given position.
+     */
+    private static List<Posting> intersect(List<Posting> candidates, List<Posting> postings, int position) {
+        final List<Posting> result = new ArrayList<Posting>(Math.min(candidates.size(), postings.size()));
+        int i = 0;
+        int j = 0;
+        while (i < candidates.size() && j < postings.size()) {
+            final Posting candidate = candidates.get(i);
+            final Posting posting = postings.get(j);
+            final int cmp = candidate.compareTo(posting);
+            if (cmp < 0)
+                i++;
+            else if (cmp > 0)
+                j++;
+            else {
+                if (candidate.retainFollowedBy(posting, position))
+                    result.add(candidate);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private void addSequenceMatch(int contextId, Posting candidate, DocumentSet docs, String matchTerm, int matchLength,
+            NodeSet contextSet, boolean returnAncestor, NodeSet result) {
+        final DocumentImpl storedDocument = docs.getDoc(candidate.docId);
+        final NodeProxy storedNode = new NodeProxy(storedDocument, candidate.nodeId);
+        NodeProxy target = storedNode;
+        int sizeHint = Constants.NO_SIZE_HINT;
+        if (contextSet != null) {
+            sizeHint = contextSet.getSizeHint(storedDocument);
+            if (returnAncestor) {
+                target = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
+                if (target == null)
+                    return;
+            }
+        }
+        final Match match = new NGramMatch(contextId, candidate.nodeId, matchTerm, candidate.offsets.length);
+        for (int offset : candidate.offsets) {
+            match.addOffset(offset, matchLength);
+        }
+        target.addMatch(match);
+        result.add(target, sizeHint);
+    }
+
     /**
      * Check index configurations for all collection in the given DocumentSet and return
      * a list of QNames, which have indexes defined on them.
@@ -857,6 +1089,61 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * The offsets of an n-gram in a node. When used as candidate in a sequence search,
+     * the offsets are the start offsets of the searched string.
+     */
+    private static class Posting implements Comparable<Posting> {
+
+        private final int docId;
+        private final NodeId nodeId;
+        private int[] offsets;
+
+        private Posting(int docId, NodeId nodeId, int[] offsets) {
+            this.docId = docId;
+            this.nodeId = nodeId;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Turn the offsets of an n-gram at the given position into start offsets.
+         */
+        private void shift(int position) {
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] -= position;
+            }
+        }
+
+        /**
+         * Retain the start offsets at which the other posting's n-gram occurs at the given position.
+         *
+         * @return true if any start offset remains
+         */
+        private boolean retainFollowedBy(Posting other, int position) {
+            int count = 0;
+            for (int i = 0, j = 0; i < offsets.length && j < other.offsets.length; ) {
+                final int expected = offsets[i] + position;
+                if (other.offsets[j] < expected)
+                    j++;
+                else {
+                    if (other.offsets[j] == expected)
+                        offsets[count++] = offsets[i];
+                    i++;
+                }
+            }
+            if (count < offsets.length)
+                offsets = Arrays.copyOf(offsets, count);
+            return count > 0;
+        }
+
+        @Override
+        public int compareTo(Posting other) {
+            if (docId != other.docId)
+                return docId < other.docId ? -1 : 1;
+            return nodeId.compareTo(other.nodeId);
+        }
+    }
+
     private class NodeOffset {
         NodeId nodeId;
         int offset = 0;
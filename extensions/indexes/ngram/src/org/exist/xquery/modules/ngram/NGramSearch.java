@@ -490,90 +490,39 @@ public class NGramSearch extends Function implements Optimizable {
         if (ngrams.length == 0)
             return new EmptyNodeSet();
 
-        String firstNgramm = ngrams[0];
-        LOG.trace("First NGRAM: " + firstNgramm);
-        NodeSet result = index.search(getExpressionId(), docs, qnames, firstNgramm, firstNgramm, context, nodeSet, axis);
-
-        for (int i = 1; i < ngrams.length; i++) {
+        if (ngrams.length == 1)
+            return index.search(getExpressionId(), docs, qnames, ngrams[0], ngrams[0], context, nodeSet, axis);
+
+        // look up full length ngrams only, and pass their position within the query string,
+        // so the index can intersect the postings of all ngrams in one pass
+        String[] searchNgrams = new String[ngrams.length];
+        int[] positions = new int[ngrams.length];
+        StringBuilder matchTerm = new StringBuilder(query.length());
+        int position = 0;
+        for (int i = 0; i < ngrams.length; i++) {
             String ngram = ngrams[i];
             int len = ngram.codePointCount(0, ngram.length());
             int fillSize = index.getN() - len;
-            String filledNgram = ngram;
+            searchNgrams[i] = ngram;
+            positions[i] = position;
 
             // if this ngram is shorter than n,
             // fill it up with characters from the previous ngram. too short
             // ngrams lead to a considerable performance loss.
             if (fillSize > 0) {
                 String filler = ngrams[i - 1];
-                StringBuilder buf = new StringBuilder();
                 int pos = filler.offsetByCodePoints(0, len);
-                for (int j = 0; j < fillSize; j++) {
-                    int codepoint = filler.codePointAt(pos);
-                    pos += Character.charCount(codepoint);
-                    buf.appendCodePoint(codepoint);
-                }
-                buf.append(ngram);
-                filledNgram = buf.toString();
-                LOG.debug("Filled: " + filledNgram);
+                searchNgrams[i] = filler.substring(pos) + ngram;
+                positions[i] -= filler.length() - pos;
+                LOG.debug("Filled: " + searchNgrams[i]);
             }
-
-            NodeSet nodes = index.search(getExpressionId(), docs, qnames, filledNgram, ngram, context, nodeSet, axis);
-
-            final NodeSet nodesContainingFirstINgrams = result;
-
-            result = NodeSets.fmapNodes(nodes, new F<NodeProxy, NodeProxy>() {
-
-                @Override
-                public NodeProxy f(NodeProxy a) {
-                    NodeProxy before = nodesContainingFirstINgrams.get(a);
-                    if (before != null) {
-                        return getContinuousMatches(before, a);
-                    } else {
-                        return null;
-                    }
-                }
-            });
+            matchTerm.append(ngram);
+            position += ngram.length();
         }
-        return result;
+        return index.searchSequence(getExpressionId(), docs, qnames, searchNgrams, positions, matchTerm.toString(),
+            matchTerm.length(), context, nodeSet, axis);
 	}
 
-    /**
-     * Finds all matches in head which are followed by matches in tail in the specified distance.
-     *
-     * @param head
-     *            a nodeset with matches
-     * @param tail
-     *            another nodeset with matches
-     * @return a nodeset containing all matches from the head which are directly followed by matches in the tail
-     */
-    private NodeProxy getContinuousMatches(final NodeProxy head, final NodeProxy tail) {
-        // NodeSet result = new ExtArrayNodeSet();
-        Match continuousMatch = null;
-        
-        Match headMatch = head.getMatches();
-        while (headMatch != null && continuousMatch == null) {
-            Match tailMatch = tail.getMatches();
-            while (tailMatch != null && continuousMatch == null) {
-                continuousMatch = headMatch.continuedBy(tailMatch);
-                tailMatch = tailMatch.getNextMatch();
-            	}
-            headMatch = headMatch.getNextMatch();
-            }
-        if (continuousMatch != null) {
-            NodeProxies.filterMatches(tail, new F<Match, Boolean>() {
-
-                @Override
-                public Boolean f(Match a) {
-                    return (a.getContextId() != getExpressionId());
-        }
-            });
-
-            tail.addMatch(continuousMatch);
-            return tail;
-        }
-        return null;
-    }
-    
     @Override
 	public int getDependencies() {
         final Expression stringArg = getArgument(0);
@@ -536,6 +536,125 @@ public class CustomIndexTest extends TestCase {
         }
     }
 
+    public void testBulkStore() {
+        DBBroker broker = null;
+        try {
+        	broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            TransactionManager transact = pool.getTransactionManager();
+            Txn transaction = transact.beginTransaction();
+
+            Collection root = broker.openCollection(TestConstants.TEST_COLLECTION_URI, Lock.WRITE_LOCK);
+            assertNotNull(root);
+
+            broker.startBulkIndexing();
+            try {
+                for (int i = 0; i < 3; i++) {
+                    IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("bulk" + i + ".xml"), XML);
+                    assertNotNull(info);
+                    root.store(transaction, broker, info, XML, false);
+                }
+                // removing a document writes the buffered entries first
+                root.removeXMLResource(transaction, broker, XmldbURI.create("bulk0.xml"));
+            } finally {
+                broker.endBulkIndexing();
+            }
+            transact.commit(transaction);
+
+            XQuery xquery = broker.getXQueryService();
+            assertNotNull(xquery);
+            Sequence seq = xquery.execute("//item[ngram:contains(., 'cha')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(3, seq.getItemCount());
+
+            seq = xquery.execute("//item[ngram:contains(., 'le8')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(3, seq.getItemCount());
+
+            seq = xquery.execute("//item[ngram:contains(@attr, 'trib')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(3, seq.getItemCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    public void testBulkStoreRemovedByOtherBroker() {
+        DBBroker broker = null;
+        try {
+        	broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            TransactionManager transact = pool.getTransactionManager();
+
+            broker.startBulkIndexing();
+            try {
+                Txn transaction = transact.beginTransaction();
+                Collection root = broker.openCollection(TestConstants.TEST_COLLECTION_URI, Lock.WRITE_LOCK);
+                assertNotNull(root);
+                try {
+                    IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("orphan.xml"), XML2);
+                    assertNotNull(info);
+                    root.store(transaction, broker, info, XML2, false);
+                } finally {
+                    root.release(Lock.WRITE_LOCK);
+                }
+                transact.commit(transaction);
+
+                // another broker removes the document while its entries are still buffered
+                final Exception[] error = new Exception[1];
+                Thread remover = new Thread() {
+                    public void run() {
+                        DBBroker other = null;
+                        try {
+                            other = pool.get(pool.getSecurityManager().getSystemSubject());
+                            TransactionManager transact = pool.getTransactionManager();
+                            Txn transaction = transact.beginTransaction();
+                            Collection root = other.openCollection(TestConstants.TEST_COLLECTION_URI, Lock.WRITE_LOCK);
+                            try {
+                                root.removeXMLResource(transaction, other, XmldbURI.create("orphan.xml"));
+                            } finally {
+                                root.release(Lock.WRITE_LOCK);
+                            }
+                            transact.commit(transaction);
+                        } catch (Exception e) {
+                            error[0] = e;
+                        } finally {
+                            pool.release(other);
+                        }
+                    }
+                };
+                remover.start();
+                remover.join();
+                if (error[0] != null)
+                    throw error[0];
+            } finally {
+                broker.endBulkIndexing();
+            }
+
+            // the next document reuses the id of the removed one and must not get its entries
+            Txn transaction = transact.beginTransaction();
+            Collection root = broker.openCollection(TestConstants.TEST_COLLECTION_URI, Lock.WRITE_LOCK);
+            MutableDocumentSet reused = new DefaultDocumentSet();
+            try {
+                IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create("reuse.xml"), XML);
+                root.store(transaction, broker, info, XML, false);
+                reused.add(info.getDocument());
+            } finally {
+                root.release(Lock.WRITE_LOCK);
+            }
+            transact.commit(transaction);
+
+            checkIndex(broker, reused, "567", 0);
+            checkIndex(broker, reused, "cha", 1);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
     public void testQuery() {
         DBBroker broker = null;
         try {
@@ -559,6 +678,23 @@ public class CustomIndexTest extends TestCase {
             assertNotNull(seq);
             assertEquals(1, seq.getItemCount());
 
+            // all ngrams must occur in sequence within the same node
+            seq = xquery.execute("//item[ngram:contains(., 'cabinet')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+
+            seq = xquery.execute("//item[ngram:contains(., 'ble892.2')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+
+            seq = xquery.execute("//item[ngram:contains(., 'tab892')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(0, seq.getItemCount());
+
+            seq = xquery.execute("//item[ngram:contains(., 'chabinet')]", null, AccessContext.TEST);
+            assertNotNull(seq);
+            assertEquals(0, seq.getItemCount());
+
         } catch (Exception e) {
             e.printStackTrace();
             fail(e.getMessage());
@@ -36,11 +36,14 @@ import java.util.*;
 public class ComplexRangeIndexConfigElement extends RangeIndexConfigElement {
 
     public final static String FIELD_ELEMENT = "field";
+    public final static String COMPOSITE_ELEMENT = "composite";
 
     private static final Logger LOG = Logger.getLogger(ComplexRangeIndexConfigElement.class);
 
     private Map<String, RangeIndexConfigField> fields = new HashMap<String, RangeIndexConfigField>();
 
+    private List<RangeIndexConfigComposite> composites = null;
+
     public ComplexRangeIndexConfigElement(Element node, NodeList children, Map<String, String> namespaces)
             throws DatabaseConfigurationException {
         super(node, namespaces);
@@ -51,11 +54,30 @@ public class ComplexRangeIndexConfigElement extends RangeIndexConfigElement {
                 if (FIELD_ELEMENT.equals(child.getLocalName())) {
                     RangeIndexConfigField field = new RangeIndexConfigField(path, (Element)child, namespaces);
                     fields.put(field.getName(), field);
-                } else {
+                } else if (!COMPOSITE_ELEMENT.equals(child.getLocalName())) {
                     LOG.warn("Invalid element encountered for range index configuration: " + child.getLocalName());
                 }
             }
         }
+        // composites refer to fields, so they are parsed once all fields are known
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE && COMPOSITE_ELEMENT.equals(child.getLocalName())) {
+                if (analyzer != null) {
+                    throw new DatabaseConfigurationException("Range index module: composite keys cannot be used with a collation");
+                }
+                if (composites == null)
+                    composites = new ArrayList<RangeIndexConfigComposite>(2);
+                composites.add(new RangeIndexConfigComposite((Element) child, fields));
+            }
+        }
+    }
+
+    /**
+     * Returns the composite keys defined on this index or null if there are none.
+     */
+    public List<RangeIndexConfigComposite> getComposites() {
+        return composites;
     }
 
     @Override
@@ -19,7 +19,9 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -146,7 +148,8 @@ public class RangeIndexConfig {
         NodeList children = root.getChildNodes();
         for (int i = 0; i < children.getLength(); i++) {
             Node node = children.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE && FIELD_ELEM.equals(node.getLocalName())) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && (FIELD_ELEM.equals(node.getLocalName()) ||
+                    ComplexRangeIndexConfigElement.COMPOSITE_ELEMENT.equals(node.getLocalName()))) {
                 fields.add(node);
             }
         }
@@ -175,6 +178,21 @@ public class RangeIndexConfig {
         return Type.ITEM;
     }
 
+    /**
+     * Returns all composite keys defined on the complex indexes.
+     */
+    public List<RangeIndexConfigComposite> getComposites() {
+        List<RangeIndexConfigComposite> composites = new ArrayList<RangeIndexConfigComposite>();
+        for (RangeIndexConfigElement conf : paths.values()) {
+            for (; conf != null; conf = conf.getNext()) {
+                if (conf.isComplex() && ((ComplexRangeIndexConfigElement) conf).getComposites() != null) {
+                    composites.addAll(((ComplexRangeIndexConfigElement) conf).getComposites());
+                }
+            }
+        }
+        return composites;
+    }
+
     private class PathIterator implements Iterator<RangeIndexConfigElement> {
 
         private RangeIndexConfigElement nextConfig;
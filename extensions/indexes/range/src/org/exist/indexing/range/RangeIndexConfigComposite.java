@@ -0,0 +1,189 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.range;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.UTF8;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.*;
+import org.w3c.dom.Element;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A composite key combining the values of several fields of a complex range index,
+ * e.g. &lt;composite name="type-date" fields="type date"/&gt;.
+ *
+ * The key is stored as one term, which concatenates the encoded field values in
+ * the order given. Each component is encoded so the bytes compare in the same order
+ * as the typed values: numbers, dates and times as 8-byte sortable longs, all other
+ * types as UTF-8 followed by a 0 byte. A query which compares all but the last field
+ * for equality and the last field with any range operator can thus be answered by a
+ * single range scan over the composite terms.
+ *
+ * A node with repeated field values gets a key for every combination of the values.
+ * If there are more combinations than max-keys (default {@value #DEFAULT_MAX_KEYS}), e.g.
+ * &lt;composite name="tag-date" fields="tag date" max-keys="256"/&gt;, the node gets no
+ * keys but is marked as overflowing, and queries using the composite look it up through
+ * the single fields instead.
+ */
+public class RangeIndexConfigComposite {
+
+    /** The default maximum number of keys stored for a node with repeated field values */
+    public final static int DEFAULT_MAX_KEYS = 64;
+
+    private final String name;
+    private final String[] fields;
+    private final int[] types;
+    private final boolean[] caseSensitive;
+    private final int maxKeys;
+
+    public RangeIndexConfigComposite(Element elem, Map<String, RangeIndexConfigField> definedFields) throws DatabaseConfigurationException {
+        name = elem.getAttribute("name");
+        if (name == null || name.length() == 0) {
+            throw new DatabaseConfigurationException("Range index module: composite element requires a name attribute");
+        }
+        String fieldsAttr = elem.getAttribute("fields");
+        fields = fieldsAttr == null ? new String[0] : fieldsAttr.trim().split("\\s+");
+        if (fields.length < 2) {
+            throw new DatabaseConfigurationException("Range index module: composite " + name + " needs at least two fields");
+        }
+        types = new int[fields.length];
+        caseSensitive = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            RangeIndexConfigField field = definedFields.get(fields[i]);
+            if (field == null) {
+                throw new DatabaseConfigurationException("Range index module: composite " + name +
+                        " refers to undefined field " + fields[i]);
+            }
+            if (field.getTypeConverter() != null) {
+                throw new DatabaseConfigurationException("Range index module: composite " + name +
+                        " cannot include field " + fields[i] + " with a custom converter");
+            }
+            types[i] = field.getType();
+            caseSensitive[i] = field.isCaseSensitive();
+        }
+        String maxKeysAttr = elem.getAttribute("max-keys");
+        if (maxKeysAttr == null || maxKeysAttr.length() == 0) {
+            maxKeys = DEFAULT_MAX_KEYS;
+        } else {
+            try {
+                maxKeys = Integer.parseInt(maxKeysAttr.trim());
+            } catch (NumberFormatException e) {
+                throw new DatabaseConfigurationException("Range index module: max-keys of composite " + name +
+                        " is not a number: " + maxKeysAttr);
+            }
+            if (maxKeys < 1) {
+                throw new DatabaseConfigurationException("Range index module: max-keys of composite " + name +
+                        " must be positive");
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the maximum number of keys stored for a node.
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public int getType(int component) {
+        return types[component];
+    }
+
+    public boolean sameAs(RangeIndexConfigComposite other) {
+        return name.equals(other.name) && Arrays.equals(fields, other.fields) && Arrays.equals(types, other.types) &&
+            Arrays.equals(caseSensitive, other.caseSensitive);
+    }
+
+    /**
+     * Encode the indexed content of the given component.
+     *
+     * @return the encoded value or null if the content cannot be converted to the field's type
+     */
+    public BytesRef encode(int component, String content) {
+        try {
+            return encode(component, new StringValue(content));
+        } catch (XPathException e) {
+            // wrong type: ignore
+            return null;
+        }
+    }
+
+    /**
+     * Encode a value for the given component after converting it to the field's type.
+     * String values of case insensitive fields are lower-cased, as they are when indexed.
+     */
+    public BytesRef encode(int component, AtomicValue value) throws XPathException {
+        final int type = types[component];
+        switch (type) {
+            case Type.INTEGER:
+            case Type.LONG:
+            case Type.UNSIGNED_LONG:
+            case Type.INT:
+            case Type.UNSIGNED_INT:
+            case Type.SHORT:
+            case Type.UNSIGNED_SHORT:
+                return toBytes(((NumericValue) value.convertTo(type)).getLong());
+            case Type.DECIMAL:
+            case Type.DOUBLE:
+            case Type.FLOAT:
+                return toBytes(NumericUtils.doubleToSortableLong(((NumericValue) value.convertTo(type)).getDouble()));
+            case Type.DATE:
+                return toBytes(RangeIndexConfigElement.dateToLong((DateValue) value.convertTo(type)));
+            case Type.TIME:
+                return toBytes(RangeIndexConfigElement.timeToLong((TimeValue) value.convertTo(type)));
+            case Type.DATE_TIME:
+                return toBytes(((DateTimeValue) value.convertTo(type)).getTimeInMillis());
+            default:
+                final String str = caseSensitive[component] ? value.getStringValue() : value.getStringValue().toLowerCase();
+                final byte[] data = new byte[UTF8.encoded(str) + 1];
+                UTF8.encode(str, data, 0);
+                data[data.length - 1] = 0;
+                return new BytesRef(data);
+        }
+    }
+
+    /**
+     * Encode the long with its sign bit flipped, so the bytes compare in numeric order.
+     */
+    private static BytesRef toBytes(long l) {
+        l ^= 0x8000000000000000L;
+        final byte[] data = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            data[i] = (byte) l;
+            l >>>= 8;
+        }
+        return new BytesRef(data);
+    }
+}
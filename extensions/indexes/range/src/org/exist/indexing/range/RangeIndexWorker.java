@@ -72,6 +72,8 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String FIELD_DOC_ID = "docId";
     public static final String FIELD_ADDRESS = "address";
     public static final String FIELD_ID = "id";
+    /** Names the composite keys a node has too many combinations of values for */
+    public static final String FIELD_COMPOSITE_OVERFLOW = "compositeOverflow";
 
     private static Set<String> LOAD_FIELDS = new TreeSet<String>();
     static {
@@ -79,6 +81,10 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         LOAD_FIELDS.add(FIELD_NODE_ID);
     }
 
+    private final static byte[] COMPOSITE_UPPER_BOUND = new byte[] {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+
     private final RangeIndex index;
     private final DBBroker broker;
     private IndexController controller;
@@ -421,6 +427,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
+            index.documentIndexed(currentDoc);
 
             // docId and nodeId are stored as doc value
             IntDocValuesField fDocId = new IntDocValuesField(FIELD_DOC_ID, 0);
@@ -466,6 +473,9 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                         doc.add(fld);
                     }
                 }
+                if (pending.getConfig().isComplex()) {
+                    addCompositeKeys(doc, pending);
+                }
                 fDocIdIdx.setIntValue(currentDoc.getDocId());
                 doc.add(fDocIdIdx);
 
@@ -484,6 +494,54 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * Add a term for each composite key defined on the index. Nodes with repeated field
+     * values get a key for every combination. If there are more combinations than the
+     * composite's max-keys, the node is marked as overflowing instead: queries find it
+     * through the single fields, see {@link #toCompositeQuery}.
+     */
+    private void addCompositeKeys(Document doc, RangeIndexDoc pending) {
+        final List<RangeIndexConfigComposite> composites = ((ComplexRangeIndexConfigElement) pending.getConfig()).getComposites();
+        if (composites == null)
+            return;
+        final TextCollector collector = pending.getCollector();
+        for (RangeIndexConfigComposite composite : composites) {
+            final String[] fieldNames = composite.getFields();
+            List<BytesRef> keys = Collections.singletonList(new BytesRef());
+            boolean overflow = false;
+            for (int i = 0; i < fieldNames.length && !keys.isEmpty() && !overflow; i++) {
+                final List<BytesRef> next = new ArrayList<BytesRef>(keys.size());
+                for (TextCollector.Field field : collector.getFields()) {
+                    if (!fieldNames[i].equals(field.getName()))
+                        continue;
+                    final BytesRef component = composite.encode(i, field.getContent());
+                    if (component == null)
+                        continue;
+                    if (next.size() + keys.size() > composite.getMaxKeys()) {
+                        overflow = true;
+                        break;
+                    }
+                    for (BytesRef key : keys) {
+                        final BytesRef combined = BytesRef.deepCopyOf(key);
+                        combined.append(component);
+                        next.add(combined);
+                    }
+                }
+                keys = next;
+            }
+            if (overflow) {
+                LOG.warn("Node " + pending.getNodeId() + " in document " + currentDoc.getURI() + " has more than " +
+                    composite.getMaxKeys() + " combinations of values for composite " + composite.getName() +
+                    ". It will be found through the single fields. Increase max-keys to index it.");
+                doc.add(new StringField(FIELD_COMPOSITE_OVERFLOW, composite.getName(), Field.Store.NO));
+                continue;
+            }
+            for (BytesRef key : keys) {
+                doc.add(new Field(composite.getName(), new BinaryTokenStream(key), LuceneIndexWorker.TYPE_NODE_ID));
+            }
+        }
+    }
+
     public NodeSet query(int contextId, DocumentSet docs, NodeSet contextSet, List<QName> qnames, AtomicValue[] keys, RangeIndex.Operator operator, int axis) throws IOException, XPathException {
         qnames = getDefinedIndexes(qnames);
         NodeSet resultSet = NodeSet.EMPTY_SET;
@@ -524,9 +582,14 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         try {
             searcher = index.getSearcher();
             BooleanQuery query = new BooleanQuery();
+            String[] fieldNames = new String[fields.getItemCount()];
             int j = 0;
             for (SequenceIterator i = fields.iterate(); i.hasNext(); j++) {
-                String field = i.nextItem().getStringValue();
+                fieldNames[j] = i.nextItem().getStringValue();
+            }
+            Query[] fieldQueries = new Query[fieldNames.length];
+            for (j = 0; j < fieldNames.length; j++) {
+                String field = fieldNames[j];
                 if (keys[j].getItemCount() > 1) {
                     BooleanQuery bool = new BooleanQuery();
                     bool.setMinimumNumberShouldMatch(1);
@@ -535,12 +598,21 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                         Query q = toQuery(field, null, key.atomize(), operators[j], docs);
                         bool.add(q, BooleanClause.Occur.SHOULD);
                     }
-                    query.add(bool, BooleanClause.Occur.MUST);
+                    fieldQueries[j] = bool;
                 } else {
-                    Query q = toQuery(field, null, keys[j].itemAt(0).atomize(), operators[j], docs);
-                    query.add(q, BooleanClause.Occur.MUST);
+                    fieldQueries[j] = toQuery(field, null, keys[j].itemAt(0).atomize(), operators[j], docs);
                 }
             }
+            // comparisons answered by a composite key
+            boolean[] done = new boolean[fieldNames.length];
+            Query compositeQuery = toCompositeQuery(fieldNames, keys, operators, fieldQueries, docs, done);
+            if (compositeQuery != null) {
+                query.add(compositeQuery, BooleanClause.Occur.MUST);
+            }
+            for (j = 0; j < fieldNames.length; j++) {
+                if (!done[j])
+                    query.add(fieldQueries[j], BooleanClause.Occur.MUST);
+            }
             Query qu = query;
             BooleanClause[] clauses = query.getClauses();
             if (clauses.length == 1) {
@@ -560,6 +632,139 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return resultSet;
     }
 
+    /**
+     * Try to answer the comparisons on several fields by a single range scan over a composite key.
+     * Every field of the composite must be compared to a single key: all but the last one for
+     * equality, the last one with any of the eq, lt, le, gt or ge operators. If more than one
+     * composite key qualifies, the one with the most fields is used. The comparisons answered by
+     * the composite key are marked in done. Nodes with too many combinations of values to be
+     * stored in the composite key are matched by the field queries of these comparisons.
+     *
+     * @return the query on the composite key or null if no composite key can be used
+     */
+    private Query toCompositeQuery(String[] fields, Sequence[] keys, RangeIndex.Operator[] operators, Query[] fieldQueries,
+                                   DocumentSet docs, boolean[] done) {
+        RangeIndexConfigComposite best = null;
+        int[] bestMapping = null;
+        for (RangeIndexConfigComposite composite : getComposites(docs)) {
+            final String[] compositeFields = composite.getFields();
+            if (best != null && compositeFields.length <= best.getFields().length)
+                continue;
+            final int[] mapping = new int[compositeFields.length];
+            boolean usable = true;
+            for (int i = 0; i < compositeFields.length && usable; i++) {
+                mapping[i] = -1;
+                for (int k = 0; k < fields.length; k++) {
+                    if (fields[k].equals(compositeFields[i])) {
+                        mapping[i] = k;
+                        break;
+                    }
+                }
+                usable = mapping[i] > -1 && keys[mapping[i]].hasOne();
+                if (usable) {
+                    final RangeIndex.Operator operator = operators[mapping[i]];
+                    if (i < compositeFields.length - 1)
+                        usable = operator == RangeIndex.Operator.EQ;
+                    else
+                        usable = operator == RangeIndex.Operator.EQ || operator == RangeIndex.Operator.LT ||
+                            operator == RangeIndex.Operator.LE || operator == RangeIndex.Operator.GT ||
+                            operator == RangeIndex.Operator.GE;
+                }
+            }
+            if (usable) {
+                best = composite;
+                bestMapping = mapping;
+            }
+        }
+        if (best == null)
+            return null;
+
+        final int last = bestMapping.length - 1;
+        final BytesRef prefix = new BytesRef();
+        final BytesRef value;
+        try {
+            for (int i = 0; i < last; i++) {
+                prefix.append(best.encode(i, keys[bestMapping[i]].itemAt(0).atomize()));
+            }
+            value = best.encode(last, keys[bestMapping[last]].itemAt(0).atomize());
+        } catch (XPathException e) {
+            // a key cannot be converted to the field type: query the fields separately
+            return null;
+        }
+        final BytesRef key = BytesRef.deepCopyOf(prefix);
+        key.append(value);
+        // sorts after all keys starting with prefix, as encoded components never start with 9 0xFF bytes
+        final BytesRef upper = BytesRef.deepCopyOf(prefix);
+        upper.append(new BytesRef(COMPOSITE_UPPER_BOUND));
+        final Query query;
+        switch (operators[bestMapping[last]]) {
+            case LT:
+                query = new TermRangeQuery(best.getName(), prefix, key, true, false);
+                break;
+            case LE:
+                query = new TermRangeQuery(best.getName(), prefix, key, true, true);
+                break;
+            case GT:
+                query = new TermRangeQuery(best.getName(), key, upper, false, false);
+                break;
+            case GE:
+                query = new TermRangeQuery(best.getName(), key, upper, true, false);
+                break;
+            default:
+                query = new TermQuery(new Term(best.getName(), key));
+                break;
+        }
+        final BooleanQuery overflow = new BooleanQuery();
+        overflow.add(new TermQuery(new Term(FIELD_COMPOSITE_OVERFLOW, best.getName())), BooleanClause.Occur.MUST);
+        for (int m : bestMapping) {
+            overflow.add(fieldQueries[m], BooleanClause.Occur.MUST);
+            done[m] = true;
+        }
+        final BooleanQuery composite = new BooleanQuery();
+        composite.add(query, BooleanClause.Occur.SHOULD);
+        composite.add(overflow, BooleanClause.Occur.SHOULD);
+        return composite;
+    }
+
+    /**
+     * Returns the composite keys defined in the configurations of all collections in the
+     * document set. A composite key missing in one of the configurations cannot be used,
+     * as the documents in that collection were indexed without it.
+     */
+    private List<RangeIndexConfigComposite> getComposites(DocumentSet docs) {
+        List<RangeIndexConfigComposite> composites = null;
+        for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext(); ) {
+            final IndexSpec idxConf = i.next().getIndexConfiguration(broker);
+            if (idxConf == null)
+                continue;
+            final RangeIndexConfig config = (RangeIndexConfig) idxConf.getCustomIndexSpec(RangeIndex.ID);
+            if (config == null)
+                continue;
+            final List<RangeIndexConfigComposite> defined = config.getComposites();
+            if (composites == null) {
+                composites = defined;
+            } else {
+                for (Iterator<RangeIndexConfigComposite> ci = composites.iterator(); ci.hasNext(); ) {
+                    final RangeIndexConfigComposite composite = ci.next();
+                    boolean found = false;
+                    for (RangeIndexConfigComposite other : defined) {
+                        if (composite.sameAs(other)) {
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found)
+                        ci.remove();
+                }
+            }
+            if (composites.isEmpty())
+                break;
+        }
+        if (composites == null)
+            return Collections.emptyList();
+        return composites;
+    }
+
 //    private OpenBitSet getDocs(DocumentSet docs, IndexSearcher searcher) throws IOException {
 //        OpenBitSet bits = new OpenBitSet(searcher.getIndexReader().maxDoc());
 //        for (Iterator i = docs.getDocumentIterator(); i.hasNext(); ) {
@@ -577,6 +782,8 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private NodeSet doQuery(final int contextId, final DocumentSet docs, final NodeSet contextSet, final int axis,
                             IndexSearcher searcher, final QName qname, Query query, Filter filter) throws IOException {
         SearchCollector collector = new SearchCollector(docs, contextSet, qname, axis, contextId);
+        if (filter == null)
+            filter = index.getDocumentSetFilter(broker, docs);
         searcher.search(query, filter, collector);
         return collector.getResultSet();
     }
@@ -15,6 +15,7 @@ import org.exist.util.LockException;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * SortIndex helps to improve the performance of 'order by' expressions in XQuery.
@@ -27,6 +28,11 @@ import java.io.OutputStream;
  * Every sort index has an id by which it is identified and distinguished from other indexes
  * on the same node set.
  *
+ * In addition, sort keys can be configured in collection.xconf, e.g. &lt;sort qname="title"/&gt;.
+ * The string value of every matching node is stored as its key and maintained automatically
+ * when documents are stored, updated or removed. An 'order by' clause whose order expression
+ * returns such a node compares the stored keys instead of the node values.
+ *
  */
 public class SortIndex extends AbstractIndex implements RawBackupSupport {
 
@@ -38,6 +44,9 @@ public class SortIndex extends AbstractIndex implements RawBackupSupport {
     public static final double DEFAULT_SORT_KEY_THRESHOLD = 0.01;
 
     protected BTreeStore btree;
+
+    // incremented whenever sort keys are written or removed, used to invalidate cached keys
+    private final AtomicLong keysVersion = new AtomicLong();
     
     public SortIndex() {
     }
@@ -87,7 +96,15 @@ public class SortIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public IndexWorker getWorker(DBBroker broker) {
-        return new SortIndexWorker(this);
+        return new SortIndexWorker(this, broker);
+    }
+
+    protected long getKeysVersion() {
+        return keysVersion.get();
+    }
+
+    protected void keysChanged() {
+        keysVersion.incrementAndGet();
     }
 
     @Override
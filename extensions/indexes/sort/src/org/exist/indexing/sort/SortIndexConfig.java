@@ -0,0 +1,46 @@
+package org.exist.indexing.sort;
+
+import org.exist.dom.QName;
+import org.exist.storage.ElementValue;
+import org.exist.util.DatabaseConfigurationException;
+
+import java.util.Map;
+
+/**
+ * Configures a sort key on the elements or attributes with the given qname,
+ * e.g. &lt;sort qname="title"/&gt; or &lt;sort qname="@date"/&gt;. The key is the
+ * string value of the node and is maintained whenever the node is stored or removed.
+ */
+public class SortIndexConfig {
+
+    private QName qname;
+
+    public SortIndexConfig(Map<String, String> namespaces, String name) throws DatabaseConfigurationException {
+        boolean isAttribute = false;
+        if (name.startsWith("@")) {
+            isAttribute = true;
+            name = name.substring(1);
+        }
+        try {
+            String prefix = QName.extractPrefix(name);
+            String localName = QName.extractLocalName(name);
+            String namespaceURI = "";
+            if (prefix != null) {
+                namespaceURI = namespaces.get(prefix);
+                if (namespaceURI == null) {
+                    throw new DatabaseConfigurationException("Sort index config: no namespace defined for prefix: " + prefix +
+                        " in index definition");
+                }
+            }
+            qname = new QName(localName, namespaceURI, prefix);
+            if (isAttribute)
+                qname.setNameType(ElementValue.ATTRIBUTE);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseConfigurationException("Sort index configuration: " + e.getMessage(), e);
+        }
+    }
+
+    public QName getQName() {
+        return qname;
+    }
+}
@@ -3,41 +3,85 @@ package org.exist.indexing.sort;
 import org.exist.EXistException;
 import org.exist.collections.Collection;
 import org.exist.dom.*;
+import org.exist.indexing.AbstractStreamListener;
 import org.exist.indexing.IndexController;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.MatchListener;
+import org.exist.indexing.SortKeysIndex;
 import org.exist.indexing.StreamListener;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.DBBroker;
+import org.exist.storage.IndexSpec;
 import org.exist.storage.NodePath;
 import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
 import org.exist.util.*;
 import org.exist.xquery.QueryRewriter;
 import org.exist.xquery.TerminatedException;
 import org.exist.xquery.XQueryContext;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Stack;
+import java.util.TreeMap;
 
-public class SortIndexWorker implements IndexWorker {
+public class SortIndexWorker implements SortKeysIndex {
+
+    private final static String INDEX_ELEMENT = "sort";
+    private final static String QNAME_ATTR = "qname";
+
+    // first byte of the keys storing the sort keys configured in collection.xconf
+    private final static byte SORT_KEY_PREFIX = 2;
+
+    /**
+     * Values longer than this number of characters are not indexed, so order by has to
+     * compare the nodes by value.
+     */
+    public final static int MAX_KEY_LENGTH = 256;
 
     private int mode = 0;
     private DocumentImpl document = null;
     private SortIndex index;
+    private DBBroker broker;
+
+    private Map<QName, SortIndexConfig> config = null;
+    private Stack<XMLString> contentStack = null;
+    // string values of the configured nodes to store or remove on flush
+    private Map<NodeId, String> pending = new TreeMap<NodeId, String>();
+    private SortKeysListener listener = new SortKeysListener();
 
-    public SortIndexWorker(SortIndex index) {
+    // sort keys of the document last looked up by getSortKey
+    private int cachedDocId = -1;
+    private long cachedVersion = -1;
+    private Map<NodeId, byte[]> cachedKeys = null;
+
+    public SortIndexWorker(SortIndex index, DBBroker broker) {
         this.index = index;
+        this.broker = broker;
     }
 
+    @SuppressWarnings("unchecked")
     public void setDocument(DocumentImpl doc, int mode) {
         this.document = doc;
         this.mode = mode;
+        this.contentStack = null;
+        this.pending.clear();
+        this.config = null;
+        IndexSpec indexConf = doc.getCollection().getIndexConfiguration(broker);
+        if (indexConf != null)
+            config = (Map<QName, SortIndexConfig>) indexConf.getCustomIndexSpec(SortIndex.ID);
     }
 
     public void setMode(int mode) {
@@ -59,10 +103,117 @@ public class SortIndexWorker implements IndexWorker {
 
     public void flush() {
         switch (mode) {
+            case StreamListener.STORE:
+                storeSortKeys(false);
+                break;
+            case StreamListener.REMOVE_SOME_NODES:
+                storeSortKeys(true);
+                break;
             case StreamListener.REMOVE_ALL_NODES:
                 remove(document);
                 break;
         }
+        pending.clear();
+    }
+
+    /**
+     * Writes or removes the sort keys collected for the configured nodes of the current document.
+     */
+    private void storeSortKeys(boolean remove) {
+        if (pending.isEmpty())
+            return;
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            for (Map.Entry<NodeId, String> entry : pending.entrySet()) {
+                Value key = new Value(computeSortKey(document.getDocId(), entry.getKey(), entry.getValue()));
+                if (remove)
+                    index.btree.removeValue(key);
+                else
+                    index.btree.addValue(key, 0);
+            }
+        } catch (LockException e) {
+            SortIndex.LOG.warn("Failed to acquire lock for '" + index.btree.getFile().getName() + "'", e);
+        } catch (BTreeException e) {
+            SortIndex.LOG.warn("Exception caught while writing sort keys: " + e.getMessage(), e);
+        } catch (IOException e) {
+            SortIndex.LOG.warn("Exception caught while writing sort keys: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+            index.keysChanged();
+        }
+    }
+
+    /**
+     * Returns the sort key stored for the node if a sort key is configured on it.
+     * The keys of a document are read in one go and kept until the next document
+     * is requested or the index changes.
+     */
+    public byte[] getSortKey(NodeProxy proxy) {
+        final DocumentImpl doc = proxy.getDocument();
+        final long version = index.getKeysVersion();
+        if (cachedKeys == null || doc.getDocId() != cachedDocId || version != cachedVersion) {
+            cachedKeys = readSortKeys(doc);
+            cachedDocId = doc.getDocId();
+            cachedVersion = version;
+        }
+        return cachedKeys.get(proxy.getNodeId());
+    }
+
+    private Map<NodeId, byte[]> readSortKeys(DocumentImpl doc) {
+        final IndexSpec indexConf = doc.getCollection() == null ? null : doc.getCollection().getIndexConfiguration(broker);
+        if (indexConf == null || indexConf.getCustomIndexSpec(SortIndex.ID) == null)
+            return Collections.emptyMap();
+        final Map<NodeId, byte[]> keys = new TreeMap<NodeId, byte[]>();
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(Lock.READ_LOCK);
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(computeSortKey(doc.getDocId())));
+            index.btree.query(query, new BTreeCallback() {
+                public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+                    final byte[] data = value.data();
+                    final int start = value.start();
+                    final int units = ByteConversion.byteToShortH(data, start + 5);
+                    final NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, data, start + 7);
+                    final int keyStart = start + 7 + nodeId.size();
+                    final byte[] key = new byte[value.getLength() - (keyStart - start)];
+                    System.arraycopy(data, keyStart, key, 0, key.length);
+                    keys.put(nodeId, key);
+                    return true;
+                }
+            });
+        } catch (LockException e) {
+            SortIndex.LOG.warn("Failed to acquire lock for '" + index.btree.getFile().getName() + "'", e);
+        } catch (BTreeException e) {
+            SortIndex.LOG.warn("Exception caught while reading sort keys: " + e.getMessage(), e);
+        } catch (IOException e) {
+            SortIndex.LOG.warn("Exception caught while reading sort keys: " + e.getMessage(), e);
+        } catch (TerminatedException e) {
+            SortIndex.LOG.warn("Exception caught while reading sort keys: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.READ_LOCK);
+        }
+        return keys;
+    }
+
+    private void removeSortKeys(DocumentImpl doc) {
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(computeSortKey(doc.getDocId())));
+            index.btree.remove(query, null);
+        } catch (LockException e) {
+            SortIndex.LOG.warn("Failed to acquire lock for '" + index.btree.getFile().getName() + "'", e);
+        } catch (BTreeException e) {
+            SortIndex.LOG.warn("Exception caught while deleting sort keys: " + e.getMessage(), e);
+        } catch (IOException e) {
+            SortIndex.LOG.warn("Exception caught while deleting sort keys: " + e.getMessage(), e);
+        } catch (TerminatedException e) {
+            SortIndex.LOG.warn("Exception caught while deleting sort keys: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+            index.keysChanged();
+        }
     }
 
     /**
@@ -185,6 +336,7 @@ public class SortIndexWorker implements IndexWorker {
     public void remove(DocumentImpl doc) {
         if (index.btree == null)
             return;
+        removeSortKeys(doc);
         byte[] fromKey = new byte[] { 1 };
         byte[] endKey = new byte[] { 2 };
 
@@ -339,6 +491,33 @@ public class SortIndexWorker implements IndexWorker {
         return data;
     }
 
+    /**
+     * Sort keys are stored as [2, docId, units, nodeId, value], where the value is
+     * encoded as UTF-16 big-endian chars. Comparing the encoded values bytewise thus
+     * yields the codepoint order used by {@link String#compareTo(String)}.
+     */
+    private byte[] computeSortKey(int docId, NodeId nodeId, String value) {
+        byte[] data = new byte[7 + nodeId.size() + value.length() * 2];
+        data[0] = SORT_KEY_PREFIX;
+        ByteConversion.intToByteH(docId, data, 1);
+        ByteConversion.shortToByteH((short) nodeId.units(), data, 5);
+        nodeId.serialize(data, 7);
+        int offset = 7 + nodeId.size();
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            data[offset++] = (byte) (ch >>> 8);
+            data[offset++] = (byte) ch;
+        }
+        return data;
+    }
+
+    private byte[] computeSortKey(int docId) {
+        byte[] data = new byte[5];
+        data[0] = SORT_KEY_PREFIX;
+        ByteConversion.intToByteH(docId, data, 1);
+        return data;
+    }
+
     private byte[] computeKey(short id) {
         byte[] data = new byte[3];
         data[0] = 0;
@@ -347,11 +526,25 @@ public class SortIndexWorker implements IndexWorker {
     }
 
     public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
-        return null;
+        Map<QName, SortIndexConfig> map = null;
+        for (int i = 0; i < configNodes.getLength(); i++) {
+            Node node = configNodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && INDEX_ELEMENT.equals(node.getLocalName())) {
+                String qname = ((Element) node).getAttribute(QNAME_ATTR);
+                if (qname == null || qname.length() == 0)
+                    throw new DatabaseConfigurationException("Configuration error: element " + node.getNodeName() +
+                        " must have an attribute " + QNAME_ATTR);
+                SortIndexConfig config = new SortIndexConfig(namespaces, qname);
+                if (map == null)
+                    map = new TreeMap<QName, SortIndexConfig>();
+                map.put(config.getQName(), config);
+            }
+        }
+        return map;
     }
 
     public void setDocument(DocumentImpl doc) {
-        this.document = doc;
+        setDocument(doc, mode);
     }
 
     public DocumentImpl getDocument() {
@@ -363,18 +556,43 @@ public class SortIndexWorker implements IndexWorker {
     }
 
     public StoredNode getReindexRoot(StoredNode node, NodePath path, boolean insert, boolean includeSelf) {
+        if (config != null) {
+            // the string value of a configured ancestor changes, so it has to be reindexed
+            StoredNode topMost = null;
+            StoredNode currentNode = node;
+            if (currentNode.getNodeType() == Node.ATTRIBUTE_NODE) {
+                if (config.get(currentNode.getQName()) != null)
+                    topMost = currentNode;
+                currentNode = currentNode.getParentStoredNode();
+            } else if (currentNode.getNodeType() == Node.ELEMENT_NODE && !includeSelf)
+                currentNode = currentNode.getParentStoredNode();
+            while (currentNode != null) {
+                if (config.get(currentNode.getQName()) != null)
+                    topMost = currentNode;
+                if (currentNode.getDocument().getCollection().isTempCollection() && currentNode.getNodeId().getTreeLevel() == 2)
+                    break;
+                currentNode = currentNode.getParentStoredNode();
+            }
+            if (topMost != null)
+                return topMost;
+        }
         return insert ? null : node;
     }
 
     public StreamListener getListener() {
-        return null;
+        return listener;
     }
 
     public MatchListener getMatchListener(DBBroker broker, NodeProxy proxy) {
         return null;
     }
 
-    public void removeCollection(Collection collection, DBBroker broker, boolean reindex) {
+    public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
+        if (index.btree == null)
+            return;
+        for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+            removeSortKeys(i.next());
+        }
     }
 
     public boolean checkIndex(DBBroker broker) {
@@ -384,4 +602,56 @@ public class SortIndexWorker implements IndexWorker {
     public Occurrences[] scanIndex(XQueryContext context, DocumentSet docs, NodeSet contextSet, Map hints) {
         return new Occurrences[0];
     }
+
+    private void indexValue(NodeId nodeId, String value) {
+        if (value.length() <= MAX_KEY_LENGTH)
+            pending.put(nodeId, value);
+    }
+
+    /**
+     * Collects the string values of the elements and attributes which have a sort key configured.
+     */
+    private class SortKeysListener extends AbstractStreamListener {
+
+        @Override
+        public void startElement(Txn transaction, ElementImpl element, NodePath path) {
+            if (config != null && config.get(element.getQName()) != null) {
+                if (contentStack == null)
+                    contentStack = new Stack<XMLString>();
+                contentStack.push(new XMLString());
+            }
+            super.startElement(transaction, element, path);
+        }
+
+        @Override
+        public void attribute(Txn transaction, AttrImpl attrib, NodePath path) {
+            if (config != null && config.get(attrib.getQName()) != null)
+                indexValue(attrib.getNodeId(), attrib.getValue());
+            super.attribute(transaction, attrib, path);
+        }
+
+        @Override
+        public void endElement(Txn transaction, ElementImpl element, NodePath path) {
+            if (config != null && config.get(element.getQName()) != null) {
+                XMLString content = contentStack.pop();
+                indexValue(element.getNodeId(), content.toString());
+            }
+            super.endElement(transaction, element, path);
+        }
+
+        @Override
+        public void characters(Txn transaction, CharacterDataImpl text, NodePath path) {
+            if (contentStack != null && !contentStack.isEmpty()) {
+                for (XMLString next : contentStack) {
+                    next.append(text.getXMLString());
+                }
+            }
+            super.characters(transaction, text, path);
+        }
+
+        @Override
+        public IndexWorker getWorker() {
+            return SortIndexWorker.this;
+        }
+    }
 }
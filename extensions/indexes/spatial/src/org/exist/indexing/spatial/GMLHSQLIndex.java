@@ -34,17 +34,37 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.exist.backup.RawDataBackup;
+import org.exist.dom.DocumentImpl;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.index.BFile;
+import org.exist.storage.lock.Lock;
+import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.IndexCallback;
+import org.exist.util.LockException;
+import org.exist.util.ReadOnlyException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.TerminatedException;
 import org.w3c.dom.Element;
 
+import com.vividsolutions.jts.geom.Envelope;
+
 /**
  */
 public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSupport {
@@ -56,6 +76,30 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
     public static String TABLE_NAME = "SPATIAL_INDEX_V1";
     private DBBroker connectionOwner = null;
     private long connectionTimeout = 100000L;
+
+    public static String RTREE_FILE_NAME = "spatial_rtree.dbx";
+
+    //Offsets within the values of the R-tree file
+    private final static int COLLECTION_ID_OFFSET = 0;
+    private final static int BOUNDING_BOX_OFFSET = COLLECTION_ID_OFFSET + 4;
+    private final static int WKB_OFFSET = BOUNDING_BOX_OFFSET + 4 * 8;
+
+    /**
+     * Holds the EPSG:4326 bounding box and geometry of each indexed node,
+     * keyed by document id and node id
+     */
+    protected BFile rtreeDb = null;
+    /**
+     * The R-tree over the bounding boxes in {@link #rtreeDb}. It is packed from
+     * the file when a spatial search is first needed, and updated incrementally afterwards.
+     */
+    private SpatialRTree rtree = null;
+    /**
+     * Guards {@link #rtree}. Held while {@link #rtreeDb} is updated too, so that the
+     * first load of the R-tree sees every entry of the file exactly once.
+     */
+    private final Object rtreeLock = new Object();
+    private int rtreeNodeSize = SpatialRTree.DEFAULT_NODE_SIZE;
     
     public GMLHSQLIndex() {
         //Nothing to do ;-)
@@ -84,6 +128,47 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
 
         if (LOG.isDebugEnabled())
             LOG.debug("max_docs_in_context_to_refine_query = " + max_docs_in_context_to_refine_query);
+
+        param = config.getAttribute("rtreeNodeSize");
+        if (param != null && param.length() > 0) {
+            try {
+                rtreeNodeSize = Integer.parseInt(param);
+            } catch (NumberFormatException e) {
+                LOG.error("Invalid value for 'rtreeNodeSize', using default:" + rtreeNodeSize, e);
+            }
+        }
+    }
+
+    @Override
+    public void open() throws DatabaseConfigurationException {
+        File file = new File(getDataDir(), RTREE_FILE_NAME);
+        try {
+            rtreeDb = new BFile(pool, (byte) 0, false, file, pool.getCacheManager(), 1.4, 0.01, 0.07);
+        } catch (DBException e) {
+            throw new DatabaseConfigurationException("Failed to create index file: " + file.getAbsolutePath() + ": " +
+                e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws DBException {
+        super.close();
+        rtreeDb.close();
+    }
+
+    @Override
+    public void sync() throws DBException {
+        super.sync();
+        rtreeDb.flush();
+    }
+
+    @Override
+    public void remove() throws DBException {
+        super.remove();
+        rtreeDb.closeAndRemove();
+        synchronized (rtreeLock) {
+            rtree = null;
+        }
     }
 
     @Override
@@ -275,6 +360,265 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
         }
     }
 
+    /**
+     * Creates the key of a node's entry in the R-tree file.
+     */
+    protected static byte[] getBoundingBoxKey(int docId, NodeId nodeId) {
+        byte[] key = new byte[4 + 2 + (nodeId == null ? 0 : nodeId.size())];
+        ByteConversion.intToByteH(docId, key, 0);
+        if (nodeId != null) {
+            ByteConversion.shortToByteH((short) nodeId.units(), key, 4);
+            nodeId.serialize(key, 6);
+        }
+        return key;
+    }
+
+    /**
+     * Stores the EPSG:4326 geometry of a node and adds its bounding box to the R-tree.
+     */
+    protected void addBoundingBox(DocumentImpl doc, NodeId nodeId, Envelope envelope, byte[] wkb) throws IOException {
+        byte[] key = getBoundingBoxKey(doc.getDocId(), nodeId);
+        byte[] data = getBoundingBoxData(doc.getCollection().getId(), envelope.getMinX(), envelope.getMaxX(),
+            envelope.getMinY(), envelope.getMaxY(), wkb);
+        synchronized (rtreeLock) {
+            putBoundingBox(key, data);
+            if (rtree != null)
+                rtree.insert(new SpatialRTree.Entry(envelope.getMinX(), envelope.getMaxX(),
+                    envelope.getMinY(), envelope.getMaxY(), key));
+        }
+    }
+
+    private static byte[] getBoundingBoxData(int collectionId, double minX, double maxX, double minY, double maxY, byte[] wkb) {
+        byte[] data = new byte[WKB_OFFSET + wkb.length];
+        ByteConversion.intToByteH(collectionId, data, COLLECTION_ID_OFFSET);
+        writeDouble(minX, data, BOUNDING_BOX_OFFSET);
+        writeDouble(maxX, data, BOUNDING_BOX_OFFSET + 8);
+        writeDouble(minY, data, BOUNDING_BOX_OFFSET + 16);
+        writeDouble(maxY, data, BOUNDING_BOX_OFFSET + 24);
+        System.arraycopy(wkb, 0, data, WKB_OFFSET, wkb.length);
+        return data;
+    }
+
+    private void putBoundingBox(byte[] key, byte[] data) throws IOException {
+        Lock lock = rtreeDb.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            rtreeDb.put(new Value(key), data, true);
+        } catch (LockException e) {
+            throw new IOException("Failed to acquire lock for " + rtreeDb.getFile().getName(), e);
+        } catch (ReadOnlyException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
+
+    /**
+     * Removes the bounding box of a node, or of all nodes of the document if nodeId is null.
+     *
+     * @return the number of removed bounding boxes
+     */
+    protected int removeBoundingBoxes(DocumentImpl doc, NodeId nodeId) throws IOException {
+        final Value key = new Value(getBoundingBoxKey(doc.getDocId(), nodeId));
+        final List<SpatialRTree.Entry> removed = new ArrayList<SpatialRTree.Entry>();
+        synchronized (rtreeLock) {
+            removeBoundingBoxes(key, nodeId != null, removed);
+            if (rtree != null) {
+                for (SpatialRTree.Entry entry : removed) {
+                    rtree.remove(entry);
+                }
+            }
+        }
+        return removed.size();
+    }
+
+    private void removeBoundingBoxes(Value key, boolean single, final List<SpatialRTree.Entry> removed) throws IOException {
+        Lock lock = rtreeDb.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            if (single) {
+                Value data = rtreeDb.get(key);
+                if (data != null) {
+                    removed.add(readEntry(key, data));
+                    rtreeDb.remove(key);
+                }
+            } else {
+                rtreeDb.find(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(key.getData(), 0, 4)), new IndexCallback() {
+                    public boolean indexInfo(Value key, Value data) {
+                        removed.add(readEntry(key, data));
+                        return true;
+                    }
+                });
+                for (SpatialRTree.Entry entry : removed) {
+                    rtreeDb.remove(new Value(entry.getKey()));
+                }
+            }
+        } catch (LockException e) {
+            throw new IOException("Failed to acquire lock for " + rtreeDb.getFile().getName(), e);
+        } catch (BTreeException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (TerminatedException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+    }
+
+    /**
+     * Returns the R-tree entries whose EPSG:4326 bounding box is in the given relation
+     * with the envelope, or all entries if the envelope is null.
+     *
+     * @param relation see {@link SpatialRTree#search(double, double, double, double, int)}
+     * @param conn the connection held by the broker, used if the R-tree file has to be rebuilt
+     */
+    protected List<SpatialRTree.Entry> searchBoundingBoxes(DBBroker broker, Connection conn, Envelope envelope, int relation)
+            throws IOException, SQLException {
+        synchronized (rtreeLock) {
+            SpatialRTree tree = getRTree(broker, conn);
+            if (envelope == null)
+                return tree.entries();
+            return tree.search(envelope.getMinX(), envelope.getMaxX(), envelope.getMinY(), envelope.getMaxY(), relation);
+        }
+    }
+
+    /**
+     * @return the collection id of the document containing the entry's node
+     */
+    protected static int getCollectionId(Value data) {
+        return ByteConversion.byteToIntH(data.data(), data.start() + COLLECTION_ID_OFFSET);
+    }
+
+    /**
+     * @return the EPSG:4326 geometry of the entry's node, as WKB
+     */
+    protected static byte[] getWKB(Value data) {
+        byte[] wkb = new byte[data.getLength() - WKB_OFFSET];
+        System.arraycopy(data.data(), data.start() + WKB_OFFSET, wkb, 0, wkb.length);
+        return wkb;
+    }
+
+    /**
+     * Reads the stored data of an R-tree entry.
+     */
+    protected Value getBoundingBoxData(SpatialRTree.Entry entry) throws IOException {
+        Lock lock = rtreeDb.getLock();
+        try {
+            lock.acquire(Lock.READ_LOCK);
+            return rtreeDb.get(new Value(entry.getKey()));
+        } catch (LockException e) {
+            throw new IOException("Failed to acquire lock for " + rtreeDb.getFile().getName(), e);
+        } finally {
+            lock.release(Lock.READ_LOCK);
+        }
+    }
+
+    //Called with rtreeLock held
+    private SpatialRTree getRTree(DBBroker broker, Connection conn) throws IOException, SQLException {
+        if (rtree == null) {
+            List<SpatialRTree.Entry> entries = readBoundingBoxes();
+            if (entries.isEmpty()) {
+                //The R-tree file is new: rebuild it from the geometries stored by a previous version
+                entries = rebuildBoundingBoxes(broker, conn);
+            }
+            rtree = SpatialRTree.load(entries, rtreeNodeSize);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Loaded " + entries.size() + " bounding boxes into the spatial R-tree");
+        }
+        return rtree;
+    }
+
+    private List<SpatialRTree.Entry> readBoundingBoxes() throws IOException {
+        final List<SpatialRTree.Entry> entries = new ArrayList<SpatialRTree.Entry>();
+        Lock lock = rtreeDb.getLock();
+        try {
+            lock.acquire(Lock.READ_LOCK);
+            rtreeDb.find(new IndexQuery(IndexQuery.ANY, ""), new IndexCallback() {
+                public boolean indexInfo(Value key, Value data) {
+                    entries.add(readEntry(key, data));
+                    return true;
+                }
+            });
+        } catch (LockException e) {
+            throw new IOException("Failed to acquire lock for " + rtreeDb.getFile().getName(), e);
+        } catch (BTreeException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (TerminatedException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            lock.release(Lock.READ_LOCK);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the bounding boxes of all geometries in the database table to the R-tree file.
+     * The documents are looked up as the system user, since the entries of all documents
+     * are needed whatever the user of the search.
+     */
+    private List<SpatialRTree.Entry> rebuildBoundingBoxes(DBBroker broker, Connection conn) throws IOException, SQLException {
+        List<SpatialRTree.Entry> entries = new ArrayList<SpatialRTree.Entry>();
+        Statement stmt = conn.createStatement();
+        ResultSet rs = null;
+        Subject user = broker.getSubject();
+        try {
+            rs = stmt.executeQuery("SELECT DOCUMENT_URI, NODE_ID_UNITS, NODE_ID, EPSG4326_WKB, " +
+                "EPSG4326_MINX, EPSG4326_MAXX, EPSG4326_MINY, EPSG4326_MAXY FROM " + TABLE_NAME + ";");
+            if (!rs.next())
+                return entries;
+            LOG.info("Spatial R-tree file " + rtreeDb.getFile().getName() + " is empty: rebuilding it from " +
+                getDataDir() + "/" + db_file_name_prefix);
+            broker.setSubject(pool.getSecurityManager().getSystemSubject());
+            String uri = null;
+            DocumentImpl doc = null;
+            int skipped = 0;
+            do {
+                if (!rs.getString(1).equals(uri)) {
+                    uri = rs.getString(1);
+                    doc = (DocumentImpl) broker.getXMLResource(XmldbURI.create(uri));
+                }
+                if (doc == null) {
+                    skipped++;
+                    continue;
+                }
+                NodeId nodeId = new DLN(rs.getInt(2), rs.getBytes(3), 0);
+                byte[] key = getBoundingBoxKey(doc.getDocId(), nodeId);
+                double minX = rs.getDouble(5);
+                double maxX = rs.getDouble(6);
+                double minY = rs.getDouble(7);
+                double maxY = rs.getDouble(8);
+                putBoundingBox(key, getBoundingBoxData(doc.getCollection().getId(), minX, maxX, minY, maxY, rs.getBytes(4)));
+                entries.add(new SpatialRTree.Entry(minX, maxX, minY, maxY, key));
+            } while (rs.next());
+            LOG.info("Rebuilt " + entries.size() + " bounding boxes in " + rtreeDb.getFile().getName() +
+                (skipped > 0 ? "; skipped " + skipped + " geometries of missing documents" : ""));
+        } catch (PermissionDeniedException e) {
+            //Should not happen as the system user
+            throw new IOException("Failed to rebuild " + rtreeDb.getFile().getName() + ": " + e.getMessage() +
+                ". Reindex the spatial index.", e);
+        } finally {
+            broker.setSubject(user);
+            if (rs != null)
+                rs.close();
+            stmt.close();
+        }
+        return entries;
+    }
+
+    private static SpatialRTree.Entry readEntry(Value key, Value data) {
+        byte[] bytes = data.data();
+        int offset = data.start() + BOUNDING_BOX_OFFSET;
+        return new SpatialRTree.Entry(readDouble(bytes, offset), readDouble(bytes, offset + 8),
+            readDouble(bytes, offset + 16), readDouble(bytes, offset + 24), key.getData());
+    }
+
+    private static void writeDouble(double d, byte[] data, int offset) {
+        ByteConversion.longToByte(Double.doubleToLongBits(d), data, offset);
+    }
+
+    private static double readDouble(byte[] data, int offset) {
+        return Double.longBitsToDouble(ByteConversion.byteToLong(data, offset));
+    }
+
 	@Override
 	public void backupToArchive(RawDataBackup backup) throws IOException {
         File directory = new File(getDataDir());
@@ -296,6 +640,9 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
 	        is.close();
 	        backup.closeEntry();
         }
+        OutputStream os = backup.newEntry(rtreeDb.getFile().getName());
+        rtreeDb.backupToStream(os);
+        backup.closeEntry();
 	}
 	
 }
@@ -28,6 +28,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -43,6 +44,8 @@ import org.exist.numbering.DLN;
 import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
 import org.exist.storage.DBBroker;
+import org.exist.storage.btree.Value;
+import org.exist.util.ByteConversion;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.value.AtomicValue;
@@ -51,9 +54,11 @@ import org.exist.xquery.value.DoubleValue;
 import org.exist.xquery.value.StringValue;
 import org.exist.xquery.value.ValueSequence;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.Base64BinaryValueType;
 import org.exist.xquery.value.BinaryValueFromInputStream;
@@ -125,7 +130,18 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
             /*IS_SIMPLE*/ ps.setBoolean(25, geometry.isSimple());
             //Should always be true (the GML SAX parser makes a too severe check)
             /*IS_VALID*/ ps.setBoolean(26, geometry.isValid());
-            return (ps.executeUpdate() == 1);
+            if (ps.executeUpdate() != 1)
+                return false;
+            try {
+                ((GMLHSQLIndex) index).addBoundingBox(doc, nodeId, EPSG4326_geometry.getEnvelopeInternal(),
+                    wkbWriter.write(EPSG4326_geometry));
+            } catch (IOException e) {
+                //Transforms the exception into an SQLException.
+                SQLException ee = new SQLException(e.getMessage());
+                ee.initCause(e);
+                throw ee;
+            }
+            return true;
         } finally {
             //Let's help the garbage collector...
             geometry = null;
@@ -145,6 +161,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         nodeId.serialize(bytes, 0);
         ps.setBytes(3, bytes);
         try {
+            removeBoundingBoxes(doc, nodeId);
             return (ps.executeUpdate() == 1);
         } finally {
             ps.close();
@@ -158,6 +175,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         ); 
         ps.setString(1, doc.getURI().toString());
         try {
+            removeBoundingBoxes(doc, null);
             return ps.executeUpdate();
         } finally {
             ps.close();
@@ -172,12 +190,33 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         ps.setInt(1, collection.getURI().toString().length());
         ps.setString(2, collection.getURI().toString());
         try {
+            try {
+                for (Iterator<DocumentImpl> i = collection.iteratorNoLock(broker); i.hasNext(); ) {
+                    removeBoundingBoxes(i.next(), null);
+                }
+            } catch (PermissionDeniedException e) {
+                //Transforms the exception into an SQLException.
+                SQLException ee = new SQLException(e.getMessage());
+                ee.initCause(e);
+                throw ee;
+            }
             return ps.executeUpdate();
         } finally {
             ps.close();
         }
     }
 
+    private void removeBoundingBoxes(DocumentImpl doc, NodeId nodeId) throws SQLException {
+        try {
+            ((GMLHSQLIndex) index).removeBoundingBoxes(doc, nodeId);
+        } catch (IOException e) {
+            //Transforms the exception into an SQLException.
+            SQLException ee = new SQLException(e.getMessage());
+            ee.initCause(e);
+            throw ee;
+        }
+    }
+
     //Since an embedded HSQL has only one connection available (unless I'm totally dumb)
     //acquire and release the connection from the index, which is *the* connection's owner 
 
@@ -191,167 +230,154 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         index.releaseConnection(this.broker);
     }
 
+    /**
+     * Spatial searches are answered from the R-tree over the EPSG:4326 bounding boxes
+     * maintained by {@link GMLHSQLIndex}, without querying the database. The exact
+     * spatial relationship is checked for the geometries whose bounding box qualifies.
+     */
     @Override
     protected NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp, Connection conn) throws SQLException {
-        String extraSelection = null;
-        String bboxConstraint = null;
-
-        //TODO : generate it in AbstractGMLJDBCIndexWorker
-        String docConstraint = "";
-        boolean refine_query_on_doc = false;
-        if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
-                refine_query_on_doc = true;
-                DocumentImpl doc;
-                Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
-                doc  = it.next();
-                docConstraint = "(DOCUMENT_URI = '" + doc.getURI().toString() + "')";
-                while(it.hasNext()) {
-                    doc  = it.next();
-                    docConstraint = docConstraint + " OR (DOCUMENT_URI = '" + doc.getURI().toString() + "')";
-                }
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Refine query on documents is enabled.");
-                }
-            } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Refine query on documents is disabled.");
-                }
+        Envelope envelope = EPSG4326_geometry.getEnvelopeInternal();
+        List<SpatialRTree.Entry> candidates;
+        try {
+            switch (spatialOp) {
+            //BBoxes are equal : the candidate's BBox contains the searched one
+            case SpatialOperator.EQUALS:
+            case SpatialOperator.CONTAINS:
+                candidates = ((GMLHSQLIndex) index).searchBoundingBoxes(broker, conn, envelope, SpatialRTree.CONTAINS);
+                break;
+            //Nothing much we can do with the BBox at this stage
+            case SpatialOperator.DISJOINT:
+                candidates = ((GMLHSQLIndex) index).searchBoundingBoxes(broker, conn, null, SpatialRTree.INTERSECTS);
+                break;
+            //BBoxes intersect themselves
+            case SpatialOperator.INTERSECTS:
+            case SpatialOperator.TOUCHES:
+            case SpatialOperator.CROSSES:
+            case SpatialOperator.OVERLAPS:
+                candidates = ((GMLHSQLIndex) index).searchBoundingBoxes(broker, conn, envelope, SpatialRTree.INTERSECTS);
+                break;
+            //BBox is fully within
+            case SpatialOperator.WITHIN:
+                candidates = ((GMLHSQLIndex) index).searchBoundingBoxes(broker, conn, envelope, SpatialRTree.WITHIN);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
             }
+        } catch (IOException e) {
+            //Transforms the exception into an SQLException.
+            SQLException ee = new SQLException(e.getMessage());
+            ee.initCause(e);
+            throw ee;
         }
 
-        switch (spatialOp) {
-        //BBoxes are equal
-        case SpatialOperator.EQUALS:
-            bboxConstraint = "(EPSG4326_MINX = ? AND EPSG4326_MAXX = ?)" +
-                " AND (EPSG4326_MINY = ? AND EPSG4326_MAXY = ?)";
-            break;
-        //Nothing much we can do with the BBox at this stage
-        case SpatialOperator.DISJOINT:
-            //Retrieve the BBox though...
-            extraSelection = ", EPSG4326_MINX, EPSG4326_MAXX, EPSG4326_MINY, EPSG4326_MAXY";
-            break;
-        //BBoxes intersect themselves
-        case SpatialOperator.INTERSECTS:
-        case SpatialOperator.TOUCHES:
-        case SpatialOperator.CROSSES:
-        case SpatialOperator.OVERLAPS:
-            bboxConstraint = "(EPSG4326_MAXX >= ? AND EPSG4326_MINX <= ?)" +
-            " AND (EPSG4326_MAXY >= ? AND EPSG4326_MINY <= ?)";
-            break;
-        //BBox is fully within
-        case SpatialOperator.WITHIN:
-            bboxConstraint = "(EPSG4326_MINX >= ? AND EPSG4326_MAXX <= ?)" +
-            " AND (EPSG4326_MINY >= ? AND EPSG4326_MAXY <= ?)";
-            break;
-        //BBox fully contains
-        case SpatialOperator.CONTAINS: 
-            bboxConstraint = "(EPSG4326_MINX <= ? AND EPSG4326_MAXX >= ?)" +
-            " AND (EPSG4326_MINY <= ? AND EPSG4326_MAXY >= ?)";
-            break;
-        default:
-            throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
-        }
-        PreparedStatement ps = conn.prepareStatement(
-            "SELECT EPSG4326_WKB, DOCUMENT_URI, NODE_ID_UNITS, NODE_ID" + (extraSelection == null ? "" : extraSelection) +
-            " FROM " + GMLHSQLIndex.TABLE_NAME + 
-            (bboxConstraint == null ? 
-                (refine_query_on_doc ? " WHERE " + docConstraint : "") : 
-                " WHERE " +	(refine_query_on_doc ? "(" + docConstraint + ") AND " :	"") + bboxConstraint) + ";"
-        );
-        if (bboxConstraint != null) {
-            ps.setDouble(1, EPSG4326_geometry.getEnvelopeInternal().getMinX());
-            ps.setDouble(2, EPSG4326_geometry.getEnvelopeInternal().getMaxX());
-            ps.setDouble(3, EPSG4326_geometry.getEnvelopeInternal().getMinY());
-            ps.setDouble(4, EPSG4326_geometry.getEnvelopeInternal().getMaxY());
-        }
-        ResultSet rs = null;
-        NodeSet result = null;
-        try { 
-            int disjointPostFiltered = 0;
-            rs = ps.executeQuery();
-            result = new ExtArrayNodeSet(); //new ExtArrayNodeSet(docs.getLength(), 250)
-            while (rs.next()) {
-                DocumentImpl doc = null;
+        int disjointPostFiltered = 0;
+        NodeSet result = new ExtArrayNodeSet();
+        for (SpatialRTree.Entry candidate : candidates) {
+            if (spatialOp == SpatialOperator.EQUALS &&
+                    (candidate.getMinX() != envelope.getMinX() || candidate.getMaxX() != envelope.getMaxX() ||
+                    candidate.getMinY() != envelope.getMinY() || candidate.getMaxY() != envelope.getMaxY()))
+                continue;
+            byte[] key = candidate.getKey();
+            int docId = ByteConversion.byteToIntH(key, 0);
+            DocumentImpl doc;
+            Value data = null;
+            if (contextSet != null) {
+                //Skip the documents which are not in the context without reading anything
+                doc = contextSet.getDocumentSet().getDoc(docId);
+                if (doc == null)
+                    continue;
+            } else {
+                //contextSet == null should be used to scan the whole index
+                data = getBoundingBoxData(candidate);
+                if (data == null)
+                    continue;
                 try {
-                    doc = (DocumentImpl)broker.getXMLResource(XmldbURI.create(rs.getString("DOCUMENT_URI")));        			
+                    doc = broker.getResourceById(GMLHSQLIndex.getCollectionId(data), DocumentImpl.XML_FILE, docId);
                 } catch (PermissionDeniedException e) {
                     LOG.debug(e);
                     //Ignore since the broker has no right on the document
                     continue;
                 }
-                //contextSet == null should be used to scan the whole index
-                if (contextSet == null || refine_query_on_doc || contextSet.getDocumentSet().contains(doc.getDocId())) {
-                    NodeId nodeId = new DLN(rs.getInt("NODE_ID_UNITS"), rs.getBytes("NODE_ID"), 0); 
-                    NodeProxy p = new NodeProxy(doc, nodeId);
-                    //Node is in the context : check if it is accurate
-                    //contextSet.contains(p) would have made more sense but there is a problem with
-                    //VirtualNodeSet when on the DESCENDANT_OR_SELF axis
-                    if (contextSet == null || contextSet.get(p) != null) {
-                        boolean geometryMatches = false;
-                        if (spatialOp == SpatialOperator.DISJOINT) {
-                            //No BBox intersection : obviously disjoint
-                            if (rs.getDouble("EPSG4326_MAXX") < EPSG4326_geometry.getEnvelopeInternal().getMinX() ||
-                                rs.getDouble("EPSG4326_MINX") > EPSG4326_geometry.getEnvelopeInternal().getMaxX() ||
-                                rs.getDouble("EPSG4326_MAXY") < EPSG4326_geometry.getEnvelopeInternal().getMinY() ||
-                                rs.getDouble("EPSG4326_MINY") > EPSG4326_geometry.getEnvelopeInternal().getMaxY()) {
-                                geometryMatches = true;
-                                disjointPostFiltered++;	
-                            }
-                        }
-                        //Possible match : check the geometry
-                        if (!geometryMatches) {	
-                            try {
-                                Geometry geometry = wkbReader.read(rs.getBytes("EPSG4326_WKB"));
-                                switch (spatialOp) {
-                                case SpatialOperator.EQUALS:
-                                    geometryMatches = geometry.equals(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.DISJOINT:
-                                    geometryMatches = geometry.disjoint(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.INTERSECTS:
-                                    geometryMatches = geometry.intersects(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.TOUCHES:
-                                    geometryMatches = geometry.touches(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.CROSSES:
-                                    geometryMatches = geometry.crosses(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.WITHIN:
-                                    geometryMatches = geometry.within(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.CONTAINS:
-                                    geometryMatches = geometry.contains(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.OVERLAPS:
-                                    geometryMatches = geometry.overlaps(EPSG4326_geometry);
-                                    break;
-                                }
-                            } catch (ParseException e) {
-                                //Transforms the exception into an SQLException.
-                                //Very unlikely to happen though...
-                                SQLException ee = new SQLException(e.getMessage());
-                                ee.initCause(e);
-                                throw ee;
-                            }
-                        }
-                        if (geometryMatches)
-                            result.add(p);
-                    }
+                if (doc == null)
+                    continue;
+            }
+            NodeId nodeId = new DLN(ByteConversion.byteToShortH(key, 4), key, 6);
+            NodeProxy p = new NodeProxy(doc, nodeId);
+            //Node is in the context : check if it is accurate
+            //contextSet.contains(p) would have made more sense but there is a problem with
+            //VirtualNodeSet when on the DESCENDANT_OR_SELF axis
+            if (contextSet != null && contextSet.get(p) == null)
+                continue;
+            boolean geometryMatches = false;
+            if (spatialOp == SpatialOperator.DISJOINT) {
+                //No BBox intersection : obviously disjoint
+                if (candidate.getMaxX() < envelope.getMinX() || candidate.getMinX() > envelope.getMaxX() ||
+                    candidate.getMaxY() < envelope.getMinY() || candidate.getMinY() > envelope.getMaxY()) {
+                    geometryMatches = true;
+                    disjointPostFiltered++;
                 }
             }
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(rs.getRow() + " eligible geometries, " + result.getItemCount() + "selected" +
-                    (spatialOp == SpatialOperator.DISJOINT ? "(" + disjointPostFiltered + " post filtered)" : ""));
+            //Possible match : check the geometry
+            if (!geometryMatches) {
+                if (data == null)
+                    data = getBoundingBoxData(candidate);
+                if (data == null)
+                    continue;
+                try {
+                    Geometry geometry = wkbReader.read(GMLHSQLIndex.getWKB(data));
+                    switch (spatialOp) {
+                    case SpatialOperator.EQUALS:
+                        geometryMatches = geometry.equals(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.DISJOINT:
+                        geometryMatches = geometry.disjoint(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.INTERSECTS:
+                        geometryMatches = geometry.intersects(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.TOUCHES:
+                        geometryMatches = geometry.touches(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.CROSSES:
+                        geometryMatches = geometry.crosses(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.WITHIN:
+                        geometryMatches = geometry.within(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.CONTAINS:
+                        geometryMatches = geometry.contains(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.OVERLAPS:
+                        geometryMatches = geometry.overlaps(EPSG4326_geometry);
+                        break;
+                    }
+                } catch (ParseException e) {
+                    //Transforms the exception into an SQLException.
+                    //Very unlikely to happen though...
+                    SQLException ee = new SQLException(e.getMessage());
+                    ee.initCause(e);
+                    throw ee;
+                }
             }
-            return result;
-        } finally {
-            if (rs != null)
-                rs.close();
-            if (ps != null)
-                ps.close();
+            if (geometryMatches)
+                result.add(p);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(candidates.size() + " eligible geometries, " + result.getItemCount() + "selected" +
+                (spatialOp == SpatialOperator.DISJOINT ? "(" + disjointPostFiltered + " post filtered)" : ""));
+        }
+        return result;
+    }
+
+    private Value getBoundingBoxData(SpatialRTree.Entry entry) throws SQLException {
+        try {
+            return ((GMLHSQLIndex) index).getBoundingBoxData(entry);
+        } catch (IOException e) {
+            //Transforms the exception into an SQLException.
+            SQLException ee = new SQLException(e.getMessage());
+            ee.initCause(e);
+            throw ee;
         }
     }
 
@@ -0,0 +1,411 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.indexing.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An in-memory R-tree over the bounding boxes of indexed geometries. Each entry
+ * is identified by an opaque key, which the index uses to locate the stored geometry.
+ *
+ * The tree is packed with the Sort-Tile-Recursive algorithm when it is loaded and
+ * updated incrementally afterwards: entries are inserted into the leaf needing the
+ * least enlargement, splitting full nodes along their longest axis. Removed entries
+ * only drop nodes which become empty, so the tree may get less compact until it is
+ * loaded again.
+ */
+public class SpatialRTree {
+
+    /** The entry's bounding box intersects the searched box */
+    public final static int INTERSECTS = 0;
+    /** The entry's bounding box is within the searched box */
+    public final static int WITHIN = 1;
+    /** The entry's bounding box contains the searched box */
+    public final static int CONTAINS = 2;
+
+    public final static int DEFAULT_NODE_SIZE = 32;
+
+    private final int maxEntries;
+
+    private Node root;
+    private int size = 0;
+
+    public SpatialRTree() {
+        this(DEFAULT_NODE_SIZE);
+    }
+
+    public SpatialRTree(int maxEntries) {
+        if (maxEntries < 4)
+            throw new IllegalArgumentException("R-tree nodes need room for at least 4 entries");
+        this.maxEntries = maxEntries;
+        this.root = new Node(true);
+    }
+
+    /**
+     * Creates a tree containing the given entries, packed with the Sort-Tile-Recursive algorithm.
+     */
+    public static SpatialRTree load(List<Entry> entries, int maxEntries) {
+        final SpatialRTree tree = new SpatialRTree(maxEntries);
+        if (entries.isEmpty())
+            return tree;
+        List<Box> level = new ArrayList<Box>(entries);
+        boolean leaf = true;
+        do {
+            level = tree.pack(level, leaf);
+            leaf = false;
+        } while (level.size() > 1);
+        tree.root = (Node) level.get(0);
+        tree.size = entries.size();
+        return tree;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void insert(Entry entry) {
+        Node node = root;
+        while (!node.leaf) {
+            node = node.chooseChild(entry);
+        }
+        node.add(entry);
+        size++;
+        while (node != null) {
+            if (node.count > maxEntries) {
+                final Node sibling = split(node);
+                if (node == root) {
+                    root = new Node(false);
+                    root.add(node);
+                    root.add(sibling);
+                    break;
+                }
+                node.parent.add(sibling);
+            } else
+                node.include(entry);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Removes the entry with the given key and bounding box.
+     *
+     * @return true if the entry was found
+     */
+    public synchronized boolean remove(Entry entry) {
+        final Node leaf = findLeaf(root, entry);
+        if (leaf == null)
+            return false;
+        for (int i = 0; i < leaf.count; i++) {
+            if (Arrays.equals(((Entry) leaf.children[i]).key, entry.key)) {
+                leaf.removeAt(i);
+                break;
+            }
+        }
+        size--;
+        // drop nodes which became empty and shrink the bounding boxes of their ancestors
+        Node node = leaf;
+        while (node != root && node.count == 0) {
+            final Node parent = node.parent;
+            parent.remove(node);
+            node = parent;
+        }
+        for (; node != null; node = node.parent) {
+            node.recompute();
+        }
+        if (!root.leaf && root.count == 1) {
+            root = (Node) root.children[0];
+            root.parent = null;
+        } else if (root.count == 0)
+            root = new Node(true);
+        return true;
+    }
+
+    /**
+     * Returns the entries whose bounding box is in the given relation with the searched box.
+     *
+     * @param relation one of {@link #INTERSECTS}, {@link #WITHIN} or {@link #CONTAINS}
+     */
+    public synchronized List<Entry> search(double minX, double maxX, double minY, double maxY, int relation) {
+        final Box box = new Entry(minX, maxX, minY, maxY, null);
+        final List<Entry> result = new ArrayList<Entry>();
+        if (root.count > 0)
+            search(root, box, relation, result);
+        return result;
+    }
+
+    /**
+     * Returns all entries of the tree.
+     */
+    public synchronized List<Entry> entries() {
+        final List<Entry> result = new ArrayList<Entry>(size);
+        if (root.count > 0)
+            collect(root, result);
+        return result;
+    }
+
+    private void search(Node node, Box box, int relation, List<Entry> result) {
+        for (int i = 0; i < node.count; i++) {
+            final Box child = node.children[i];
+            if (node.leaf) {
+                final boolean matches;
+                switch (relation) {
+                    case WITHIN:
+                        matches = box.contains(child);
+                        break;
+                    case CONTAINS:
+                        matches = child.contains(box);
+                        break;
+                    default:
+                        matches = child.intersects(box);
+                }
+                if (matches)
+                    result.add((Entry) child);
+            } else if (relation == CONTAINS ? child.contains(box) : child.intersects(box))
+                search((Node) child, box, relation, result);
+        }
+    }
+
+    private void collect(Node node, List<Entry> result) {
+        for (int i = 0; i < node.count; i++) {
+            if (node.leaf)
+                result.add((Entry) node.children[i]);
+            else
+                collect((Node) node.children[i], result);
+        }
+    }
+
+    private Node findLeaf(Node node, Entry entry) {
+        for (int i = 0; i < node.count; i++) {
+            final Box child = node.children[i];
+            if (node.leaf) {
+                if (Arrays.equals(((Entry) child).key, entry.key))
+                    return node;
+            } else if (child.contains(entry)) {
+                final Node leaf = findLeaf((Node) child, entry);
+                if (leaf != null)
+                    return leaf;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves the upper half of the node's children, ordered along the longest
+     * axis of the node, into a new sibling.
+     */
+    private Node split(Node node) {
+        final List<Box> children = new ArrayList<Box>(Arrays.asList(node.children).subList(0, node.count));
+        Collections.sort(children, node.maxX - node.minX >= node.maxY - node.minY ? BY_X : BY_Y);
+        final int half = children.size() / 2;
+        node.clear();
+        for (Box child : children.subList(0, half)) {
+            node.add(child);
+        }
+        final Node sibling = new Node(node.leaf);
+        for (Box child : children.subList(half, children.size())) {
+            sibling.add(child);
+        }
+        return sibling;
+    }
+
+    /**
+     * Packs one level of the tree: the boxes are sorted into vertical slices by x,
+     * and each slice is sorted by y and cut into nodes.
+     */
+    private List<Box> pack(List<Box> boxes, boolean leaf) {
+        final int nodeCount = (boxes.size() + maxEntries - 1) / maxEntries;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        final int sliceSize = sliceCount * maxEntries;
+        Collections.sort(boxes, BY_X);
+        final List<Box> nodes = new ArrayList<Box>(nodeCount);
+        for (int start = 0; start < boxes.size(); start += sliceSize) {
+            final List<Box> slice = boxes.subList(start, Math.min(start + sliceSize, boxes.size()));
+            Collections.sort(slice, BY_Y);
+            for (int i = 0; i < slice.size(); i += maxEntries) {
+                final Node node = new Node(leaf);
+                for (Box child : slice.subList(i, Math.min(i + maxEntries, slice.size()))) {
+                    node.add(child);
+                }
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private final static Comparator<Box> BY_X = new Comparator<Box>() {
+        @Override
+        public int compare(Box o1, Box o2) {
+            return Double.compare(o1.minX + o1.maxX, o2.minX + o2.maxX);
+        }
+    };
+
+    private final static Comparator<Box> BY_Y = new Comparator<Box>() {
+        @Override
+        public int compare(Box o1, Box o2) {
+            return Double.compare(o1.minY + o1.maxY, o2.minY + o2.maxY);
+        }
+    };
+
+    private static abstract class Box {
+
+        double minX;
+        double maxX;
+        double minY;
+        double maxY;
+
+        boolean intersects(Box other) {
+            return maxX >= other.minX && minX <= other.maxX && maxY >= other.minY && minY <= other.maxY;
+        }
+
+        boolean contains(Box other) {
+            return minX <= other.minX && maxX >= other.maxX && minY <= other.minY && maxY >= other.maxY;
+        }
+
+        double area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        double enlargement(Box other) {
+            return (Math.max(maxX, other.maxX) - Math.min(minX, other.minX)) *
+                (Math.max(maxY, other.maxY) - Math.min(minY, other.minY)) - area();
+        }
+    }
+
+    /**
+     * The bounding box of an indexed geometry.
+     */
+    public static class Entry extends Box {
+
+        private final byte[] key;
+
+        public Entry(double minX, double maxX, double minY, double maxY, byte[] key) {
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.key = key;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public double getMinX() {
+            return minX;
+        }
+
+        public double getMaxX() {
+            return maxX;
+        }
+
+        public double getMinY() {
+            return minY;
+        }
+
+        public double getMaxY() {
+            return maxY;
+        }
+    }
+
+    private class Node extends Box {
+
+        final boolean leaf;
+        final Box[] children = new Box[maxEntries + 1];
+        int count = 0;
+        Node parent = null;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        void add(Box child) {
+            children[count++] = child;
+            if (child instanceof Node)
+                ((Node) child).parent = this;
+            if (count == 1) {
+                minX = child.minX;
+                maxX = child.maxX;
+                minY = child.minY;
+                maxY = child.maxY;
+            } else
+                include(child);
+        }
+
+        void include(Box child) {
+            minX = Math.min(minX, child.minX);
+            maxX = Math.max(maxX, child.maxX);
+            minY = Math.min(minY, child.minY);
+            maxY = Math.max(maxY, child.maxY);
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(children, i + 1, children, i, count - i - 1);
+            children[--count] = null;
+        }
+
+        void remove(Box child) {
+            for (int i = 0; i < count; i++) {
+                if (children[i] == child) {
+                    removeAt(i);
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(children, null);
+            count = 0;
+        }
+
+        void recompute() {
+            if (count == 0)
+                return;
+            final Box first = children[0];
+            minX = first.minX;
+            maxX = first.maxX;
+            minY = first.minY;
+            maxY = first.maxY;
+            for (int i = 1; i < count; i++) {
+                include(children[i]);
+            }
+        }
+
+        Node chooseChild(Box box) {
+            Node best = null;
+            double bestEnlargement = 0;
+            for (int i = 0; i < count; i++) {
+                final Node child = (Node) children[i];
+                final double enlargement = child.enlargement(box);
+                if (best == null || enlargement < bestEnlargement ||
+                        (enlargement == bestEnlargement && child.area() < best.area())) {
+                    best = child;
+                    bestEnlargement = enlargement;
+                }
+            }
+            return best;
+        }
+    }
+}
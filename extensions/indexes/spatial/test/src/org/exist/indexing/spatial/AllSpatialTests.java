@@ -28,7 +28,8 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-    GMLIndexTest.class
+    GMLIndexTest.class,
+    SpatialRTreeTest.class
 })
 public class AllSpatialTests {
 }
@@ -0,0 +1,112 @@
+package org.exist.indexing.spatial;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.exist.util.ByteConversion;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialRTreeTest {
+
+    private static final int COUNT = 5000;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void loaded() {
+        final List<SpatialRTree.Entry> entries = randomEntries(COUNT);
+        final SpatialRTree tree = SpatialRTree.load(new ArrayList<SpatialRTree.Entry>(entries), 8);
+        assertEquals(COUNT, tree.size());
+        checkQueries(tree, entries);
+    }
+
+    @Test
+    public void inserted() {
+        final List<SpatialRTree.Entry> entries = randomEntries(COUNT);
+        final SpatialRTree tree = new SpatialRTree(8);
+        for (SpatialRTree.Entry entry : entries) {
+            tree.insert(entry);
+        }
+        assertEquals(COUNT, tree.size());
+        assertEquals(COUNT, tree.entries().size());
+        checkQueries(tree, entries);
+    }
+
+    @Test
+    public void removed() {
+        final List<SpatialRTree.Entry> entries = randomEntries(COUNT);
+        final SpatialRTree tree = SpatialRTree.load(new ArrayList<SpatialRTree.Entry>(entries), 8);
+        final List<SpatialRTree.Entry> remaining = new ArrayList<SpatialRTree.Entry>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (i % 3 == 0)
+                assertTrue(tree.remove(entries.get(i)));
+            else
+                remaining.add(entries.get(i));
+        }
+        assertFalse(tree.remove(entries.get(0)));
+        assertEquals(remaining.size(), tree.size());
+        checkQueries(tree, remaining);
+        for (SpatialRTree.Entry entry : remaining) {
+            assertTrue(tree.remove(entry));
+        }
+        assertEquals(0, tree.size());
+        assertEquals(0, tree.search(-1000, 1000, -1000, 1000, SpatialRTree.INTERSECTS).size());
+    }
+
+    private void checkQueries(SpatialRTree tree, List<SpatialRTree.Entry> entries) {
+        for (int i = 0; i < 50; i++) {
+            final double x = random.nextDouble() * 360 - 180;
+            final double y = random.nextDouble() * 180 - 90;
+            final double w = random.nextDouble() * 60;
+            final double h = random.nextDouble() * 30;
+            for (int relation : new int[] { SpatialRTree.INTERSECTS, SpatialRTree.WITHIN, SpatialRTree.CONTAINS }) {
+                final Set<Integer> expected = new HashSet<Integer>();
+                for (SpatialRTree.Entry entry : entries) {
+                    if (matches(entry, x, x + w, y, y + h, relation))
+                        expected.add(id(entry));
+                }
+                final Set<Integer> found = new HashSet<Integer>();
+                for (SpatialRTree.Entry entry : tree.search(x, x + w, y, y + h, relation)) {
+                    found.add(id(entry));
+                }
+                assertEquals(expected, found);
+            }
+        }
+    }
+
+    private static boolean matches(SpatialRTree.Entry e, double minX, double maxX, double minY, double maxY, int relation) {
+        switch (relation) {
+            case SpatialRTree.WITHIN:
+                return e.getMinX() >= minX && e.getMaxX() <= maxX && e.getMinY() >= minY && e.getMaxY() <= maxY;
+            case SpatialRTree.CONTAINS:
+                return e.getMinX() <= minX && e.getMaxX() >= maxX && e.getMinY() <= minY && e.getMaxY() >= maxY;
+            default:
+                return e.getMaxX() >= minX && e.getMinX() <= maxX && e.getMaxY() >= minY && e.getMinY() <= maxY;
+        }
+    }
+
+    private List<SpatialRTree.Entry> randomEntries(int count) {
+        final List<SpatialRTree.Entry> entries = new ArrayList<SpatialRTree.Entry>(count);
+        for (int i = 0; i < count; i++) {
+            final double x = random.nextDouble() * 360 - 180;
+            final double y = random.nextDouble() * 180 - 90;
+            // mostly small features, some large ones
+            final double size = i % 100 == 0 ? 40 : random.nextDouble() * 2;
+            final byte[] key = new byte[4];
+            ByteConversion.intToByteH(i, key, 0);
+            entries.add(new SpatialRTree.Entry(x, x + size, y, y + size / 2, key));
+        }
+        return entries;
+    }
+
+    private static int id(SpatialRTree.Entry entry) {
+        return ByteConversion.byteToIntH(entry.getKey(), 0);
+    }
+}
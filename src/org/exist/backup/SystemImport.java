@@ -66,6 +66,7 @@ public class SystemImport {
         
         //login
         final DBBroker broker = db.authenticate(username, credentials);
+        broker.startBulkIndexing();
         try {
         	//set the new password
 	        setAdminCredentials(broker, newCredentials);
@@ -96,6 +97,7 @@ public class SystemImport {
 	            listener.restoreFinished();
 	        }
         } finally {
+        	broker.endBulkIndexing();
         	db.release(broker);
         }
     }
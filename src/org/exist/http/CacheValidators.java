@@ -0,0 +1,106 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.http;
+
+import org.apache.log4j.Logger;
+import org.exist.dom.DocumentImpl;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+
+/**
+ * Generates the validators of HTTP responses (ETag and Last-Modified) and evaluates
+ * the conditional request headers If-None-Match and If-Modified-Since, following
+ * RFC 2616 sections 14.25 and 14.26.
+ */
+public class CacheValidators {
+
+    private final static Logger LOG = Logger.getLogger(CacheValidators.class);
+
+    /**
+     * Create an entity tag for a stored document. The tag changes whenever the document
+     * is modified. As the same document may be returned in different representations,
+     * e.g. with a stylesheet applied, the request parameters selecting the representation
+     * are passed as variant.
+     */
+    public static String documentETag(DocumentImpl doc, long lastModified, String variant) {
+        final StringBuilder tag = new StringBuilder();
+        tag.append('"').append(Integer.toHexString(doc.getDocId()));
+        tag.append('-').append(Long.toHexString(lastModified));
+        if (variant != null && variant.length() > 0) {
+            tag.append('-').append(Integer.toHexString(variant.hashCode()));
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Create an entity tag from the content of a response.
+     */
+    public static String contentETag(byte[] data) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(data)) + "-" + Integer.toHexString(data.length) + "\"";
+    }
+
+    /**
+     * Check the conditional headers of a GET or HEAD request.
+     *
+     * @param etag the entity tag of the current response or null
+     * @param lastModified the last modification time of the current response or -1 if unknown
+     * @return true if the client's copy is still valid and a 304 (Not Modified) response
+     *  should be sent instead of the content
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence: If-Modified-Since is ignored if present
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        try {
+            final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            // a date which is later than the server's current time is invalid
+            return ifModifiedSince > -1 && ifModifiedSince <= System.currentTimeMillis() &&
+                lastModified <= ifModifiedSince;
+        } catch (final IllegalArgumentException iae) {
+            LOG.warn("Illegal If-Modified-Since HTTP Header sent on request, ignoring. " + iae.getMessage(), iae);
+            return false;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag)) {
+                return true;
+            }
+            // weak comparison is used for GET and HEAD
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
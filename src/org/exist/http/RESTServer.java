@@ -23,12 +23,9 @@ package org.exist.http;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -43,7 +40,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.OutputKeys;
@@ -115,11 +111,13 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLFilterImpl;
 /**
  *
@@ -299,7 +297,7 @@ public class RESTServer {
         try {
             if (_var != null) {
                 final NamespaceExtractor nsExtractor = new NamespaceExtractor();
-                variables = parseXML(_var, nsExtractor);
+                variables = parseXML(new InputSource(new StringReader(_var)), nsExtractor);
                 namespaces = nsExtractor.getNamespaces();
             }
         } catch (final SAXException e) {
@@ -568,6 +566,7 @@ public class RESTServer {
                 // must be set so
                 response.addHeader("Content-Length", Long.toString(resource.getContentLength()));
                 setCreatedAndLastModifiedHeaders(response, metadata.getCreated(), metadata.getLastModified());
+                response.setHeader("ETag", CacheValidators.documentETag(resource, metadata.getLastModified(), request.getQueryString()));
             } else {
                 final Collection col = broker.getCollection(pathUri);
                 //no resource or collection
@@ -718,15 +717,21 @@ public class RESTServer {
 
             final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
             final Txn transaction = transact.beginTransaction();
+            VirtualTempFile vtempFile = null;
 
             try {
-                final String content = getRequestContent(request);
-                final NamespaceExtractor nsExtractor = new NamespaceExtractor();
-                final ElementImpl root = parseXML(content, nsExtractor);
-                final String rootNS = root.getNamespaceURI();
+                // the request content may be large (e.g. an XUpdate with inline
+                // fragments), so it is streamed from a temporary file, not read into a string
+                vtempFile = cacheRequestContent(request);
+                final String requestEncoding = request.getCharacterEncoding();
+                final RootElementSniffer rootElement = new RootElementSniffer();
+                rootElement.parse(new VirtualTempFileInputSource(vtempFile, requestEncoding));
+                final String rootNS = rootElement.namespaceURI;
                 
                 if (rootNS != null && rootNS.equals(Namespaces.EXIST_NS)) {
 
+                    final NamespaceExtractor nsExtractor = new NamespaceExtractor();
+                    final ElementImpl root = parseXML(new VirtualTempFileInputSource(vtempFile, requestEncoding), nsExtractor);
                     if (Query.xmlKey().equals(root.getLocalName())) {
                         // process <query>xpathQuery</query>
                         String option = root.getAttribute(Start.xmlKey());
@@ -860,7 +865,7 @@ public class RESTServer {
 
                 } else if (rootNS != null && rootNS.equals(XUpdateProcessor.XUPDATE_NS)) {
 
-                    LOG.debug("Got xupdate request: " + content);
+                    LOG.debug("Got xupdate request");
                     final MutableDocumentSet docs = new DefaultDocumentSet();
                     final Collection collection = broker.getCollection(pathUri);
                     if (collection != null) {
@@ -878,7 +883,7 @@ public class RESTServer {
                     }
 
                     final XUpdateProcessor processor = new XUpdateProcessor(broker, docs, AccessContext.REST);
-                    final Modification modifications[] = processor.parse(new InputSource(new StringReader(content)));
+                    final Modification modifications[] = processor.parse(new VirtualTempFileInputSource(vtempFile, requestEncoding));
                     long mods = 0;
                     for (int i = 0; i < modifications.length; i++) {
                         mods += modifications[i].process(transaction);
@@ -893,7 +898,7 @@ public class RESTServer {
 
                 } else {
                     transact.abort(transaction);
-                    throw new BadRequestException("Unknown XML root element: " + root.getNodeName());
+                    throw new BadRequestException("Unknown XML root element: " + rootElement.qName);
                 }
 
             } catch (final SAXException e) {
@@ -926,6 +931,9 @@ public class RESTServer {
                 throw new PermissionDeniedException(e.getMessage());
             } finally {
                 transact.close(transaction);
+                if (vtempFile != null) {
+                    vtempFile.delete();
+                }
             }
 
             // content type = application/x-www-form-urlencoded
@@ -934,18 +942,12 @@ public class RESTServer {
         }
     }
 
-    private ElementImpl parseXML(final String content,
+    private ElementImpl parseXML(final InputSource src,
             final NamespaceExtractor nsExtractor)
             throws ParserConfigurationException, SAXException, IOException {
         
-        final SAXParserFactory factory = SAXParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        final InputSource src = new InputSource(new StringReader(content));
-        final SAXParser parser = factory.newSAXParser();
-        final XMLReader reader = parser.getXMLReader();
+        final XMLReader reader = newXMLReader();
         final SAXAdapter adapter = new SAXAdapter();
-        //reader.setContentHandler(adapter);
-        //reader.parse(src);
         nsExtractor.setContentHandler(adapter);
         nsExtractor.setParent(reader);
         nsExtractor.parse(src);
@@ -955,6 +957,49 @@ public class RESTServer {
         return (ElementImpl) doc.getDocumentElement();
     }
 
+    /**
+     * Creates a namespace-aware reader for request content. Readers of the
+     * database's parser pool are not used: they are configured for storing
+     * documents, e.g. with the validation settings of conf.xml.
+     */
+    private static XMLReader newXMLReader() throws ParserConfigurationException, SAXException {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newSAXParser().getXMLReader();
+    }
+
+    /**
+     * Reads the name of the root element of the request content and stops
+     * parsing, so the content can be passed on as a stream depending on its type.
+     */
+    private static class RootElementSniffer extends DefaultHandler {
+
+        private final static SAXException STOP = new SAXException("root element found");
+
+        String namespaceURI = null;
+        String qName = null;
+
+        void parse(final InputSource src) throws ParserConfigurationException, SAXException, IOException {
+            final XMLReader reader = newXMLReader();
+            reader.setContentHandler(this);
+            try {
+                reader.parse(src);
+            } catch (final SAXException e) {
+                if (e != STOP) {
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+                throws SAXException {
+            this.namespaceURI = uri;
+            this.qName = qName;
+            throw STOP;
+        }
+    }
+
     private class NamespaceExtractor extends XMLFilterImpl {
 
         final List<Namespace> namespaces = new ArrayList<Namespace>();
@@ -1024,20 +1069,10 @@ public class RESTServer {
         VirtualTempFile vtempFile = null;
         try {
             // fourth, process the request
-            InputStream is = request.getInputStream();
-            long len = request.getContentLength();
-            final String lenstr = request.getHeader("Content-Length");
-            if (lenstr != null) {
-                len = Long.parseLong(lenstr);
-            }
             // put may send a lot of data, so save it
             // to a temporary file first.
-
-            vtempFile = new VirtualTempFile();
-            vtempFile.setTempPrefix("existSRV");
-            vtempFile.setTempPostfix(".tmp");
-            vtempFile.write(is, len);
-            vtempFile.close();
+            vtempFile = cacheRequestContent(request);
+            InputStream is;
 
             final XmldbURI docUri = path.lastSegment();
             final XmldbURI collUri = path.removeLastSegment();
@@ -1250,24 +1285,24 @@ public class RESTServer {
         return false;
     }
 
-    private String getRequestContent(final HttpServletRequest request) throws IOException {
-
-        String encoding = request.getCharacterEncoding();
-        if (encoding == null) {
-            encoding = "UTF-8";
-        }
-
-        final InputStream is = request.getInputStream();
-        final Reader reader = new InputStreamReader(is, encoding);
-        final StringWriter content = new StringWriter();
-        final char ch[] = new char[4096];
-        int len = 0;
-        while ((len = reader.read(ch)) > -1) {
-            content.write(ch, 0, len);
-        }
-
-        final String xml = content.toString();
-        return xml;
+    /**
+     * Saves the request content to a temporary file. Small contents are kept in
+     * memory, larger ones are written to disk, so memory use does not depend on
+     * the size of the request.
+     */
+    private VirtualTempFile cacheRequestContent(final HttpServletRequest request) throws IOException {
+        long len = request.getContentLength();
+        final String lenstr = request.getHeader("Content-Length");
+        if (lenstr != null) {
+            len = Long.parseLong(lenstr);
+        }
+
+        final VirtualTempFile vtempFile = new VirtualTempFile();
+        vtempFile.setTempPrefix("existSRV");
+        vtempFile.setTempPostfix(".tmp");
+        vtempFile.write(request.getInputStream(), len);
+        vtempFile.close();
+        return vtempFile;
     }
 
     /**
@@ -1293,6 +1328,11 @@ public class RESTServer {
                     if (cached != null) {
                         LOG.debug("Returning cached query result");
                         writeResults(response, broker, cached, howmany, start, typed, outputProperties, wrap);
+                        if (howmany <= 0 || start + howmany > cached.getItemCount()) {
+                            // the last page has been fetched: release the cached result
+                            sessionManager.release(sessionId);
+                        }
+                        return;
 
                     } else {
                         LOG.debug("Cached query result not found. Probably timed out. Repeating query.");
@@ -1645,38 +1685,13 @@ public class RESTServer {
         setCreatedAndLastModifiedHeaders(response, metadata.getCreated(), lastModified);
 
 
-        /**
-         * HTTP 1.1 RFC 2616 Section 14.25 *
-         */
-        //handle If-Modified-Since request header
-        try {
-            final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
-            if (ifModifiedSince > -1) {
-
-                /*
-                 a) A date which is later than the server's
-                 current time is invalid.
-                 */
-                if (ifModifiedSince <= System.currentTimeMillis()) {
-
-                    /*
-                     b) If the variant has been modified since the If-Modified-Since
-                     date, the response is exactly the same as for a normal GET.
-                     */
-                    if (lastModified <= ifModifiedSince) {
-
-                        /*
-                         c) If the variant has not been modified since a valid If-
-                         Modified-Since date, the server SHOULD return a 304 (Not
-                         Modified) response.
-                         */
-                        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                        return;
-                    }
-                }
-            }
-        } catch (final IllegalArgumentException iae) {
-            LOG.warn("Illegal If-Modified-Since HTTP Header sent on request, ignoring. " + iae.getMessage(), iae);
+        final String etag = CacheValidators.documentETag(resource, lastModified, request.getQueryString());
+        response.setHeader("ETag", etag);
+
+        //handle If-None-Match and If-Modified-Since request headers
+        if (CacheValidators.isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
         }
 
         if (resource.getResourceType() == DocumentImpl.BINARY_FILE) {
@@ -38,6 +38,13 @@ public class SessionManager {
     public final static long TIMEOUT_CHECK_PERIOD = 2000;
 
     public final static int NO_SESSION = -1;
+
+    /**
+     * Maximum number of items held by the cached results: one item per KB of heap.
+     * This is a cap on the item count, not a memory budget, as the memory used by an
+     * item is not known. If it is exceeded, the least recently used results are removed.
+     */
+    public final static long MAX_ITEMS = Runtime.getRuntime().maxMemory() / 1024;
     
     private final static Logger LOG = Logger.getLogger(SessionManager.class);
     
@@ -46,11 +53,13 @@ public class SessionManager {
         long lastAccess;
         String queryString;
         Sequence sequence;
+        long itemCount;
 
         private QueryResult(String query, Sequence sequence) {
             this.queryString = query;
             this.sequence = sequence;
             this.lastAccess = System.currentTimeMillis();
+            this.itemCount = sequence.getItemCount();
         }
         
         protected Sequence sequence() {
@@ -88,23 +97,25 @@ public class SessionManager {
         pool.getScheduler().createPeriodicJob(TIMEOUT_CHECK_PERIOD, new TimeoutCheck(), 2000, props);
     }
 
-    public int add(String query, Sequence sequence) {
+    public synchronized int add(String query, Sequence sequence) {
+        final QueryResult result = new QueryResult(query, sequence);
+        checkItems(result.itemCount);
         final int len = slots.length;
         for (int i = 0; i < len; i++) {
             if (slots[i] == null) {
-                slots[i] = new QueryResult(query, sequence);
+                slots[i] = result;
                 return i;
             }
         }
         // no free slots, resize
         QueryResult[] t = new QueryResult[(len * 3) / 2];
         System.arraycopy(slots, 0, t, 0, len);
-        t[len] = new QueryResult(query, sequence);
+        t[len] = result;
         slots = t;
         return len;
     }
 
-    public Sequence get(String query, int sessionId) {
+    public synchronized Sequence get(String query, int sessionId) {
         if (sessionId < 0 || sessionId >= slots.length)
             {return null;} // out of scope
         final QueryResult cached = slots[sessionId];
@@ -116,13 +127,13 @@ public class SessionManager {
         return null;
     }
 
-    public void release(int sessionId) {
+    public synchronized void release(int sessionId) {
         if (sessionId < 0 || sessionId >= slots.length)
             {return;} // out of scope
         slots[sessionId] = null;
     }
 
-    protected void timeoutCheck() {
+    protected synchronized void timeoutCheck() {
         final long now = System.currentTimeMillis();
         for (int i = 0; i < slots.length; i++) {
             if (slots[i] != null && now - slots[i].lastAccess > TIMEOUT) {
@@ -131,4 +142,28 @@ public class SessionManager {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Remove the least recently used results until a new result with the
+     * given number of items fits into {@link #MAX_ITEMS}.
+     */
+    private void checkItems(long required) {
+        long items = required;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null)
+                {items += slots[i].itemCount;}
+        }
+        while (items > MAX_ITEMS) {
+            int oldest = -1;
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null && (oldest < 0 || slots[i].lastAccess < slots[oldest].lastAccess))
+                    {oldest = i;}
+            }
+            if (oldest < 0)
+                {break;}
+            LOG.debug("Removing cached query result for session " + oldest + " to stay within the item limit");
+            items -= slots[oldest].itemCount;
+            slots[oldest] = null;
+        }
+    }
+}
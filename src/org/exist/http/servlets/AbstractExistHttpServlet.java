@@ -25,6 +25,8 @@ import java.io.File;
 import java.io.IOException;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -63,6 +65,7 @@ public abstract class AbstractExistHttpServlet extends HttpServlet {
     private Authenticator authenticator;
     private Subject defaultUser = null;
     private boolean internalOnly = false;
+    private RequestQueue requestQueue = null;
     
     @Override
     public void init(ServletConfig config) throws ServletException {
@@ -79,11 +82,35 @@ public abstract class AbstractExistHttpServlet extends HttpServlet {
         
         //general eXist Servlet config
         doGeneralExistServletConfig(config);
+
+        //limit on concurrent requests, if enabled
+        requestQueue = RequestQueue.configure(config);
+    }
+
+    /**
+     * Passes the request through the request queue, if the number of concurrent
+     * requests is limited.
+     */
+    @Override
+    public void service(ServletRequest req, ServletResponse res) throws ServletException, IOException {
+        if (requestQueue != null && req instanceof HttpServletRequest && res instanceof HttpServletResponse) {
+            requestQueue.service((HttpServletRequest) req, (HttpServletResponse) res, new RequestQueue.Handler() {
+                @Override
+                public void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+                    AbstractExistHttpServlet.this.service(request, response);
+                }
+            });
+        } else {
+            super.service(req, res);
+        }
     }
     
     @Override
     public void destroy() {
         super.destroy();
+        if (requestQueue != null) {
+            requestQueue.clear();
+        }
         BrokerPool.stopAll(false);
     }
     
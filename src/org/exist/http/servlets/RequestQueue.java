@@ -0,0 +1,345 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.http.servlets;
+
+import org.apache.log4j.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests a servlet processes at a time. Requests exceeding the
+ * limit are suspended (Servlet 3.0 async) and wait in a bounded queue without holding
+ * a thread of the container. When a request finishes, the next queued request is
+ * dispatched again by the container and processed. A burst of slow queries thus
+ * occupies at most {@link #PARAM_MAX_REQUESTS} threads and leaves the other threads
+ * of the container to fast requests.
+ *
+ * Requests which find the queue full, or which waited in it longer than
+ * {@link #PARAM_QUEUE_TIMEOUT} milliseconds, are answered with 503 (Service
+ * Unavailable) and a Retry-After header.
+ *
+ * Only requests dispatched by the container directly to the servlet are limited, and
+ * only if the servlet (and all filters in front of it) declare &lt;async-supported&gt;.
+ * Requests forwarded or included by another servlet, e.g. by XQueryURLRewrite, are
+ * processed immediately as before.
+ */
+public class RequestQueue {
+
+    private final static Logger LOG = Logger.getLogger(RequestQueue.class);
+
+    public final static String PARAM_MAX_REQUESTS = "async-max-requests";
+    public final static String PARAM_QUEUE_SIZE = "async-queue-size";
+    public final static String PARAM_QUEUE_TIMEOUT = "async-queue-timeout";
+    public final static String PARAM_RETRY_AFTER = "async-retry-after";
+
+    public final static int DEFAULT_QUEUE_SIZE = 100;
+    public final static long DEFAULT_QUEUE_TIMEOUT = 30000;
+    public final static int DEFAULT_RETRY_AFTER = 5;
+
+    /** Set on a queued request when it is dispatched again: true if it may be processed */
+    private final static String ATTR_RESUMED = RequestQueue.class.getName() + ".resumed";
+    private final static String ATTR_QUEUED = RequestQueue.class.getName() + ".queued";
+
+    /**
+     * Processes a request.
+     */
+    public interface Handler {
+
+        void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+    }
+
+    private final String name;
+    private final int maxRequests;
+    private final Semaphore permits;
+    private final ArrayBlockingQueue<AsyncContext> queue;
+    private final long queueTimeout;
+    private final int retryAfter;
+    private final AsyncListener timeoutListener = new TimeoutListener();
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+
+    /**
+     * @param name the name of the servlet
+     * @param maxRequests the maximum number of requests processed at a time
+     * @param queueSize the maximum number of requests waiting to be processed
+     * @param queueTimeout the maximum time in milliseconds a request may wait
+     *  to be processed or a value &lt;= 0 for no limit
+     * @param retryAfter the number of seconds sent as Retry-After if a request is rejected
+     */
+    public RequestQueue(String name, int maxRequests, int queueSize, long queueTimeout, int retryAfter) {
+        this.name = name;
+        this.maxRequests = maxRequests;
+        this.permits = new Semaphore(maxRequests, true);
+        this.queue = queueSize > 0 ? new ArrayBlockingQueue<AsyncContext>(queueSize) : null;
+        this.queueTimeout = queueTimeout;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Create the queue configured by the init parameters of a servlet.
+     *
+     * @return the queue or null if the number of requests is not limited
+     */
+    public static RequestQueue configure(ServletConfig config) throws ServletException {
+        final int maxRequests = getParameter(config, PARAM_MAX_REQUESTS, 0);
+        if (maxRequests <= 0) {
+            return null;
+        }
+        final int queueSize = getParameter(config, PARAM_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+        final long queueTimeout = getParameter(config, PARAM_QUEUE_TIMEOUT, DEFAULT_QUEUE_TIMEOUT);
+        final int retryAfter = getParameter(config, PARAM_RETRY_AFTER, DEFAULT_RETRY_AFTER);
+        LOG.info("Limiting requests of " + config.getServletName() + " to " + maxRequests +
+            " at a time. Queue size: " + queueSize + "; queue timeout: " + queueTimeout + "ms");
+        return new RequestQueue(config.getServletName(), maxRequests, queueSize, queueTimeout, retryAfter);
+    }
+
+    private static int getParameter(ServletConfig config, String name, int defaultValue) throws ServletException {
+        return (int) getParameter(config, name, (long) defaultValue);
+    }
+
+    private static long getParameter(ServletConfig config, String name, long defaultValue) throws ServletException {
+        final String value = config.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new ServletException("Init parameter " + name + " must be a number: " + value);
+        }
+    }
+
+    /**
+     * Process the request with the handler if the limit allows it, queue it otherwise.
+     * A queued request is suspended and this method returns immediately. It is called
+     * again when the request is dispatched again by the container.
+     */
+    public void service(HttpServletRequest request, HttpServletResponse response, Handler handler)
+            throws ServletException, IOException {
+        final Boolean resumed = (Boolean) request.getAttribute(ATTR_RESUMED);
+        if (resumed != null && request.getDispatcherType() == DispatcherType.ASYNC) {
+            // a queued request, which was given the permit of a finished request
+            request.removeAttribute(ATTR_RESUMED);
+            final Long since = (Long) request.getAttribute(ATTR_QUEUED);
+            if (since != null) {
+                totalWait.addAndGet(System.currentTimeMillis() - since);
+            }
+            process(request, response, handler);
+
+        } else if (!isApplicable(request)) {
+            handler.handle(request, response);
+
+        } else if (permits.tryAcquire()) {
+            process(request, response, handler);
+
+        } else {
+            enqueue(request, response);
+        }
+    }
+
+    /**
+     * Returns true if the request can be suspended: it must have been dispatched
+     * by the container and all components must support async processing.
+     */
+    private boolean isApplicable(HttpServletRequest request) {
+        return request.getDispatcherType() == DispatcherType.REQUEST && request.isAsyncSupported();
+    }
+
+    /**
+     * Process the request holding a permit, which is handed on when it is done.
+     */
+    private void process(HttpServletRequest request, HttpServletResponse response, Handler handler)
+            throws ServletException, IOException {
+        processed.incrementAndGet();
+        try {
+            handler.handle(request, response);
+        } finally {
+            release();
+        }
+    }
+
+    private void enqueue(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (queue == null || queue.remainingCapacity() == 0) {
+            reject(request, response);
+            return;
+        }
+        request.setAttribute(ATTR_QUEUED, System.currentTimeMillis());
+        final AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(queueTimeout > 0 ? queueTimeout : 0);
+        context.addListener(timeoutListener);
+        if (!queue.offer(context)) {
+            try {
+                reject(request, response);
+            } finally {
+                context.complete();
+            }
+            return;
+        }
+        queued.incrementAndGet();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Queued request " + request.getRequestURI() + ". " + this);
+        }
+        // a permit may have been released while the request was being queued
+        if (permits.tryAcquire()) {
+            release();
+        }
+    }
+
+    /**
+     * Hand the permit of a finished request to the next queued request or release it.
+     */
+    private void release() {
+        while (true) {
+            final AsyncContext next = queue == null ? null : queue.poll();
+            if (next == null) {
+                permits.release();
+                // a request may have been queued after poll returned
+                if (queue != null && !queue.isEmpty() && permits.tryAcquire()) {
+                    continue;
+                }
+                return;
+            }
+            try {
+                next.getRequest().setAttribute(ATTR_RESUMED, Boolean.TRUE);
+                next.dispatch();
+                return;
+            } catch (final IllegalStateException e) {
+                // request completed in the meantime, e.g. after a timeout
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        rejected.incrementAndGet();
+        LOG.warn("Rejected request " + request.getRequestURI() + ": too many requests. " + this);
+        sendUnavailable(response);
+    }
+
+    private void sendUnavailable(HttpServletResponse response) throws IOException {
+        if (!response.isCommitted()) {
+            response.setHeader("Retry-After", Integer.toString(retryAfter));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Answer queued requests with 503 if the queue is cleared, e.g. if the servlet is
+     * destroyed.
+     */
+    public void clear() {
+        if (queue == null) {
+            return;
+        }
+        AsyncContext context;
+        while ((context = queue.poll()) != null) {
+            try {
+                sendUnavailable((HttpServletResponse) context.getResponse());
+                context.complete();
+            } catch (final Exception e) {
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+        LOG.info(this);
+    }
+
+    public int getActiveCount() {
+        return maxRequests - permits.availablePermits();
+    }
+
+    public int getQueueSize() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    @Override
+    public String toString() {
+        final long count = queued.get() - timedOut.get();
+        return "Request queue of " + name + ": active: " + getActiveCount() + "/" + maxRequests +
+            "; waiting: " + getQueueSize() + "; processed: " + processed.get() + "; queued: " + queued.get() +
+            "; rejected: " + rejected.get() + "; timed out: " + timedOut.get() +
+            "; average wait: " + (count <= 0 ? 0 : totalWait.get() / count) + "ms";
+    }
+
+    /**
+     * Answers a request with 503 if it waited too long in the queue.
+     */
+    private class TimeoutListener implements AsyncListener {
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            final AsyncContext context = event.getAsyncContext();
+            if (queue.remove(context)) {
+                timedOut.incrementAndGet();
+                LOG.warn("Rejected request " + ((HttpServletRequest) context.getRequest()).getRequestURI() +
+                    ": waited longer than " + queueTimeout + "ms. " + RequestQueue.this);
+                sendUnavailable((HttpServletResponse) context.getResponse());
+                context.complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            // nothing to do
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            queue.remove(event.getAsyncContext());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.http.servlets;
+
+import org.exist.http.CacheValidators;
+import org.exist.security.Subject;
+import org.exist.source.Source;
+import org.exist.xquery.Option;
+import org.exist.xquery.XQueryContext;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the serialized responses of XQueries which declare themselves cacheable with
+ * the option
+ *
+ * <pre>declare option exist:response-cache "max-age=300";</pre>
+ *
+ * The response of a GET request is then kept for the given number of seconds and
+ * returned for later GET requests with the same URL by the same user without running
+ * the query again. The query is responsible for declaring the option only if its
+ * response depends on nothing else, e.g. not on cookies or on data which may change
+ * within max-age.
+ *
+ * Besides the body and its content type, the headers the query sets through the response
+ * module (e.g. Content-Disposition or custom headers) are kept and sent again with the
+ * cached response, see {@link ResponseRecorder}. Responses for which the query set a
+ * cookie are not cached: the same user name may stand for many clients, e.g. for guest,
+ * and a cookie must not be handed to all of them. Cookies and sessions created by the
+ * servlet container, not by the query, are not part of the cached response either.
+ */
+public class ResponseCache {
+
+    /** Responses larger than this are not cached */
+    public final static int MAX_ENTRY_SIZE = 1024 * 1024;
+
+    public static class Entry {
+
+        private final byte[] data;
+        private final String contentType;
+        private final List<Header> headers;
+        private final String etag;
+        private final long created;
+        private final long expires;
+
+        /**
+         * @param headers the headers set by the query, see {@link ResponseRecorder#getHeaders()}
+         */
+        public Entry(byte[] data, String contentType, List<Header> headers, long maxAge) {
+            this.data = data;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.etag = CacheValidators.contentETag(data);
+            // HTTP dates have a resolution of one second
+            this.created = (System.currentTimeMillis() / 1000) * 1000;
+            this.expires = created + maxAge * 1000;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Set the headers the query set on the original response.
+         */
+        public void writeHeaders(HttpServletResponse response) {
+            for (final Header header : headers) {
+                header.write(response);
+            }
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the number of seconds until the entry expires
+         */
+        public long getMaxAge() {
+            return Math.max(0, (expires - System.currentTimeMillis()) / 1000);
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+    }
+
+    /**
+     * A header set by a query, as a string, date or int value.
+     */
+    public static class Header {
+
+        private final String name;
+        private final Object value;
+        private final boolean add;
+
+        private Header(String name, Object value, boolean add) {
+            this.name = name;
+            this.value = value;
+            this.add = add;
+        }
+
+        private void write(HttpServletResponse response) {
+            if (value instanceof Long) {
+                if (add) {
+                    response.addDateHeader(name, (Long) value);
+                } else {
+                    response.setDateHeader(name, (Long) value);
+                }
+            } else if (value instanceof Integer) {
+                if (add) {
+                    response.addIntHeader(name, (Integer) value);
+                } else {
+                    response.setIntHeader(name, (Integer) value);
+                }
+            } else if (add) {
+                response.addHeader(name, (String) value);
+            } else {
+                response.setHeader(name, (String) value);
+            }
+        }
+    }
+
+    /**
+     * Passed to a cacheable query instead of the servlet response, so the headers and
+     * cookies it sets are known when its response is cached.
+     */
+    public static class ResponseRecorder extends HttpServletResponseWrapper {
+
+        private final List<Header> headers = new ArrayList<Header>();
+        private boolean cookies = false;
+
+        public ResponseRecorder(HttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * @return the headers set by the query, in the order they were set
+         */
+        public List<Header> getHeaders() {
+            return Collections.unmodifiableList(new ArrayList<Header>(headers));
+        }
+
+        /**
+         * @return true if the query added a cookie, so the response may not be cached
+         */
+        public boolean hasCookies() {
+            return cookies;
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            cookies = true;
+            super.addCookie(cookie);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            headers.add(new Header(name, value, false));
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            headers.add(new Header(name, value, true));
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            headers.add(new Header(name, date, false));
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            headers.add(new Header(name, date, true));
+            super.addDateHeader(name, date);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            headers.add(new Header(name, value, false));
+            super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            headers.add(new Header(name, value, true));
+            super.addIntHeader(name, value);
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    public ResponseCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, ResponseCache.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached response for the key or null if there is none or if it expired.
+     */
+    public synchronized Entry get(String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.isExpired()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        if (entry.getData().length <= MAX_ENTRY_SIZE) {
+            entries.put(key, entry);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Create the key identifying the response of the query to the request.
+     */
+    public static String getKey(Source source, HttpServletRequest request, Subject user) {
+        final StringBuilder key = new StringBuilder();
+        key.append(user.getName()).append('|');
+        key.append(request.getRequestURI());
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        key.append('|').append(source.getKey());
+        return key.toString();
+    }
+
+    /**
+     * Returns the max-age in seconds declared by the exist:response-cache option of the
+     * query or -1 if the response of the query may not be cached.
+     */
+    public static long getMaxAge(XQueryContext context) {
+        final Option option = context.getOption(Option.RESPONSE_CACHE_QNAME);
+        if (option == null) {
+            return -1;
+        }
+        for (final String param : option.tokenizeContents()) {
+            final String[] pair = Option.parseKeyValuePair(param);
+            if (pair != null && "max-age".equals(pair[0])) {
+                try {
+                    return Long.parseLong(pair[1]);
+                } catch (final NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
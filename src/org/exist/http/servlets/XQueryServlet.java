@@ -22,10 +22,12 @@
  */
 package org.exist.http.servlets;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.util.Properties;
 
@@ -39,6 +41,7 @@ import javax.xml.transform.OutputKeys;
 
 import org.apache.log4j.Logger;
 import org.exist.EXistException;
+import org.exist.http.CacheValidators;
 import org.exist.http.Descriptor;
 import org.exist.security.AuthenticationException;
 import org.exist.security.Permission;
@@ -92,6 +95,8 @@ import org.exist.dom.XMLUtil;
  * 	<tr><td>form-encoding</td><td>The character encoding used by parameters posted
  * 	from HTML for
  * ms.</td></tr>
+ * 	<tr><td>response-cache-size</td><td>The maximum number of responses kept for XQueries
+ * 	declaring the option exist:response-cache, see {@link ResponseCache}.</td></tr>
  * </table>
  *
  * User identity and password may also be specified through the HTTP session attributes
@@ -120,11 +125,14 @@ public class XQueryServlet extends AbstractExistHttpServlet {
     public final static String DEFAULT_CONTENT_TYPE = "text/html";
     
     public final static String DRIVER = "org.exist.xmldb.DatabaseImpl";
+
+    public final static int DEFAULT_RESPONSE_CACHE_SIZE = 256;
     
     private XmldbURI collectionURI = null;
     
     private String encoding = null;
     private String contentType = null;
+    private ResponseCache responseCache = null;
 
     @Override
     public Logger getLog() {
@@ -161,6 +169,17 @@ public class XQueryServlet extends AbstractExistHttpServlet {
         if(contentType == null) {
             contentType = DEFAULT_CONTENT_TYPE;
         }
+
+        int responseCacheSize = DEFAULT_RESPONSE_CACHE_SIZE;
+        final String responseCacheOpt = config.getInitParameter("response-cache-size");
+        if(responseCacheOpt != null) {
+            try {
+                responseCacheSize = Integer.parseInt(responseCacheOpt);
+            } catch (final NumberFormatException e) {
+                throw new ServletException("Invalid value for parameter 'response-cache-size': " + responseCacheOpt);
+            }
+        }
+        responseCache = new ResponseCache(responseCacheSize);
     }
     
     /* (non-Javadoc)
@@ -271,8 +290,6 @@ public class XQueryServlet extends AbstractExistHttpServlet {
         final ServletOutputStream sout = response.getOutputStream();
         final PrintWriter output = new PrintWriter(new OutputStreamWriter(sout, getFormEncoding()));
 //        response.setContentType(contentType + "; charset=" + formEncoding);
-        response.addHeader( "pragma", "no-cache" );
-        response.addHeader( "Cache-Control", "no-cache" );
 
         String requestPath = request.getRequestURI();
         final int p = requestPath.lastIndexOf("/");
@@ -430,6 +447,19 @@ public class XQueryServlet extends AbstractExistHttpServlet {
 //        }
 
         final String requestAttr = (String) request.getAttribute(ATTR_XQUERY_ATTRIBUTE);
+
+        // return a cached response if the query declared its responses cacheable
+        String cacheKey = null;
+        if ("GET".equalsIgnoreCase(request.getMethod()) && requestAttr == null) {
+            cacheKey = ResponseCache.getKey(source, request, user);
+            final ResponseCache.Entry cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                cached.writeHeaders(response);
+                writeCachedResponse(request, response, cached);
+                return;
+            }
+        }
+
         DBBroker broker = null;
         try {
         	broker = getPool().get(user);
@@ -459,7 +489,9 @@ public class XQueryServlet extends AbstractExistHttpServlet {
             outputProperties.put("base-uri", collectionURI.toString());
             
             context.declareVariable(RequestModule.PREFIX + ":request", new HttpRequestWrapper(request, getFormEncoding(), getContainerEncoding()));
-            context.declareVariable(ResponseModule.PREFIX + ":response", new HttpResponseWrapper(response));
+            // record the headers set by a query whose response may be cached
+            final ResponseCache.ResponseRecorder recorder = cacheKey == null ? null : new ResponseCache.ResponseRecorder(response);
+            context.declareVariable(ResponseModule.PREFIX + ":response", new HttpResponseWrapper(recorder == null ? response : recorder));
             context.declareVariable(SessionModule.PREFIX + ":session", ( session != null ? new HttpSessionWrapper( session ) : null ) );
 
             final String timeoutOpt = (String) request.getAttribute(ATTR_TIMEOUT);
@@ -484,6 +516,14 @@ public class XQueryServlet extends AbstractExistHttpServlet {
 
             DebuggeeFactory.checkForDebugRequest(request, context);
 
+            final long maxAge = cacheKey == null ? -1 : ResponseCache.getMaxAge(context);
+            if (maxAge > 0) {
+                response.setHeader("Cache-Control", "max-age=" + maxAge);
+            } else {
+                response.addHeader( "pragma", "no-cache" );
+                response.addHeader( "Cache-Control", "no-cache" );
+            }
+
             Sequence resultSequence;
             try {
                 resultSequence = xquery.execute(query, null, outputProperties);
@@ -528,9 +568,13 @@ public class XQueryServlet extends AbstractExistHttpServlet {
             
             	final SerializerPool serializerPool = SerializerPool.getInstance();
 
+            	// serialize a cacheable response into a buffer first
+            	final ByteArrayOutputStream buffer = maxAge > 0 ? new ByteArrayOutputStream() : null;
+            	final Writer writer = buffer != null ? new OutputStreamWriter(buffer, getFormEncoding()) : output;
+
             	final SAXSerializer sax = (SAXSerializer) serializerPool.borrowObject(SAXSerializer.class);
             	try {
-	            	sax.setOutput(output, outputProperties);
+	            	sax.setOutput(writer, outputProperties);
 	            	serializer.setProperties(outputProperties);
 	            	serializer.setSAXHandlers(sax, sax);
 	            	serializer.toSAX(resultSequence, 1, resultSequence.getItemCount(), false, false);
@@ -538,6 +582,17 @@ public class XQueryServlet extends AbstractExistHttpServlet {
             	} finally {
             		serializerPool.returnObject(sax);
             	}
+
+            	if (buffer != null) {
+            		writer.flush();
+            		final ResponseCache.Entry entry = new ResponseCache.Entry(buffer.toByteArray(), response.getContentType(),
+            				recorder.getHeaders(), maxAge);
+            		// do not cache responses the query streamed itself, which are not OK or which set cookies
+            		if (!response.isCommitted() && response.getStatus() == HttpServletResponse.SC_OK && !recorder.hasCookies()) {
+            			responseCache.put(cacheKey, entry);
+            		}
+            		writeCachedResponse(request, response, entry);
+            	}
             }
             
 		} catch (final PermissionDeniedException e) {
@@ -579,6 +634,20 @@ public class XQueryServlet extends AbstractExistHttpServlet {
         output.close();
     }
     
+    private void writeCachedResponse(HttpServletRequest request, HttpServletResponse response, ResponseCache.Entry entry) throws IOException {
+        if (entry.getContentType() != null && !response.isCommitted())
+            {response.setContentType(entry.getContentType());}
+        response.setHeader("ETag", entry.getETag());
+        response.setDateHeader("Last-Modified", entry.getCreated());
+        response.setHeader("Cache-Control", "max-age=" + entry.getMaxAge());
+        if (CacheValidators.isNotModified(request, entry.getETag(), entry.getCreated())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentLength(entry.getData().length);
+        response.getOutputStream().write(entry.getData());
+    }
+
     private String getSessionAttribute(HttpSession session, String attribute) {
         final Object obj = session.getAttribute(attribute);
         return getValue(obj);
@@ -49,6 +49,7 @@ import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NodeValue;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xslt.TemplatesCache;
 import org.exist.xslt.TransformerFactoryAllocator;
 
 import org.xml.sax.InputSource;
@@ -82,8 +83,6 @@ import java.io.InputStream;
 import java.io.Writer;
 import java.net.*;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
 import java.util.zip.GZIPInputStream;
 
@@ -107,25 +106,6 @@ public class XSLTServlet extends HttpServlet {
 
     private BrokerPool pool;
     
-    private final Map<String, CachedStylesheet> cache = new HashMap<String, CachedStylesheet>();
-    private Boolean caching = null;
-
-    /**
-     * @return Value of TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE or TRUE if not present.
-     */
-    private boolean isCaching() {
-    	if (caching == null) {
-    		final Object property = pool.getConfiguration().getProperty(TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE);
-			if (property != null){
-				caching = (Boolean) property;
-            } else {
-				caching = true;
-            }
-    	}
-    	return caching;
-    }
-
-
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
@@ -309,7 +289,7 @@ public class XSLTServlet extends HttpServlet {
      * Please add comments to this method. make assumption clear. These might not be valid.
      */
     private Templates getSource(Subject user, HttpServletRequest request, HttpServletResponse response,
-                                SAXTransformerFactory factory, String stylesheet)
+                                final SAXTransformerFactory factory, String stylesheet)
         throws ServletException, IOException {
 
         // Check if stylesheet contains an URI. If not, try to resolve from file system
@@ -364,12 +344,72 @@ public class XSLTServlet extends HttpServlet {
             LOG.debug("Loading stylesheet from " + stylesheet);
         }
         
-        CachedStylesheet cached = cache.get(stylesheet);
-        if(cached == null) {
-            cached = new CachedStylesheet(factory, user, stylesheet, base);
-            cache.put(stylesheet, cached);
+        final TemplatesCache cache = pool.getTemplatesCache();
+        if (stylesheet.startsWith("xmldb:exist://")) {
+            final String docPath = stylesheet.substring("xmldb:exist://".length());
+            DocumentImpl doc = null;
+            DBBroker broker = null;
+
+            try {
+                broker = pool.get(user);
+                doc = broker.getXMLResource(XmldbURI.create(docPath), Lock.READ_LOCK);
+                if (doc == null) {
+                    throw new ServletException("Stylesheet not found: " + docPath);
+                }
+                final DBBroker stylesheetBroker = broker;
+                final DocumentImpl stylesheetDoc = doc;
+                return cache.getTemplates(TemplatesCache.getKey(doc), doc.getMetadata().getLastModified(),
+                    new TemplatesCache.Compiler<ServletException>() {
+                        @Override
+                        public Templates compile() throws ServletException {
+                            return getSource(factory, stylesheetBroker, stylesheetDoc);
+                        }
+                    });
+
+            } catch (final PermissionDeniedException e) {
+                throw new ServletException("Permission denied to read stylesheet: " + stylesheet, e);
+
+            } catch (final EXistException e) {
+                throw new ServletException("Error while reading stylesheet source from db: " + e.getMessage(), e);
+
+            } finally {
+                if (doc != null) {
+                    doc.getUpdateLock().release(Lock.READ_LOCK);
+                }
+                pool.release(broker);
+            }
+        }
+
+        factory.setURIResolver(new ExternalResolver(base));
+        try {
+            final URL url = new URL(stylesheet);
+            final URLConnection connection = url.openConnection();
+            return cache.getTemplates(stylesheet, connection.getLastModified(),
+                new TemplatesCache.Compiler<ServletException>() {
+                    @Override
+                    public Templates compile() throws ServletException {
+                        try {
+                            final InputStream is = connection.getInputStream();
+                            try {
+                                return factory.newTemplates(new StreamSource(is));
+                            } finally {
+                                is.close();
+                            }
+                        } catch (final IOException e) {
+                            throw new ServletException("Error while reading stylesheet source from uri: " + url +
+                                    ": " + e.getMessage(), e);
+
+                        } catch (final TransformerConfigurationException e) {
+                            throw new ServletException("Error while reading stylesheet source from uri: " + url +
+                                    ": " + e.getMessage(), e);
+                        }
+                    }
+                });
+
+        } catch (final IOException e) {
+            throw new ServletException("Error while reading stylesheet source from uri: " + stylesheet +
+                    ": " + e.getMessage(), e);
         }
-        return cached.getTemplates(user);
     }
 
     /*
@@ -434,102 +474,28 @@ public class XSLTServlet extends HttpServlet {
         }
     }
 
-    private class CachedStylesheet {
-
-        SAXTransformerFactory factory;
-        long lastModified = -1;
-        Templates templates = null;
-        String uri;
-
-        public CachedStylesheet(SAXTransformerFactory factory, Subject user, String uri, String baseURI) throws ServletException {
-            this.factory = factory;
-            this.uri = uri;
-            if (!baseURI.startsWith("xmldb:exist://")) {
-                factory.setURIResolver(new ExternalResolver(baseURI));
-            }
-            getTemplates(user);
-        }
-
-        public Templates getTemplates(Subject user) throws ServletException {
-            if (uri.startsWith("xmldb:exist://")) {
-                final String docPath = uri.substring("xmldb:exist://".length());
-                DocumentImpl doc = null;
-                DBBroker broker = null;
-
-                try {
-                    broker = pool.get(user);
-                    doc = broker.getXMLResource(XmldbURI.create(docPath), Lock.READ_LOCK);
-                    if (doc == null) {
-                        throw new ServletException("Stylesheet not found: " + docPath);
-                    }
-                    
-                    if (!isCaching() || (doc != null && (templates == null
-                                     || doc.getMetadata().getLastModified() > lastModified))) {
-                        templates = getSource(broker, doc);
-                    }
-                    
-                    lastModified = doc.getMetadata().getLastModified();
-
-                } catch (final PermissionDeniedException e) {
-                    throw new ServletException("Permission denied to read stylesheet: " + uri, e);
-
-                } catch (final EXistException e) {
-                    throw new ServletException("Error while reading stylesheet source from db: " + e.getMessage(), e);
-
-                } finally {
-                    pool.release(broker);
-                    if (doc != null) {
-                        doc.getUpdateLock().release(Lock.READ_LOCK);
-                    }
-                }
-                
-            } else {
-                try {
-                    final URL url = new URL(uri);
-                    final URLConnection connection = url.openConnection();
-                    long modified = connection.getLastModified();
-                    
-                    if(!isCaching() || (templates == null || modified > lastModified || modified == 0)) {
-                        LOG.debug("compiling stylesheet " + url.toString());
-                        templates = factory.newTemplates(new StreamSource(connection.getInputStream()));
-                    }
-                    lastModified = modified;
-
-                } catch (final IOException e) {
-                    throw new ServletException("Error while reading stylesheet source from uri: " + uri +
-                            ": " + e.getMessage(), e);
-
-                } catch (final TransformerConfigurationException e) {
-                    throw new ServletException("Error while reading stylesheet source from uri: " + uri +
-                            ": " + e.getMessage(), e);
-                }
-            }
-            return templates;
-        }
-
-        private Templates getSource(DBBroker broker, DocumentImpl stylesheet)
-                throws ServletException {
-            factory.setURIResolver(new DatabaseResolver(broker, stylesheet));
-            try {
-                final TemplatesHandler handler = factory.newTemplatesHandler();
-                handler.startDocument();
+    private Templates getSource(SAXTransformerFactory factory, DBBroker broker, DocumentImpl stylesheet)
+            throws ServletException {
+        factory.setURIResolver(new DatabaseResolver(broker, stylesheet));
+        try {
+            final TemplatesHandler handler = factory.newTemplatesHandler();
+            handler.startDocument();
 
-                final Serializer serializer = broker.getSerializer();
-                serializer.reset();
-                serializer.setSAXHandlers(handler, null);
-                serializer.toSAX(stylesheet);
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            serializer.setSAXHandlers(handler, null);
+            serializer.toSAX(stylesheet);
 
-                handler.endDocument();       
-                return handler.getTemplates();
+            handler.endDocument();       
+            return handler.getTemplates();
 
-            } catch (final SAXException e) {
-                throw new ServletException("A SAX exception occurred while compiling the stylesheet: " 
-                        + e.getMessage(), e);
+        } catch (final SAXException e) {
+            throw new ServletException("A SAX exception occurred while compiling the stylesheet: " 
+                    + e.getMessage(), e);
 
-            } catch (final TransformerConfigurationException e) {
-                throw new ServletException("A configuration exception occurred while " +
-                        "compiling the stylesheet: " + e.getMessage(), e);
-            }
+        } catch (final TransformerConfigurationException e) {
+            throw new ServletException("A configuration exception occurred while " +
+                    "compiling the stylesheet: " + e.getMessage(), e);
         }
     }
 
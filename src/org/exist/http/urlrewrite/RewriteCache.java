@@ -0,0 +1,159 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.http.urlrewrite;
+
+import org.apache.log4j.Logger;
+import org.exist.util.BoundedLRUMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent cache for the results of the URL rewrite controller, keyed by host and
+ * request URI. The cache holds at most maxEntries entries: if it grows larger, the
+ * least recently used entries are removed, see {@link BoundedLRUMap}. Lookups do not
+ * lock. Entries may expire after a time-to-live and all entries created by a controller
+ * are removed together when the controller changes.
+ *
+ * @param <V> the cached value
+ */
+public class RewriteCache<V> {
+
+    private final static Logger LOG = Logger.getLogger(RewriteCache.class);
+
+    private static class Entry<V> {
+
+        final V value;
+        final Object controller;
+        final long created;
+
+        Entry(V value, Object controller) {
+            this.value = value;
+            this.controller = controller;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    private final BoundedLRUMap<String, Entry<V>> entries;
+    private final long timeToLive;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of entries
+     * @param timeToLive the time in milliseconds after which an entry expires or
+     *  a value &lt;= 0 if entries do not expire
+     */
+    public RewriteCache(int maxEntries, long timeToLive) {
+        this.entries = new BoundedLRUMap<String, Entry<V>>(maxEntries);
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the cached value for the url or null if there is none or it expired.
+     */
+    public V get(String url) {
+        final Entry<V> entry = entries.get(url);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (timeToLive > 0 && System.currentTimeMillis() - entry.created > timeToLive) {
+            entries.remove(url, entry);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Cache a value.
+     *
+     * @param controller identifies the controller which created the value, see
+     *  {@link #invalidate(Object)}
+     */
+    public void put(String url, V value, Object controller) {
+        entries.put(url, new Entry<V>(value, controller));
+    }
+
+    /**
+     * Remove the value cached for the url.
+     */
+    public void remove(String url) {
+        entries.remove(url);
+    }
+
+    /**
+     * Remove all values created by the given controller, e.g. because the controller
+     * has been modified.
+     */
+    public void invalidate(final Object controller) {
+        final int count = entries.removeAll(new BoundedLRUMap.Filter<Entry<V>>() {
+            @Override
+            public boolean accept(Entry<V> entry) {
+                return controller.equals(entry.controller);
+            }
+        });
+        invalidations.addAndGet(count);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Removed " + count + " cached entries of controller " + controller);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries removed because the cache was full or they expired.
+     */
+    public long getEvictions() {
+        return entries.getEvictions() + expirations.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "URL rewrite cache: size: " + getSize() + "/" + entries.getMaxEntries() + "; hits: " + getHits() +
+            "; misses: " + getMisses() + "; evictions: " + getEvictions() +
+            "; invalidations: " + getInvalidations();
+    }
+}
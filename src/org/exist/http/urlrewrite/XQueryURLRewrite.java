@@ -111,6 +111,10 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  * the server. The client will not notice the redirect.
  *
  * Please read the <a href="http://exist-db.org/urlrewrite.html">documentation</a> for further information. 
+ *
+ * Results the controller marks as cacheable are kept in a {@link RewriteCache}, which is
+ * configured by the init parameters cache-size (maximum number of entries, default 1024)
+ * and cache-ttl (time-to-live of an entry in milliseconds, default: no expiry).
  */
 public class XQueryURLRewrite extends HttpServlet {
 
@@ -129,8 +133,9 @@ public class XQueryURLRewrite extends HttpServlet {
 
     private ServletConfig config;
 
-    private final Map<String, ModelAndView> urlCache =
-            Collections.synchronizedMap(new TreeMap<String, ModelAndView>());
+    public final static int DEFAULT_CACHE_SIZE = 1024;
+
+    private RewriteCache<ModelAndView> urlCache;
 
     protected Subject defaultUser = null;
     protected BrokerPool pool;
@@ -160,6 +165,20 @@ public class XQueryURLRewrite extends HttpServlet {
         final String opt = filterConfig.getInitParameter("compiled-cache");
         if (opt != null)
         	{compiledCache = opt != null && opt.equalsIgnoreCase("true");}
+
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        long cacheTTL = -1;
+        try {
+            final String sizeOpt = filterConfig.getInitParameter("cache-size");
+            if (sizeOpt != null)
+                {cacheSize = Integer.parseInt(sizeOpt);}
+            final String ttlOpt = filterConfig.getInitParameter("cache-ttl");
+            if (ttlOpt != null)
+                {cacheTTL = Long.parseLong(ttlOpt);}
+        } catch (final NumberFormatException e) {
+            throw new ServletException("Invalid value for parameter cache-size or cache-ttl: " + e.getMessage(), e);
+        }
+        urlCache = new RewriteCache<ModelAndView>(cacheSize, cacheTTL);
         
     }
 
@@ -323,9 +342,10 @@ public class XQueryURLRewrite extends HttpServlet {
                         	return;
 	                    }
 	                    
-	                    if (modelView.useCache()) {
+	                    if (modelView.useCache() && modelView.getSourceInfo() != null) {
                             LOG.debug("Caching request to " + request.getRequestURI());
-                            urlCache.put(modifiedRequest.getHeader("Host") + request.getRequestURI(), modelView);
+                            urlCache.put(modifiedRequest.getHeader("Host") + request.getRequestURI(), modelView,
+                                modelView.getSourceInfo().source.getKey());
                         }
 
                     } finally {
@@ -487,9 +507,6 @@ public class XQueryURLRewrite extends HttpServlet {
     }
 
 	private ModelAndView getFromCache(String url, Subject user) throws EXistException, ServletException, PermissionDeniedException {
-		/* Make sure we have a broker *before* we synchronize on urlCache or we may run
-		 * into a deadlock situation (with method checkCache)
-		 */
 		final ModelAndView model = urlCache.get(url);
 		if (model == null)
 			{return null;}
@@ -501,7 +518,8 @@ public class XQueryURLRewrite extends HttpServlet {
 			model.getSourceInfo().source.validate(broker.getSubject(), Permission.EXECUTE);
 			
 			if (model.getSourceInfo().source.isValid(broker) != Source.VALID) {
-                ModelAndView removed = urlCache.remove(url);
+				// the controller changed: drop all results it produced
+				urlCache.invalidate(model.getSourceInfo().source.getKey());
 				return null;
 			}
 			
@@ -658,6 +676,8 @@ public class XQueryURLRewrite extends HttpServlet {
 
     @Override
     public void destroy() {
+        if (urlCache != null)
+            {LOG.info(urlCache.toString());}
         config = null;
     }
     
@@ -0,0 +1,29 @@
+package org.exist.indexing;
+
+/**
+ * Indexes which can defer writing the entries of stored documents should implement
+ * this interface. While in bulk mode, {@link #flush()} in {@link StreamListener#STORE}
+ * mode only buffers the entries of the current document. The buffered entries of many
+ * documents are written together in sorted batches whenever the memory budget is
+ * exceeded, before any entries are removed by any broker, and when bulk mode ends.
+ *
+ * Bulk mode is entered and left through {@link IndexController#startBulk()} and
+ * {@link IndexController#endBulk()}. Entries buffered for a document are not visible to
+ * queries before they are written.
+ */
+public interface BulkIndex extends IndexWorker {
+
+    /**
+     * Start buffering the entries of stored documents.
+     *
+     * @param memoryBudget the approximate number of bytes the worker may buffer
+     */
+    public void startBulk(long memoryBudget);
+
+    /**
+     * Write all buffered entries and return to writing the entries of each document
+     * on {@link #flush()}.
+     */
+    public void endBulk();
+
+}
@@ -120,6 +120,19 @@ public class IndexController {
         return null;
     }
 
+    /**
+     * Returns the first configured index providing sort keys for nodes.
+     *
+     * @return the index worker or null if no such index is configured
+     */
+    public SortKeysIndex getSortKeysIndex() {
+        for (final IndexWorker worker : indexWorkers.values()) {
+            if (worker instanceof SortKeysIndex)
+                {return (SortKeysIndex) worker;}
+        }
+        return null;
+    }
+
     /**
      * Sets the document for the next operation.
      * 
@@ -190,6 +203,30 @@ public class IndexController {
         }
     }  
 
+    /**
+     * Puts all index workers implementing {@link BulkIndex} into bulk mode.
+     * Use {@link org.exist.storage.DBBroker#startBulkIndexing()} instead of calling
+     * this method directly, so the core indexes are included.
+     *
+     * @param memoryBudget the approximate number of bytes each worker may buffer
+     */
+    public void startBulk(long memoryBudget) {
+        for (final IndexWorker indexWorker : indexWorkers.values()) {
+            if (indexWorker instanceof BulkIndex)
+                {((BulkIndex) indexWorker).startBulk(memoryBudget);}
+        }
+    }
+
+    /**
+     * Writes the entries buffered by index workers in bulk mode and ends bulk mode.
+     */
+    public void endBulk() {
+        for (final IndexWorker indexWorker : indexWorkers.values()) {
+            if (indexWorker instanceof BulkIndex)
+                {((BulkIndex) indexWorker).endBulk();}
+        }
+    }
+
     /**
      * Remove all indexes defined on the specified collection.
      *
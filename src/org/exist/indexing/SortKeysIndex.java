@@ -0,0 +1,23 @@
+package org.exist.indexing;
+
+import org.exist.dom.NodeProxy;
+
+/**
+ * Indexes which store a sort key for the nodes they are configured on should implement
+ * this interface. An "order by" clause whose order expression returns a single indexed
+ * node compares the stored keys instead of atomizing the node and comparing the values.
+ *
+ * Sort keys must compare bytewise in the same order as the string values of the nodes
+ * compare in the unicode codepoint collation.
+ */
+public interface SortKeysIndex extends IndexWorker {
+
+    /**
+     * Returns the sort key stored for the given node.
+     *
+     * @param proxy the node
+     * @return the sort key or null if the node is not indexed
+     */
+    public byte[] getSortKey(NodeProxy proxy);
+
+}
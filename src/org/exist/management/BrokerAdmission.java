@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * $Id$
+ */
+package org.exist.management;
+
+public class BrokerAdmission implements BrokerAdmissionMBean {
+
+    private final org.exist.storage.BrokerAdmission admission;
+
+    public BrokerAdmission(org.exist.storage.BrokerAdmission admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public int getActive() {
+        return admission.getActive();
+    }
+
+    @Override
+    public int getActiveBatch() {
+        return admission.getActiveBatch();
+    }
+
+    @Override
+    public int getWaiting() {
+        return admission.getWaiting();
+    }
+
+    @Override
+    public int getWaitingBatch() {
+        return admission.getWaitingBatch();
+    }
+
+    @Override
+    public int getMaxBatch() {
+        return admission.getMaxBatch();
+    }
+
+    @Override
+    public int getMaxPerUser() {
+        return admission.getMaxPerUser();
+    }
+
+    @Override
+    public long getAdmitted() {
+        return admission.getAdmitted();
+    }
+
+    @Override
+    public long getQueued() {
+        return admission.getQueued();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return admission.getTimedOut();
+    }
+
+    @Override
+    public long getAverageWait() {
+        return admission.getAverageWait();
+    }
+
+    @Override
+    public long getMaxWait() {
+        return admission.getMaxWait();
+    }
+}
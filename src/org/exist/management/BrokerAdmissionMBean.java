@@ -0,0 +1,51 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * $Id$
+ */
+package org.exist.management;
+
+/**
+ * Provides access to the statistics of the broker admission control
+ * ({@link org.exist.storage.BrokerAdmission}).
+ */
+public interface BrokerAdmissionMBean {
+
+    public int getActive();
+
+    public int getActiveBatch();
+
+    public int getWaiting();
+
+    public int getWaitingBatch();
+
+    public int getMaxBatch();
+
+    public int getMaxPerUser();
+
+    public long getAdmitted();
+
+    public long getQueued();
+
+    public long getTimedOut();
+
+    public long getAverageWait();
+
+    public long getMaxWait();
+}
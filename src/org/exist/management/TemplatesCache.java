@@ -0,0 +1,66 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * $Id$
+ */
+package org.exist.management;
+
+public class TemplatesCache implements TemplatesCacheMBean {
+
+    private final org.exist.xslt.TemplatesCache cache;
+
+    public TemplatesCache(org.exist.xslt.TemplatesCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public int getSize() {
+        return cache.getSize();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    @Override
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return cache.getInvalidations();
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -22,6 +22,7 @@
 package org.exist.scheduler;
 
 import java.util.Map;
+import org.exist.storage.BrokerAdmission;
 import org.exist.storage.BrokerPool;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
@@ -53,12 +54,16 @@ public abstract class UserJavaJob extends UserJob {
         //get any parameters from the data map
         final Map params = (Map)jobDataMap.get("params");
 
+        //scheduled jobs must not take the brokers of interactive requests
+        final BrokerAdmission.Priority priority = BrokerAdmission.setPriority(BrokerAdmission.Priority.BATCH);
         try {
             //execute the job
             execute(pool, params);
         } catch(final JobException je ) {
             //cleanup the job
             je.cleanupJob();
+        } finally {
+            BrokerAdmission.setPriority(priority);
         }
     }
 
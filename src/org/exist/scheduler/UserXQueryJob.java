@@ -35,6 +35,7 @@ import org.exist.security.xacml.AccessContext;
 import org.exist.source.DBSource;
 import org.exist.source.Source;
 import org.exist.source.SourceFactory;
+import org.exist.storage.BrokerAdmission;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.XQueryPool;
@@ -146,6 +147,8 @@ public class UserXQueryJob extends UserJob {
         CompiledXQuery compiled = null;
         XQueryContext context = null;
 
+        //scheduled jobs must not take the brokers of interactive requests
+        final BrokerAdmission.Priority priority = BrokerAdmission.setPriority(BrokerAdmission.Priority.BATCH);
         try {
 
             //get the xquery
@@ -246,6 +249,8 @@ public class UserXQueryJob extends UserJob {
             if(pool != null && broker != null) {
                 pool.release(broker);
             }
+
+            BrokerAdmission.setPriority(priority);
         }
 
     }
@@ -0,0 +1,364 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import org.apache.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
+import org.exist.security.SecurityManager;
+import org.exist.security.Subject;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Decides which thread may acquire a broker from the {@link BrokerPool}. All entry
+ * points (REST, XML-RPC, RESTXQ, WebDAV, scheduled jobs) get their broker from the
+ * pool, so this is where concurrent work is limited:
+ *
+ * <ul>
+ *     <li>threads running with {@link Priority#BATCH} priority, i.e. scheduled user
+ *     jobs, hold at most max-batch brokers at a time, so they cannot exhaust the pool.
+ *     They also give way to waiting interactive threads.</li>
+ *     <li>a single user holds at most max-per-user brokers at a time.</li>
+ *     <li>a thread waits at most wait-timeout milliseconds to be admitted, then
+ *     {@link BrokerPool#get(Subject)} fails with an {@link EXistException}.</li>
+ * </ul>
+ *
+ * Only the first broker acquired by a thread is counted: nested calls to
+ * {@link BrokerPool#get(Subject)} reuse the thread's broker. The admission is
+ * assigned to the broker, so it is released with the broker even if another thread
+ * releases it. The system subject is never limited.
+ */
+public class BrokerAdmission {
+
+    private final static Logger LOG = Logger.getLogger(BrokerAdmission.class);
+
+    public final static String MAX_BATCH_ATTRIBUTE = "max-batch";
+    public final static String MAX_PER_USER_ATTRIBUTE = "max-per-user";
+    public final static String WAIT_TIMEOUT_ATTRIBUTE = "wait-timeout";
+
+    public final static String PROPERTY_MAX_BATCH = "db-connection.pool.max-batch";
+    public final static String PROPERTY_MAX_PER_USER = "db-connection.pool.max-per-user";
+    public final static String PROPERTY_WAIT_TIMEOUT = "db-connection.pool.wait-timeout";
+
+    public enum Priority {
+        INTERACTIVE, BATCH
+    }
+
+    private final static ThreadLocal<Priority> priority = new ThreadLocal<Priority>();
+
+    /**
+     * The admission of a thread, held by the broker it acquires.
+     */
+    public static class Ticket {
+
+        private final String user;
+        private final boolean batch;
+
+        private Ticket(String user, boolean batch) {
+            this.user = user;
+            this.batch = batch;
+        }
+    }
+
+    private final int maxBrokers;
+    private final int maxBatch;
+    private final int maxPerUser;
+    private final long waitTimeout;
+
+    // guarded by this
+    private int active = 0;
+    private int activeBatch = 0;
+    private int waitingInteractive = 0;
+    private int waitingBatch = 0;
+    private final Map<String, Integer> activePerUser = new HashMap<String, Integer>();
+    private final Map<DBBroker, Ticket> tickets = new IdentityHashMap<DBBroker, Ticket>();
+
+    private long admitted = 0;
+    private long queued = 0;
+    private long timedOut = 0;
+    private long totalWait = 0;
+    private long maxWait = 0;
+
+    /**
+     * @param maxBrokers the maximum number of brokers of the pool
+     * @param maxBatch the maximum number of brokers held by batch threads or a value
+     *  &lt;= 0 for no limit
+     * @param maxPerUser the maximum number of brokers held by a user or a value
+     *  &lt;= 0 for no limit
+     * @param waitTimeout the maximum time in milliseconds a thread waits to be admitted
+     *  or a value &lt;= 0 to wait forever
+     */
+    public BrokerAdmission(int maxBrokers, int maxBatch, int maxPerUser, long waitTimeout) {
+        this.maxBrokers = maxBrokers;
+        this.maxBatch = maxBatch;
+        this.maxPerUser = maxPerUser;
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Create the admission control configured for the pool and register its
+     * statistics with JMX.
+     *
+     * @return the admission control or null if no limits are configured
+     */
+    public static BrokerAdmission configure(BrokerPool pool) {
+        final Configuration conf = pool.getConfiguration();
+        final int maxBatch = getInt(conf, PROPERTY_MAX_BATCH);
+        final int maxPerUser = getInt(conf, PROPERTY_MAX_PER_USER);
+        final Object timeout = conf.getProperty(PROPERTY_WAIT_TIMEOUT);
+        final long waitTimeout = timeout == null ? -1 : (Long) timeout;
+        if (maxBatch <= 0 && maxPerUser <= 0 && waitTimeout <= 0) {
+            return null;
+        }
+        final BrokerAdmission admission = new BrokerAdmission(pool.getMax(), maxBatch, maxPerUser, waitTimeout);
+        LOG.info("database instance '" + pool.getId() + "' limits brokers: " + MAX_BATCH_ATTRIBUTE + ": " + maxBatch +
+            "; " + MAX_PER_USER_ATTRIBUTE + ": " + maxPerUser + "; " + WAIT_TIMEOUT_ATTRIBUTE + ": " + waitTimeout + "ms");
+
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(pool.getId(), "org.exist.management." + pool.getId() + ":type=BrokerAdmission",
+                new org.exist.management.BrokerAdmission(admission));
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering broker admission mbean.", e);
+        }
+        return admission;
+    }
+
+    private static int getInt(Configuration conf, String property) {
+        final Object value = conf.getProperty(property);
+        return value == null ? -1 : (Integer) value;
+    }
+
+    /**
+     * Set the priority of the brokers subsequently acquired by the current thread.
+     *
+     * @return the previous priority, to be restored when done
+     */
+    public static Priority setPriority(Priority newPriority) {
+        final Priority previous = getPriority();
+        if (newPriority == Priority.INTERACTIVE) {
+            priority.remove();
+        } else {
+            priority.set(newPriority);
+        }
+        return previous;
+    }
+
+    public static Priority getPriority() {
+        final Priority current = priority.get();
+        return current == null ? Priority.INTERACTIVE : current;
+    }
+
+    /**
+     * Wait until the current thread may acquire a broker for the user. The returned
+     * ticket is either assigned to the acquired broker or released.
+     *
+     * @return the ticket or null if the user is not limited
+     * @throws EXistException if the thread waited longer than the wait timeout
+     */
+    public Ticket admit(Subject user) throws EXistException {
+        if (user == null || SecurityManager.SYSTEM.equals(user.getName())) {
+            return null;
+        }
+        final String name = user.getName();
+        final boolean batch = getPriority() == Priority.BATCH;
+        synchronized (this) {
+            if (!canAdmit(name, batch)) {
+                waitForAdmission(name, batch);
+            }
+            active++;
+            if (batch) {
+                activeBatch++;
+            }
+            final Integer count = activePerUser.get(name);
+            activePerUser.put(name, count == null ? 1 : count + 1);
+            admitted++;
+        }
+        return new Ticket(name, batch);
+    }
+
+    private void waitForAdmission(String name, boolean batch) throws EXistException {
+        final long start = System.currentTimeMillis();
+        queued++;
+        if (batch) {
+            waitingBatch++;
+        } else {
+            waitingInteractive++;
+        }
+        try {
+            while (!canAdmit(name, batch)) {
+                final long remaining = waitTimeout > 0 ? start + waitTimeout - System.currentTimeMillis() : 0;
+                if (waitTimeout > 0 && remaining <= 0) {
+                    timedOut++;
+                    LOG.warn("User " + name + " waited longer than " + waitTimeout + "ms for a broker. " + this);
+                    throw new EXistException("Database is busy: no broker available for user " + name +
+                        " within " + waitTimeout + "ms");
+                }
+                try {
+                    wait(remaining);
+                } catch (final InterruptedException e) {
+                    //nothing to be done!
+                }
+            }
+        } finally {
+            if (batch) {
+                waitingBatch--;
+            } else {
+                waitingInteractive--;
+            }
+            final long wait = System.currentTimeMillis() - start;
+            totalWait += wait;
+            if (wait > maxWait) {
+                maxWait = wait;
+            }
+        }
+    }
+
+    private boolean canAdmit(String name, boolean batch) {
+        if (active >= maxBrokers) {
+            return false;
+        }
+        if (maxPerUser > 0) {
+            final Integer count = activePerUser.get(name);
+            if (count != null && count >= maxPerUser) {
+                return false;
+            }
+        }
+        if (batch) {
+            if (maxBatch > 0 && activeBatch >= maxBatch) {
+                return false;
+            }
+            // interactive threads go first
+            if (waitingInteractive > 0 && active + waitingInteractive >= maxBrokers) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Assign the ticket to the broker acquired by the admitted thread.
+     */
+    public synchronized void assign(DBBroker broker, Ticket ticket) {
+        if (ticket != null) {
+            tickets.put(broker, ticket);
+        }
+    }
+
+    /**
+     * Release the admission held by the broker, called when the broker becomes
+     * inactive.
+     */
+    public synchronized void release(DBBroker broker) {
+        release(tickets.remove(broker));
+    }
+
+    /**
+     * Release a ticket which was not assigned to a broker.
+     */
+    public synchronized void release(Ticket ticket) {
+        if (ticket == null) {
+            return;
+        }
+        active--;
+        if (ticket.batch) {
+            activeBatch--;
+        }
+        final Integer count = activePerUser.get(ticket.user);
+        if (count == null || count <= 1) {
+            activePerUser.remove(ticket.user);
+        } else {
+            activePerUser.put(ticket.user, count - 1);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Release a ticket whose thread waited longer than the wait timeout for a
+     * free broker.
+     */
+    public synchronized void timedOut(Ticket ticket) {
+        timedOut++;
+        release(ticket);
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getActiveBatch() {
+        return activeBatch;
+    }
+
+    public synchronized int getWaiting() {
+        return waitingInteractive + waitingBatch;
+    }
+
+    public synchronized int getWaitingBatch() {
+        return waitingBatch;
+    }
+
+    public synchronized long getAdmitted() {
+        return admitted;
+    }
+
+    public synchronized long getQueued() {
+        return queued;
+    }
+
+    public synchronized long getTimedOut() {
+        return timedOut;
+    }
+
+    public synchronized long getAverageWait() {
+        return queued == 0 ? 0 : totalWait / queued;
+    }
+
+    public synchronized long getMaxWait() {
+        return maxWait;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public int getMaxPerUser() {
+        return maxPerUser;
+    }
+
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Broker admission: active: " + active + "/" + maxBrokers + "; batch: " + activeBatch +
+            "; waiting: " + (waitingInteractive + waitingBatch) + "; admitted: " + admitted + "; queued: " + queued +
+            "; timed out: " + timedOut + "; average wait: " + getAverageWait() + "ms; max wait: " + maxWait + "ms";
+    }
+}
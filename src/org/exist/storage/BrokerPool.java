@@ -67,6 +67,7 @@ import org.exist.util.hashtable.MapRWLock.LongOperation;
 import org.exist.xmldb.ShutdownListener;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.PerformanceStats;
+import org.exist.xslt.TemplatesCache;
 import org.expath.pkg.repo.PackageException;
 
 import java.io.File;
@@ -572,6 +573,16 @@ public class BrokerPool implements Database {
      */
     private XQueryPool xQueryPool;
 
+    /**
+     * The cache in which the database instance's compiled XSL stylesheets are stored.
+     */
+    private TemplatesCache templatesCache;
+
+    /**
+     * Limits the brokers acquired by batch jobs and by single users, null if there are no limits.
+     */
+    private BrokerAdmission brokerAdmission = null;
+
     /**
      * The monitor in which the database instance's strong>running</strong> XQueries are managed.
      */
@@ -850,6 +861,8 @@ public class BrokerPool implements Database {
                     LOG.debug("Reserved memory: " + reservedMem + "; max: " + maxMem + "; min: " + minFree);
 
                     notificationService = new NotificationService();
+                    templatesCache = new TemplatesCache(this);
+                    brokerAdmission = BrokerAdmission.configure(this);
 
                     //REFACTOR : construct then... configure
                     //TODO : journal directory *may* be different from BrokerPool.PROPERTY_DATA_DIR
@@ -1415,6 +1428,24 @@ public class BrokerPool implements Database {
         return xQueryPool;
     }
 
+    /**
+     * Returns the cache in which the database instance's compiled XSL stylesheets are stored.
+     *
+     * @return The cache
+     */
+    public TemplatesCache getTemplatesCache() {
+        return templatesCache;
+    }
+
+    /**
+     * Returns the admission control limiting the brokers acquired by batch jobs and by single users.
+     *
+     * @return The admission control or null if there are no limits
+     */
+    public BrokerAdmission getBrokerAdmission() {
+        return brokerAdmission;
+    }
+
     /**
      * Returns a monitor in which the database instance's <strong>running</strong> XQueries are managed.
      *
@@ -1606,6 +1637,10 @@ public class BrokerPool implements Database {
             }
         }
 
+        //Wait until the thread is admitted, if brokers are limited
+        final BrokerAdmission admission = brokerAdmission;
+        final BrokerAdmission.Ticket ticket = admission == null ? null : admission.admit(user);
+
         synchronized(this) {
             //Are there any available brokers ?
             if(inactiveBrokers.isEmpty()) {
@@ -1613,21 +1648,40 @@ public class BrokerPool implements Database {
                 if(brokersCount < maxBrokers)
                 //... create one
                 {
-                    createBroker();
-                } else
-                    //... or wait until there is one available
+                    try {
+                        createBroker();
+                    } catch(final EXistException e) {
+                        if(admission != null) {
+                            admission.release(ticket);
+                        }
+                        throw e;
+                    }
+                } else {
+                    //... or wait until there is one available, at most the admission's wait timeout
+                    final long waitTimeout = admission == null ? -1 : admission.getWaitTimeout();
+                    final long start = System.currentTimeMillis();
                     while(inactiveBrokers.isEmpty()) {
+                        final long remaining = waitTimeout > 0 ? start + waitTimeout - System.currentTimeMillis() : 0;
+                        if(waitTimeout > 0 && remaining <= 0) {
+                            admission.timedOut(ticket);
+                            LOG.warn("Waited longer than " + waitTimeout + "ms for a broker to become available. " + admission);
+                            throw new EXistException("Database is busy: no broker available within " + waitTimeout + "ms");
+                        }
                         LOG.debug("waiting for a broker to become available");
                         try {
-                            this.wait();
+                            this.wait(remaining);
                         } catch(final InterruptedException e) {
                             //nothing to be done!
                         }
                     }
+                }
             }
             broker = inactiveBrokers.pop();
             //activate the broker
             activeBrokers.put(Thread.currentThread(), broker);
+            if(admission != null) {
+                admission.assign(broker, ticket);
+            }
 
             if(watchdog != null) {
                 watchdog.add(broker);
@@ -1669,6 +1723,9 @@ public class BrokerPool implements Database {
         }
 
         synchronized(this) {
+            if(brokerAdmission != null) {
+                brokerAdmission.release(broker);
+            }
             //Broker is no more used : inactivate it
             for(final DBBroker inactiveBroker : inactiveBrokers) {
                 if(broker == inactiveBroker) {
@@ -2061,6 +2118,8 @@ public class BrokerPool implements Database {
             collectionCache = null;
             collectionCacheMgr = null;
             xQueryPool = null;
+            templatesCache = null;
+            brokerAdmission = null;
             processMonitor = null;
             collectionConfigurationManager = null;
             notificationService = null;
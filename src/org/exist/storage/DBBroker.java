@@ -109,6 +109,9 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 
     protected IndexController indexController;
 
+    /** Nesting level of {@link #startBulkIndexing()} calls */
+    private int bulkIndexing = 0;
+
     //TODO: remove after interface it
     public DBBroker() {
         //Nothing todo
@@ -198,6 +201,34 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
         // do nothing
     }
 
+    /**
+     * Start loading many documents. Until {@link #endBulkIndexing()} is called, indexes
+     * supporting bulk mode buffer the entries of stored documents and write them
+     * in sorted batches, instead of writing them for every document. Each index may buffer
+     * up to 1/16 of the maximum heap size. Calls may be nested; bulk mode ends with the
+     * outermost call to endBulkIndexing(), which must be made before the broker is released.
+     */
+    public void startBulkIndexing() {
+        if (bulkIndexing++ == 0)
+            {startBulk(Runtime.getRuntime().maxMemory() / 16);}
+    }
+
+    /**
+     * Write all index entries buffered since {@link #startBulkIndexing()}.
+     */
+    public void endBulkIndexing() {
+        if (bulkIndexing > 0 && --bulkIndexing == 0)
+            {endBulk();}
+    }
+
+    protected void startBulk(long memoryBudget) {
+        indexController.startBulk(memoryBudget);
+    }
+
+    protected void endBulk() {
+        indexController.endBulk();
+    }
+
     /** Observer Design Pattern: List of ContentLoadingObserver objects */
     protected List<ContentLoadingObserver> contentLoadingObservers = new ArrayList<ContentLoadingObserver>();	
 
@@ -3543,6 +3543,18 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    @Override
+    protected void startBulk(final long memoryBudget) {
+        valueIndex.startBulk(memoryBudget);
+        super.startBulk(memoryBudget);
+    }
+
+    @Override
+    protected void endBulk() {
+        super.endBulk();
+        valueIndex.endBulk();
+    }
+
     @Override
     public void flush() {
         notifyFlush();
@@ -42,6 +42,7 @@ import org.exist.storage.btree.DBException;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.index.BFile;
+import org.exist.storage.index.BFileAppendBuffer;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -140,6 +141,10 @@ public class NativeValueIndex implements ContentLoadingObserver {
     /** Work output Stream that should be cleared before every use. */
     private VariableByteOutputStream os = new VariableByteOutputStream();
 
+    /** Entries of stored documents not yet written in bulk mode, null otherwise */
+    private BFileAppendBuffer bulkBuffer = null;
+    private long bulkMemory = 0;
+
     //TODO : reconsider this. Case sensitivity have nothing to do with atomic values -pb
     protected boolean caseSensitive = true;
 
@@ -436,6 +441,22 @@ public class NativeValueIndex implements ContentLoadingObserver {
                 //Write (variable) length of node IDs
                 os.writeFixedInt( nodeIDsLength, os.position() - nodeIDsLength - LENGTH_NODE_IDS );
 
+                if( bulkBuffer != null ) {
+                    try {
+                        if( section == IDX_GENERIC ) {
+                            bulkBuffer.append( new SimpleValue( collectionId, ( Indexable )key ), os.data() );
+                        } else {
+                            final QNameKey qnk = ( QNameKey )key;
+                            bulkBuffer.append( new QNameValue( collectionId, qnk.qname, qnk.value, broker.getBrokerPool().getSymbols() ), os.data() );
+                        }
+                    }
+                    catch( final EXistException e ) {
+                        LOG.error( e.getMessage(), e );
+                    }
+                    os.clear();
+                    continue;
+                }
+
                 try {
                     lock.acquire( Lock.WRITE_LOCK );
                     Value v;
@@ -476,6 +497,74 @@ public class NativeValueIndex implements ContentLoadingObserver {
             }
             pending[section].clear();
         }
+        if( ( bulkBuffer != null ) && ( bulkBuffer.getSize() > bulkMemory ) ) {
+            writeBulk( false );
+        }
+    }
+
+
+    /**
+     * Start buffering the entries of stored documents, so the entries of many documents
+     * are appended to each key at once. See {@link org.exist.indexing.BulkIndex}.
+     *
+     * @param memoryBudget the approximate number of bytes to buffer before writing
+     */
+    public void startBulk( long memoryBudget )
+    {
+        bulkBuffer = new BFileAppendBuffer( dbValues );
+        bulkMemory = memoryBudget;
+    }
+
+
+    /**
+     * Write all entries buffered in bulk mode and leave bulk mode.
+     */
+    public void endBulk()
+    {
+        if( bulkBuffer == null ) {
+            return;
+        }
+
+        try {
+            bulkBuffer.close();
+        }
+        catch( final LockException e ) {
+            LOG.warn( "Failed to acquire lock for '" + dbValues.getFile().getName() + "'", e );
+        }
+        catch( final IOException e ) {
+            LOG.error( e.getMessage(), e );
+        }
+        catch( final ReadOnlyException e ) {
+            LOG.warn( e.getMessage(), e );
+        }
+        finally {
+            bulkBuffer = null;
+        }
+    }
+
+
+    /**
+     * Write the entries buffered in bulk mode by this index, or by the indexes of all
+     * brokers if entries are about to be removed.
+     */
+    private void writeBulk( boolean all )
+    {
+        try {
+            if( all ) {
+                BFileAppendBuffer.writeAll( dbValues );
+            } else if( bulkBuffer != null ) {
+                bulkBuffer.write();
+            }
+        }
+        catch( final LockException e ) {
+            LOG.warn( "Failed to acquire lock for '" + dbValues.getFile().getName() + "'", e );
+        }
+        catch( final IOException e ) {
+            LOG.error( e.getMessage(), e );
+        }
+        catch( final ReadOnlyException e ) {
+            LOG.warn( e.getMessage(), e );
+        }
     }
 
 
@@ -484,6 +573,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
      */
     public void remove()
     {
+        writeBulk( true );
         //TODO : return if doc == null? -pb
         final int keyCount = pending[IDX_GENERIC].size() + pending[IDX_QNAME].size();
 
@@ -637,6 +727,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
      */
     public void dropIndex( Collection collection )
     {
+        writeBulk( true );
         final Lock lock = dbValues.getLock();
 
         try {
@@ -672,6 +763,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
     //TODO : note that this is *not* this.doc -pb
     public void dropIndex( DocumentImpl document ) throws ReadOnlyException
     {
+        writeBulk( true );
         final int  collectionId = document.getCollection().getId();
         final Lock lock         = dbValues.getLock();
 
@@ -0,0 +1,169 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.storage.index;
+
+import org.apache.log4j.Logger;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.Lock;
+import org.exist.util.ByteArray;
+import org.exist.util.FastByteBuffer;
+import org.exist.util.LockException;
+import org.exist.util.ReadOnlyException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects data to be appended to the keys of a {@link BFile}. Indexes which write
+ * a block of data per key and document use it in bulk mode: the blocks of many
+ * documents are concatenated per key and written in key order with a single
+ * {@link BFile#append(Value, ByteArray)} per key, instead of one append per key
+ * and document.
+ *
+ * A buffer is registered with its file until it is {@link #close() closed}. Index
+ * entries may be removed by any broker, e.g. when another broker deletes a document
+ * which is still buffered, so code removing entries from the file must call
+ * {@link #writeAll(BFile)} first. Otherwise the buffered entries would be written after
+ * the removal and point to a document id which may be reused.
+ */
+public class BFileAppendBuffer {
+
+    private final static Logger LOG = Logger.getLogger(BFileAppendBuffer.class);
+
+    /** Estimated memory used by an entry in addition to its key and data */
+    private final static int ENTRY_OVERHEAD = 64;
+
+    /** The open buffers of each file */
+    private final static Map<BFile, List<BFileAppendBuffer>> open =
+        new IdentityHashMap<BFile, List<BFileAppendBuffer>>();
+
+    private final BFile db;
+
+    // guarded by this
+    private final TreeMap<Value, FastByteBuffer> entries = new TreeMap<Value, FastByteBuffer>();
+    private long size = 0;
+
+    /**
+     * Create a buffer for the file and register it until {@link #close()} is called.
+     */
+    public BFileAppendBuffer(BFile db) {
+        this.db = db;
+        synchronized (open) {
+            List<BFileAppendBuffer> buffers = open.get(db);
+            if (buffers == null) {
+                buffers = new ArrayList<BFileAppendBuffer>();
+                open.put(db, buffers);
+            }
+            buffers.add(this);
+        }
+    }
+
+    /**
+     * Write the data of all open buffers of the file, whichever broker owns them.
+     * Must be called before entries are removed from the file.
+     */
+    public static void writeAll(BFile db) throws LockException, IOException, ReadOnlyException {
+        final List<BFileAppendBuffer> buffers;
+        synchronized (open) {
+            final List<BFileAppendBuffer> registered = open.get(db);
+            if (registered == null)
+                return;
+            buffers = new ArrayList<BFileAppendBuffer>(registered);
+        }
+        for (BFileAppendBuffer buffer : buffers) {
+            buffer.write();
+        }
+    }
+
+    /**
+     * Append the data to the buffered data of the key.
+     */
+    public synchronized void append(Value key, ByteArray data) {
+        FastByteBuffer buf = entries.get(key);
+        if (buf == null) {
+            buf = new FastByteBuffer(6);
+            entries.put(key, buf);
+            size += key.getLength() + ENTRY_OVERHEAD;
+        }
+        data.copyTo(buf);
+        size += data.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the buffer.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Append all buffered data to the file and clear the buffer. The write lock on the
+     * file is acquired once for all keys.
+     */
+    public synchronized void write() throws LockException, IOException, ReadOnlyException {
+        if (entries.isEmpty())
+            return;
+        final Lock lock = db.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            for (Map.Entry<Value, FastByteBuffer> entry : entries.entrySet()) {
+                if (db.append(entry.getKey(), entry.getValue()) == BFile.UNKNOWN_ADDRESS) {
+                    LOG.warn("Could not append index data for key '" + entry.getKey() + "'");
+                }
+            }
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+            clear();
+        }
+    }
+
+    /**
+     * Write all buffered data and unregister the buffer.
+     */
+    public void close() throws LockException, IOException, ReadOnlyException {
+        try {
+            write();
+        } finally {
+            synchronized (open) {
+                final List<BFileAppendBuffer> buffers = open.get(db);
+                if (buffers != null) {
+                    buffers.remove(this);
+                    if (buffers.isEmpty())
+                        open.remove(db);
+                }
+            }
+        }
+    }
+
+    private void clear() {
+        entries.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent map holding at most maxEntries entries. Reads do not lock: a get only
+ * stamps the entry with its access time. If a put makes the map grow larger than
+ * maxEntries, the least recently used entries are removed in a batch, so the
+ * entries need not be sorted on every put to a full map. The batch includes
+ * a tenth of maxEntries in addition to the entries over the limit. Both get and put
+ * count as a use.
+ *
+ * @param <K> the key
+ * @param <V> the value
+ */
+public class BoundedLRUMap<K, V> {
+
+    /** Fraction of the entries removed in addition to the ones over the limit */
+    private final static float EVICTION_FACTOR = 0.1f;
+
+    /**
+     * Selects the values removed by {@link BoundedLRUMap#removeAll(Filter)}.
+     */
+    public interface Filter<V> {
+
+        boolean accept(V value);
+    }
+
+    private static class Node<V> {
+
+        final V value;
+        volatile long lastAccess;
+
+        Node(V value) {
+            this.value = value;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<K, Node<V>>();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BoundedLRUMap(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public V get(K key) {
+        final Node<V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.lastAccess = System.nanoTime();
+        return node.value;
+    }
+
+    /**
+     * @return the previous value for the key or null
+     */
+    public V put(K key, V value) {
+        final Node<V> previous = map.put(key, new Node<V>(value));
+        if (map.size() > maxEntries) {
+            evict();
+        }
+        return previous == null ? null : previous.value;
+    }
+
+    /**
+     * Add the value unless there already is a value for the key.
+     *
+     * @return the existing value for the key or null if the value was added
+     */
+    public V putIfAbsent(K key, V value) {
+        final Node<V> existing = map.putIfAbsent(key, new Node<V>(value));
+        if (existing != null) {
+            existing.lastAccess = System.nanoTime();
+            return existing.value;
+        }
+        if (map.size() > maxEntries) {
+            evict();
+        }
+        return null;
+    }
+
+    public V remove(K key) {
+        final Node<V> node = map.remove(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Remove the entry for the key only if it maps to the given value.
+     *
+     * @return true if the entry was removed
+     */
+    public boolean remove(K key, V value) {
+        final Node<V> node = map.get(key);
+        return node != null && node.value.equals(value) && map.remove(key, node);
+    }
+
+    /**
+     * Remove all entries whose value is accepted by the filter.
+     *
+     * @return the number of entries removed
+     */
+    public int removeAll(Filter<? super V> filter) {
+        int count = 0;
+        for (final Map.Entry<K, Node<V>> entry : map.entrySet()) {
+            if (filter.accept(entry.getValue().value) && map.remove(entry.getKey(), entry.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the number of entries removed because the map was full.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Remove the least recently used entries. Only one thread evicts at a time, the
+     * others keep putting and reading while the entries are sorted.
+     */
+    private synchronized void evict() {
+        final int size = map.size();
+        if (size <= maxEntries) {
+            // another thread evicted already
+            return;
+        }
+        final List<Map.Entry<K, Node<V>>> list = new ArrayList<Map.Entry<K, Node<V>>>(map.entrySet());
+        Collections.sort(list, new Comparator<Map.Entry<K, Node<V>>>() {
+            @Override
+            public int compare(Map.Entry<K, Node<V>> e1, Map.Entry<K, Node<V>> e2) {
+                final long a1 = e1.getValue().lastAccess;
+                final long a2 = e2.getValue().lastAccess;
+                return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+            }
+        });
+        final int count = Math.min(list.size(), list.size() - maxEntries + (int) (maxEntries * EVICTION_FACTOR));
+        int removed = 0;
+        for (int i = 0; i < count; i++) {
+            final Map.Entry<K, Node<V>> entry = list.get(i);
+            if (map.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        evictions.addAndGet(removed);
+    }
+}
@@ -44,6 +44,7 @@ import org.exist.scheduler.JobConfig;
 import org.exist.scheduler.JobException;
 import org.exist.security.internal.RealmImpl;
 import org.exist.security.xacml.XACMLConstants;
+import org.exist.storage.BrokerAdmission;
 import org.exist.storage.BrokerFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.CollectionCacheManager;
@@ -65,6 +66,7 @@ import org.exist.xquery.FunctionFactory;
 import org.exist.xquery.PerformanceStats;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
+import org.exist.xslt.TemplatesCache;
 import org.exist.xslt.TransformerFactoryAllocator;
 
 import java.io.File;
@@ -558,6 +560,19 @@ public class Configuration implements ErrorHandler
             config.put( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE, parseBoolean( cachingValue, false ) );
             LOG.debug( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE + ": " + config.get( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE ) );
         }
+
+        final String cacheSize = getConfigAttributeValue( transformer, TemplatesCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( cacheSize != null ) {
+
+            try {
+                config.put( TemplatesCache.PROPERTY_CACHE_SIZE, Integer.valueOf( cacheSize ) );
+                LOG.debug( TemplatesCache.PROPERTY_CACHE_SIZE + ": " + config.get( TemplatesCache.PROPERTY_CACHE_SIZE ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
     }
 
 
@@ -1328,6 +1343,45 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String maxBatch = getConfigAttributeValue( pool, BrokerAdmission.MAX_BATCH_ATTRIBUTE );
+
+        if( maxBatch != null ) {
+
+            try {
+                config.put( BrokerAdmission.PROPERTY_MAX_BATCH, Integer.valueOf(maxBatch) );
+                LOG.debug( BrokerAdmission.PROPERTY_MAX_BATCH + ": " + config.get( BrokerAdmission.PROPERTY_MAX_BATCH ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String maxPerUser = getConfigAttributeValue( pool, BrokerAdmission.MAX_PER_USER_ATTRIBUTE );
+
+        if( maxPerUser != null ) {
+
+            try {
+                config.put( BrokerAdmission.PROPERTY_MAX_PER_USER, Integer.valueOf(maxPerUser) );
+                LOG.debug( BrokerAdmission.PROPERTY_MAX_PER_USER + ": " + config.get( BrokerAdmission.PROPERTY_MAX_PER_USER ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String waitTimeout = getConfigAttributeValue( pool, BrokerAdmission.WAIT_TIMEOUT_ATTRIBUTE );
+
+        if( waitTimeout != null ) {
+
+            try {
+                config.put( BrokerAdmission.PROPERTY_WAIT_TIMEOUT, Long.valueOf(waitTimeout) );
+                LOG.debug( BrokerAdmission.PROPERTY_WAIT_TIMEOUT + ": " + config.get( BrokerAdmission.PROPERTY_WAIT_TIMEOUT ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
     }
 
 
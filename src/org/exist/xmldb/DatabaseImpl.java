@@ -24,6 +24,7 @@ package org.exist.xmldb;
 import org.apache.log4j.Logger;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcSunHttpTransportFactory;
 
 import org.exist.EXistException;
 import org.exist.security.AuthenticationException;
@@ -33,6 +34,7 @@ import org.exist.security.xacml.AccessContext;
 import org.exist.storage.BrokerPool;
 import org.exist.util.Configuration;
 import org.exist.util.SSLHelper;
+import org.exist.xmlrpc.BinaryRpcTransportFactory;
 
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.Database;
@@ -62,6 +64,10 @@ import java.util.HashMap;
  * address different database instances - which may have been installed at
  * different places.
  * 
+ * Remote connections use XML-RPC unless the property "transport" is set to
+ * "binary", which selects the more compact protocol of
+ * {@link org.exist.xmlrpc.BinaryRpcCodec}.
+ * 
  * @author Wolfgang Meier
  */
 public class DatabaseImpl implements Database {
@@ -87,6 +93,8 @@ public class DatabaseImpl implements Database {
   protected int mode = UNKNOWN_CONNECTION;
     
   private Boolean ssl_enable=false;
+  /** Use the binary protocol instead of XML-RPC for remote connections */
+  private Boolean binary_transport=false;
   private Boolean ssl_allow_self_signed=true;
   private Boolean ssl_verify_hostname=false;
 
@@ -325,6 +333,12 @@ public class DatabaseImpl implements Database {
           rpcClients.put(key, client);
       }
       client.setConfig(config);
+      if (binary_transport) {
+          if (!(client.getTransportFactory() instanceof BinaryRpcTransportFactory))
+              {client.setTransportFactory(new BinaryRpcTransportFactory(client));}
+      } else if (client.getTransportFactory() instanceof BinaryRpcTransportFactory) {
+          client.setTransportFactory(new XmlRpcSunHttpTransportFactory(client));
+      }
       return client;
   }
 
@@ -383,6 +397,10 @@ public class DatabaseImpl implements Database {
         if ("ssl-verify-hostname".equals(property)) {
             return "" + ssl_allow_self_signed;
         }
+
+        if ("transport".equals(property)) {
+            return binary_transport ? "binary" : "xmlrpc";
+        }
         
         return null;
     }
@@ -416,5 +434,9 @@ public class DatabaseImpl implements Database {
             ssl_verify_hostname = Boolean.valueOf(value);
         }
 
+        if ("transport".equals(property)) {
+            binary_transport = "binary".equals(value);
+        }
+
     }
 }
\ No newline at end of file
@@ -65,6 +65,20 @@ public abstract class AbstractCachedResult {
 	 */
 	public abstract Object getResult();
 	
+	/**
+	 * Returns the number of bytes of serialized content held
+	 * in memory by the cached result. The memory used by
+	 * items is not known and counted by {@link #getItemCount()}.
+	 * @return The memory size of the serialized content
+	 */
+	public abstract long getMemorySize();
+	
+	/**
+	 * Returns the number of items held by the cached result.
+	 * @return The item count
+	 */
+	public abstract long getItemCount();
+	
 	protected void finalize()
 		throws Throwable
 	{
@@ -0,0 +1,314 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xmlrpc;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes the calls of the XML-RPC interface in a compact binary format, which
+ * avoids the XML envelope and the base64 encoding of binary data. The methods and
+ * parameters are the same as for XML-RPC, see {@link RpcAPI}.
+ *
+ * The messages are sent as frames: a 4-byte length followed by the message. A request
+ * message contains the method name and the parameters, a response message a status byte
+ * followed by the result or the fault code and message. Several request frames may be
+ * sent in one HTTP request body. The server answers them in order, writing each response
+ * frame as soon as the call returned.
+ *
+ * Values are written as a type tag followed by the data. As with XML-RPC, arrays are
+ * decoded as Object[] and structs as HashMap.
+ *
+ * Frames are read into memory before they are decoded, so the server limits their size.
+ * The length of a string or array within a frame is checked against the bytes left in
+ * the frame before anything is allocated.
+ */
+public class BinaryRpcCodec {
+
+    /** Content type used for requests and responses of the binary protocol */
+    public final static String CONTENT_TYPE = "application/x-exist-rpc";
+
+    /** Default maximum size of a request frame accepted by the server: 32MB */
+    public final static int DEFAULT_MAX_FRAME_SIZE = 32 * 1024 * 1024;
+
+    /** Maximum nesting of arrays and structs */
+    public final static int MAX_DEPTH = 64;
+
+    public final static byte STATUS_OK = 0;
+    public final static byte STATUS_FAULT = 1;
+
+    private final static byte TYPE_NULL = 0;
+    private final static byte TYPE_INT = 1;
+    private final static byte TYPE_LONG = 2;
+    private final static byte TYPE_BOOLEAN = 3;
+    private final static byte TYPE_DOUBLE = 4;
+    private final static byte TYPE_STRING = 5;
+    private final static byte TYPE_DATE = 6;
+    private final static byte TYPE_BYTES = 7;
+    private final static byte TYPE_ARRAY = 8;
+    private final static byte TYPE_STRUCT = 9;
+
+    /**
+     * Write a request frame.
+     */
+    public static void writeRequest(OutputStream os, String methodName, Object[] params) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        writeString(out, methodName);
+        out.writeInt(params.length);
+        for (final Object param : params) {
+            writeValue(out, param);
+        }
+        writeFrame(os, bos);
+    }
+
+    /**
+     * Write a response frame for a call which returned normally.
+     */
+    public static void writeResult(OutputStream os, Object result) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(STATUS_OK);
+        writeValue(out, result);
+        writeFrame(os, bos);
+    }
+
+    /**
+     * Write a response frame for a call which failed.
+     */
+    public static void writeFault(OutputStream os, int code, String message) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(STATUS_FAULT);
+        out.writeInt(code);
+        writeString(out, message == null ? "" : message);
+        writeFrame(os, bos);
+    }
+
+    private static void writeFrame(OutputStream os, ByteArrayOutputStream message) throws IOException {
+        final DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(message.size());
+        message.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Read the next frame.
+     *
+     * @return the message of the frame or null if the stream ended before a new frame
+     */
+    public static DataInputStream readFrame(InputStream is) throws IOException {
+        return readFrame(is, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read the next frame, which must not be larger than maxFrameSize bytes.
+     *
+     * @return the message of the frame or null if the stream ended before a new frame
+     * @throws IOException if the frame is larger than maxFrameSize
+     */
+    public static DataInputStream readFrame(InputStream is, int maxFrameSize) throws IOException {
+        final DataInputStream in = new DataInputStream(is);
+        final int length;
+        try {
+            length = in.readInt();
+        } catch (final EOFException e) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        if (length > maxFrameSize) {
+            throw new IOException("Frame of " + length + " bytes exceeds the maximum size of " + maxFrameSize + " bytes");
+        }
+        final byte[] data = new byte[length];
+        in.readFully(data);
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Read the parameters of a request message after its method name.
+     */
+    public static Object[] readParameters(DataInputStream in) throws IOException {
+        final int count = readCount(in, 1);
+        final Object[] params = new Object[count];
+        for (int i = 0; i < count; i++) {
+            params[i] = readValue(in, 0);
+        }
+        return params;
+    }
+
+    /**
+     * Read the number of bytes or values which follow. Each of them takes at least
+     * minSize bytes, so there must be at least count * minSize bytes left in the frame.
+     */
+    private static int readCount(DataInputStream in, int minSize) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || (long) count * minSize > in.available()) {
+            throw new IOException("Invalid length in binary RPC message: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Read the result of a response message.
+     *
+     * @throws XmlRpcException if the response reports a fault
+     */
+    public static Object readResult(DataInputStream in) throws IOException, XmlRpcException {
+        final byte status = in.readByte();
+        if (status == STATUS_FAULT) {
+            final int code = in.readInt();
+            throw new XmlRpcException(code, readString(in));
+        }
+        return readValue(in, 0);
+    }
+
+    public static void writeString(DataOutputStream out, String str) throws IOException {
+        final byte[] data = str.getBytes(UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        final byte[] data = new byte[readCount(in, 1)];
+        in.readFully(data);
+        return new String(data, UTF_8);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TYPE_INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            final byte[] data = (byte[]) value;
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(data.length);
+            out.write(data);
+        } else if (value instanceof Object[]) {
+            final Object[] array = (Object[]) value;
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(array.length);
+            for (final Object item : array) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof Collection) {
+            final Collection<?> array = (Collection<?>) value;
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(array.size());
+            for (final Object item : array) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> struct = (Map<?, ?>) value;
+            out.writeByte(TYPE_STRUCT);
+            out.writeInt(struct.size());
+            for (final Map.Entry<?, ?> entry : struct.entrySet()) {
+                writeString(out, entry.getKey().toString());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IOException("Unsupported type in binary RPC message: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in, int depth) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INT:
+                return Integer.valueOf(in.readInt());
+            case TYPE_LONG:
+                return Long.valueOf(in.readLong());
+            case TYPE_BOOLEAN:
+                return Boolean.valueOf(in.readBoolean());
+            case TYPE_DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_BYTES:
+                final byte[] data = new byte[readCount(in, 1)];
+                in.readFully(data);
+                return data;
+            case TYPE_ARRAY:
+                checkDepth(depth);
+                // every value has at least a type tag
+                final Object[] array = new Object[readCount(in, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in, depth + 1);
+                }
+                return array;
+            case TYPE_STRUCT:
+                checkDepth(depth);
+                // every entry has at least the length of the key and a type tag
+                final int size = readCount(in, 5);
+                final HashMap<String, Object> struct = new HashMap<String, Object>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    final String key = readString(in);
+                    struct.put(key, readValue(in, depth + 1));
+                }
+                return struct;
+            default:
+                throw new IOException("Unknown type in binary RPC message: " + type);
+        }
+    }
+
+    private static void checkDepth(int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("Arrays and structs in binary RPC message nested deeper than " + MAX_DEPTH);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xmlrpc;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.XmlRpcRequestConfig;
+import org.apache.xmlrpc.common.XmlRpcHttpRequestConfigImpl;
+import org.apache.xmlrpc.server.XmlRpcServer;
+import org.apache.xmlrpc.util.HttpUtil;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Handles requests of the binary protocol defined by {@link BinaryRpcCodec}. The calls
+ * are passed to the handlers of the XML-RPC server, so both protocols support the
+ * same methods and the same authentication.
+ *
+ * The user is authenticated before the request body is read, so the parameters of
+ * unauthenticated requests are never decoded. Request frames larger than the maximum
+ * frame size or with invalid contents are answered with a fault and end the request.
+ */
+public class BinaryRpcServer {
+
+    private final static Logger LOG = Logger.getLogger(BinaryRpcServer.class);
+
+    private final XmlRpcServer server;
+    private final XmldbRequestProcessorFactory factory;
+    private final int maxFrameSize;
+
+    /**
+     * @param server the XML-RPC server executing the calls
+     * @param factory the factory authenticating the user
+     * @param maxFrameSize the maximum size in bytes of a request frame
+     */
+    public BinaryRpcServer(XmlRpcServer server, XmldbRequestProcessorFactory factory, int maxFrameSize) {
+        this.server = server;
+        this.factory = factory;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Execute all request frames in the body of the HTTP request in order and write
+     * the response frames to the HTTP response.
+     */
+    public void execute(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final XmlRpcHttpRequestConfigImpl config = new XmlRpcHttpRequestConfigImpl();
+        config.setEnabledForExtensions(true);
+        config.setBasicEncoding("UTF-8");
+        HttpUtil.parseAuthorization(config, request.getHeader("Authorization"));
+
+        response.setContentType(BinaryRpcCodec.CONTENT_TYPE);
+        final OutputStream os = response.getOutputStream();
+        try {
+            factory.authenticate(config.getBasicUserName(), config.getBasicPassword());
+        } catch (final XmlRpcException e) {
+            BinaryRpcCodec.writeFault(os, e.code, e.getMessage());
+            os.flush();
+            return;
+        }
+
+        final InputStream is = request.getInputStream();
+        DataInputStream message;
+        while (true) {
+            final String methodName;
+            final Object[] params;
+            try {
+                message = BinaryRpcCodec.readFrame(is, maxFrameSize);
+                if (message == null) {
+                    break;
+                }
+                methodName = BinaryRpcCodec.readString(message);
+                params = BinaryRpcCodec.readParameters(message);
+            } catch (final IOException e) {
+                LOG.warn("Invalid binary RPC request from " + request.getRemoteAddr() + ": " + e.getMessage());
+                BinaryRpcCodec.writeFault(os, 0, "Invalid request: " + e.getMessage());
+                break;
+            }
+            try {
+                final Object result = server.execute(new Request(config, methodName, params));
+                BinaryRpcCodec.writeResult(os, result);
+            } catch (final XmlRpcException e) {
+                LOG.debug("Binary RPC call " + methodName + " failed: " + e.getMessage(), e);
+                BinaryRpcCodec.writeFault(os, e.code, e.getMessage());
+            } catch (final RuntimeException e) {
+                LOG.warn("Binary RPC call " + methodName + " failed: " + e.getMessage(), e);
+                BinaryRpcCodec.writeFault(os, 0, e.getMessage());
+            }
+        }
+        os.flush();
+    }
+
+    private static class Request implements XmlRpcRequest {
+
+        private final XmlRpcRequestConfig config;
+        private final String methodName;
+        private final Object[] params;
+
+        private Request(XmlRpcRequestConfig config, String methodName, Object[] params) {
+            this.config = config;
+            this.methodName = methodName;
+            this.params = params;
+        }
+
+        public XmlRpcRequestConfig getConfig() {
+            return config;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public int getParameterCount() {
+            return params.length;
+        }
+
+        public Object getParameter(int pIndex) {
+            return params[pIndex];
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xmlrpc;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.client.XmlRpcTransportFactory;
+import org.apache.xmlrpc.client.XmlRpcTransportImpl;
+import org.apache.xmlrpc.util.HttpUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Transport factory for an {@link XmlRpcClient}, which sends the calls using the binary
+ * protocol of {@link BinaryRpcCodec} instead of XML-RPC. The server URL stays the same:
+ * the XML-RPC servlet recognizes binary requests by their content type.
+ */
+public class BinaryRpcTransportFactory implements XmlRpcTransportFactory {
+
+    private final BinaryRpcTransport transport;
+
+    public BinaryRpcTransportFactory(XmlRpcClient client) {
+        this.transport = new BinaryRpcTransport(client);
+    }
+
+    public XmlRpcTransport getTransport() {
+        return transport;
+    }
+
+    public static class BinaryRpcTransport extends XmlRpcTransportImpl {
+
+        private BinaryRpcTransport(XmlRpcClient client) {
+            super(client);
+        }
+
+        public Object sendRequest(XmlRpcRequest request) throws XmlRpcException {
+            final Object result = sendRequests(new XmlRpcRequest[] { request })[0];
+            if (result instanceof XmlRpcException) {
+                throw (XmlRpcException) result;
+            }
+            return result;
+        }
+
+        /**
+         * Send several requests in one HTTP request. The server executes them in
+         * order, so the requests must not depend on each other's results.
+         *
+         * @return the results in the order of the requests. For a request which failed,
+         *  the result is the {@link XmlRpcException} reported by the server
+         * @throws XmlRpcException if the requests could not be sent or the response
+         *  could not be read
+         */
+        public Object[] sendRequests(XmlRpcRequest[] requests) throws XmlRpcException {
+            if (requests.length == 0) {
+                return new Object[0];
+            }
+            final XmlRpcHttpClientConfig config = (XmlRpcHttpClientConfig) requests[0].getConfig();
+            try {
+                final HttpURLConnection connection = (HttpURLConnection) config.getServerURL().openConnection();
+                connection.setDoOutput(true);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", BinaryRpcCodec.CONTENT_TYPE);
+                connection.setChunkedStreamingMode(0);
+                if (config.getConnectionTimeout() > 0) {
+                    connection.setConnectTimeout(config.getConnectionTimeout());
+                }
+                if (config.getReplyTimeout() > 0) {
+                    connection.setReadTimeout(config.getReplyTimeout());
+                }
+                final String auth = HttpUtil.encodeBasicAuthentication(config.getBasicUserName(),
+                        config.getBasicPassword(), config.getBasicEncoding() == null ? "UTF-8" : config.getBasicEncoding());
+                if (auth != null) {
+                    connection.setRequestProperty("Authorization", "Basic " + auth);
+                }
+
+                final OutputStream os = new BufferedOutputStream(connection.getOutputStream());
+                try {
+                    for (final XmlRpcRequest request : requests) {
+                        final Object[] params = new Object[request.getParameterCount()];
+                        for (int i = 0; i < params.length; i++) {
+                            params[i] = request.getParameter(i);
+                        }
+                        BinaryRpcCodec.writeRequest(os, request.getMethodName(), params);
+                    }
+                } finally {
+                    os.close();
+                }
+
+                final int status = connection.getResponseCode();
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new XmlRpcException(status, "HTTP server returned unexpected status: " +
+                        connection.getResponseMessage());
+                }
+                final Object[] results = new Object[requests.length];
+                final InputStream is = new BufferedInputStream(connection.getInputStream());
+                try {
+                    for (int i = 0; i < results.length; i++) {
+                        final DataInputStream message = BinaryRpcCodec.readFrame(is);
+                        if (message == null) {
+                            throw new XmlRpcException("Binary RPC response ended after " + i + " of " +
+                                results.length + " results");
+                        }
+                        try {
+                            results[i] = BinaryRpcCodec.readResult(message);
+                        } catch (final XmlRpcException e) {
+                            results[i] = e;
+                        }
+                    }
+                } finally {
+                    is.close();
+                }
+                return results;
+            } catch (final IOException e) {
+                throw new XmlRpcException("Failed to send binary RPC request: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -2,7 +2,9 @@ package org.exist.xmlrpc;
 
 import java.io.IOException;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
 
 import java.util.Properties;
 import org.apache.log4j.Logger;
@@ -23,6 +25,10 @@ public class QueryResult extends AbstractCachedResult {
     // set upon failure
     protected XPathException exception = null;
 
+    // cursor used by retrieveNext to fetch the result in pages
+    private SequenceIterator cursor = null;
+    private int position = 0;
+
     public QueryResult(Sequence result, Properties outputProperties) {
         this(result, outputProperties, 0);
     }
@@ -53,6 +59,40 @@ public class QueryResult extends AbstractCachedResult {
         return result;
     }
 
+    /**
+     * Returns the next item of the forward cursor over the result or null
+     * if the cursor reached the end of the result.
+     */
+    public synchronized Item nextItem() throws XPathException {
+        if (result == null)
+            {return null;}
+        if (cursor == null)
+            {cursor = result.iterate();}
+        if (!cursor.hasNext())
+            {return null;}
+        position++;
+        return cursor.nextItem();
+    }
+
+    /**
+     * @return the number of items already fetched through the cursor
+     */
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getMemorySize() {
+        return 0;
+    }
+
+    @Override
+    public long getItemCount() {
+        if (result == null)
+            {return 0;}
+        return result.getItemCount();
+    }
+
     @Override
     public void free() {
         if(result != null) {
@@ -67,6 +107,7 @@ public class QueryResult extends AbstractCachedResult {
             }
 
             result = null;
+            cursor = null;
         }
     }
 }
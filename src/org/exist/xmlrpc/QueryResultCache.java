@@ -12,6 +12,21 @@ public class QueryResultCache {
 
     public final static int TIMEOUT = 180000;
 
+    /**
+     * Maximum number of items held by the cached query results: one item per KB
+     * of heap. This is a cap on the item count, not a memory budget, as the memory
+     * used by an item is not known: it may be a small atomic value or a node of a
+     * large in-memory document. If it is exceeded, the least recently used results
+     * are removed.
+     */
+    public final static long MAX_ITEMS = Runtime.getRuntime().maxMemory() / 1024;
+
+    /**
+     * Maximum memory held by serialized results which are kept in memory rather than
+     * in a temporary file. If it is exceeded, the least recently used results are removed.
+     */
+    public final static long MAX_MEMORY = Runtime.getRuntime().maxMemory() / 8;
+
     private static final int INITIAL_SIZE = 254;
     
     public AbstractCachedResult[] results;
@@ -22,7 +37,8 @@ public class QueryResultCache {
         results = new AbstractCachedResult[INITIAL_SIZE];
     }
 
-    public int add(AbstractCachedResult qr) {
+    public synchronized int add(AbstractCachedResult qr) {
+        checkLimits(qr);
         for (int i = 0; i < results.length; i++) {
             if (results[i] == null) {
                 results[i] = qr;
@@ -38,7 +54,7 @@ public class QueryResultCache {
         return pos;
     }
 
-    public AbstractCachedResult get(int pos) {
+    public synchronized AbstractCachedResult get(int pos) {
         if (pos < 0 || pos >= results.length)
             {return null;}
         return results[pos];
@@ -56,7 +72,7 @@ public class QueryResultCache {
     	return (acr!=null && acr instanceof SerializedResult)?(SerializedResult)acr:null;
     }
     
-    public void remove(int pos) {
+    public synchronized void remove(int pos) {
         if (pos > -1 && pos < results.length) {
         	// Perhaps we should not free resources here
         	// but an explicit remove implies you want
@@ -69,7 +85,7 @@ public class QueryResultCache {
         }
     }
 
-    public void remove(int pos, int hash) {
+    public synchronized void remove(int pos, int hash) {
         if (pos > -1 && pos < results.length && (results[pos] != null && results[pos].hashCode() == hash)) {
         	// Perhaps we should not free resources here
         	// but an explicit remove implies you want
@@ -79,7 +95,7 @@ public class QueryResultCache {
         }
     }
 
-    public void checkTimestamps() {
+    public synchronized void checkTimestamps() {
         final long now = System.currentTimeMillis();
         for (int i = 0; i < results.length; i++) {
         	final AbstractCachedResult result = results[i];
@@ -94,4 +110,40 @@ public class QueryResultCache {
             }
         }
     }
+
+    /**
+     * Remove the least recently used results until the new result fits into
+     * {@link #MAX_ITEMS} and {@link #MAX_MEMORY}. The most recent result is always kept.
+     */
+    private void checkLimits(AbstractCachedResult required) {
+        long items = required.getItemCount();
+        long used = required.getMemorySize();
+        for (int i = 0; i < results.length; i++) {
+            final AbstractCachedResult result = results[i];
+            if (result != null) {
+                items += result.getItemCount();
+                used += result.getMemorySize();
+            }
+        }
+        while (items > MAX_ITEMS || used > MAX_MEMORY) {
+            int oldest = -1;
+            AbstractCachedResult oldestResult = null;
+            for (int i = 0; i < results.length; i++) {
+                final AbstractCachedResult result = results[i];
+                if (result != null &&
+                        (oldestResult == null || result.getTimestamp() < oldestResult.getTimestamp())) {
+                    oldest = i;
+                    oldestResult = result;
+                }
+            }
+            if (oldestResult == null)
+                {break;}
+            if (LOG.isDebugEnabled())
+                {LOG.debug("Removing result set " + oldest + " to stay within the cache limits");}
+            items -= oldestResult.getItemCount();
+            used -= oldestResult.getMemorySize();
+            // as in checkTimestamps, leave freeing the resources to the garbage collector
+            results[oldest] = null;
+        }
+    }
 }
@@ -745,6 +745,25 @@ public interface RpcAPI {
 	HashMap<String, Object> retrieveFirstChunk(int resultId, int num, HashMap<String, Object> parameters)
 		throws EXistException, PermissionDeniedException;
 
+	/**
+	 *  Retrieve the next items of the result-set identified by resultId. The
+	 *  result-set keeps a forward cursor, so each call continues where the
+	 *  previous one stopped. The items are serialized in a single pass into an
+	 *  exist:result element. The result-set is released once the cursor
+	 *  reached its end.
+	 *
+	 *@param  resultId                       the id of the result-set
+	 *@param  count                          the maximum number of items to return
+	 *@param  parameters                     the serialization parameters
+	 *@return                                a map containing the serialized items as "data",
+	 *                                       the position of the cursor as "position", the total
+	 *                                       number of items as "hits" and a Boolean "more"
+	 *@exception  EXistException             Description of the Exception
+	 *@exception  PermissionDeniedException  Description of the Exception
+	 */
+	HashMap<String, Object> retrieveNext(int resultId, int count, HashMap<String, Object> parameters)
+		throws EXistException, PermissionDeniedException;
+
 	boolean addAccount(String name, String passwd, String digestPassword,Vector<String> groups, Boolean isEnabled, Integer umask, Map<String, String> metadata)
 		throws EXistException, PermissionDeniedException;
         
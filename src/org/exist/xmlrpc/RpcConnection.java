@@ -3617,6 +3617,97 @@ public class RpcConnection implements RpcAPI {
         }
     }
     
+    /**
+     * The method <code>retrieveNext</code>
+     *
+     * @param resultId an <code>int</code> value
+     * @param count an <code>int</code> value
+     * @param parameters a <code>HashMap</code> value
+     * @return a <code>HashMap</code> value
+     * @exception EXistException if an error occurs
+     * @exception PermissionDeniedException if an error occurs
+     */
+    @Override
+    public HashMap<String, Object> retrieveNext(int resultId, int count, HashMap<String, Object> parameters)
+            throws EXistException, PermissionDeniedException {
+        String encoding = (String) parameters.get(OutputKeys.ENCODING);
+        if (encoding == null)
+            {encoding = DEFAULT_ENCODING;}
+        DBBroker broker = null;
+        try {
+            broker = factory.getBrokerPool().get(user);
+            final QueryResult qr = factory.resultSets.getResult(resultId);
+            if (qr == null)
+                {throw new EXistException("result set unknown or timed out");}
+            qr.touch();
+            final HashMap<String, Object> result = new HashMap<String, Object>();
+            final int hits = qr.result.getItemCount();
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            serializer.setProperties(qr.serialization);
+
+            final SAXSerializer handler = (SAXSerializer) SerializerPool.getInstance().borrowObject(SAXSerializer.class);
+            final StringWriter writer = new StringWriter();
+            boolean more = true;
+            synchronized (qr) {
+                final int start = qr.getPosition() + 1;
+                try {
+                    handler.setOutput(writer, getProperties(parameters));
+
+                    // serialize the next items
+                    handler.startDocument();
+                    handler.startPrefixMapping("exist", Namespaces.EXIST_NS);
+                    final AttributesImpl attribs = new AttributesImpl();
+                    attribs.addAttribute("", "hitCount", "hitCount", "CDATA", Integer.toString(hits));
+                    attribs.addAttribute("", "start", "start", "CDATA", Integer.toString(start));
+                    handler.startElement(Namespaces.EXIST_NS, "result", "exist:result", attribs);
+                    Item current;
+                    char[] value;
+                    for (int i = 0; i < count; i++) {
+                        current = qr.nextItem();
+                        if (current == null) {
+                            more = false;
+                            break;
+                        }
+                        if(Type.subTypeOf(current.getType(), Type.NODE))
+                            {current.toSAX(broker, handler, null);}
+                        else {
+                            value = current.toString().toCharArray();
+                            handler.characters(value, 0, value.length);
+                        }
+                    }
+                    handler.endElement(Namespaces.EXIST_NS, "result", "exist:result");
+                    handler.endPrefixMapping("exist");
+                    handler.endDocument();
+                } finally {
+                    SerializerPool.getInstance().returnObject(handler);
+                }
+                if (qr.getPosition() >= hits)
+                    {more = false;}
+                result.put("position", Integer.valueOf(qr.getPosition()));
+            }
+            if (!more) {
+                // the client has seen all items: release the result
+                factory.resultSets.remove(resultId, qr.hashCode());
+            }
+            final String xml = writer.toString();
+            try {
+                result.put("data", xml.getBytes(encoding));
+            } catch (final UnsupportedEncodingException uee) {
+                LOG.warn(uee);
+                result.put("data", xml.getBytes());
+            }
+            result.put("hits", Integer.valueOf(hits));
+            result.put("more", Boolean.valueOf(more));
+            return result;
+        } catch (final Throwable e) {
+            handleException(e);
+            return null;
+        } finally {
+            factory.getBrokerPool().release(broker);
+        }
+    }
+
     /**
      * The method <code>retrieveAllFirstChunk</code>
      *
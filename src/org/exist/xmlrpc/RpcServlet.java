@@ -51,6 +51,22 @@ public class RpcServlet extends XmlRpcServlet {
         RpcServlet.useDefaultUser = useDefaultUser;
     }
 
+    private int binaryMaxFrameSize = BinaryRpcCodec.DEFAULT_MAX_FRAME_SIZE;
+
+    private XmldbRequestProcessorFactoryFactory processorFactoryFactory = null;
+
+    public int getBinaryMaxFrameSize() {
+        return binaryMaxFrameSize;
+    }
+
+    /**
+     * Set the maximum size in bytes of a request frame of the binary protocol,
+     * configured by the init parameter binaryMaxFrameSize.
+     */
+    public void setBinaryMaxFrameSize(int binaryMaxFrameSize) {
+        this.binaryMaxFrameSize = binaryMaxFrameSize;
+    }
+
 	@Override
     public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         // Request logger
@@ -65,6 +81,13 @@ public class RpcServlet extends XmlRpcServlet {
         }
 
         try {
+            final String contentType = request.getContentType();
+            if (contentType != null && contentType.startsWith(BinaryRpcCodec.CONTENT_TYPE)) {
+                final XmldbRequestProcessorFactory factory = (XmldbRequestProcessorFactory)
+                    processorFactoryFactory.getRequestProcessorFactory(RpcConnection.class);
+                new BinaryRpcServer(getXmlRpcServletServer(), factory, binaryMaxFrameSize).execute(request, response);
+                return;
+            }
             super.doPost(request, response);
         } catch (final Throwable e){
             log("Problem during XmlRpc execution", e);
@@ -75,7 +98,8 @@ public class RpcServlet extends XmlRpcServlet {
     protected XmlRpcHandlerMapping newXmlRpcHandlerMapping() throws XmlRpcException {
         final DefaultHandlerMapping mapping = new DefaultHandlerMapping();
         mapping.setVoidMethodEnabled(true);
-        mapping.setRequestProcessorFactoryFactory(new XmldbRequestProcessorFactoryFactory());
+        processorFactoryFactory = new XmldbRequestProcessorFactoryFactory();
+        mapping.setRequestProcessorFactoryFactory(processorFactoryFactory);
         mapping.loadDefault(RpcConnection.class);
         return mapping;
     }
@@ -37,6 +37,17 @@ public class SerializedResult
 		return result;
 	}
 	
+	public long getMemorySize() {
+		if(result == null)
+			{return 0;}
+		// only the part held in memory counts, larger results are kept in a temporary file
+		return result.getContent() instanceof byte[] ? result.length() : 0;
+	}
+	
+	public long getItemCount() {
+		return 0;
+	}
+	
 	public void free() {
 		if(result!=null) {
 			result.delete();
@@ -61,6 +61,7 @@ public abstract class BindingExpression extends AbstractExpression implements Re
 	protected Expression returnExpr;
 	protected Expression whereExpr;
 	protected OrderSpec orderSpecs[] = null;
+	protected int resultLimit = -1;
 	protected int actualReturnType = Type.ITEM;
 
 	/* bv : variables for group by 
@@ -125,6 +126,56 @@ public abstract class BindingExpression extends AbstractExpression implements Re
         return orderSpecs == null ? new OrderSpec[0] : orderSpecs;
     }
 
+    /**
+     * Tell this expression that the caller will only consume the first
+     * <code>limit</code> items of its result. An "order by" clause then only
+     * keeps those items while sorting; without "order by" and "group by", the
+     * iteration stops as soon as enough items have been returned. A value
+     * &lt;= 0 removes the limit.
+     *
+     * The limit is state of the expression object, which a recursive function may
+     * evaluate again while an outer evaluation is still running. Callers therefore
+     * set the limit before every evaluation and restore the previous value after it.
+     *
+     * @param limit the maximum number of items required, or -1
+     * @return the previous limit, to be restored after the evaluation
+     */
+    public int setResultLimit(int limit) {
+        final int previous = resultLimit;
+        this.resultLimit = limit;
+        return previous;
+    }
+
+    /**
+     * Returns true if the result may be truncated after {@link #resultLimit}
+     * items, i.e. a limit is set and the result is neither ordered nor grouped.
+     */
+    protected boolean isResultLimited() {
+        return resultLimit > 0 && orderSpecs == null && groupSpecs == null;
+    }
+
+    /**
+     * Returns the binding expression which produces the result of the given
+     * expression, or null if the expression is not a FLWOR expression.
+     *
+     * @param expr the expression to check
+     * @return the binding expression or null
+     */
+    public static BindingExpression getBindingExpression(Expression expr) {
+        while (true) {
+            if (expr instanceof DebuggableExpression)
+                {expr = ((DebuggableExpression) expr).getFirst();}
+            else if (expr instanceof DynamicCardinalityCheck ||
+                    (expr instanceof PathExpr && ((PathExpr) expr).getLength() == 1))
+                {expr = expr.getSubExpression(0);}
+            else
+                {break;}
+        }
+        if (expr instanceof BindingExpression)
+            {return (BindingExpression) expr;}
+        return null;
+    }
+
 	public void setGroupSpecs(GroupSpec specs[]) {
 		this.groupSpecs = specs;
 	}
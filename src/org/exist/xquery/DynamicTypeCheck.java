@@ -59,6 +59,9 @@ public class DynamicTypeCheck extends AbstractExpression {
 		Item contextItem)
 		throws XPathException {
 		final Sequence seq = expression.eval(contextSequence, contextItem);
+        // all items are known to be of the required type: nothing to check or convert
+        if (seq.isEmpty() || Type.subTypeOf(seq.getItemType(), requiredType))
+            {return seq;}
         Sequence result = null;
         if (Type.subTypeOf(requiredType, Type.ATOMIC) && !Type.subTypeOf(seq.getItemType(), requiredType)) {
             result = new ValueSequence();
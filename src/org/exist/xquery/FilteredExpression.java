@@ -101,7 +101,21 @@ public class FilteredExpression extends AbstractExpression {
         if (contextItem != null)
             {contextSequence = contextItem.toSequence();}
         Sequence result;
-        final Sequence seq = expression.eval(contextSequence, contextItem);
+        final Sequence seq;
+        // for (... return ...)[n], the FLWOR expression only needs to produce n items.
+        // Only without a context sequence: in a path step, the expression is evaluated
+        // for the whole context sequence and the position applies per context item.
+        final BindingExpression flwor = BindingExpression.getBindingExpression(expression);
+        if (flwor != null) {
+            final int limit = abbreviated || contextSequence != null ? -1 : getPositionalLimit();
+            final int previous = flwor.setResultLimit(limit);
+            try {
+                seq = expression.eval(contextSequence, contextItem);
+            } finally {
+                flwor.setResultLimit(previous);
+            }
+        } else
+            {seq = expression.eval(contextSequence, contextItem);}
         if (seq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
         else {
@@ -145,6 +159,27 @@ public class FilteredExpression extends AbstractExpression {
         return result;
     }
 
+    /**
+     * If the first predicate is a positive integer literal, i.e. selects a single
+     * position, return that position, else -1.
+     */
+    private int getPositionalLimit() {
+        if (predicates.isEmpty())
+            {return -1;}
+        final Predicate pred = predicates.get(0);
+        if (pred.getLength() != 1 || !(pred.getExpression(0) instanceof LiteralValue))
+            {return -1;}
+        final AtomicValue value = ((LiteralValue) pred.getExpression(0)).getValue();
+        if (!Type.subTypeOf(value.getType(), Type.INTEGER))
+            {return -1;}
+        try {
+            final long position = ((IntegerValue) value).getLong();
+            return position > 0 && position < Integer.MAX_VALUE ? (int) position : -1;
+        } catch (final XPathException e) {
+            return -1;
+        }
+    }
+
     private Sequence processPredicate(Sequence contextSequence, Sequence seq) throws XPathException {
         for (final Predicate pred : predicates) {
             seq = pred.evalPredicate(contextSequence, seq, Constants.DESCENDANT_SELF_AXIS);
@@ -249,7 +249,7 @@ public class ForExpr extends BindingExpression {
             // order expressions for every item when it is added to the result sequence.
             if (resultSequence == null) {
                 if (orderSpecs != null && !fastOrderBy) {
-                    resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount());
+                    resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount(), resultLimit);
                 } else {
                     resultSequence = new ValueSequence();
                     ((ValueSequence)resultSequence).keepUnOrdered(unordered);
@@ -270,14 +270,22 @@ public class ForExpr extends BindingExpression {
                     ". Expected " + Cardinality.getDescription(sequenceType.getCardinality()) + 
                     ", got " + Cardinality.getDescription(in.getCardinality()));
             }
+            // If the caller only needs a prefix of the unordered result, pass the
+            // limit on to a nested clause and stop as soon as enough items are there
+            final boolean limited = isResultLimited();
+            final int limit = resultLimit;
+            final BindingExpression nested = returnExpr instanceof BindingExpression ?
+                (BindingExpression) returnExpr : null;
+            final int nestedLimit = nested == null ? -1 : nested.setResultLimit(limited ? limit : -1);
             // Loop through each variable binding
             p = 0;
+            try {
             for (final SequenceIterator i = in.iterate(); i.hasNext(); p++) {
                 context.proceed(this);
                 contextItem = i.nextItem();
                 context.setContextSequencePosition(p, in);
                 if (positionalVariable != null)
-                    {at.setValue(new IntegerValue(p + 1));}
+                    {at.setValue(IntegerValue.valueOf(p + 1));}
                 contextSequence = contextItem.toSequence();
                 // set variable value to current item
                 var.setValue(contextSequence);
@@ -321,6 +329,12 @@ public class ForExpr extends BindingExpression {
                 }
                 // free resources
                 var.destroy(context, resultSequence);
+                if (limited && resultSequence.getItemCount() >= limit)
+                    {break;}
+            }
+            } finally {
+                if (nested != null)
+                    {nested.setResultLimit(nestedLimit);}
             }
         } finally {
             // restore the local variable stack 
@@ -344,8 +358,8 @@ public class ForExpr extends BindingExpression {
             }
 
             int p = 0;
-            for (final Iterator<String> it = groupedSequence.iterate(); it.hasNext(); ) {
-                final GroupedValueSequence currentGroup = groupedSequence.get(it.next());
+            for (final Iterator<GroupedValueSequence> it = groupedSequence.iterate(); it.hasNext(); ) {
+                final GroupedValueSequence currentGroup = it.next();
                 context.proceed(this);
                 // set binding variable to current group
                 var.setValue(currentGroup);
@@ -357,7 +371,7 @@ public class ForExpr extends BindingExpression {
                 if (positionalVariable != null) {
                     final ValueSequence ps = new ValueSequence();
                     for (int i = 0; i < currentGroup.getItemCount(); i++) {
-                        ps.add(new IntegerValue(p + i + 1));
+                        ps.add(IntegerValue.valueOf(p + i + 1));
                     }
                     at.setValue(ps);
                 }
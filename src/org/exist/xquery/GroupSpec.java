@@ -22,7 +22,8 @@
  */ 
 package org.exist.xquery; 
  
-import org.exist.util.Collations;
+import java.text.Collator;
+
 import org.exist.xquery.util.ExpressionDumper;
  
 /** 
@@ -37,11 +38,10 @@ import org.exist.xquery.util.ExpressionDumper;
  
 public class GroupSpec { 
  
-    @SuppressWarnings("unused")
 	private final XQueryContext context; 
     private Expression expression;
     private String keyVarName = null;
-    private String collation = Collations.CODEPOINT;
+    private String collation = null;
      
     public GroupSpec(XQueryContext context, Expression groupExpr, String keyVarName) {
         if (groupExpr == null) {
@@ -59,6 +59,10 @@ public class GroupSpec {
         this.collation = collation;
     }
 
+    public Collator getCollator() throws XPathException {
+        return collation == null ? context.getDefaultCollator() : context.getCollator(collation);
+    }
+
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException { 
         expression.analyze(contextInfo); 
     }
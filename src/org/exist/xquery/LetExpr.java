@@ -176,7 +176,7 @@ public class LetExpr extends BindingExpression {
                 //order expressions for every item when it is added to the result sequence.
                 if (resultSequence == null) {
                     if(orderSpecs != null && !fastOrderBy)
-                        {resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount());}
+                        {resultSequence = new OrderedValueSequence(orderSpecs, in.getItemCount(), resultLimit);}
                 }
                 if (groupedSequence==null){
                     if (returnExpr instanceof BindingExpression) {
@@ -184,7 +184,14 @@ public class LetExpr extends BindingExpression {
                           resultSequence = new ValueSequence();
                           ((ValueSequence)resultSequence).keepUnOrdered(unordered);
                       }
-                      ((BindingExpression)returnExpr).eval(contextSequence, null, resultSequence,null);
+                      // a nested clause only needs to produce as many items as our caller
+                      final BindingExpression nested = (BindingExpression)returnExpr;
+                      final int nestedLimit = nested.setResultLimit(isResultLimited() ? resultLimit : -1);
+                      try {
+                          nested.eval(contextSequence, null, resultSequence,null);
+                      } finally {
+                          nested.setResultLimit(nestedLimit);
+                      }
                     } else {
                         in = returnExpr.eval(contextSequence);
                         if (resultSequence == null)
@@ -248,8 +255,8 @@ public class LetExpr extends BindingExpression {
             if (groupSpecs!=null) {
                 mark = context.markLocalVariables(false);
                 context.declareVariableBinding(var);
-                for (final Iterator<String> it = groupedSequence.iterate(); it.hasNext();){ 
-                    final GroupedValueSequence currentGroup = groupedSequence.get(it.next()); 
+                for (final Iterator<GroupedValueSequence> it = groupedSequence.iterate(); it.hasNext(); ) {
+                    final GroupedValueSequence currentGroup = it.next();
                     context.proceed(this);
                     // set binding variable to current group
                     var.setValue(currentGroup);
@@ -27,6 +27,7 @@ import org.exist.dom.NodeSet;
 import org.exist.storage.DBBroker;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.ComputableValue;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
@@ -122,7 +123,16 @@ public class OpNumeric extends BinaryOp {
             {result = Sequence.EMPTY_SEQUENCE;}
         else if (lseq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
-        else {
+        else if (operator != Constants.IDIV && lseq.itemAt(0) instanceof IntegerValue &&
+                rseq.itemAt(0) instanceof IntegerValue) {
+            // integer operands need neither conversion nor type promotion
+            try {
+                result = applyOperator((ComputableValue) lseq.itemAt(0), (ComputableValue) rseq.itemAt(0));
+            } catch (final XPathException e) {
+                e.setLocation(line, column);
+                throw e;
+            }
+        } else {
             Item lvalue = lseq.itemAt(0);
             Item rvalue = rseq.itemAt(0);
             try {
@@ -21,7 +21,9 @@
  */
 package org.exist.xquery;
 
+import org.exist.indexing.SortKeysIndex;
 import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.Type;
 
 import java.text.Collator;
 
@@ -42,6 +44,8 @@ public class OrderSpec {
 	private Expression expression;
 	private int modifiers = 0;
 	private Collator collator = null;
+	// true if the sort expression returns nodes, which may have index sort keys
+	private boolean nodeValued = false;
 	
 	/**
 	 * 
@@ -53,6 +57,7 @@ public class OrderSpec {
 
 	public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
 	    expression.analyze(contextInfo);
+	    nodeValued = Type.subTypeOf(expression.returnsType(), Type.NODE);
 	}
 	
 	public void setModifiers(int modifiers) {
@@ -75,6 +80,19 @@ public class OrderSpec {
 		return collator == null ? context.getDefaultCollator() : collator;
 	}
 	
+	/**
+	 * Returns the index to look up sort keys for the nodes returned by the sort
+	 * expression. Index keys compare in codepoint order, so they can only be
+	 * used if no other collation is in effect.
+	 * 
+	 * @return the index or null if the atomized values have to be compared
+	 */
+	public SortKeysIndex getSortKeysIndex() {
+		if (!nodeValued || getCollator() != null)
+			{return null;}
+		return context.getBroker().getIndexController().getSortKeysIndex();
+	}
+	
 	public String toString() {
 		final StringBuilder buf = new StringBuilder();
 		buf.append(ExpressionDumper.dump(expression));
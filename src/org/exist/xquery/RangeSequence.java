@@ -35,38 +35,31 @@ public class RangeSequence extends AbstractSequence {
 	}
 
 	public SequenceIterator iterate() throws XPathException {
-		return new RangeSequenceIterator(start.getLong());
+		return new RangeSequenceIterator(start.getLong(), end.getLong());
 	}
 
 	public SequenceIterator unorderedIterator() throws XPathException {
-		return new RangeSequenceIterator(start.getLong());
+		return new RangeSequenceIterator(start.getLong(), end.getLong());
 	}
 
 	private class RangeSequenceIterator implements SequenceIterator {
 
 		long current;
+		final long last;
 
-		public RangeSequenceIterator(long start) {
+		public RangeSequenceIterator(long start, long last) {
 			this.current = start;
+			this.last = last;
 		}
 
 		public Item nextItem() {
-			try {
-				if (current <= end.getLong())
-					{return new IntegerValue(current++);}
-			} catch (final XPathException e) {
-				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-			}
+			if (current <= last)
+				{return IntegerValue.valueOf(current++);}
 			return null;
 		}
 
 		public boolean hasNext() {
-			try {
-				return current <= end.getLong();
-			} catch (final XPathException e) {
-				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
-				return false;
-			}
+			return current <= last;
 		}
 		
 	}
@@ -97,7 +90,7 @@ public class RangeSequence extends AbstractSequence {
 	public Item itemAt(int pos) {
 		if (pos <= getItemCount())
 			try {
-				return new IntegerValue(start.getLong() + pos);
+				return IntegerValue.valueOf(start.getLong() + pos);
 			} catch (final XPathException e) {
 				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
 			}
@@ -32,6 +32,7 @@ import org.exist.dom.NodeSet;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
 import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
@@ -119,6 +120,9 @@ public class ValueComparison extends GeneralComparison {
 	 * and compare them.
 	 */
 	public static boolean compareAtomic(Collator collator, AtomicValue lv, AtomicValue rv, int truncation, int relation) throws XPathException {
+		// integers compare directly, without type promotion
+		if (truncation == Constants.TRUNC_NONE && lv instanceof IntegerValue && rv instanceof IntegerValue)
+			{return lv.compareTo(collator, relation, rv);}
 		int ltype = lv.getType();
 		int rtype = rv.getType();
 		if (ltype == Type.UNTYPED_ATOMIC) {
@@ -2490,19 +2490,18 @@ public class XQueryContext implements BinaryValueManager, Context
     public void pushInScopeNamespaces( boolean inherit )
     {
         //TODO : push into an inheritedInScopeNamespaces HashMap... and return an empty HashMap
-        final HashMap<String, String> m = (HashMap)inScopeNamespaces.clone();
-        final HashMap<String, String> p = (HashMap)inScopePrefixes.clone();
         namespaceStack.push( inheritedInScopeNamespaces );
         namespaceStack.push( inheritedInScopePrefixes );
         namespaceStack.push( inScopeNamespaces );
         namespaceStack.push( inScopePrefixes );
 
         //Current namespaces now become inherited just like the previous inherited ones
+        //(the maps pushed onto the stack are not modified, so they need not be copied)
         if( inherit ) {
             inheritedInScopeNamespaces = (HashMap)inheritedInScopeNamespaces.clone();
-            inheritedInScopeNamespaces.putAll( m );
+            inheritedInScopeNamespaces.putAll( inScopeNamespaces );
             inheritedInScopePrefixes = (HashMap)inheritedInScopePrefixes.clone();
-            inheritedInScopePrefixes.putAll( p );
+            inheritedInScopePrefixes.putAll( inScopePrefixes );
         } else {
             inheritedInScopeNamespaces = new HashMap<String, String>();
             inheritedInScopePrefixes   = new HashMap<String, String>();
@@ -89,8 +89,11 @@ public class FunAvg extends Function {
         }
         Sequence result;
         final Sequence inner = getArgument(0).eval(contextSequence, contextItem);
+        ComputableValue sum;
         if (inner.isEmpty()) {
             result = Sequence.EMPTY_SEQUENCE;
+        } else if ((sum = FunSum.sumPrimitives(inner)) != null) {
+            result = sum.div(new IntegerValue(inner.getItemCount()));
         } else {
             final SequenceIterator iter = inner.iterate();
             Item item = iter.nextItem();
@@ -104,7 +107,7 @@ public class FunAvg extends Function {
                     "can not be an operand in a sum", value);
             }
             //Set the first value
-            ComputableValue sum = (ComputableValue) value;
+            sum = (ComputableValue) value;
             while (iter.hasNext()) {
                 item = iter.nextItem();
                 value = item.atomize();
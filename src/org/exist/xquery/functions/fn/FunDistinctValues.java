@@ -25,7 +25,8 @@ import org.apache.log4j.Logger;
 
 import java.text.Collator;
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.exist.dom.QName;
 import org.exist.xquery.Cardinality;
@@ -38,10 +39,10 @@ import org.exist.xquery.ValueComparison;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.AtomicValueKey;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.Item;
-import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.SequenceType;
@@ -115,33 +116,17 @@ public class FunDistinctValues extends CollatingFunction {
         }
         final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
         final Collator collator = getCollator(contextSequence, contextItem, 2);		
-        final TreeSet<AtomicValue> set = new TreeSet<AtomicValue>(new ValueComparator(collator));
+        final Set<AtomicValueKey> set = new HashSet<AtomicValueKey>();
         final ValueSequence result = new ValueSequence();
         Item item;
         AtomicValue value;
-        boolean hasAlreadyNaN = false;
         for (final SequenceIterator i = seq.iterate(); i.hasNext();) {
             item = i.nextItem();
             value = item.atomize();
-            if (!set.contains(value)) {
-                if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
-                    if (((NumericValue)value).isNaN()) {
-                        //although NaN does not equal itself, if $arg 
-                        //contains multiple NaN values a single NaN is returned.
-                        if (!hasAlreadyNaN) {
-                            set.add(value);
-                            result.add(value);	
-                            hasAlreadyNaN = true;
-                        }
-                    } else {
-                        set.add(value);
-                        result.add(value);
-                    }
-                } else {
-                    set.add(value);
-                    result.add(value);
-                }
-            }
+            //although NaN does not equal itself, if $arg contains multiple
+            //NaN values a single NaN is returned: the key considers them equal.
+            if (set.add(new AtomicValueKey(value, collator)))
+                {result.add(value);}
         }
         if (context.getProfiler().isEnabled())
             {context.getProfiler().end(this, "", result);}
@@ -5,6 +5,7 @@ import org.exist.dom.NodeSet;
 import org.exist.dom.QName;
 import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.BasicFunction;
+import org.exist.xquery.BindingExpression;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
@@ -13,6 +14,7 @@ import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
@@ -51,6 +53,21 @@ public class FunHeadTail extends BasicFunction {
 		}
 	}
 	
+	@Override
+	public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+		// head(for ... return ...): the FLWOR expression can stop after the first item
+		final BindingExpression flwor = isCalledAs("head") ?
+			BindingExpression.getBindingExpression(getArgument(0)) : null;
+		if (flwor == null)
+			{return super.eval(contextSequence, contextItem);}
+		final int previous = flwor.setResultLimit(1);
+		try {
+			return super.eval(contextSequence, contextItem);
+		} finally {
+			flwor.setResultLimit(previous);
+		}
+	}
+
 	@Override
 	public Sequence eval(Sequence[] args, Sequence contextSequence)
 			throws XPathException {
@@ -138,7 +138,7 @@ public class FunIndexOf extends BasicFunction {
     			final AtomicValue next = i.nextItem().atomize();
     			try {
 	    			if (ValueComparison.compareAtomic(collator, next, srch, Constants.TRUNC_NONE, Constants.EQ))
-	    				{result.add(new IntegerValue(j));}
+	    				{result.add(IntegerValue.valueOf(j));}
     			} catch (final XPathException e) {
     				//Ignore me : values can not be compared
     			}
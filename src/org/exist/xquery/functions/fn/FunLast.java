@@ -89,7 +89,7 @@ public class FunLast extends Function {
         else if (inSequence.isEmpty())
         	{result = Sequence.EMPTY_SEQUENCE;}
         else
-        	{result = new IntegerValue(inSequence.getItemCount());}
+        	{result = IntegerValue.valueOf(inSequence.getItemCount());}
         
         if (context.getProfiler().isEnabled()) 
             {context.getProfiler().end(this, "", result);} 
@@ -114,6 +114,6 @@ public class FunLast extends Function {
 	   long e_gid = f_gid + doc.getTreeLevelOrder(level);
 	   NodeSet set = ((NodeSet)contextSequence).getRange(doc, f_gid, e_gid);
 	   int len = set.getLength();
-	   return new IntegerValue(len);
+	   return IntegerValue.valueOf(len);
 	}*/
 }
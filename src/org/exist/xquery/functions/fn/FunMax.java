@@ -41,6 +41,7 @@ import org.exist.xquery.value.DurationValue;
 import org.exist.xquery.value.FloatValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.QNameValue;
@@ -138,6 +139,8 @@ public class FunMax extends CollatingFunction {
 		final Sequence arg = getArgument(0).eval(contextSequence, contextItem);
 		if(arg.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
+        else if (getArgumentCount() == 1 && (arg.getItemType() == Type.INTEGER || arg.getItemType() == Type.DOUBLE))
+            {result = maxPrimitives(arg);}
         else {
         	boolean computableProcessing = false;
         	//TODO : test if a range index is defined *iff* it is compatible with the collator
@@ -226,4 +229,27 @@ public class FunMax extends CollatingFunction {
         return result;   
         
 	}
+
+    /**
+     * Fast path for sequences containing only xs:integer or only xs:double values:
+     * compares the values as primitives instead of allocating an intermediate
+     * result for every item.
+     */
+    private AtomicValue maxPrimitives(Sequence arg) throws XPathException {
+        final SequenceIterator iter = arg.unorderedIterator();
+        if (arg.getItemType() == Type.INTEGER) {
+            IntegerValue max = (IntegerValue) iter.nextItem();
+            while (iter.hasNext()) {
+                final IntegerValue value = (IntegerValue) iter.nextItem();
+                if (value.compareTo(max) > 0)
+                    {max = value;}
+            }
+            return max;
+        }
+        double max = ((DoubleValue) iter.nextItem()).getValue();
+        while (iter.hasNext()) {
+            max = Math.max(max, ((DoubleValue) iter.nextItem()).getValue());
+        }
+        return new DoubleValue(max);
+    }
 }
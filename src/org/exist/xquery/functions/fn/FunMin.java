@@ -40,6 +40,7 @@ import org.exist.xquery.value.DurationValue;
 import org.exist.xquery.value.FloatValue;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.QNameValue;
@@ -141,6 +142,8 @@ public class FunMin extends CollatingFunction {
 		final Sequence arg = getArgument(0).eval(contextSequence, contextItem);
 		if (arg.isEmpty())
 			{result = Sequence.EMPTY_SEQUENCE;}
+        else if (getArgumentCount() == 1 && (arg.getItemType() == Type.INTEGER || arg.getItemType() == Type.DOUBLE))
+            {result = minPrimitives(arg);}
         else {
         	//TODO : test if a range index is defined *iff* it is compatible with the collator
     		final Collator collator = getCollator(contextSequence, contextItem, 2);
@@ -227,4 +230,26 @@ public class FunMin extends CollatingFunction {
         return result;   
     }
 
+    /**
+     * Fast path for sequences containing only xs:integer or only xs:double values:
+     * compares the values as primitives instead of allocating an intermediate
+     * result for every item.
+     */
+    private AtomicValue minPrimitives(Sequence arg) throws XPathException {
+        final SequenceIterator iter = arg.unorderedIterator();
+        if (arg.getItemType() == Type.INTEGER) {
+            IntegerValue min = (IntegerValue) iter.nextItem();
+            while (iter.hasNext()) {
+                final IntegerValue value = (IntegerValue) iter.nextItem();
+                if (value.compareTo(min) < 0)
+                    {min = value;}
+            }
+            return min;
+        }
+        double min = ((DoubleValue) iter.nextItem()).getValue();
+        while (iter.hasNext()) {
+            min = Math.min(min, ((DoubleValue) iter.nextItem()).getValue());
+        }
+        return new DoubleValue(min);
+    }
 }
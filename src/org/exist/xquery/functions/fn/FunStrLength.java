@@ -91,7 +91,7 @@ public class FunStrLength extends Function {
 		
 		final String strval = contextSequence.getStringValue();
 
-		final Sequence result = new IntegerValue(FunStringToCodepoints.getCodePointCount(strval));
+		final Sequence result = IntegerValue.valueOf(FunStringToCodepoints.getCodePointCount(strval));
         
         if (context.getProfiler().isEnabled()) 
             {context.getProfiler().end(this, "", result);} 
@@ -92,9 +92,9 @@ public class FunStringToCodepoints extends BasicFunction {
             ch = s.charAt(i);
             if (XMLChar.isSurrogate(ch)) {
                 final int supp = XMLChar.supplemental(ch, s.charAt(++i));
-                next = new IntegerValue(supp);
+                next = IntegerValue.valueOf(supp);
             } else {
-                next = new IntegerValue((int) ch);
+                next = IntegerValue.valueOf((int) ch);
             }
             codepoints.add(next);
         }
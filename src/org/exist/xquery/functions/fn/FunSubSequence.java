@@ -110,20 +110,35 @@ public class FunSubSequence extends Function {
         }
 
         Sequence result;
-        final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+        final Sequence seq;
+        int start;
+        int length;
+        // If the source is a FLWOR expression, evaluate the positions first: it then
+        // only needs to produce (or, if ordered, keep) the items we are going to return
+        final BindingExpression flwor = BindingExpression.getBindingExpression(getArgument(0));
+        if (flwor != null) {
+            start = getStartingAt(contextSequence, contextItem);
+            length = getLength(contextSequence, contextItem);
+            final long limit = (long) start + length - 1;
+            final int previous = flwor.setResultLimit(start > 0 && length > 0 && limit < Integer.MAX_VALUE ?
+                (int) limit : -1);
+            try {
+                seq = getArgument(0).eval(contextSequence, contextItem);
+            } finally {
+                flwor.setResultLimit(previous);
+            }
+        } else {
+            seq = getArgument(0).eval(contextSequence, contextItem);
+            start = 0;
+            length = 0;
+            if (!seq.isEmpty()) {
+                start = getStartingAt(contextSequence, contextItem);
+                length = getLength(contextSequence, contextItem);
+            }
+        }
         if (seq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
         else {
-            int start = ((DoubleValue) getArgument(1).eval(contextSequence,
-                    contextItem).convertTo(Type.DOUBLE)).getInt();
-
-            int length = Integer.MAX_VALUE;
-            if (getSignature().getArgumentCount() == 3) {
-                length = ((DoubleValue) getArgument(2).eval(
-                        contextSequence, contextItem)
-                        .convertTo(Type.DOUBLE)).getInt();
-            }
-
             // TODO : exception? -pb
             if (start < 0) {
                 length = length + start - 1;
@@ -165,4 +180,17 @@ public class FunSubSequence extends Function {
 
     }
 
+    private int getStartingAt(Sequence contextSequence, Item contextItem) throws XPathException {
+        return ((DoubleValue) getArgument(1).eval(contextSequence,
+                contextItem).convertTo(Type.DOUBLE)).getInt();
+    }
+
+    private int getLength(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (getSignature().getArgumentCount() == 3) {
+            return ((DoubleValue) getArgument(2).eval(
+                    contextSequence, contextItem)
+                    .convertTo(Type.DOUBLE)).getInt();
+        }
+        return Integer.MAX_VALUE;
+    }
 }
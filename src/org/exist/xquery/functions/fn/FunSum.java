@@ -91,12 +91,15 @@ public class FunSum extends Function {
         Sequence result;
         
 		final Sequence inner = getArgument(0).eval(contextSequence, contextItem);	
+		ComputableValue primitiveSum;
 		if (inner.isEmpty()) {
 			//If $zero is not specified, then the value returned for an empty sequence is the xs:integer value 0
 			Sequence zero = IntegerValue.ZERO;
 			if(getSignature().getArgumentCount() == 2)
 				{zero = getArgument(1).eval(contextSequence, contextItem);}
 			result = zero;
+		} else if ((primitiveSum = sumPrimitives(inner)) != null) {
+			result = primitiveSum;
 		} else {
     		final SequenceIterator iter = inner.iterate();
     		Item item = iter.nextItem();
@@ -140,6 +143,45 @@ public class FunSum extends Function {
         return result;        
 	}
 	
+	/**
+	 * Fast path for sequences containing only xs:integer or only xs:double values:
+	 * adds up the values as primitives instead of allocating an intermediate result
+	 * for every item.
+	 *
+	 * @param seq the sequence to sum up
+	 * @return the sum, or null if the sequence does not qualify or the sum of the
+	 *  integers does not fit into a long
+	 * @throws XPathException
+	 */
+	static ComputableValue sumPrimitives(Sequence seq) throws XPathException {
+		final int itemType = seq.getItemType();
+		if (itemType == Type.INTEGER) {
+			long sum = 0;
+			for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+				final Item item = i.nextItem();
+				if (!(item instanceof IntegerValue) || !((IntegerValue) item).isLong())
+					{return null;}
+				final long value = ((IntegerValue) item).getLong();
+				final long r = sum + value;
+				//Overflow: let BigInteger arithmetics take over
+				if (((sum ^ r) & (value ^ r)) < 0)
+					{return null;}
+				sum = r;
+			}
+			return new IntegerValue(sum);
+		} else if (itemType == Type.DOUBLE) {
+			double sum = 0;
+			for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+				final Item item = i.nextItem();
+				if (!(item instanceof DoubleValue))
+					{return null;}
+				sum += ((DoubleValue) item).getValue();
+			}
+			return new DoubleValue(sum);
+		}
+		return null;
+	}
+
 	private AtomicValue check(AtomicValue value, ComputableValue sum) throws XPathException {
 		//Duration values must either all be xs:yearMonthDuration values or must all be xs:dayTimeDuration values.
 		if (Type.subTypeOf(value.getType(), Type.DURATION)) {
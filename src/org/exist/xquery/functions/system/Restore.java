@@ -79,12 +79,16 @@ public class Restore extends BasicFunction {
         builder.startDocument();
         builder.startElement(RESTORE_ELEMENT, null);
         
+        // the embedded XML:DB API stores the documents with the broker of this thread
+        context.getBroker().startBulkIndexing();
         try {
             final org.exist.backup.Restore restore = new org.exist.backup.Restore();
             final RestoreListener listener = new XMLRestoreListener(builder);
             restore.restore(listener, org.exist.security.SecurityManager.DBA_USER, adminPass, adminPassAfter, new File(dirOrFile), XmldbURI.EMBEDDED_SERVER_URI.toString());
         } catch (final Exception e) {
             throw new XPathException(this, "restore failed with exception: " + e.getMessage(), e);
+        } finally {
+            context.getBroker().endBulkIndexing();
         }
         
         builder.endElement();
@@ -33,7 +33,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Iterator;
@@ -87,6 +86,7 @@ import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xslt.TemplatesCache;
 import org.exist.xslt.TransformerFactoryAllocator;
 import org.exist.util.serializer.ReceiverToSAX;
 import org.exist.util.serializer.Receiver;
@@ -173,9 +173,6 @@ public class Transform extends BasicFunction {
             new SequenceType(Type.ITEM, Cardinality.EMPTY))
     };
 
-	private final Map<String, CachedStylesheet> cache = new HashMap<String, CachedStylesheet>();
-    private boolean caching = true;
-
     private boolean stopOnError = true;
     private boolean stopOnWarn = false;
     
@@ -185,10 +182,6 @@ public class Transform extends BasicFunction {
 	 */
 	public Transform(XQueryContext context, FunctionSignature signature) {
 		super(context, signature);
-		
-		final Object property = context.getBroker().getConfiguration().getProperty(TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE);
-		if (property != null)
-			{caching = (Boolean) property;}
 	}
 
 	/* (non-Javadoc)
@@ -495,8 +488,8 @@ public class Transform extends BasicFunction {
         }
     }
 
-	private Templates getSource(SAXTransformerFactory factory, String stylesheet) 
-	throws XPathException, TransformerConfigurationException {
+	private Templates getSource(final SAXTransformerFactory factory, String stylesheet) 
+	throws XPathException {
 		String base;
 		if(stylesheet.indexOf(':') == Constants.STRING_NOT_FOUND) {
 			File f = new File(stylesheet);
@@ -514,13 +507,50 @@ public class Transform extends BasicFunction {
 			{base = stylesheet.substring(0, p);}
 		else
 			{base = stylesheet;}
-		CachedStylesheet cached = (CachedStylesheet)cache.get(stylesheet);
-		try {
-			if(cached == null) {
-				cached = new CachedStylesheet(factory, stylesheet, base);
-				cache.put(stylesheet, cached);
+		final TemplatesCache cache = context.getBroker().getBrokerPool().getTemplatesCache();
+		if (stylesheet.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX)) {
+			final String docPath = stylesheet.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length());
+			DocumentImpl doc = null;
+			try {
+				doc = context.getBroker().getXMLResource(XmldbURI.create(docPath), Lock.READ_LOCK);
+				if (doc == null)
+					{throw new XPathException(this, "Stylesheet not found: " + docPath);}
+				final DocumentImpl stylesheetDoc = doc;
+				return cache.getTemplates(TemplatesCache.getKey(doc), doc.getMetadata().getLastModified(),
+					new TemplatesCache.Compiler<XPathException>() {
+						@Override
+						public Templates compile() throws XPathException {
+							return getSource(factory, stylesheetDoc);
+						}
+					});
+			} catch (final PermissionDeniedException e) {
+				throw new XPathException(this, "Permission denied to read stylesheet: " + stylesheet);
+			} finally {
+				if (doc != null) {doc.getUpdateLock().release(Lock.READ_LOCK);}
 			}
-			return cached.getTemplates();
+		}
+		factory.setURIResolver(new ExternalResolver(base));
+		try {
+			final URL url = new URL(stylesheet);
+			final URLConnection connection = url.openConnection();
+			return cache.getTemplates(stylesheet, connection.getLastModified(),
+				new TemplatesCache.Compiler<XPathException>() {
+					@Override
+					public Templates compile() throws XPathException {
+						try {
+							final InputStream is = connection.getInputStream();
+							try {
+								return factory.newTemplates(new StreamSource(is));
+							} finally {
+								is.close();
+							}
+						} catch (final IOException e) {
+							throw new XPathException(Transform.this, "IO error while loading stylesheet: " + url, e);
+						} catch (final TransformerConfigurationException e) {
+							throw new XPathException(Transform.this, "Unable to compile stylesheet: " + url + ": " + e.getMessage(), e);
+						}
+					}
+				});
 		} catch (final MalformedURLException e) {
 			LOG.debug(e.getMessage(), e);
 			throw new XPathException(this, "Malformed URL for stylesheet: " + stylesheet, e);
@@ -543,78 +573,28 @@ public class Transform extends BasicFunction {
 		}
 	}
 	
-	//TODO: revisit this class with XmldbURI in mind
-	private class CachedStylesheet {
-		
-		SAXTransformerFactory factory;
-		long lastModified = -1;
-		Templates templates = null;
-		String uri;
-		
-		public CachedStylesheet(SAXTransformerFactory factory, String uri, String baseURI) 
-		throws TransformerConfigurationException, IOException, XPathException {
-			this.factory = factory;
-			this.uri = uri;
-			if (!baseURI.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX))
-				{factory.setURIResolver(new ExternalResolver(baseURI));}
-			getTemplates();
-		}
-		
-		public Templates getTemplates() throws TransformerConfigurationException, IOException, XPathException {
-			if (uri.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX)) {
-				final String docPath = uri.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length());
-				DocumentImpl doc = null;
-				try {
-					doc = context.getBroker().getXMLResource(XmldbURI.create(docPath), Lock.READ_LOCK);
-					if (!caching || (doc != null && (templates == null || doc.getMetadata().getLastModified() > lastModified)))
-						{templates = getSource(doc);}
-					lastModified = doc.getMetadata().getLastModified();
-				} catch (final PermissionDeniedException e) {
-					throw new XPathException(Transform.this, "Permission denied to read stylesheet: " + uri);
-				} finally {
-					if (doc != null) {doc.getUpdateLock().release(Lock.READ_LOCK);}
-				}
-			} else {
-				final URL url = new URL(uri);
-				final URLConnection connection = url.openConnection();
-				long modified = connection.getLastModified();
-				if(!caching || (templates == null || modified > lastModified || modified == 0)) {
-					LOG.debug("compiling stylesheet " + url.toString());
-                    final InputStream is = connection.getInputStream();
-                    try {
-                        templates = factory.newTemplates(new StreamSource(is));
-                    } finally {
-                        is.close();
-                    }
-				}
-				lastModified = modified;
-			}
-			return templates;
-		}
-		
-		private Templates getSource(DocumentImpl stylesheet)
-		throws XPathException, TransformerConfigurationException {
-			factory.setURIResolver(new EXistURIResolver(stylesheet.getCollection().getURI().toString()));
-            final TransformErrorListener errorListener = new TransformErrorListener();
-            factory.setErrorListener(errorListener);
+	private Templates getSource(SAXTransformerFactory factory, DocumentImpl stylesheet)
+	throws XPathException {
+		factory.setURIResolver(new EXistURIResolver(stylesheet.getCollection().getURI().toString()));
+        final TransformErrorListener errorListener = new TransformErrorListener();
+        factory.setErrorListener(errorListener);
+		try {
 			final TemplatesHandler handler = factory.newTemplatesHandler();
-			try {
-				handler.startDocument();
-				final Serializer serializer = context.getBroker().getSerializer();
-				serializer.reset();
-				serializer.setSAXHandlers(handler, null);
-				serializer.toSAX(stylesheet);
-				handler.endDocument();
-				final Templates t = handler.getTemplates();
-                errorListener.checkForErrors();
-                return t;
-			} catch (final Exception e) {
-                if (e instanceof XPathException)
-                    {throw (XPathException) e;}
-				throw new XPathException(Transform.this,
-					"An exception occurred while compiling the stylesheet: " + stylesheet.getURI() +
-                        ": " + e.getMessage(), e);
-			}
+			handler.startDocument();
+			final Serializer serializer = context.getBroker().getSerializer();
+			serializer.reset();
+			serializer.setSAXHandlers(handler, null);
+			serializer.toSAX(stylesheet);
+			handler.endDocument();
+			final Templates t = handler.getTemplates();
+            errorListener.checkForErrors();
+            return t;
+		} catch (final Exception e) {
+            if (e instanceof XPathException)
+                {throw (XPathException) e;}
+			throw new XPathException(this,
+				"An exception occurred while compiling the stylesheet: " + stylesheet.getURI() +
+                    ": " + e.getMessage(), e);
 		}
 	}
 	
@@ -141,58 +141,64 @@ public class XMLDBLoadFromPattern extends XMLDBAbstractCollectionManipulator {
 
         //store according to each pattern
         final Sequence patterns = args[2];
-        for(final SequenceIterator i = patterns.iterate(); i.hasNext(); )
-        {
-            //get the files to store
-            final String pattern = i.nextItem().getStringValue();
-            final File[] files = DirectoryScanner.scanDir(baseDir, pattern);
-            logger.debug("Found: " + files.length);
+        // the embedded XML:DB API stores the documents with the broker of this thread
+        context.getBroker().startBulkIndexing();
+        try {
+            for(final SequenceIterator i = patterns.iterate(); i.hasNext(); )
+            {
+                //get the files to store
+                final String pattern = i.nextItem().getStringValue();
+                final File[] files = DirectoryScanner.scanDir(baseDir, pattern);
+                logger.debug("Found: " + files.length);
             
-            Collection col = collection;
-            String relDir, prevDir = null;
+                Collection col = collection;
+                String relDir, prevDir = null;
             
-            for(int j = 0; j < files.length; j++) {
-                try {
-                    logger.debug(files[j].getAbsolutePath());
-                    String relPath = files[j].toString().substring(baseDir.toString().length());
-                    final int p = relPath.lastIndexOf(File.separatorChar);
+                for(int j = 0; j < files.length; j++) {
+                    try {
+                        logger.debug(files[j].getAbsolutePath());
+                        String relPath = files[j].toString().substring(baseDir.toString().length());
+                        final int p = relPath.lastIndexOf(File.separatorChar);
 					
-                    if (checkExcludes(excludes, relPath))
-                    	{continue;}
+                        if (checkExcludes(excludes, relPath))
+                        	{continue;}
                     
-                    if(p >= 0) {
-                        relDir = relPath.substring(0, p);
-                        relDir = relDir.replace(File.separatorChar, '/');
-                    } else {
-                        relDir = relPath;
-                    }
+                        if(p >= 0) {
+                            relDir = relPath.substring(0, p);
+                            relDir = relDir.replace(File.separatorChar, '/');
+                        } else {
+                            relDir = relPath;
+                        }
 					
-                    if(keepDirStructure && (prevDir == null || (!relDir.equals(prevDir)))) {
-                        col = createCollectionPath(collection, relDir);
-                        prevDir = relDir;
-                    }
-
-                    MimeType mimeType = mimeTypeFromArgs;
-                    if (mimeType == null) {
-                    	mimeType = MimeTable.getInstance().getContentTypeFor(files[j].getName());
-                    	if (mimeType == null)
-                    		{mimeType = MimeType.BINARY_TYPE;}
-                    }
+                        if(keepDirStructure && (prevDir == null || (!relDir.equals(prevDir)))) {
+                            col = createCollectionPath(collection, relDir);
+                            prevDir = relDir;
+                        }
+
+                        MimeType mimeType = mimeTypeFromArgs;
+                        if (mimeType == null) {
+                        	mimeType = MimeTable.getInstance().getContentTypeFor(files[j].getName());
+                        	if (mimeType == null)
+                        		{mimeType = MimeType.BINARY_TYPE;}
+                        }
                     
-                    //TODO  : these probably need to be encoded and checked for right mime type
-                    final Resource resource = col.createResource(files[j].getName(), mimeType.getXMLDBType());
-                    resource.setContent(files[j]);
+                        //TODO  : these probably need to be encoded and checked for right mime type
+                        final Resource resource = col.createResource(files[j].getName(), mimeType.getXMLDBType());
+                        resource.setContent(files[j]);
 
-                    ((EXistResource) resource).setMimeType(mimeType.getName());
+                        ((EXistResource) resource).setMimeType(mimeType.getName());
 
-                    col.storeResource(resource);
+                        col.storeResource(resource);
 
-                    //TODO : use dedicated function in XmldbURI
-                    stored.add(new StringValue(col.getName() + "/" + resource.getId()));
-                } catch(final XMLDBException e) {
-                    logger.error("Could not store file " + files[j].getAbsolutePath() + ": " + e.getMessage());
+                        //TODO : use dedicated function in XmldbURI
+                        stored.add(new StringValue(col.getName() + "/" + resource.getId()));
+                    } catch(final XMLDBException e) {
+                        logger.error("Could not store file " + files[j].getAbsolutePath() + ": " + e.getMessage());
+                    }
                 }
             }
+        } finally {
+            context.getBroker().endBulkIndexing();
         }
         return stored;
     }
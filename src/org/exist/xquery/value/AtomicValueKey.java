@@ -0,0 +1,172 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software Foundation
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ *  $Id$
+ */
+package org.exist.xquery.value;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.Collator;
+
+import org.exist.xquery.Constants;
+import org.exist.xquery.ValueComparison;
+import org.exist.xquery.XPathException;
+
+/**
+ * Wraps an atomic value so it can be used as a key in hash based collections,
+ * e.g. by fn:distinct-values or the "group by" clause.
+ *
+ * Two keys are equal if their values compare equal with the "eq" operator
+ * under the given collation, i.e. numbers are compared after numeric promotion,
+ * as fn:distinct-values requires. NaN is considered equal to itself. Values
+ * which cannot be compared are considered distinct. The hash code is computed
+ * from a normalized form of the value: integral numbers hash by their exact
+ * value, other numbers by their value promoted to xs:float, strings by their
+ * collation key and date/time values by their time on the time line.
+ *
+ * Keys with different hash codes are never equal. A large integer and a float
+ * or double which only compare equal because promotion rounds the integer are
+ * therefore kept apart.
+ */
+public final class AtomicValueKey {
+
+    private final AtomicValue value;
+    private final Collator collator;
+    private final int hashCode;
+
+    public AtomicValueKey(AtomicValue value, Collator collator) throws XPathException {
+        if (value.getType() == Type.UNTYPED_ATOMIC)
+            {value = value.convertTo(Type.STRING);}
+        this.value = value;
+        this.collator = collator;
+        this.hashCode = computeHashCode();
+    }
+
+    public AtomicValue getValue() {
+        return value;
+    }
+
+    private int computeHashCode() throws XPathException {
+        if (value.isEmpty())
+            {return 0;}
+        final int type = value.getType();
+        if (Type.subTypeOf(type, Type.NUMBER)) {
+            final NumericValue number = (NumericValue) value;
+            if (number.isNaN())
+                {return Float.floatToIntBits(Float.NaN);}
+            return hashNumber(number);
+        }
+        if (Type.subTypeOf(type, Type.STRING) || Type.subTypeOf(type, Type.ANY_URI)) {
+            final String s = value.getStringValue();
+            return collator == null ? s.hashCode() : collator.getCollationKey(s).hashCode();
+        }
+        if (value instanceof AbstractDateTimeValue) {
+            final long millis = ((AbstractDateTimeValue) value).getTimeInMillis();
+            return (int) (millis ^ (millis >>> 32));
+        }
+        if (value instanceof DurationValue) {
+            final DurationValue duration = (DurationValue) value;
+            final long bits = Double.doubleToLongBits(duration.secondsValue().doubleValue() + 0.0);
+            return 31 * duration.monthsValue().hashCode() + (int) (bits ^ (bits >>> 32));
+        }
+        if (type == Type.BOOLEAN)
+            {return value.effectiveBooleanValue() ? 1231 : 1237;}
+        if (type == Type.QNAME)
+            {return value.hashCode();}
+        // everything else is compared within a single bucket per type
+        return type;
+    }
+
+    /**
+     * Hash a number which is not NaN. Integral values hash by their exact value, so
+     * large integers which only differ in their low digits do not collide. Other
+     * values hash by their float value, the least precise type they may be promoted
+     * to, so decimals, floats and doubles which are equal after promotion collide.
+     */
+    private static int hashNumber(NumericValue number) throws XPathException {
+        if (number instanceof IntegerValue) {
+            final IntegerValue integer = (IntegerValue) number;
+            return integer.isLong() ? hashLong(integer.getLong()) :
+                hashBigInteger(integer.toJavaObject(BigInteger.class));
+        }
+        if (number instanceof DecimalValue) {
+            final BigDecimal decimal = ((DecimalValue) number).getValue();
+            if (decimal.signum() == 0)
+                {return 0;}
+            if (decimal.stripTrailingZeros().scale() <= 0)
+                {return hashBigInteger(decimal.toBigIntegerExact());}
+            return hashFloat(decimal.floatValue());
+        }
+        final double d = number.getDouble();
+        if (!Double.isInfinite(d) && d == Math.floor(d)) {
+            if (Math.abs(d) < 0x1p63)
+                {return hashLong((long) d);}
+            return hashBigInteger(new BigDecimal(d).toBigIntegerExact());
+        }
+        return hashFloat((float) d);
+    }
+
+    private static int hashLong(long l) {
+        return (int) (l ^ (l >>> 32));
+    }
+
+    private static int hashBigInteger(BigInteger i) {
+        return i.bitLength() < 64 ? hashLong(i.longValue()) : i.hashCode();
+    }
+
+    private static int hashFloat(float f) {
+        // + 0.0f folds -0.0 into 0.0
+        return Float.floatToIntBits(f + 0.0f);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            {return true;}
+        if (!(obj instanceof AtomicValueKey))
+            {return false;}
+        final AtomicValueKey other = (AtomicValueKey) obj;
+        if (hashCode != other.hashCode)
+            {return false;}
+        if (value.isEmpty() || other.value.isEmpty())
+            {return value.isEmpty() && other.value.isEmpty();}
+        try {
+            if (value instanceof NumericValue && other.value instanceof NumericValue &&
+                    ((NumericValue) value).isNaN())
+                {return ((NumericValue) other.value).isNaN();}
+            return ValueComparison.compareAtomic(collator, value, other.value,
+                Constants.TRUNC_NONE, Constants.EQ);
+        } catch (final XPathException e) {
+            //Values that cannot be compared, i.e. the eq operator
+            //is not defined for their types, are considered to be distinct
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return value.toString();
+    }
+}
@@ -22,8 +22,11 @@
  */
 package org.exist.xquery.value;
 
-import java.util.Hashtable;
+import java.text.Collator;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.GroupSpec;
@@ -31,29 +34,39 @@ import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 
 /**
- * An Hashtable that containts a GroupedValueSequence for each group. Groups are
+ * A hash map that containts a GroupedValueSequence for each group. Groups are
  * specified by the group specs of a "group by" clause. Used by
  * {@link org.exist.xquery.ForExpr} et al.
  * 
+ * The grouping keys are atomized and wrapped into {@link AtomicValueKey}s, so
+ * items are assigned to their group by hashing instead of comparing keys, taking
+ * the collation of each group spec into account. Groups are returned in the order
+ * in which they were first encountered.
+ * 
  * WARNING : don't use except for experimental "group by" clause
  * 
  * @author Boris Verhaegen (boris.verhaegen@gmail.com)
  */
 
 public class GroupedValueSequenceTable extends
-		Hashtable<String, GroupedValueSequence> {
+		LinkedHashMap<List<AtomicValueKey>, GroupedValueSequence> {
 
 	private static final long serialVersionUID = 1324942298919800292L;
 
 	private GroupSpec groupSpecs[];
+	private Collator collators[];
 	private String toGroupVarName;
 	private XQueryContext context;
 
-	public GroupedValueSequenceTable(GroupSpec groupSpecs[], String varName, XQueryContext aContext) {
-		super(11, (float) 0.75); // Hashtable parameters
+	public GroupedValueSequenceTable(GroupSpec groupSpecs[], String varName, XQueryContext aContext) throws XPathException {
+		super(11, (float) 0.75); // HashMap parameters
 		this.groupSpecs = groupSpecs;
 		this.toGroupVarName = varName;
 		this.context = aContext; //UNDERSTAND: do we need context here??? -shabanovd
+		this.collators = new Collator[groupSpecs.length];
+		for (int i = 0; i < groupSpecs.length; i++) {
+			collators[i] = groupSpecs[i].getCollator();
+		}
 	}
 
 	public void setToGroupVarName(String varName) {
@@ -64,8 +77,8 @@ public class GroupedValueSequenceTable extends
 		return toGroupVarName;
 	}
 
-	public Iterator<String> iterate() {
-        return this.keySet().iterator();
+	public Iterator<GroupedValueSequence> iterate() {
+        return this.values().iterator();
 	}
 
 	/**
@@ -76,25 +89,27 @@ public class GroupedValueSequenceTable extends
 	 * @throws XPathException
 	 */
 	public void add(Item item) throws XPathException {
-		final Sequence specEvaluation[] = new Sequence[groupSpecs.length];
-		final ValueSequence keySequence = new ValueSequence();
+		final AtomicValueKey keys[] = new AtomicValueKey[groupSpecs.length];
+		final ValueSequence keySequence = new ValueSequence(groupSpecs.length);
 
 		for (int i = 0; i < groupSpecs.length; i++) {
 			// evaluates the values of the grouping keys
-			specEvaluation[i] = groupSpecs[i].getGroupExpression().eval(item.toSequence()); // TODO : too early evaluation !
+			final Sequence specEvaluation = groupSpecs[i].getGroupExpression().eval(item.toSequence()); // TODO : too early evaluation !
 			
-			if (specEvaluation[i].isEmpty())
-				{keySequence.add(AtomicValue.EMPTY_VALUE);}
-			else if (specEvaluation[i].hasOne())
-				{keySequence.add(specEvaluation[i].itemAt(0));}
+			final AtomicValue keyValue;
+			if (specEvaluation.isEmpty())
+				{keyValue = AtomicValue.EMPTY_VALUE;}
+			else if (specEvaluation.hasOne())
+				{keyValue = specEvaluation.itemAt(0).atomize();}
 			else
-				{throw new XPathException(groupSpecs[i].getGroupExpression(), ErrorCodes.XPTY0004, "More that one key values", specEvaluation[i]);}
+				{throw new XPathException(groupSpecs[i].getGroupExpression(), ErrorCodes.XPTY0004, "More that one key values", specEvaluation);}
+			keys[i] = new AtomicValueKey(keyValue, collators[i]);
+			keySequence.add(keyValue);
 		}
 
-		final String hashKey = keySequence.getHashKey();
-
-		if (this.containsKey(hashKey)) {
-			final GroupedValueSequence currentGroup = super.get(hashKey);
+		final List<AtomicValueKey> hashKey = Arrays.asList(keys);
+		final GroupedValueSequence currentGroup = super.get(hashKey);
+		if (currentGroup != null) {
 			currentGroup.add(item);
 		} else {
 			// this group doesn't exists, then creates this group
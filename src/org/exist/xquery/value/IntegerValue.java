@@ -25,6 +25,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.Collator;
 
+import org.exist.xquery.Constants;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.XPathException;
 
@@ -40,6 +41,16 @@ public class IntegerValue extends NumericValue {
     //inheritance as defined by http://www.w3.org/TR/xmlschema-2/#built-in-datatypes
     
 	public final static IntegerValue ZERO = new IntegerValue(0);
+
+	// small values which are shared instead of being allocated over and over again
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final IntegerValue[] CACHE = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+	static {
+		for (int i = 0; i < CACHE.length; i++) {
+			CACHE[i] = new IntegerValue(i + CACHE_LOW);
+		}
+	}
         
 	private static final BigInteger ZERO_BIGINTEGER = new BigInteger("0");
 	private static final BigInteger ONE_BIGINTEGER = new BigInteger("1");
@@ -65,14 +76,16 @@ public class IntegerValue extends NumericValue {
         
     private static final BigInteger LARGEST_UNSIGNED_BYTE = new BigInteger("255");
 	
-	private BigInteger value;
-	// 	private long value;
+	// the value, as long as it fits into a long; bigValue is null in this case
+	private long value;
+	// the value if it is outside the range of a long
+	private BigInteger bigValue = null;
 
 	//should default type be NUMBER or LONG ? -shabanovd
 	private int type = Type.INTEGER;
 
 	public IntegerValue(long value) {
-		this.value = BigInteger.valueOf(value); // new BigInteger(value);
+		this.value = value;
 	}
 
 	public IntegerValue(long value, int type) throws XPathException {
@@ -85,7 +98,7 @@ public class IntegerValue extends NumericValue {
 
 	public IntegerValue(String stringValue) throws XPathException {
 		try {
-			value = new BigInteger(StringValue.trimWhitespace(stringValue)); // Long.parseLong(stringValue);
+			parse(StringValue.trimWhitespace(stringValue));
 		} catch (final NumberFormatException e) {
 				throw new XPathException(ErrorCodes.FORG0001,
 					"failed to convert '" + stringValue + "' to an integer: " + e.getMessage(), e);
@@ -96,8 +109,8 @@ public class IntegerValue extends NumericValue {
 	public IntegerValue(String stringValue, int requiredType) throws XPathException {
 		this.type = requiredType;
 		try {
-			value =  new BigInteger(StringValue.trimWhitespace(stringValue)); // Long.parseLong(stringValue);
-			if (!(checkType(value, type)))
+			parse(StringValue.trimWhitespace(stringValue));
+			if (!(checkType(toBigInteger(), type)))
 				{throw new XPathException(ErrorCodes.FORG0001, "can not convert '" + 
 						stringValue + "' to " + Type.getTypeName(type));}
 		} catch (final NumberFormatException e) {
@@ -111,7 +124,7 @@ public class IntegerValue extends NumericValue {
 	 * @param requiredType
 	 */
 	public IntegerValue(BigInteger value, int requiredType) {
-		this.value = value;
+		setBigInteger(value);
 		type = requiredType;
 	}
 
@@ -119,7 +132,61 @@ public class IntegerValue extends NumericValue {
 	 * @param integer
 	 */
 	public IntegerValue(BigInteger integer) {
-		this.value = integer;
+		setBigInteger(integer);
+	}
+
+	// result of an arithmetic operation, which keeps the type of the left operand unchecked
+	private IntegerValue(long value, int type, boolean unchecked) {
+		this.value = value;
+		this.type = type;
+	}
+
+	private IntegerValue(IntegerValue other, int type) {
+		this.value = other.value;
+		this.bigValue = other.bigValue;
+		this.type = type;
+	}
+
+	/**
+	 * Returns an xs:integer for the given value. Small values are taken from a
+	 * cache of shared instances.
+	 *
+	 * @param value the value
+	 * @return an xs:integer
+	 */
+	public static IntegerValue valueOf(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH)
+			{return CACHE[(int) value - CACHE_LOW];}
+		return new IntegerValue(value);
+	}
+
+	private void parse(String stringValue) throws NumberFormatException {
+		try {
+			value = Long.parseLong(stringValue);
+		} catch (final NumberFormatException e) {
+			// not a valid long: may still be a valid integer outside the range of a long
+			setBigInteger(new BigInteger(stringValue));
+		}
+	}
+
+	private void setBigInteger(BigInteger integer) {
+		if (integer.bitLength() < 64) {
+			value = integer.longValue();
+			bigValue = null;
+		} else
+			{bigValue = integer;}
+	}
+
+	private BigInteger toBigInteger() {
+		return bigValue == null ? BigInteger.valueOf(value) : bigValue;
+	}
+
+	/**
+	 * Returns true if the value fits into a long, i.e. {@link #getLong()}
+	 * returns the exact value.
+	 */
+	public boolean isLong() {
+		return bigValue == null;
 	}
 
 	/**
@@ -127,7 +194,7 @@ public class IntegerValue extends NumericValue {
 	 * @param type2
 	 * @throws XPathException
 	 */
-	private boolean checkType(BigInteger value2, int type2) throws XPathException {
+	private boolean checkType(BigInteger value, int type) throws XPathException {
             switch (type) {
 		
                 case Type.LONG :
@@ -229,19 +296,24 @@ public class IntegerValue extends NumericValue {
 	}
 
 	public long getValue() {
-		return value.longValue();
+		return bigValue == null ? value : bigValue.longValue();
 	}
 
+	/**
+	 * @deprecated values returned by {@link #valueOf(long)} are shared and must
+	 * not be modified
+	 */
+	@Deprecated
 	public void setValue(long value) {
-		this.value = BigInteger.valueOf(value);
+		this.value = value;
+		this.bigValue = null;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Item#getStringValue()
 	 */
 	public String getStringValue() {
-		return // Long.toString(value);
-		value.toString();
+		return bigValue == null ? Long.toString(value) : bigValue.toString();
 	}
 	
 	public boolean isNaN() {
@@ -253,16 +325,21 @@ public class IntegerValue extends NumericValue {
 	}
 
 	public boolean isZero() {
-		return value.signum() == 0;
-		//return value.compareTo(ZERO_BIGINTEGER) == Constants.EQUAL;
+		return signum() == 0;
 	};	
     
     public boolean isNegative() {
-        return value.signum()<0;
+        return signum()<0;
     }
 
     public boolean isPositive() {
-        return value.signum()>0;
+        return signum()>0;
+    }
+
+    private int signum() {
+        if (bigValue != null)
+            {return bigValue.signum();}
+        return value < 0 ? -1 : (value == 0 ? 0 : 1);
     }
 
 	/* (non-Javadoc)
@@ -277,7 +354,7 @@ public class IntegerValue extends NumericValue {
 			case Type.ITEM :
 				return this;
 			case Type.DECIMAL :
-				return new DecimalValue(new BigDecimal(value));
+				return new DecimalValue(toBigDecimal());
 			case Type.UNTYPED_ATOMIC :
 				return new UntypedAtomicValue(getStringValue());				
 			case Type.NUMBER :
@@ -294,21 +371,21 @@ public class IntegerValue extends NumericValue {
 			case Type.UNSIGNED_SHORT :
 			case Type.UNSIGNED_BYTE :
 			case Type.POSITIVE_INTEGER :
-				return new IntegerValue(value, requiredType);
+				return new IntegerValue(this, requiredType);
 			case Type.DOUBLE :
-				return new DoubleValue(value.doubleValue());
+				return new DoubleValue(bigValue == null ? (double) value : bigValue.doubleValue());
 			case Type.FLOAT:
-			    return new FloatValue(value.floatValue());
+			    return new FloatValue(bigValue == null ? (float) value : bigValue.floatValue());
 			case Type.STRING :
 				return new StringValue(getStringValue());
 			case Type.BOOLEAN :
-				return (value.compareTo(ZERO_BIGINTEGER) == 0 ) ? BooleanValue.FALSE : BooleanValue.TRUE;
+				return isZero() ? BooleanValue.FALSE : BooleanValue.TRUE;
 			default :
 				throw new XPathException(ErrorCodes.FORG0001,
 					"cannot convert '" 
                     +  Type.getTypeName(this.getType()) 
                     + " (" 
-                    + value 
+                    + getStringValue() 
                     + ")' into " 
                     + Type.getTypeName(requiredType));
 		}
@@ -318,21 +395,25 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#getInt()
 	 */
 	public int getInt() throws XPathException {
-		return value.intValue(); // (int) value;
+		return bigValue == null ? (int) value : bigValue.intValue();
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#getLong()
 	 */
 	public long getLong() throws XPathException {
-		return value.longValue();
+		return bigValue == null ? value : bigValue.longValue();
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#getDouble()
 	 */
 	public double getDouble() throws XPathException {
-		return value.doubleValue(); // (double) value;
+		return bigValue == null ? (double) value : bigValue.doubleValue();
+	}
+
+	private BigDecimal toBigDecimal() {
+		return bigValue == null ? BigDecimal.valueOf(value) : new BigDecimal(bigValue);
 	}
 
 	/* (non-Javadoc)
@@ -372,10 +453,16 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#minus(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue minus(ComputableValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER))
-			// return new IntegerValue(value - ((IntegerValue) other).value, type);
-			{return new IntegerValue( value.subtract( ((IntegerValue) other).value ), type );}
-		else
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long r = value - o.value;
+				// overflow if the operands have different signs and the sign of the result differs from ours
+				if (((value ^ o.value) & (value ^ r)) >= 0)
+					{return new IntegerValue(r, type, true);}
+			}
+			return new IntegerValue( toBigInteger().subtract( o.toBigInteger() ), type );
+		} else
 			{return ((ComputableValue) convertTo(other.getType())).minus(other);}
 	}
 
@@ -383,10 +470,16 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#plus(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue plus(ComputableValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER))
-			// return new IntegerValue(value + ((IntegerValue) other).value, type);
-			{return new IntegerValue( value.add( ((IntegerValue) other).value ), type );}
-		else
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long r = value + o.value;
+				// overflow if the sign of the result differs from the signs of both operands
+				if (((value ^ r) & (o.value ^ r)) >= 0)
+					{return new IntegerValue(r, type, true);}
+			}
+			return new IntegerValue( toBigInteger().add( o.toBigInteger() ), type );
+		} else
 			{return ((ComputableValue) convertTo(other.getType())).plus(other);}
 	}
 
@@ -394,9 +487,19 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#mult(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue mult(ComputableValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-		    {return new IntegerValue( value.multiply( ((IntegerValue) other).value ), type );}
-        else if(Type.subTypeOf(other.getType(), Type.DURATION))
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long r = value * o.value;
+				final long absA = Math.abs(value);
+				final long absB = Math.abs(o.value);
+				// no overflow if both operands fit into 31 bits or the division checks out
+				if (((absA | absB) >>> 31 == 0) ||
+						((o.value == 0 || r / o.value == value) && !(value == Long.MIN_VALUE && o.value == -1)))
+					{return new IntegerValue(r, type, true);}
+			}
+		    return new IntegerValue( toBigInteger().multiply( o.toBigInteger() ), type );
+		} else if(Type.subTypeOf(other.getType(), Type.DURATION))
             {return other.mult(this);}
         else
             {return ((ComputableValue) convertTo(other.getType())).mult(other);}
@@ -410,8 +513,8 @@ public class IntegerValue extends NumericValue {
 			if (((IntegerValue) other).isZero())
 				{throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
 			//http://www.w3.org/TR/xpath20/#mapping : numeric; but xs:decimal if both operands are xs:integer
-			final BigDecimal d = new BigDecimal(value);			 
-			final BigDecimal od = new BigDecimal(((IntegerValue) other).value);
+			final BigDecimal d = toBigDecimal();
+			final BigDecimal od = ((IntegerValue) other).toBigDecimal();
 			final int scale = Math.max(18, Math.max(d.scale(), od.scale()));	
 			return new DecimalValue(d.divide(od, scale, BigDecimal.ROUND_HALF_DOWN));
 		} else
@@ -423,6 +526,13 @@ public class IntegerValue extends NumericValue {
 		if (other.isZero())
 			//If the divisor is (positive or negative) zero, then an error is raised [err:FOAR0001]
 		    {throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}		
+		if (other instanceof IntegerValue) {
+			// integer division truncates towards zero, just like the Java operators
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null && !(value == Long.MIN_VALUE && o.value == -1))
+				{return valueOf(value / o.value);}
+			return new IntegerValue(toBigInteger().divide(o.toBigInteger()));
+		}
 		final ComputableValue result = div(other);
 		return new IntegerValue(((IntegerValue)result.convertTo(Type.INTEGER)).getLong());		
 	}
@@ -435,9 +545,11 @@ public class IntegerValue extends NumericValue {
 			if( other.isZero() )
 				{throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
 
-			// long ov = ((IntegerValue) other).value.longValue();
-			final BigInteger ov =  ((IntegerValue) other).value;
-			return new IntegerValue(value.remainder(ov), type);
+			final IntegerValue o = (IntegerValue) other;
+			// the sign of the remainder follows the dividend, just like with BigInteger.remainder
+			if (bigValue == null && o.bigValue == null)
+				{return new IntegerValue(value % o.value, type, true);}
+			return new IntegerValue(toBigInteger().remainder(o.toBigInteger()), type);
 		} else
 			{return ((NumericValue) convertTo(other.getType())).mod(other);}
 	}
@@ -446,30 +558,33 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#unaryMinus()
 	 */
 	public NumericValue negate() throws XPathException {
-		return new IntegerValue(value.negate());
+		if (bigValue == null && value != Long.MIN_VALUE)
+			{return new IntegerValue(-value);}
+		return new IntegerValue(toBigInteger().negate());
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#abs()
 	 */
 	public NumericValue abs() throws XPathException {
-		// return new IntegerValue(Math.abs(value), type);
-		return new IntegerValue( value.abs(), type);
+		if (bigValue == null && value != Long.MIN_VALUE)
+			{return value < 0 ? new IntegerValue(-value, type, true) : this;}
+		return new IntegerValue( toBigInteger().abs(), type);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#max(org.exist.xquery.value.AtomicValue)
 	 */
 	public AtomicValue max(Collator collator, AtomicValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-			{return new IntegerValue( value.max( ((IntegerValue) other).value) );}
+		if(other instanceof IntegerValue)
+			{return compareTo(other) >= 0 ? new IntegerValue(this, Type.INTEGER) : new IntegerValue((IntegerValue) other, Type.INTEGER);}
 		else
 			{return ((NumericValue) convertTo(other.getType())).max(collator, other);}
 	}
 
 	public AtomicValue min(Collator collator, AtomicValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-			{return new IntegerValue( value.min( ((IntegerValue) other).value) );}
+		if(other instanceof IntegerValue)
+			{return compareTo(other) <= 0 ? new IntegerValue(this, Type.INTEGER) : new IntegerValue((IntegerValue) other, Type.INTEGER);}
 		else
 			{return ((NumericValue) convertTo(other.getType())).min(collator, other);}
 	}
@@ -501,16 +616,16 @@ public class IntegerValue extends NumericValue {
 			return (T)this;
                 } else if(target == Long.class || target == long.class) {
 			// ?? jmv: return new Long(value);
-			return (T)Long.valueOf(value.longValue());
+			return (T)Long.valueOf(getValue());
                 } else if(target == Integer.class || target == int.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.INT);
-			return (T)Integer.valueOf((int)v.value.intValue());
+			return (T)Integer.valueOf(v.getInt());
 		} else if(target == Short.class || target == short.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.SHORT);
-			return (T)Short.valueOf((short)v.value.shortValue());
+			return (T)Short.valueOf((short)v.getInt());
 		} else if(target == Byte.class || target == byte.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.BYTE);
-			return (T)Byte.valueOf((byte)v.value.byteValue());
+			return (T)Byte.valueOf((byte)v.getInt());
 		} else if(target == Double.class || target == double.class) {
 			final DoubleValue v = (DoubleValue)convertTo(Type.DOUBLE);
 			return (T)Double.valueOf(v.getValue());
@@ -520,30 +635,70 @@ public class IntegerValue extends NumericValue {
 		} else if(target == Boolean.class || target == boolean.class) {
 			return (T)new BooleanValue(effectiveBooleanValue());
                 } else if(target == String.class) {
-			return (T)value.toString();
+			return (T)getStringValue();
                 } else if(target == BigInteger.class) {
-                    return (T)new BigInteger(value.toByteArray());
+                    return (T)toBigInteger();
                 } else if(target == Object.class) {
-			return (T)value; // Long(value);
+			return (T)toBigInteger();
                 }
 		
 		throw new XPathException("cannot convert value of type " + Type.getTypeName(getType()) +
 			" to Java object of type " + target.getName());
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.exist.xquery.value.NumericValue#compareTo(java.text.Collator, int, org.exist.xquery.value.AtomicValue)
+	 */
+	public boolean compareTo(Collator collator, int operator, AtomicValue other) throws XPathException {
+		if (!(other instanceof IntegerValue))
+			{return super.compareTo(collator, operator, other);}
+		// compare integers exactly, without going through doubles
+		final int cmp = compareTo(other);
+		switch(operator) {
+			case Constants.EQ:
+				return cmp == 0;
+			case Constants.NEQ:
+				return cmp != 0;
+			case Constants.GT:
+				return cmp > 0;
+			case Constants.GTEQ:
+				return cmp >= 0;
+			case Constants.LT:
+				return cmp < 0;
+			case Constants.LTEQ:
+				return cmp <= 0;
+			default:
+				throw new XPathException("Type error: cannot apply operator to numeric value");
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.exist.xquery.value.NumericValue#compareTo(java.text.Collator, org.exist.xquery.value.AtomicValue)
+	 */
+	public int compareTo(Collator collator, AtomicValue other) throws XPathException {
+		if (!(other instanceof IntegerValue))
+			{return super.compareTo(collator, other);}
+		final int cmp = compareTo(other);
+		return cmp == 0 ? Constants.EQUAL : (cmp > 0 ? Constants.SUPERIOR : Constants.INFERIOR);
+	}
+
     /* (non-Javadoc)
      * @see java.lang.Comparable#compareTo(java.lang.Object)
      */
     public int compareTo(Object o) {
         final AtomicValue other = (AtomicValue)o;
-        if(Type.subTypeOf(other.getType(), Type.INTEGER))
-            {return value.compareTo(((IntegerValue)other).value);}
+        if(other instanceof IntegerValue) {
+            final IntegerValue otherInt = (IntegerValue)other;
+            if (bigValue == null && otherInt.bigValue == null)
+                {return value < otherInt.value ? -1 : (value == otherInt.value ? 0 : 1);}
+            return toBigInteger().compareTo(otherInt.toBigInteger());
+        }
         else
             {return getType() > other.getType() ? 1 : -1;}
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return bigValue == null ? (int) (value ^ (value >>> 32)) : bigValue.hashCode();
     }
 }
@@ -24,6 +24,7 @@ package org.exist.xquery.value;
 import org.exist.dom.AVLTreeNodeSet;
 import org.exist.dom.NodeProxy;
 import org.exist.dom.NodeSet;
+import org.exist.indexing.SortKeysIndex;
 import org.exist.memtree.DocumentImpl;
 import org.exist.memtree.NodeImpl;
 import org.exist.numbering.NodeId;
@@ -42,25 +43,57 @@ import org.w3c.dom.Node;
  * all order expressions are evaluated once for each item in the sequence 
  * <b>while</b> items are added.
  * 
+ * If a limit is given, only the first <code>limit</code> items of the ordered
+ * sequence are kept: entries are collected into a bounded max-heap, so an entry
+ * which sorts after all retained entries is dropped as soon as it is added.
+ * 
+ * If an order expression returns a stored node for which an index provides a
+ * sort key (see {@link org.exist.indexing.SortKeysIndex}), the keys are compared
+ * instead of the atomized values. The node is only atomized if it has to be
+ * compared to an entry without index key.
+ * 
  * @author wolf
  */
 public class OrderedValueSequence extends AbstractSequence {
 
     private OrderSpec orderSpecs[];
+    // index to look up sort keys for each order spec, null if values are compared
+    private SortKeysIndex sortKeys[];
 	private Entry[] items = null;
 	private int count = 0;
 	private int state = 0;
+	// maximum number of entries to keep, or -1 to keep all
+	private int limit = -1;
+	// number of items added so far, used as position of the next entry
+	private int added = 0;
 
     // used to keep track of the type of added items.
     private int itemType = Type.ANY_TYPE;
     
 	public OrderedValueSequence(OrderSpec orderSpecs[], int size) {
 		this.orderSpecs = orderSpecs;
+		this.sortKeys = new SortKeysIndex[orderSpecs.length];
+		for (int i = 0; i < orderSpecs.length; i++) {
+			sortKeys[i] = orderSpecs[i].getSortKeysIndex();
+		}
         if (size == 0)
             {size = 1;}
 		this.items = new Entry[size];
 	}
 
+	/**
+	 * Create a sequence which only keeps the first <code>limit</code> items
+	 * in sort order.
+	 * 
+	 * @param orderSpecs the order specs of the "order by" clause
+	 * @param size the expected number of items to be added
+	 * @param limit the maximum number of items to keep; &lt;= 0 keeps all items
+	 */
+	public OrderedValueSequence(OrderSpec orderSpecs[], int size, int limit) {
+		this(orderSpecs, limit > 0 && limit < size ? limit : size);
+		this.limit = limit > 0 ? limit : -1;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Sequence#iterate()
 	 */
@@ -99,18 +132,48 @@ public class OrderedValueSequence extends AbstractSequence {
 		if (isEmpty)
 			{hasOne = true;}
         isEmpty = false;
+		final Entry entry = new Entry(item, added++);
+		checkItemType(item.getType());
+        setHasChanged();
+		if (limit > 0 && count == limit) {
+			// heap is full: replace the largest entry if the new one sorts before it
+			if (entry.compareTo(items[0]) < 0) {
+				items[0] = entry;
+				siftDown(0);
+			}
+			return;
+		}
 		if(count == 0 && items.length == 1) {
-			items = new Entry[2];
+			items = new Entry[limit == 1 ? 1 : 2];
 		} else if (count == items.length) {
-			Entry newItems[] = new Entry[count * 2];
+			final int newSize = limit > 0 ? Math.min(count * 2, limit) : count * 2;
+			Entry newItems[] = new Entry[newSize];
 			System.arraycopy(items, 0, newItems, 0, count);
 			items = newItems;
 		}
-		items[count] = new Entry(item, count++);
-		checkItemType(item.getType());
-        setHasChanged();
+		items[count++] = entry;
+		if (limit > 0 && count == limit) {
+			// build a max-heap over the retained entries
+			for (int i = count / 2 - 1; i >= 0; i--) {
+				siftDown(i);
+			}
+		}
     }
 
+	private void siftDown(int i) {
+		final Entry entry = items[i];
+		int child;
+		while ((child = 2 * i + 1) < count) {
+			if (child + 1 < count && items[child + 1].compareTo(items[child]) > 0)
+				{child++;}
+			if (items[child].compareTo(entry) <= 0)
+				{break;}
+			items[i] = items[child];
+			i = child;
+		}
+		items[i] = entry;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.AbstractSequence#addAll(org.exist.xquery.value.Sequence)
 	 */
@@ -293,6 +356,9 @@ public class OrderedValueSequence extends AbstractSequence {
 		
 		Item item;
 		AtomicValue values[];
+		// index sort keys and the nodes they belong to, null if no key was found
+		byte keys[][] = null;
+		NodeProxy nodes[] = null;
 		int pos;
 		
 		/**
@@ -308,7 +374,22 @@ public class OrderedValueSequence extends AbstractSequence {
 				final Sequence seq = orderSpecs[i].getSortExpression().eval(null);
 				values[i] = AtomicValue.EMPTY_VALUE;
 				if(seq.hasOne()) {
-					values[i] = seq.itemAt(0).atomize();
+					final Item next = seq.itemAt(0);
+					if (sortKeys[i] != null && next instanceof NodeProxy) {
+						final byte[] key = sortKeys[i].getSortKey((NodeProxy) next);
+						if (key != null) {
+							if (keys == null) {
+								keys = new byte[orderSpecs.length][];
+								nodes = new NodeProxy[orderSpecs.length];
+							}
+							keys[i] = key;
+							nodes[i] = (NodeProxy) next;
+							// atomized on demand
+							values[i] = null;
+							continue;
+						}
+					}
+					values[i] = next.atomize();
 				} else if(seq.hasMany())
 					{throw new XPathException("expected a single value for order expression " +
 						ExpressionDumper.dump(orderSpecs[i].getSortExpression()) + 
@@ -324,8 +405,16 @@ public class OrderedValueSequence extends AbstractSequence {
 			AtomicValue a, b;
 			for(int i = 0; i < values.length; i++) {
 				try {
-					a = values[i];
-					b = other.values[i];
+					if (keys != null && keys[i] != null && other.keys != null && other.keys[i] != null) {
+						cmp = compareKeys(keys[i], other.keys[i]);
+						if((orderSpecs[i].getModifiers() & OrderSpec.DESCENDING_ORDER) != 0)
+							{cmp = cmp * -1;}
+						if(cmp != Constants.EQUAL)
+							{break;}
+						continue;
+					}
+					a = getValue(i);
+					b = other.getValue(i);
                     final boolean aIsEmpty = (a.isEmpty() || (Type.subTypeOf(a.getType(), Type.NUMBER) && ((NumericValue) a).isNaN()));
                     final boolean bIsEmpty = (b.isEmpty() || (Type.subTypeOf(b.getType(), Type.NUMBER) && ((NumericValue) b).isNaN()));
                     if (aIsEmpty) {
@@ -366,6 +455,25 @@ public class OrderedValueSequence extends AbstractSequence {
 				{cmp = (pos > other.pos ? Constants.SUPERIOR : (pos == other.pos ? Constants.EQUAL : Constants.INFERIOR));}
 			return cmp;
 		}
+
+		private AtomicValue getValue(int i) throws XPathException {
+			if (values[i] == null)
+				{values[i] = nodes[i].atomize();}
+			return values[i];
+		}
+
+		private int compareKeys(byte[] k1, byte[] k2) {
+			final int len = Math.min(k1.length, k2.length);
+			for (int i = 0; i < len; i++) {
+				final int b1 = k1[i] & 0xFF;
+				final int b2 = k2[i] & 0xFF;
+				if (b1 != b2)
+					{return b1 < b2 ? Constants.INFERIOR : Constants.SUPERIOR;}
+			}
+			if (k1.length == k2.length)
+				{return Constants.EQUAL;}
+			return k1.length < k2.length ? Constants.INFERIOR : Constants.SUPERIOR;
+		}
 		
 		public String toString() {
 			final StringBuilder builder = new StringBuilder();
@@ -374,7 +482,7 @@ public class OrderedValueSequence extends AbstractSequence {
     		for (int i = 0; i < values.length; i++) {
     			if (i > 0)
     				{builder.append(", ");}
-    			builder.append(values[i].toString());
+    			builder.append(values[i] == null ? nodes[i].toString() : values[i].toString());
     		}
     		builder.append("]");
     		return builder.toString();
@@ -0,0 +1,244 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xslt;
+
+import org.apache.log4j.Logger;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.StoredNode;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
+import org.exist.numbering.NodeId;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.UpdateListener;
+import org.exist.util.BoundedLRUMap;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+
+import javax.xml.transform.Templates;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for compiled stylesheets shared by all XSL transformations of a database
+ * instance, i.e. by the transform module and the XSLTServlet.
+ *
+ * Stylesheets are identified by a key: the path of the document for stylesheets
+ * stored in the db (see {@link #getKey(DocumentImpl)}), the URL otherwise. A cached
+ * stylesheet is only used if its last modification time did not change. Stylesheets
+ * stored in the db are in addition removed from the cache as soon as the database
+ * reports an update or removal of the document. The cache holds at most
+ * {@link #PROPERTY_CACHE_SIZE} stylesheets: if it grows larger, the least recently
+ * used entry is removed.
+ *
+ * Compiling a stylesheet is serialized per key, so concurrent requests for the same
+ * stylesheet compile it only once.
+ */
+public class TemplatesCache {
+
+    private final static Logger LOG = Logger.getLogger(TemplatesCache.class);
+
+    public final static String CACHE_SIZE_ATTRIBUTE = "cache-size";
+    public final static String PROPERTY_CACHE_SIZE = "transformer.cache-size";
+
+    public final static int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * Compiles a stylesheet if it is not found in the cache.
+     *
+     * @param <E> the exception thrown by the caller's compilation code
+     */
+    public interface Compiler<E extends Exception> {
+
+        Templates compile() throws E;
+    }
+
+    private static class Entry {
+
+        Templates templates = null;
+        long lastModified = -1;
+    }
+
+    private final BoundedLRUMap<String, Entry> entries;
+    private final boolean enabled;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public TemplatesCache(int maxEntries, boolean enabled) {
+        this.entries = new BoundedLRUMap<String, Entry>(maxEntries);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Create the cache of a database instance: reads the configuration, subscribes to
+     * document updates and registers the cache's statistics with JMX.
+     */
+    public TemplatesCache(BrokerPool pool) {
+        this(getCacheSize(pool.getConfiguration()), isCaching(pool.getConfiguration()));
+        pool.getNotificationService().subscribe(new InvalidationListener());
+
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(pool.getId(), "org.exist.management." + pool.getId() + ":type=TemplatesCache",
+                new org.exist.management.TemplatesCache(this));
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering templates cache mbean.", e);
+        }
+    }
+
+    private static int getCacheSize(Configuration conf) {
+        final Object size = conf.getProperty(PROPERTY_CACHE_SIZE);
+        return size == null ? DEFAULT_CACHE_SIZE : (Integer) size;
+    }
+
+    private static boolean isCaching(Configuration conf) {
+        final Object caching = conf.getProperty(TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE);
+        return caching == null || (Boolean) caching;
+    }
+
+    /**
+     * Returns the key of a stylesheet stored in the db.
+     */
+    public static String getKey(DocumentImpl stylesheet) {
+        return stylesheet.getURI().toString();
+    }
+
+    /**
+     * Returns the compiled stylesheet for the key. If it is not cached or if it has
+     * been modified since it was compiled, the compiler is called and the result is
+     * cached.
+     *
+     * @param key identifies the stylesheet, see {@link #getKey(DocumentImpl)}
+     * @param lastModified the current last modification time of the stylesheet or 0
+     *  if it is unknown, in which case the stylesheet is always compiled
+     * @param compiler compiles the stylesheet
+     */
+    public <E extends Exception> Templates getTemplates(String key, long lastModified, Compiler<E> compiler) throws E {
+        if (!enabled) {
+            return compiler.compile();
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            final Entry newEntry = new Entry();
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        synchronized (entry) {
+            if (entry.templates != null && lastModified != 0 && entry.lastModified == lastModified) {
+                hits.incrementAndGet();
+                return entry.templates;
+            }
+            misses.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Compiling stylesheet " + key);
+            }
+            boolean compiled = false;
+            try {
+                entry.templates = compiler.compile();
+                entry.lastModified = lastModified;
+                compiled = true;
+                return entry.templates;
+            } finally {
+                if (!compiled) {
+                    entries.remove(key, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the stylesheet with the given key from the cache.
+     */
+    public void invalidate(String key) {
+        if (entries.remove(key) != null) {
+            invalidations.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Removed stylesheet " + key + " from cache");
+            }
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return entries.getMaxEntries();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return entries.getEvictions();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Templates cache: size: " + getSize() + "/" + getMaxSize() + "; hits: " + getHits() +
+            "; misses: " + getMisses() + "; evictions: " + getEvictions() +
+            "; invalidations: " + getInvalidations();
+    }
+
+    /**
+     * Removes stylesheets stored in the db from the cache if they are updated or removed.
+     */
+    private class InvalidationListener implements UpdateListener {
+
+        @Override
+        public void documentUpdated(DocumentImpl document, int event) {
+            if (event != ADD) {
+                invalidate(getKey(document));
+            }
+        }
+
+        @Override
+        public void nodeMoved(NodeId oldNodeId, StoredNode newNode) {
+            // not relevant
+        }
+
+        @Override
+        public void unsubscribe() {
+            clear();
+        }
+
+        @Override
+        public void debug() {
+            LOG.debug("UpdateListener: " + TemplatesCache.this);
+        }
+    }
+}
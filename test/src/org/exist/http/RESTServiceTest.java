@@ -306,6 +306,54 @@ public class RESTServiceTest {
         doGet();
     }
 
+    @Test
+    public void conditionalGet() throws IOException {
+        int r = uploadData();
+        assertEquals("Server returned response code " + r, 201, r);
+
+        HttpURLConnection connect = getConnection(RESOURCE_URI);
+        connect.setRequestProperty("Authorization", "Basic " + credentials);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, 200, r);
+        String etag = connect.getHeaderField("ETag");
+        assertNotNull(etag);
+        long lastModified = connect.getLastModified();
+        readResponse(connect.getInputStream());
+
+        connect = getConnection(RESOURCE_URI);
+        connect.setRequestProperty("Authorization", "Basic " + credentials);
+        connect.setRequestProperty("If-None-Match", etag);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, 304, r);
+
+        // Last-Modified is rounded up to the next second and dates in the future are ignored
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+        }
+        connect = getConnection(RESOURCE_URI);
+        connect.setRequestProperty("Authorization", "Basic " + credentials);
+        connect.setIfModifiedSince(lastModified);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, 304, r);
+
+        // a different representation has a different tag
+        connect = getConnection(RESOURCE_URI + "?_indent=no");
+        connect.setRequestProperty("Authorization", "Basic " + credentials);
+        connect.setRequestProperty("If-None-Match", etag);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, 200, r);
+        readResponse(connect.getInputStream());
+    }
+
     @Test
     public void putFailAgainstCollection() throws IOException {
         System.out.println("--- Storing document against collection URI - should fail ---");
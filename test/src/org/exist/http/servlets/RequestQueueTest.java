@@ -0,0 +1,122 @@
+package org.exist.http.servlets;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+public class RequestQueueTest {
+
+    private static HttpServletRequest mockRequest(DispatcherType type) {
+        final HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+        expect(request.getDispatcherType()).andReturn(type).anyTimes();
+        expect(request.isAsyncSupported()).andReturn(true).anyTimes();
+        expect(request.getRequestURI()).andReturn("/rest/db/slow.xq").anyTimes();
+        return request;
+    }
+
+    @Test
+    public void queuesAndRejectsRequestsOverLimit() throws ServletException, IOException {
+        final RequestQueue queue = new RequestQueue("test", 1, 1, 1000, 7);
+
+        // request 2 is queued while request 1 is processed
+        final HttpServletRequest request2 = mockRequest(DispatcherType.REQUEST);
+        final HttpServletResponse response2 = EasyMock.createNiceMock(HttpServletResponse.class);
+        final AsyncContext context2 = EasyMock.createNiceMock(AsyncContext.class);
+        expect(request2.startAsync(request2, response2)).andReturn(context2);
+        context2.setTimeout(1000);
+        context2.addListener(anyObject(AsyncListener.class));
+        expect(context2.getRequest()).andReturn(request2).anyTimes();
+        context2.dispatch();
+        expectLastCall().once();
+
+        // request 3 finds the queue full
+        final HttpServletRequest request3 = mockRequest(DispatcherType.REQUEST);
+        final HttpServletResponse response3 = EasyMock.createNiceMock(HttpServletResponse.class);
+        response3.setHeader("Retry-After", "7");
+        response3.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        expectLastCall().once();
+
+        replay(request2, response2, context2, request3, response3);
+
+        final RequestQueue.Handler failing = new RequestQueue.Handler() {
+            @Override
+            public void handle(HttpServletRequest request, HttpServletResponse response) {
+                throw new AssertionError("request should not be processed");
+            }
+        };
+        final int[] processed = { 0 };
+        queue.service(mockReplayed(DispatcherType.REQUEST), null, new RequestQueue.Handler() {
+            @Override
+            public void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+                processed[0]++;
+                assertEquals(1, queue.getActiveCount());
+                queue.service(request2, response2, failing);
+                queue.service(request3, response3, failing);
+                assertEquals(1, queue.getQueueSize());
+            }
+        });
+
+        assertEquals(1, processed[0]);
+        assertEquals(0, queue.getQueueSize());
+        assertEquals(1, queue.getQueued());
+        assertEquals(1, queue.getRejected());
+        // the permit of request 1 was handed to request 2
+        assertEquals(1, queue.getActiveCount());
+        verify(request2, response2, context2, request3, response3);
+
+        // request 2 is dispatched again by the container
+        final HttpServletRequest resumed = EasyMock.createNiceMock(HttpServletRequest.class);
+        expect(resumed.getDispatcherType()).andReturn(DispatcherType.ASYNC).anyTimes();
+        expect(resumed.getAttribute(RequestQueue.class.getName() + ".resumed")).andReturn(Boolean.TRUE);
+        expect(resumed.getAttribute(RequestQueue.class.getName() + ".queued")).andReturn(System.currentTimeMillis());
+        replay(resumed);
+        queue.service(resumed, response2, new RequestQueue.Handler() {
+            @Override
+            public void handle(HttpServletRequest request, HttpServletResponse response) {
+                processed[0]++;
+            }
+        });
+        assertEquals(2, processed[0]);
+        assertEquals(0, queue.getActiveCount());
+    }
+
+    @Test
+    public void doesNotLimitForwardedRequests() throws ServletException, IOException {
+        final RequestQueue queue = new RequestQueue("test", 1, 0, 1000, 7);
+        final HttpServletRequest forwarded = mockReplayed(DispatcherType.FORWARD);
+        final int[] processed = { 0 };
+        queue.service(mockReplayed(DispatcherType.REQUEST), null, new RequestQueue.Handler() {
+            @Override
+            public void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+                queue.service(forwarded, null, new RequestQueue.Handler() {
+                    @Override
+                    public void handle(HttpServletRequest req, HttpServletResponse res) {
+                        processed[0]++;
+                    }
+                });
+            }
+        });
+        assertEquals(1, processed[0]);
+        assertEquals(0, queue.getRejected());
+    }
+
+    private static HttpServletRequest mockReplayed(DispatcherType type) {
+        final HttpServletRequest request = mockRequest(type);
+        replay(request);
+        return request;
+    }
+}
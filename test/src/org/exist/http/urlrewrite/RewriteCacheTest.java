@@ -0,0 +1,55 @@
+package org.exist.http.urlrewrite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RewriteCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws InterruptedException {
+        final RewriteCache<String> cache = new RewriteCache<String>(10, -1);
+        for (int i = 0; i < 10; i++) {
+            cache.put("url" + i, "value" + i, "controller");
+            Thread.sleep(2);
+        }
+        // touch the oldest entry, so it is kept
+        assertEquals("value0", cache.get("url0"));
+        Thread.sleep(2);
+        cache.put("url10", "value10", "controller");
+
+        assertTrue(cache.getSize() <= 10);
+        assertEquals("value0", cache.get("url0"));
+        assertEquals("value10", cache.get("url10"));
+        assertNull(cache.get("url1"));
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void expiresEntries() throws InterruptedException {
+        final RewriteCache<String> cache = new RewriteCache<String>(10, 50);
+        cache.put("url", "value", "controller");
+        assertEquals("value", cache.get("url"));
+        Thread.sleep(100);
+        assertNull(cache.get("url"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void invalidatesEntriesOfController() {
+        final RewriteCache<String> cache = new RewriteCache<String>(10, -1);
+        cache.put("a1", "a1", "controllerA");
+        cache.put("a2", "a2", "controllerA");
+        cache.put("b1", "b1", "controllerB");
+        cache.invalidate("controllerA");
+
+        assertNull(cache.get("a1"));
+        assertNull(cache.get("a2"));
+        assertEquals("b1", cache.get("b1"));
+        assertEquals(2, cache.getInvalidations());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+}
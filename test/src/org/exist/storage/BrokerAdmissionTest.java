@@ -0,0 +1,211 @@
+package org.exist.storage;
+
+import org.easymock.EasyMock;
+import org.exist.EXistException;
+import org.exist.security.SecurityManager;
+import org.exist.security.Subject;
+import org.exist.util.Configuration;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BrokerAdmissionTest {
+
+    private static Subject subject(String name) {
+        final Subject subject = EasyMock.createNiceMock(Subject.class);
+        expect(subject.getName()).andReturn(name).anyTimes();
+        replay(subject);
+        return subject;
+    }
+
+    @Test
+    public void limitsBrokersPerUser() throws Exception {
+        final BrokerAdmission admission = new BrokerAdmission(10, -1, 1, 100);
+        final BrokerAdmission.Ticket ticket = admission.admit(subject("alice"));
+
+        // another user is admitted
+        final Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    admission.release(admission.admit(subject("bob")));
+                } catch (final EXistException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        other.start();
+        other.join();
+
+        // the same user times out in another thread
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final Thread same = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    admission.release(admission.admit(subject("alice")));
+                } catch (final EXistException e) {
+                    error.set(e);
+                }
+            }
+        };
+        same.start();
+        same.join();
+        assertTrue(error.get() instanceof EXistException);
+        assertEquals(1, admission.getTimedOut());
+
+        admission.release(ticket);
+        assertEquals(0, admission.getActive());
+        assertEquals(3, admission.getAdmitted() + admission.getTimedOut());
+    }
+
+    @Test
+    public void neverLimitsSystemSubject() throws EXistException {
+        final BrokerAdmission admission = new BrokerAdmission(1, 1, 1, 100);
+        final BrokerAdmission.Ticket ticket = admission.admit(subject("alice"));
+        assertEquals(null, admission.admit(subject(SecurityManager.SYSTEM)));
+        assertEquals(1, admission.getActive());
+        admission.release(ticket);
+        assertEquals(0, admission.getActive());
+    }
+
+    @Test
+    public void limitsBatchAndPrefersInteractive() throws Exception {
+        final BrokerAdmission admission = new BrokerAdmission(2, 1, -1, -1);
+        // one batch thread holds a broker
+        final CountDownLatch batchAdmitted = new CountDownLatch(1);
+        final CountDownLatch releaseBatch = new CountDownLatch(1);
+        final Thread batch1 = new Thread() {
+            @Override
+            public void run() {
+                BrokerAdmission.setPriority(BrokerAdmission.Priority.BATCH);
+                try {
+                    final BrokerAdmission.Ticket ticket = admission.admit(subject("job"));
+                    batchAdmitted.countDown();
+                    releaseBatch.await();
+                    admission.release(ticket);
+                } catch (final Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        batch1.start();
+        assertTrue(batchAdmitted.await(5, TimeUnit.SECONDS));
+
+        // a second batch thread has to wait although a broker is free
+        final CountDownLatch batch2Admitted = new CountDownLatch(1);
+        final Thread batch2 = new Thread() {
+            @Override
+            public void run() {
+                BrokerAdmission.setPriority(BrokerAdmission.Priority.BATCH);
+                try {
+                    final BrokerAdmission.Ticket ticket = admission.admit(subject("job"));
+                    batch2Admitted.countDown();
+                    admission.release(ticket);
+                } catch (final Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        batch2.start();
+        assertTrue(!batch2Admitted.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, admission.getWaitingBatch());
+
+        // an interactive thread is admitted immediately
+        final BrokerAdmission.Ticket ticket = admission.admit(subject("alice"));
+        assertEquals(2, admission.getActive());
+        admission.release(ticket);
+
+        releaseBatch.countDown();
+        assertTrue(batch2Admitted.await(5, TimeUnit.SECONDS));
+        batch1.join();
+        batch2.join();
+        assertEquals(0, admission.getActive());
+        assertEquals(0, admission.getActiveBatch());
+    }
+
+    private static BrokerPool startPool() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(BrokerPool.PROPERTY_MAX_CONNECTIONS, 1);
+        config.setProperty(BrokerAdmission.PROPERTY_WAIT_TIMEOUT, 200L);
+        BrokerPool.configure(1, 1, config);
+        return BrokerPool.getInstance();
+    }
+
+    @Test
+    public void releasedWithBroker() throws Exception {
+        final BrokerPool pool = startPool();
+        try {
+            final BrokerAdmission admission = pool.getBrokerAdmission();
+            assertNotNull(admission);
+
+            // the broker is acquired by one thread...
+            final AtomicReference<DBBroker> broker = new AtomicReference<DBBroker>();
+            final Thread acquire = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        broker.set(pool.get(pool.getSecurityManager().getGuestSubject()));
+                    } catch (final EXistException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            };
+            acquire.start();
+            acquire.join();
+            assertEquals(1, admission.getActive());
+
+            // ... and released by another one
+            pool.release(broker.get());
+            assertEquals(0, admission.getActive());
+
+            // the user is admitted again
+            pool.release(pool.get(pool.getSecurityManager().getGuestSubject()));
+            assertEquals(0, admission.getActive());
+            assertEquals(0, admission.getTimedOut());
+        } finally {
+            BrokerPool.stopAll(false);
+        }
+    }
+
+    @Test
+    public void timesOutWaitingForBroker() throws Exception {
+        final BrokerPool pool = startPool();
+        DBBroker broker = null;
+        try {
+            final BrokerAdmission admission = pool.getBrokerAdmission();
+            assertNotNull(admission);
+            // the system subject is not limited and holds the only broker
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            final Thread guest = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        pool.release(pool.get(pool.getSecurityManager().getGuestSubject()));
+                    } catch (final EXistException e) {
+                        error.set(e);
+                    }
+                }
+            };
+            guest.start();
+            guest.join(5000);
+            assertTrue(error.get() instanceof EXistException);
+            assertEquals(1, admission.getTimedOut());
+            assertEquals(0, admission.getActive());
+        } finally {
+            pool.release(broker);
+            BrokerPool.stopAll(false);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.xmldb;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.codec.binary.Base64;
+import org.exist.jetty.JettyStart;
+import org.easymock.EasyMock;
+import org.exist.xmlrpc.BinaryRpcCodec;
+import org.exist.xmlrpc.BinaryRpcServer;
+import org.exist.xmlrpc.BinaryRpcTransportFactory;
+import org.exist.xmlrpc.XmldbRequestProcessorFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.modules.BinaryResource;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XQueryService;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Vector;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.*;
+
+/**
+ * Runs remote XML:DB operations over the binary protocol.
+ */
+public class RemoteBinaryTransportTest {
+
+    private static JettyStart server = null;
+    // jetty.port.standalone
+    private final static String PORT = System.getProperty("jetty.port", "8088");
+    private final static String URI = "exist://localhost:" + PORT + "/xmlrpc";
+    private final static String TEST_COLLECTION = "binary-transport-test";
+
+    private static DatabaseImpl database;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new JettyStart();
+        server.run();
+        database = new DatabaseImpl();
+        database.setProperty("transport", "binary");
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.shutdown();
+        server = null;
+    }
+
+    @Test
+    public void storeAndQuery() throws Exception {
+        final Collection root = database.getCollection(URI + XmldbURI.ROOT_COLLECTION, "admin", "");
+        assertNotNull(root);
+        final CollectionManagementService cms = (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
+        final Collection test = cms.createCollection(TEST_COLLECTION);
+        try {
+            final XMLResource doc = (XMLResource) test.createResource("test.xml", "XMLResource");
+            doc.setContent("<test><item n=\"1\">Città</item><item n=\"2\">b</item></test>");
+            test.storeResource(doc);
+
+            final byte[] data = new byte[300000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            final BinaryResource bin = (BinaryResource) test.createResource("test.bin", "BinaryResource");
+            bin.setContent(data);
+            test.storeResource(bin);
+
+            assertEquals(2, test.getResourceCount());
+            final BinaryResource binRead = (BinaryResource) test.getResource("test.bin");
+            assertTrue(Arrays.equals(data, (byte[]) binRead.getContent()));
+
+            final XQueryService service = (XQueryService) test.getService("XQueryService", "1.0");
+            final ResourceSet result = service.query("//item[@n = '1']/text()");
+            assertEquals(1, result.getSize());
+            assertEquals("Città", result.getResource(0).getContent());
+        } finally {
+            cms.removeCollection(TEST_COLLECTION);
+        }
+    }
+
+    @Test
+    public void pipelinedRequests() throws Exception {
+        final XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+        config.setEnabledForExtensions(true);
+        config.setServerURL(new URL("http://localhost:" + PORT + "/xmlrpc"));
+        config.setBasicUserName("admin");
+        config.setBasicPassword("");
+        final XmlRpcClient client = new XmlRpcClient();
+        client.setConfig(config);
+        final BinaryRpcTransportFactory factory = new BinaryRpcTransportFactory(client);
+        client.setTransportFactory(factory);
+
+        final Vector<Object> noParams = new Vector<Object>();
+        final Vector<Object> missing = new Vector<Object>();
+        missing.add("/db/no-such-collection");
+        final XmlRpcRequest[] requests = new XmlRpcRequest[] {
+            new XmlRpcClientRequestImpl(config, "isXACMLEnabled", noParams),
+            new XmlRpcClientRequestImpl(config, "getCollectionDesc", missing),
+            new XmlRpcClientRequestImpl(config, "hasCollection", missing)
+        };
+        final Object[] results = ((BinaryRpcTransportFactory.BinaryRpcTransport) factory.getTransport()).sendRequests(requests);
+        assertEquals(3, results.length);
+        assertTrue(results[0] instanceof Boolean);
+        assertTrue(results[1] instanceof XmlRpcException);
+        assertEquals(Boolean.FALSE, results[2]);
+    }
+
+    @Test
+    public void authenticatesBeforeDecoding() throws Exception {
+        // the request body must not be read: getInputStream is not expected
+        final HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        expect(request.getHeader("Authorization")).andReturn("Basic " +
+            Base64.encodeBase64String("admin:wrong".getBytes("UTF-8")));
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse response = EasyMock.createNiceMock(HttpServletResponse.class);
+        expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        replay(request, response);
+
+        final BinaryRpcServer server = new BinaryRpcServer(null, new XmldbRequestProcessorFactory("exist", true),
+            BinaryRpcCodec.DEFAULT_MAX_FRAME_SIZE);
+        server.execute(request, response);
+        verify(request);
+
+        final DataInputStream message = BinaryRpcCodec.readFrame(new ByteArrayInputStream(body.toByteArray()));
+        assertNotNull(message);
+        try {
+            BinaryRpcCodec.readResult(message);
+            fail("Expected an authentication fault");
+        } catch (final XmlRpcException e) {
+            assertFalse(e.getMessage(), e.getMessage().startsWith("Invalid request"));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidLengths() throws Exception {
+        // a string length exceeding the frame
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(message);
+        out.writeInt(Integer.MAX_VALUE);
+        String fault = postForFault(frame(message.toByteArray()), "admin", "");
+        assertTrue(fault, fault.startsWith("Invalid request"));
+
+        // a negative parameter count
+        message = new ByteArrayOutputStream();
+        out = new DataOutputStream(message);
+        BinaryRpcCodec.writeString(out, "hasCollection");
+        out.writeInt(-1);
+        fault = postForFault(frame(message.toByteArray()), "admin", "");
+        assertTrue(fault, fault.startsWith("Invalid request"));
+
+        // an array longer than the frame
+        message = new ByteArrayOutputStream();
+        out = new DataOutputStream(message);
+        BinaryRpcCodec.writeString(out, "hasCollection");
+        out.writeInt(1);
+        out.writeByte(8);
+        out.writeInt(1000000);
+        fault = postForFault(frame(message.toByteArray()), "admin", "");
+        assertTrue(fault, fault.startsWith("Invalid request"));
+
+        // a frame exceeding the maximum frame size
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new DataOutputStream(body).writeInt(BinaryRpcCodec.DEFAULT_MAX_FRAME_SIZE + 1);
+        fault = postForFault(body.toByteArray(), "admin", "");
+        assertTrue(fault, fault.startsWith("Invalid request"));
+    }
+
+    private static byte[] frame(byte[] message) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(message.length);
+        out.write(message);
+        return body.toByteArray();
+    }
+
+    /**
+     * Post the request body and return the message of the fault it is answered with.
+     */
+    private static String postForFault(byte[] body, String user, String password) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + PORT + "/xmlrpc").openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", BinaryRpcCodec.CONTENT_TYPE);
+        connection.setRequestProperty("Authorization", "Basic " +
+            Base64.encodeBase64String((user + ":" + password).getBytes("UTF-8")));
+        try {
+            final OutputStream os = connection.getOutputStream();
+            os.write(body);
+            os.close();
+            final InputStream is = connection.getInputStream();
+            final DataInputStream message = BinaryRpcCodec.readFrame(is);
+            assertNotNull(message);
+            BinaryRpcCodec.readResult(message);
+            fail("Expected a fault");
+            return null;
+        } catch (final XmlRpcException e) {
+            return e.getMessage();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -504,6 +504,52 @@ public class XmlRpcTest {
 	    }	        
 	}
 	
+	@Test
+	public void testRetrieveNext() {
+        System.out.println("---testRetrieveNext");
+		try {
+			Vector<Object> params = new Vector<Object>();
+			String query = "for $i in 1 to 5 return <item>{$i}</item>";
+			params.addElement(query.getBytes(UTF_8));
+			params.addElement(new Hashtable<Object, Object>());
+			XmlRpcClient xmlrpc = getClient();
+	        Integer handle = (Integer) xmlrpc.execute( "executeQuery", params );
+	        Assert.assertNotNull(handle);
+
+	        params.clear();
+	        params.addElement(handle);
+	        params.addElement(Integer.valueOf(3));
+	        params.addElement(new Hashtable<Object, Object>());
+	        Map<?, ?> page = (Map<?, ?>) xmlrpc.execute( "retrieveNext", params );
+	        String xml = new String((byte[]) page.get("data"), "UTF-8");
+	        System.out.println(xml);
+	        Assert.assertEquals(5, ((Integer) page.get("hits")).intValue());
+	        Assert.assertEquals(3, ((Integer) page.get("position")).intValue());
+	        Assert.assertTrue((Boolean) page.get("more"));
+	        Assert.assertTrue(xml.contains("<item>3</item>"));
+	        Assert.assertFalse(xml.contains("<item>4</item>"));
+
+	        page = (Map<?, ?>) xmlrpc.execute( "retrieveNext", params );
+	        xml = new String((byte[]) page.get("data"), "UTF-8");
+	        System.out.println(xml);
+	        Assert.assertEquals(5, ((Integer) page.get("position")).intValue());
+	        Assert.assertFalse((Boolean) page.get("more"));
+	        Assert.assertTrue(xml.contains("start=\"4\""));
+	        Assert.assertTrue(xml.contains("<item>5</item>"));
+	        Assert.assertFalse(xml.contains("<item>3</item>"));
+
+	        // the result has been released after the last page
+	        try {
+	            xmlrpc.execute( "retrieveNext", params );
+	            Assert.fail("result set should have been released");
+	        } catch (XmlRpcException e) {
+	            // expected
+	        }
+	    } catch (Exception e) {
+	    	Assert.fail(e.getMessage());
+	    }
+	}
+
 	@Test
 	public void testQueryModuleExternalVar() {
         System.out.println("---testQueryModuleExternalVar");
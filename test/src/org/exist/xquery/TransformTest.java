@@ -54,8 +54,65 @@ public class TransformTest extends TestCase {
 			fail(e.getMessage());
 		}
     }
-    
-    
+
+
+    /**
+     * Transforms a stored document with and without expanding XIncludes.
+     */
+    public void testTransformStoredDocument() {
+		try {
+			addXMLDocument(testCollection,
+				"<items xmlns:x='http://exist-db.org/test'><x:item n='1'>a</x:item><!-- c --><x:item n='2'>b<i>c</i></x:item></items>",
+				"items.xml");
+			final String xsl =
+				"<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:x='http://exist-db.org/test' exclude-result-prefixes='x' version='1.0'>" +
+				"<xsl:template match='/'><out><xsl:apply-templates select='items/x:item'/></out></xsl:template>" +
+				"<xsl:template match='x:item'><v n='{{@n}}' parent='{{local-name(..)}}'><xsl:value-of select='.'/></v></xsl:template>" +
+				"</xsl:stylesheet>";
+			final String[] results = new String[2];
+			final String[] expand = { "yes", "no" };
+			for (int i = 0; i < expand.length; i++) {
+				final String query =
+					"import module namespace transform='http://exist-db.org/xquery/transform';\n" +
+					"transform:transform(doc('/db/" + TEST_COLLECTION_NAME + "/items.xml'), " + xsl + ", (), (), " +
+					"'expand-xincludes=" + expand[i] + "')";
+				results[i] = execQuery(query);
+			}
+			assertEquals(results[0], results[1]);
+			assertTrue(results[1].contains("<v parent=\"items\" n=\"2\">bc</v>"));
+		} catch (XMLDBException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+    }
+
+    /**
+     * Transforms a stored element, which becomes the root of the input tree:
+     * the stylesheet must not see its document.
+     */
+    public void testTransformStoredElement() {
+		try {
+			addXMLDocument(testCollection,
+				"<items xmlns:x='http://exist-db.org/test'><x:item n='1'>a</x:item><x:item n='2'>b<i>c</i></x:item></items>",
+				"elements.xml");
+			final String xsl =
+				"<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:x='http://exist-db.org/test' exclude-result-prefixes='x' version='1.0'>" +
+				"<xsl:template match='/'><out root='{{local-name(*)}}' items='{{count(//x:item)}}'><xsl:value-of select='*'/></out></xsl:template>" +
+				"</xsl:stylesheet>";
+			final String query =
+				"import module namespace transform='http://exist-db.org/xquery/transform';\n" +
+				"declare namespace x='http://exist-db.org/test';\n" +
+				"transform:transform(doc('/db/" + TEST_COLLECTION_NAME + "/elements.xml')/items/x:item[2], " + xsl + ", ())";
+			final String result = execQuery(query);
+			assertTrue(result, result.contains("root=\"item\""));
+			assertTrue(result, result.contains("items=\"1\""));
+			assertTrue(result, result.contains(">bc</out>"));
+		} catch (XMLDBException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+    }
+
     private String execQuery(String query) throws XMLDBException {
     	XQueryService service = (XQueryService) testCollection.getService("XQueryService", "1.0");
         service.setProperty("indent", "no");
@@ -0,0 +1,136 @@
+package org.exist.xquery.value;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.Collator;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AtomicValueKeyTest {
+
+    @Test
+    public void numericPromotion() throws XPathException {
+        final AtomicValueKey integer = new AtomicValueKey(new IntegerValue(1), null);
+        final AtomicValueKey decimal = new AtomicValueKey(new DecimalValue(new BigDecimal("1.0")), null);
+        final AtomicValueKey dbl = new AtomicValueKey(new DoubleValue(1.0), null);
+        assertEquals(integer, decimal);
+        assertEquals(integer.hashCode(), decimal.hashCode());
+        assertEquals(decimal, dbl);
+        assertEquals(decimal.hashCode(), dbl.hashCode());
+        assertFalse(integer.equals(new AtomicValueKey(new IntegerValue(2), null)));
+    }
+
+    @Test
+    public void largeIntegersDoNotCollide() throws XPathException {
+        final Set<Integer> hashes = new HashSet<Integer>();
+        final Set<AtomicValueKey> keys = new HashSet<AtomicValueKey>();
+        for (long i = 0; i < 100; i++) {
+            final AtomicValueKey key = new AtomicValueKey(new IntegerValue(1000000000000000000L + i), null);
+            keys.add(key);
+            hashes.add(key.hashCode());
+        }
+        assertEquals(100, keys.size());
+        assertEquals(100, hashes.size());
+
+        final AtomicValueKey big1 = new AtomicValueKey(new IntegerValue(new BigInteger("123456789012345678901234567890"), Type.INTEGER), null);
+        final AtomicValueKey big2 = new AtomicValueKey(new IntegerValue(new BigInteger("123456789012345678901234567891"), Type.INTEGER), null);
+        assertFalse(big1.equals(big2));
+        assertFalse(big1.hashCode() == big2.hashCode());
+
+        final AtomicValueKey dec1 = new AtomicValueKey(new DecimalValue(new BigDecimal("10000000000000001.5")), null);
+        final AtomicValueKey dec2 = new AtomicValueKey(new DecimalValue(new BigDecimal("10000000000000002.5")), null);
+        assertFalse(dec1.equals(dec2));
+    }
+
+    @Test
+    public void integralValuesAcrossTypes() throws XPathException {
+        final AtomicValueKey integer = new AtomicValueKey(new IntegerValue(10000000000L), null);
+        final AtomicValueKey decimal = new AtomicValueKey(new DecimalValue(new BigDecimal("10000000000.000")), null);
+        final AtomicValueKey flt = new AtomicValueKey(new FloatValue(1.0E10f), null);
+        final AtomicValueKey dbl = new AtomicValueKey(new DoubleValue(1.0E10), null);
+        assertEquals(integer, decimal);
+        assertEquals(integer.hashCode(), decimal.hashCode());
+        assertEquals(integer, flt);
+        assertEquals(integer.hashCode(), flt.hashCode());
+        assertEquals(integer, dbl);
+        assertEquals(integer.hashCode(), dbl.hashCode());
+
+        final AtomicValueKey half = new AtomicValueKey(new DecimalValue(new BigDecimal("0.5")), null);
+        assertEquals(half, new AtomicValueKey(new DoubleValue(0.5), null));
+        assertEquals(half.hashCode(), new AtomicValueKey(new FloatValue(0.5f), null).hashCode());
+    }
+
+    @Test
+    public void decimalAndDouble() throws XPathException {
+        final AtomicValueKey decimal = new AtomicValueKey(new DecimalValue(new BigDecimal("0.1")), null);
+        final AtomicValueKey dbl = new AtomicValueKey(new DoubleValue(0.1), null);
+        final AtomicValueKey flt = new AtomicValueKey(new FloatValue(0.1f), null);
+        // 0.1 eq 0.1e0 after promotion to xs:double
+        assertEquals(decimal, dbl);
+        assertEquals(decimal.hashCode(), dbl.hashCode());
+        // and to xs:float
+        assertEquals(decimal, flt);
+        assertEquals(decimal.hashCode(), flt.hashCode());
+        // but the float promoted to a double is not 0.1e0
+        assertFalse(dbl.equals(flt));
+
+        final Set<AtomicValueKey> set = new HashSet<AtomicValueKey>();
+        assertTrue(set.add(decimal));
+        assertFalse(set.add(dbl));
+        assertTrue(set.add(new AtomicValueKey(new DecimalValue(new BigDecimal("0.2")), null)));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void nanEqualsNaN() throws XPathException {
+        final AtomicValueKey nan1 = new AtomicValueKey(new DoubleValue(Double.NaN), null);
+        final AtomicValueKey nan2 = new AtomicValueKey(new FloatValue(Float.NaN), null);
+        assertEquals(nan1, nan2);
+        assertEquals(nan1.hashCode(), nan2.hashCode());
+    }
+
+    @Test
+    public void untypedAtomicAsString() throws XPathException {
+        final AtomicValueKey untyped = new AtomicValueKey(new UntypedAtomicValue("abc"), null);
+        final AtomicValueKey string = new AtomicValueKey(new StringValue("abc"), null);
+        assertEquals(untyped, string);
+        assertEquals(untyped.hashCode(), string.hashCode());
+    }
+
+    @Test
+    public void incomparableValuesAreDistinct() throws XPathException {
+        final Set<AtomicValueKey> set = new HashSet<AtomicValueKey>();
+        assertTrue(set.add(new AtomicValueKey(new StringValue("1"), null)));
+        assertTrue(set.add(new AtomicValueKey(new IntegerValue(1), null)));
+        assertFalse(set.add(new AtomicValueKey(new DoubleValue(1.0), null)));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void collation() throws XPathException {
+        final Collator collator = Collator.getInstance(Locale.ENGLISH);
+        collator.setStrength(Collator.PRIMARY);
+        final AtomicValueKey lower = new AtomicValueKey(new StringValue("abc"), collator);
+        final AtomicValueKey upper = new AtomicValueKey(new StringValue("ABC"), collator);
+        assertEquals(lower, upper);
+        assertEquals(lower.hashCode(), upper.hashCode());
+        assertFalse(new AtomicValueKey(new StringValue("abc"), null).equals(
+            new AtomicValueKey(new StringValue("ABC"), null)));
+    }
+
+    @Test
+    public void durations() throws XPathException {
+        final AtomicValueKey day = new AtomicValueKey(new DayTimeDurationValue("P1D"), null);
+        final AtomicValueKey hours = new AtomicValueKey(new DayTimeDurationValue("PT24H"), null);
+        assertEquals(day, hours);
+        assertEquals(day.hashCode(), hours.hashCode());
+    }
+}
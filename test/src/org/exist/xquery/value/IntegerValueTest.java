@@ -0,0 +1,72 @@
+package org.exist.xquery.value;
+
+import java.math.BigInteger;
+
+import org.exist.xquery.Constants;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IntegerValueTest {
+
+    private static final IntegerValue MAX = new IntegerValue(Long.MAX_VALUE);
+    private static final IntegerValue MIN = new IntegerValue(Long.MIN_VALUE);
+    private static final IntegerValue ONE = new IntegerValue(1);
+
+    @Test
+    public void overflowToBigInteger() throws XPathException {
+        assertEquals("9223372036854775808", MAX.plus(ONE).getStringValue());
+        assertEquals("-9223372036854775809", MIN.minus(ONE).getStringValue());
+        assertEquals("18446744073709551614", MAX.mult(new IntegerValue(2)).getStringValue());
+        assertEquals("9223372036854775808", MIN.negate().getStringValue());
+        assertEquals("9223372036854775808", MIN.abs().getStringValue());
+        assertEquals("9223372036854775808", MIN.idiv(new IntegerValue(-1)).getStringValue());
+    }
+
+    @Test
+    public void backToLong() throws XPathException {
+        final IntegerValue big = (IntegerValue) MAX.plus(ONE);
+        assertFalse(big.isLong());
+        final IntegerValue small = (IntegerValue) big.minus(ONE);
+        assertTrue(small.isLong());
+        assertEquals(Long.MAX_VALUE, small.getLong());
+        assertTrue(new IntegerValue(new BigInteger("-42")).isLong());
+        assertTrue(new IntegerValue("123").isLong());
+        assertFalse(new IntegerValue("123456789012345678901234567890").isLong());
+    }
+
+    @Test
+    public void divisionAndRemainder() throws XPathException {
+        assertEquals(-3, new IntegerValue(7).idiv(new IntegerValue(-2)).getLong());
+        assertEquals(-1, ((IntegerValue) new IntegerValue(-7).mod(new IntegerValue(3))).getLong());
+        assertEquals(1, ((IntegerValue) new IntegerValue(7).mod(new IntegerValue(-3))).getLong());
+        assertEquals("3.5", new IntegerValue(7).div(new IntegerValue(2)).getStringValue());
+    }
+
+    @Test
+    public void exactComparison() throws XPathException {
+        final IntegerValue a = new IntegerValue(Long.MAX_VALUE - 1);
+        assertFalse(MAX.compareTo(null, Constants.EQ, a));
+        assertTrue(MAX.compareTo(null, Constants.GT, a));
+        assertEquals(Constants.SUPERIOR, MAX.compareTo(null, a));
+        assertTrue(new IntegerValue(2).compareTo(null, Constants.EQ, new DoubleValue(2.0)));
+    }
+
+    @Test
+    public void keepsSubtype() throws XPathException {
+        final IntegerValue i = new IntegerValue(5, Type.INT);
+        assertEquals(Type.INT, i.plus(new IntegerValue(6)).getType());
+        assertEquals(Type.INT, i.mod(new IntegerValue(3)).getType());
+    }
+
+    @Test
+    public void cachedValues() {
+        assertSame(IntegerValue.valueOf(42), IntegerValue.valueOf(42));
+        assertEquals(100000, IntegerValue.valueOf(100000).getValue());
+        assertEquals(Type.INTEGER, IntegerValue.valueOf(-1).getType());
+    }
+}
@@ -0,0 +1,85 @@
+package org.exist.xslt;
+
+import org.junit.Test;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TemplatesCacheTest {
+
+    private final static String STYLESHEET =
+        "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'/>";
+
+    private static class CountingCompiler implements TemplatesCache.Compiler<TransformerConfigurationException> {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Templates compile() throws TransformerConfigurationException {
+            count.incrementAndGet();
+            return TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+        }
+    }
+
+    @Test
+    public void recompilesModifiedStylesheets() throws Exception {
+        final TemplatesCache cache = new TemplatesCache(10, true);
+        final CountingCompiler compiler = new CountingCompiler();
+        final Templates t1 = cache.getTemplates("/db/test.xsl", 1000, compiler);
+        assertSame(t1, cache.getTemplates("/db/test.xsl", 1000, compiler));
+        assertEquals(1, compiler.count.get());
+
+        final Templates t2 = cache.getTemplates("/db/test.xsl", 2000, compiler);
+        assertNotSame(t1, t2);
+        assertEquals(2, compiler.count.get());
+
+        // an unknown modification time always requires compilation
+        cache.getTemplates("http://localhost/test.xsl", 0, compiler);
+        cache.getTemplates("http://localhost/test.xsl", 0, compiler);
+        assertEquals(4, compiler.count.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void invalidatesStylesheets() throws Exception {
+        final TemplatesCache cache = new TemplatesCache(10, true);
+        final CountingCompiler compiler = new CountingCompiler();
+        cache.getTemplates("/db/test.xsl", 1000, compiler);
+        cache.invalidate("/db/test.xsl");
+        cache.getTemplates("/db/test.xsl", 1000, compiler);
+        assertEquals(2, compiler.count.get());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final TemplatesCache cache = new TemplatesCache(10, true);
+        final CountingCompiler compiler = new CountingCompiler();
+        for (int i = 0; i < 20; i++) {
+            cache.getTemplates("/db/test" + i + ".xsl", 1000, compiler);
+            Thread.sleep(2);
+        }
+        assertTrue(cache.getSize() <= 10);
+        assertTrue(cache.getEvictions() >= 10);
+    }
+
+    @Test
+    public void disabledCacheAlwaysCompiles() throws Exception {
+        final TemplatesCache cache = new TemplatesCache(10, false);
+        final CountingCompiler compiler = new CountingCompiler();
+        cache.getTemplates("/db/test.xsl", 1000, compiler);
+        cache.getTemplates("/db/test.xsl", 1000, compiler);
+        assertEquals(2, compiler.count.get());
+        assertEquals(0, cache.getSize());
+    }
+}